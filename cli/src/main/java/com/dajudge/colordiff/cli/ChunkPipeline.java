@@ -0,0 +1,94 @@
+package com.dajudge.colordiff.cli;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Processes input in chunks on an executor while preserving the input order.
+ * <p>
+ * At most <code>maxInFlight</code> chunks are read ahead of the sink, which bounds the memory use independently
+ * of the input size.
+ */
+class ChunkPipeline {
+    interface Source<T> {
+        /**
+         * @return the next chunk; empty at the end of the input
+         * @throws IOException if reading fails
+         */
+        List<T> next() throws IOException;
+    }
+
+    interface Sink<R> {
+        void accept(R result) throws IOException;
+    }
+
+    private final ExecutorService executor;
+    private final int maxInFlight;
+
+    ChunkPipeline(final ExecutorService executor, final int maxInFlight) {
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Runs the pipeline to the end of the input.
+     *
+     * @param source the chunk source
+     * @param work   the work to run on the executor for every chunk
+     * @param sink   receives the results in input order on the calling thread
+     * @return the number of processed chunks
+     * @throws IOException if reading or writing fails
+     */
+    <T, R> long run(final Source<T> source, final Function<List<T>, R> work, final Sink<R> sink) throws IOException {
+        final Deque<Future<R>> inFlight = new ArrayDeque<>();
+        long chunks = 0;
+        try {
+            List<T> chunk;
+            while (!(chunk = source.next()).isEmpty()) {
+                if (inFlight.size() >= maxInFlight) {
+                    sink.accept(await(inFlight.poll()));
+                }
+                final List<T> input = chunk;
+                inFlight.add(executor.submit(() -> work.apply(input)));
+                chunks++;
+            }
+            while (!inFlight.isEmpty()) {
+                sink.accept(await(inFlight.poll()));
+            }
+            return chunks;
+        } finally {
+            for (final Future<R> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static <R> R await(final Future<R> future) throws IOException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.dajudge.colordiff.cli;
+
+import com.dajudge.colordiff.HexColors;
+import com.dajudge.colordiff.RgbColor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * Supported color file formats.
+ * <ul>
+ * <li><code>hex</code>: one color per line as <code>#RRGGBB</code> or <code>#RRGGBBAA</code></li>
+ * <li><code>csv</code>: one color per line as <code>R,G,B</code> or <code>R,G,B,A</code> with A in the range 0-1</li>
+ * <li><code>bin</code>: 4-byte big-endian ARGB values; an alpha of 255 denotes an opaque color, and input ending
+ * within a value is rejected</li>
+ * </ul>
+ * Blank lines and lines starting with <code>//</code> are skipped in the text formats.
+ */
+enum ColorFormat {
+    HEX {
+        @Override
+        Reader reader(final InputStream in) {
+            return lineReader(in, HexColors::parse);
+        }
+
+        @Override
+        Writer writer(final OutputStream out) {
+            return lineWriter(out, HexColors::format);
+        }
+    },
+    CSV {
+        @Override
+        Reader reader(final InputStream in) {
+            return lineReader(in, ColorFormat::parseCsv);
+        }
+
+        @Override
+        Writer writer(final OutputStream out) {
+            return lineWriter(out, ColorFormat::formatCsv);
+        }
+    },
+    BIN {
+        @Override
+        Reader reader(final InputStream in) {
+            final DataInputStream data = new DataInputStream(in);
+            return max -> {
+                final List<RgbColor> colors = new ArrayList<>(Math.min(max, 1 << 16));
+                while (colors.size() < max) {
+                    // The input may only end between records
+                    final int alpha = data.read();
+                    if (alpha < 0) {
+                        break;
+                    }
+                    final int r;
+                    final int g;
+                    final int b;
+                    try {
+                        r = data.readUnsignedByte();
+                        g = data.readUnsignedByte();
+                        b = data.readUnsignedByte();
+                    } catch (final EOFException e) {
+                        throw new IOException("Truncated record", e);
+                    }
+                    colors.add(alpha == 0xFF ? new RgbColor(r, g, b) : new RgbColor(r, g, b, alpha / 255.0));
+                }
+                return colors;
+            };
+        }
+
+        @Override
+        Writer writer(final OutputStream out) {
+            final DataOutputStream data = new DataOutputStream(out);
+            return new Writer() {
+                @Override
+                public void write(final RgbColor c) throws IOException {
+                    final int alpha = c.a == null ? 0xFF : channel(c.a * 255);
+                    data.writeInt(alpha << 24 | channel(c.r) << 16 | channel(c.g) << 8 | channel(c.b));
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    data.flush();
+                }
+            };
+        }
+    };
+
+    interface Reader {
+        /**
+         * Reads up to max colors.
+         *
+         * @param max the maximum number of colors to read
+         * @return the colors read; empty at the end of the input
+         * @throws IOException if reading fails
+         */
+        List<RgbColor> read(int max) throws IOException;
+    }
+
+    interface Writer {
+        void write(RgbColor c) throws IOException;
+
+        void flush() throws IOException;
+    }
+
+    abstract Reader reader(InputStream in);
+
+    abstract Writer writer(OutputStream out);
+
+    List<RgbColor> readAll(final InputStream in) throws IOException {
+        return reader(in).read(Integer.MAX_VALUE);
+    }
+
+    static ColorFormat parse(final String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown format: " + name, e);
+        }
+    }
+
+    static ColorFormat forFile(final String file) {
+        final String lower = file.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".csv")) {
+            return CSV;
+        }
+        if (lower.endsWith(".bin")) {
+            return BIN;
+        }
+        return HEX;
+    }
+
+    private static Reader lineReader(final InputStream in, final Function<String, RgbColor> parser) {
+        final BufferedReader lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        return max -> {
+            final List<RgbColor> colors = new ArrayList<>(Math.min(max, 1 << 16));
+            String line;
+            while (colors.size() < max && (line = lines.readLine()) != null) {
+                final String trimmed = line.trim();
+                if (!trimmed.isEmpty() && !trimmed.startsWith("//")) {
+                    colors.add(parser.apply(trimmed));
+                }
+            }
+            return colors;
+        };
+    }
+
+    private static Writer lineWriter(final OutputStream out, final Function<RgbColor, String> formatter) {
+        // Unlike a PrintStream, the writer reports failed writes
+        final BufferedWriter lines = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        return new Writer() {
+            @Override
+            public void write(final RgbColor c) throws IOException {
+                lines.write(formatter.apply(c));
+                lines.write('\n');
+            }
+
+            @Override
+            public void flush() throws IOException {
+                lines.flush();
+            }
+        };
+    }
+
+    private static RgbColor parseCsv(final String line) {
+        final String[] fields = line.split("\\s*,\\s*");
+        if (fields.length != 3 && fields.length != 4) {
+            throw new IllegalArgumentException("Not a CSV color: " + line);
+        }
+        try {
+            final double r = Double.parseDouble(fields[0]);
+            final double g = Double.parseDouble(fields[1]);
+            final double b = Double.parseDouble(fields[2]);
+            return fields.length == 3 ? new RgbColor(r, g, b) : new RgbColor(r, g, b, Double.parseDouble(fields[3]));
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("Not a CSV color: " + line, e);
+        }
+    }
+
+    private static String formatCsv(final RgbColor c) {
+        final String rgb = number(c.r) + "," + number(c.g) + "," + number(c.b);
+        return c.a == null ? rgb : rgb + "," + number(c.a);
+    }
+
+    private static String number(final double v) {
+        return v == Math.rint(v) && Math.abs(v) < 1e15 ? Long.toString((long) v) : Double.toString(v);
+    }
+
+    private static int channel(final double v) {
+        return (int) Math.max(0, Math.min(255, Math.round(v)));
+    }
+}
@@ -0,0 +1,470 @@
+package com.dajudge.colordiff.cli;
+
+import com.dajudge.colordiff.Convert;
+import com.dajudge.colordiff.Diff;
+import com.dajudge.colordiff.HexColors;
+import com.dajudge.colordiff.LabColor;
+import com.dajudge.colordiff.Palette;
+import com.dajudge.colordiff.PreparedPalette;
+import com.dajudge.colordiff.RgbColor;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Command line batch tool.
+ * <p>
+ * Usage: <code>color-diff &lt;map|knn|dedupe|matrix&gt; [options]</code>, see {@link #USAGE}.
+ */
+public class Main {
+    static final String USAGE = String.join("\n",
+            "Usage: color-diff <command> [options]",
+            "",
+            "Commands:",
+            "  map       map each input color to the closest (or furthest) palette color",
+            "  knn       list the k closest palette colors for each input color",
+            "  dedupe    drop input colors within a CIEDE2000 threshold of an earlier color",
+            "  matrix    print the CIEDE2000 distance of each input color to each palette color",
+            "",
+            "Options:",
+            "  --palette FILE          palette file (map, knn, matrix)",
+            "  --palette-format FMT    hex, csv or bin (default: from file extension)",
+            "  --input FILE            input file (default: stdin)",
+            "  --input-format FMT      hex, csv or bin (default: from file extension, hex for stdin)",
+            "  --output FILE           output file (default: stdout)",
+            "  --output-format FMT     hex, csv or bin (default: input format; map and dedupe only)",
+            "  --bc COLOR              background color for colors with alpha (default: #ffffff)",
+            "  --furthest              map to the furthest instead of the closest color",
+            "  --k N                   number of colors for knn (default: 3)",
+            "  --threshold DE          CIEDE2000 threshold for dedupe (default: 0, exact duplicates)",
+            "  --threads N             number of worker threads (default: number of processors)",
+            "  --chunk-size N          number of colors per chunk (default: 4096)",
+            ""
+    );
+
+    public static void main(final String[] args) {
+        System.exit(run(args, System.in, System.out, System.err));
+    }
+
+    /**
+     * Runs the tool.
+     *
+     * @param args   command line arguments
+     * @param stdin  used if no input file is given
+     * @param stdout used if no output file is given
+     * @param stderr receives errors and throughput statistics
+     * @return the exit code
+     */
+    static int run(final String[] args, final InputStream stdin, final PrintStream stdout, final PrintStream stderr) {
+        final Options options;
+        try {
+            options = Options.parse(args);
+        } catch (final IllegalArgumentException e) {
+            stderr.println(e.getMessage());
+            stderr.println();
+            stderr.print(USAGE);
+            return 2;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(options.threads);
+        try (
+                final InputStream in = options.input == null ? new NonClosingInputStream(stdin) : new FileInputStream(options.input);
+                final OutputStream out = options.output == null ? new NonClosingOutputStream(stdout) : new BufferedOutputStream(new FileOutputStream(options.output))
+        ) {
+            final long start = System.nanoTime();
+            final ColorFormat.Reader reader = options.inputFormat.reader(in);
+            final long[] count = {0};
+            final ChunkPipeline.Source<RgbColor> source = () -> {
+                final List<RgbColor> chunk = reader.read(options.chunkSize);
+                count[0] += chunk.size();
+                return chunk;
+            };
+            final ChunkPipeline pipeline = new ChunkPipeline(executor, options.threads * 2);
+            final long chunks;
+            switch (options.command) {
+                case "map":
+                    chunks = map(options, pipeline, source, out);
+                    break;
+                case "knn":
+                    chunks = knn(options, pipeline, source, out);
+                    break;
+                case "dedupe":
+                    chunks = dedupe(options, pipeline, source, out);
+                    break;
+                case "matrix":
+                    chunks = matrix(options, pipeline, source, out);
+                    break;
+                default:
+                    throw new IllegalStateException(options.command);
+            }
+            out.flush();
+            // The standard output is a PrintStream, which does not throw on failed writes
+            if (options.output == null && stdout.checkError()) {
+                throw new IOException("Writing to standard output failed");
+            }
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            stderr.printf(Locale.ROOT, "%s: %d colors in %d chunks, %.3fs, %.0f colors/s, %d threads%n",
+                    options.command, count[0], chunks, seconds, count[0] / seconds, options.threads);
+            return 0;
+        } catch (final IOException | RuntimeException e) {
+            stderr.println("color-diff: " + e.getMessage());
+            return 1;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static long map(
+            final Options options,
+            final ChunkPipeline pipeline,
+            final ChunkPipeline.Source<RgbColor> source,
+            final OutputStream out
+    ) throws IOException {
+        final PreparedPalette palette = options.palette();
+        final ColorFormat.Writer writer = options.outputFormat.writer(out);
+        final long chunks = pipeline.run(source, chunk -> {
+            final List<RgbColor> result = new ArrayList<>(chunk.size());
+            for (final RgbColor color : chunk) {
+                result.add(options.furthest ? palette.furthest(color) : palette.closest(color));
+            }
+            return result;
+        }, result -> {
+            for (final RgbColor color : result) {
+                writer.write(color);
+            }
+        });
+        writer.flush();
+        return chunks;
+    }
+
+    private static long knn(
+            final Options options,
+            final ChunkPipeline pipeline,
+            final ChunkPipeline.Source<RgbColor> source,
+            final OutputStream out
+    ) throws IOException {
+        final PreparedPalette palette = options.palette();
+        final Writer text = text(out);
+        final long chunks = pipeline.run(source, lines(chunk -> {
+            final List<String> result = new ArrayList<>(chunk.size());
+            for (final RgbColor color : chunk) {
+                final StringBuilder line = new StringBuilder();
+                for (final int index : palette.nearest(palette.toLab(color), options.k)) {
+                    line.append(line.length() == 0 ? "" : " ").append(HexColors.format(palette.color(index)));
+                }
+                result.add(line.toString());
+            }
+            return result;
+        }), text::write);
+        text.flush();
+        return chunks;
+    }
+
+    private static long matrix(
+            final Options options,
+            final ChunkPipeline pipeline,
+            final ChunkPipeline.Source<RgbColor> source,
+            final OutputStream out
+    ) throws IOException {
+        final PreparedPalette palette = options.palette();
+        final Writer text = text(out);
+        final StringBuilder header = new StringBuilder("color");
+        for (final RgbColor color : palette.colors()) {
+            header.append(',').append(HexColors.format(color));
+        }
+        text.write(header.append('\n').toString());
+        final long chunks = pipeline.run(source, lines(chunk -> {
+            final List<String> result = new ArrayList<>(chunk.size());
+            for (final RgbColor color : chunk) {
+                final LabColor lab = palette.toLab(color);
+                final StringBuilder line = new StringBuilder(HexColors.format(color));
+                for (int i = 0; i < palette.size(); i++) {
+                    line.append(String.format(Locale.ROOT, ",%.4f", Diff.ciede2000(lab, palette.lab(i))));
+                }
+                result.add(line.toString());
+            }
+            return result;
+        }), text::write);
+        text.flush();
+        return chunks;
+    }
+
+    private static long dedupe(
+            final Options options,
+            final ChunkPipeline pipeline,
+            final ChunkPipeline.Source<RgbColor> source,
+            final OutputStream out
+    ) throws IOException {
+        final ColorFormat.Writer writer = options.outputFormat.writer(out);
+        final long chunks;
+        if (options.threshold <= 0) {
+            final Set<String> seen = new HashSet<>();
+            chunks = pipeline.run(source, chunk -> chunk, chunk -> {
+                for (final RgbColor color : chunk) {
+                    if (seen.add(Palette.palette_map_key(color))) {
+                        writer.write(color);
+                    }
+                }
+            });
+        } else {
+            final KeptColors kept = new KeptColors();
+            chunks = pipeline.run(source, chunk -> {
+                // Parallel phase: compare against the colors kept when the chunk is processed
+                final int known = kept.size();
+                final List<RgbColor> survivors = new ArrayList<>();
+                final List<LabColor> survivorsLab = new ArrayList<>();
+                for (final RgbColor color : chunk) {
+                    final LabColor lab = options.toLab(color);
+                    if (!kept.contains(lab, 0, known, options.threshold)) {
+                        survivors.add(color);
+                        survivorsLab.add(lab);
+                    }
+                }
+                return new Survivors(known, survivors, survivorsLab);
+            }, survivors -> {
+                // Sequential phase: compare against the colors kept since, including earlier ones of this chunk
+                for (int i = 0; i < survivors.colors.size(); i++) {
+                    final LabColor lab = survivors.lab.get(i);
+                    if (!kept.contains(lab, survivors.known, kept.size(), options.threshold)) {
+                        kept.add(lab);
+                        writer.write(survivors.colors.get(i));
+                    }
+                }
+            });
+        }
+        writer.flush();
+        return chunks;
+    }
+
+    private static Function<List<RgbColor>, String> lines(final Function<List<RgbColor>, List<String>> work) {
+        return chunk -> {
+            final StringBuilder builder = new StringBuilder();
+            for (final String line : work.apply(chunk)) {
+                builder.append(line).append('\n');
+            }
+            return builder.toString();
+        };
+    }
+
+    private static Writer text(final OutputStream out) {
+        // Unlike a PrintStream, the writer reports failed writes
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    private static class NonClosingInputStream extends FilterInputStream {
+        private NonClosingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+            // The standard streams stay open
+        }
+    }
+
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        private NonClosingOutputStream(final OutputStream out) {
+            super(new BufferedOutputStream(out));
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            // The standard streams stay open
+            flush();
+        }
+    }
+
+    private static class Survivors {
+        private final int known;
+        private final List<RgbColor> colors;
+        private final List<LabColor> lab;
+
+        private Survivors(final int known, final List<RgbColor> colors, final List<LabColor> lab) {
+            this.known = known;
+            this.colors = colors;
+            this.lab = lab;
+        }
+    }
+
+    /**
+     * Append-only list of kept colors. Appended to by the sink thread only; workers read published prefixes.
+     */
+    private static class KeptColors {
+        private volatile LabColor[] colors = new LabColor[64];
+        private volatile int size;
+
+        int size() {
+            return size;
+        }
+
+        boolean contains(final LabColor lab, final int from, final int to, final double threshold) {
+            final LabColor[] snapshot = colors;
+            for (int i = from; i < to; i++) {
+                if (Diff.ciede2000(lab, snapshot[i]) <= threshold) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void add(final LabColor lab) {
+            LabColor[] current = colors;
+            if (size == current.length) {
+                final LabColor[] grown = new LabColor[current.length * 2];
+                System.arraycopy(current, 0, grown, 0, current.length);
+                colors = current = grown;
+            }
+            current[size] = lab;
+            size = size + 1;
+        }
+    }
+
+    private static class Options {
+        private String command;
+        private String palette;
+        private ColorFormat paletteFormat;
+        private String input;
+        private ColorFormat inputFormat;
+        private String output;
+        private ColorFormat outputFormat;
+        private RgbColor bc = new RgbColor(255, 255, 255);
+        private boolean furthest;
+        private int k = 3;
+        private double threshold;
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private int chunkSize = 4096;
+
+        static Options parse(final String[] args) {
+            if (args.length == 0) {
+                throw new IllegalArgumentException("Missing command");
+            }
+            final Options options = new Options();
+            options.command = args[0];
+            final Map<String, String> values = new HashMap<>();
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("--furthest")) {
+                    options.furthest = true;
+                } else if (args[i].startsWith("--") && i + 1 < args.length) {
+                    values.put(args[i], args[++i]);
+                } else {
+                    throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+                }
+            }
+            for (final Map.Entry<String, String> e : values.entrySet()) {
+                final String value = e.getValue();
+                switch (e.getKey()) {
+                    case "--palette":
+                        options.palette = value;
+                        break;
+                    case "--palette-format":
+                        options.paletteFormat = ColorFormat.parse(value);
+                        break;
+                    case "--input":
+                        options.input = value;
+                        break;
+                    case "--input-format":
+                        options.inputFormat = ColorFormat.parse(value);
+                        break;
+                    case "--output":
+                        options.output = value;
+                        break;
+                    case "--output-format":
+                        options.outputFormat = ColorFormat.parse(value);
+                        break;
+                    case "--bc":
+                        options.bc = HexColors.parse(value);
+                        break;
+                    case "--k":
+                        options.k = positive(e.getKey(), value);
+                        break;
+                    case "--threshold":
+                        options.threshold = Double.parseDouble(value);
+                        break;
+                    case "--threads":
+                        options.threads = positive(e.getKey(), value);
+                        break;
+                    case "--chunk-size":
+                        options.chunkSize = positive(e.getKey(), value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + e.getKey());
+                }
+            }
+            switch (options.command) {
+                case "map":
+                case "knn":
+                case "matrix":
+                    if (options.palette == null) {
+                        throw new IllegalArgumentException("Missing --palette for " + options.command);
+                    }
+                    break;
+                case "dedupe":
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown command: " + options.command);
+            }
+            if (options.paletteFormat == null && options.palette != null) {
+                options.paletteFormat = ColorFormat.forFile(options.palette);
+            }
+            if (options.inputFormat == null) {
+                options.inputFormat = options.input == null ? ColorFormat.HEX : ColorFormat.forFile(options.input);
+            }
+            if (options.outputFormat == null) {
+                options.outputFormat = options.inputFormat;
+            }
+            return options;
+        }
+
+        PreparedPalette palette() throws IOException {
+            try (final InputStream in = new FileInputStream(palette)) {
+                final List<RgbColor> colors = paletteFormat.readAll(in);
+                if (colors.isEmpty()) {
+                    throw new IllegalArgumentException("Palette is empty: " + palette);
+                }
+                return new PreparedPalette(colors, bc);
+            }
+        }
+
+        LabColor toLab(final RgbColor c) {
+            return c.a == null ? Convert.rgb_to_lab(c) : Convert.rgba_to_lab(c, bc);
+        }
+
+        private static int positive(final String name, final String value) {
+            final int n;
+            try {
+                n = Integer.parseInt(value);
+            } catch (final NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number for " + name + ": " + value, e);
+            }
+            if (n < 1) {
+                throw new IllegalArgumentException("Must be positive for " + name + ": " + value);
+            }
+            return n;
+        }
+    }
+}
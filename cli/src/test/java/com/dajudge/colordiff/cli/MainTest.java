@@ -0,0 +1,244 @@
+package com.dajudge.colordiff.cli;
+
+import com.dajudge.colordiff.ColorDiff;
+import com.dajudge.colordiff.Convert;
+import com.dajudge.colordiff.Diff;
+import com.dajudge.colordiff.HexColors;
+import com.dajudge.colordiff.RgbColor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link Main}.
+ */
+class MainTest {
+    private static final List<RgbColor> palette = asList(
+            new RgbColor(255, 0, 0),
+            new RgbColor(0, 255, 0),
+            new RgbColor(0, 0, 255),
+            new RgbColor(255, 255, 255),
+            new RgbColor(0, 0, 0)
+    );
+
+    private File dir;
+    private File paletteFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("color-diff-cli").toFile();
+        paletteFile = new File(dir, "palette.hex");
+        Files.write(paletteFile.toPath(), hex(palette).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    void tearDown() {
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void map_should_match_color_diff_across_chunks() {
+        final List<RgbColor> input = random(1000);
+        final StringBuilder expected = new StringBuilder();
+        for (final RgbColor color : input) {
+            expected.append(HexColors.format(ColorDiff.closest(color, palette))).append('\n');
+        }
+        final Result result = run(hex(input), "map", "--palette", paletteFile.getPath(), "--threads", "3", "--chunk-size", "7");
+        assertEquals(0, result.exitCode);
+        assertEquals(expected.toString(), result.stdout);
+        assertTrue(result.stderr.startsWith("map: 1000 colors in 143 chunks"));
+    }
+
+    @Test
+    public void map_should_support_furthest_and_csv_output() {
+        final List<RgbColor> input = random(20);
+        final StringBuilder expected = new StringBuilder();
+        for (final RgbColor color : input) {
+            final RgbColor match = ColorDiff.furthest(color, palette);
+            expected.append(String.format(Locale.ROOT, "%d,%d,%d\n", (int) match.r, (int) match.g, (int) match.b));
+        }
+        final Result result = run(hex(input), "map", "--palette", paletteFile.getPath(), "--furthest", "--output-format", "csv");
+        assertEquals(expected.toString(), result.stdout);
+    }
+
+    @Test
+    public void map_should_read_and_write_binary_files() throws IOException {
+        final File input = new File(dir, "input.bin");
+        final File output = new File(dir, "output.bin");
+        try (final DataOutputStream out = new DataOutputStream(Files.newOutputStream(input.toPath()))) {
+            out.writeInt(0xFFFA0A14);
+            out.writeInt(0xFF0A0A1E);
+        }
+        final Result result = run("", "map", "--palette", paletteFile.getPath(), "--input", input.getPath(), "--output", output.getPath());
+        assertEquals(0, result.exitCode);
+        assertArrayEquals(
+                new byte[]{(byte) 0xFF, (byte) 0xFF, 0, 0, (byte) 0xFF, 0, 0, 0},
+                Files.readAllBytes(output.toPath())
+        );
+    }
+
+    @Test
+    public void map_should_reject_truncated_binary_files() throws IOException {
+        final File input = new File(dir, "input.bin");
+        for (int extra = 1; extra < 4; extra++) {
+            try (final DataOutputStream out = new DataOutputStream(Files.newOutputStream(input.toPath()))) {
+                out.writeInt(0xFFFA0A14);
+                out.write(new byte[extra]);
+            }
+            final Result result = run("", "map", "--palette", paletteFile.getPath(), "--input", input.getPath());
+            assertEquals(1, result.exitCode);
+            assertTrue(result.stderr.contains("Truncated record"));
+        }
+    }
+
+    @Test
+    public void knn_should_list_nearest_palette_colors() {
+        final Result result = run("#e00000\n", "knn", "--palette", paletteFile.getPath(), "--k", "2");
+        final List<RgbColor> sorted = new ArrayList<>(palette);
+        sorted.sort((a, b) -> Double.compare(distance(new RgbColor(224, 0, 0), a), distance(new RgbColor(224, 0, 0), b)));
+        assertEquals(HexColors.format(sorted.get(0)) + " " + HexColors.format(sorted.get(1)) + "\n", result.stdout);
+    }
+
+    @Test
+    public void dedupe_should_drop_exact_duplicates() {
+        final Result result = run("#ffffff\n#000000\n#ffffff\n#000000\n#102030\n", "dedupe", "--chunk-size", "2");
+        assertEquals("#ffffff\n#000000\n#102030\n", result.stdout);
+    }
+
+    @Test
+    public void dedupe_should_drop_similar_colors_across_chunks() {
+        final List<RgbColor> input = random(300);
+        final List<RgbColor> expected = new ArrayList<>();
+        for (final RgbColor color : input) {
+            boolean similar = false;
+            for (final RgbColor kept : expected) {
+                similar |= distance(color, kept) <= 15;
+            }
+            if (!similar) {
+                expected.add(color);
+            }
+        }
+        final Result result = run(hex(input), "dedupe", "--threshold", "15", "--threads", "4", "--chunk-size", "16");
+        assertEquals(hex(expected), result.stdout);
+    }
+
+    @Test
+    public void matrix_should_print_distances() {
+        final Result result = run("#102030\n", "matrix", "--palette", paletteFile.getPath());
+        final String[] lines = result.stdout.split("\n");
+        assertEquals("color,#ff0000,#00ff00,#0000ff,#ffffff,#000000", lines[0]);
+        final StringBuilder expected = new StringBuilder("#102030");
+        for (final RgbColor color : palette) {
+            expected.append(String.format(Locale.ROOT, ",%.4f", distance(new RgbColor(16, 32, 48), color)));
+        }
+        assertEquals(expected.toString(), lines[1]);
+    }
+
+    @Test
+    public void should_report_usage_and_input_errors() {
+        assertEquals(2, run("", "bogus").exitCode);
+        assertEquals(2, run("", "map").exitCode);
+        assertEquals(2, run("", "knn", "--palette", paletteFile.getPath(), "--k", "0").exitCode);
+        final Result result = run("not a color\n", "map", "--palette", paletteFile.getPath());
+        assertEquals(1, result.exitCode);
+        assertTrue(result.stderr.contains("Not a hex color"));
+        assertEquals(1, run("#-00001\n", "map", "--palette", paletteFile.getPath()).exitCode);
+    }
+
+    @Test
+    public void should_fail_if_the_output_cannot_be_written() {
+        final OutputStream broken = new OutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        for (final String command : asList("map", "knn", "matrix")) {
+            final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+            final int exitCode = Main.run(
+                    new String[]{command, "--palette", paletteFile.getPath()},
+                    new ByteArrayInputStream(hex(random(10)).getBytes(StandardCharsets.UTF_8)),
+                    new PrintStream(broken, true),
+                    new PrintStream(stderr, true)
+            );
+            assertEquals(1, exitCode, command);
+        }
+        final File output = new File(dir, "output.hex");
+        output.mkdir();
+        assertEquals(1, run(hex(random(10)), "map", "--palette", paletteFile.getPath(), "--output", output.getPath()).exitCode);
+    }
+
+    private static double distance(final RgbColor a, final RgbColor b) {
+        return Diff.ciede2000(Convert.rgb_to_lab(a), Convert.rgb_to_lab(b));
+    }
+
+    private static List<RgbColor> random(final int n) {
+        final Random random = new Random(n);
+        final List<RgbColor> colors = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            colors.add(new RgbColor(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+        }
+        return colors;
+    }
+
+    private static String hex(final List<RgbColor> colors) {
+        final StringBuilder builder = new StringBuilder();
+        for (final RgbColor color : colors) {
+            builder.append(HexColors.format(color)).append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static Result run(final String stdin, final String... args) {
+        final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        final int exitCode = Main.run(
+                args,
+                new ByteArrayInputStream(stdin.getBytes(StandardCharsets.UTF_8)),
+                new PrintStream(stdout, true),
+                new PrintStream(stderr, true)
+        );
+        return new Result(
+                exitCode,
+                new String(stdout.toByteArray(), StandardCharsets.UTF_8),
+                new String(stderr.toByteArray(), StandardCharsets.UTF_8)
+        );
+    }
+
+    private static class Result {
+        private final int exitCode;
+        private final String stdout;
+        private final String stderr;
+
+        private Result(final int exitCode, final String stdout, final String stderr) {
+            this.exitCode = exitCode;
+            this.stdout = stdout;
+            this.stderr = stderr;
+        }
+    }
+}
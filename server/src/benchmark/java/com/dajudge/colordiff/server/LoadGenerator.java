@@ -0,0 +1,141 @@
+package com.dajudge.colordiff.server;
+
+import com.dajudge.colordiff.HexColors;
+import com.dajudge.colordiff.RgbColor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load generator for {@link MatchingServer}.
+ * <p>
+ * Starts an embedded server on localhost, registers a random palette and fires single-color closest queries from
+ * a number of client threads. Reports throughput, latency percentiles and the average batch size the server
+ * achieved by coalescing the concurrent requests.
+ * <p>
+ * Usage: <code>LoadGenerator [clients] [requestsPerClient] [paletteSize] [colorsPerRequest]</code>
+ */
+public class LoadGenerator {
+    public static void main(final String[] args) throws Exception {
+        final int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        final int requestsPerClient = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        final int paletteSize = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        final int colorsPerRequest = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+
+        MatchingServer.enableNoDelay();
+        final Random random = new Random(0);
+        final StringBuilder palette = new StringBuilder();
+        for (int i = 0; i < paletteSize; i++) {
+            palette.append(HexColors.format(randomColor(random))).append('\n');
+        }
+
+        try (final MatchingServer server = MatchingServer.start(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                clients
+        )) {
+            final String base = "http://localhost:" + server.port();
+            post(base + "/palettes/bench", "PUT", palette.toString());
+            // Warm-up
+            run(base, Math.min(clients, 4), 200, colorsPerRequest);
+
+            final long batchesBefore = server.batches();
+            final long colorsBefore = server.colors();
+            final long start = System.nanoTime();
+            final long[] latencies = run(base, clients, requestsPerClient, colorsPerRequest);
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            final long batches = server.batches() - batchesBefore;
+            final long colors = server.colors() - colorsBefore;
+
+            Arrays.sort(latencies);
+            System.out.printf(Locale.ROOT, "clients=%d requests=%d colors/request=%d palette=%d%n",
+                    clients, latencies.length, colorsPerRequest, paletteSize);
+            System.out.printf(Locale.ROOT, "throughput: %.0f requests/s, %.0f colors/s%n",
+                    latencies.length / seconds, colors / seconds);
+            System.out.printf(Locale.ROOT, "latency: p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms%n",
+                    percentile(latencies, .5), percentile(latencies, .95), percentile(latencies, .99),
+                    latencies[latencies.length - 1] / 1e6);
+            System.out.printf(Locale.ROOT, "batches: %d, average batch size %.1f colors%n",
+                    batches, batches == 0 ? 0 : (double) colors / batches);
+        }
+    }
+
+    private static long[] run(
+            final String base,
+            final int clients,
+            final int requestsPerClient,
+            final int colorsPerRequest
+    ) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            final List<Future<long[]>> futures = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                final Random random = new Random(c);
+                futures.add(executor.submit(() -> {
+                    final long[] latencies = new long[requestsPerClient];
+                    for (int i = 0; i < requestsPerClient; i++) {
+                        final StringBuilder body = new StringBuilder();
+                        for (int j = 0; j < colorsPerRequest; j++) {
+                            body.append(HexColors.format(randomColor(random))).append('\n');
+                        }
+                        final long start = System.nanoTime();
+                        post(base + "/palettes/bench/closest", "POST", body.toString());
+                        latencies[i] = System.nanoTime() - start;
+                    }
+                    return latencies;
+                }));
+            }
+            final long[] all = new long[clients * requestsPerClient];
+            int pos = 0;
+            for (final Future<long[]> future : futures) {
+                final long[] latencies = future.get();
+                System.arraycopy(latencies, 0, all, pos, latencies.length);
+                pos += latencies.length;
+            }
+            return all;
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private static void post(final String url, final String method, final String body) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        connection.setDoOutput(true);
+        try (final OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        if (connection.getResponseCode() >= 400) {
+            throw new IOException("Request failed: " + connection.getResponseCode());
+        }
+        try (final InputStream in = connection.getInputStream()) {
+            final byte[] buffer = new byte[1024];
+            while (in.read(buffer) >= 0) {
+                // Drain the response so the connection can be reused
+            }
+        }
+    }
+
+    private static RgbColor randomColor(final Random random) {
+        return new RgbColor(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+    }
+
+    private static double percentile(final long[] sorted, final double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1e6;
+    }
+}
@@ -0,0 +1,361 @@
+package com.dajudge.colordiff.server;
+
+import com.dajudge.colordiff.CoalescingMatcher;
+import com.dajudge.colordiff.HexColors;
+import com.dajudge.colordiff.LabColor;
+import com.dajudge.colordiff.PreparedPalette;
+import com.dajudge.colordiff.RgbColor;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Embedded HTTP server answering palette queries.
+ * <p>
+ * Palettes are registered once and kept as {@link PreparedPalette}s. Concurrent queries against the same palette
+ * are coalesced into batches by a {@link CoalescingMatcher} without a delay window, so batches grow with the
+ * load without adding latency to single requests. The protocol is plain text with one hex color per line:
+ * <ul>
+ * <li><code>PUT /palettes/{name}[?bc=RRGGBB]</code> registers a palette given in the request body</li>
+ * <li><code>DELETE /palettes/{name}</code> removes a palette</li>
+ * <li><code>POST /palettes/{name}/closest</code> returns the closest palette color for each color in the body</li>
+ * <li><code>POST /palettes/{name}/furthest</code> returns the furthest palette color for each color in the body</li>
+ * <li><code>POST /palettes/{name}/knn?k=N</code> returns the N closest palette colors, separated by spaces, for
+ * each color in the body</li>
+ * <li><code>GET /stats</code> returns request and batch counters</li>
+ * </ul>
+ * The JDK server writes response headers and body separately, so embedding applications should set the system
+ * property <code>sun.net.httpserver.nodelay=true</code> to keep Nagle's algorithm from delaying small responses.
+ * {@link #main(String[])} does so unless the property is set explicitly.
+ */
+public class MatchingServer implements AutoCloseable {
+    static final int DEFAULT_MAX_BATCH_SIZE = 4096;
+    private static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final ExecutorService batchers;
+    private final int maxBatchSize;
+    private final Map<String, CoalescingMatcher> palettes = new ConcurrentHashMap<>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder colors = new LongAdder();
+
+    private MatchingServer(final HttpServer server, final int threads, final int maxBatchSize) {
+        this.server = server;
+        this.handlers = Executors.newFixedThreadPool(threads, daemon("color-diff-http"));
+        this.batchers = Executors.newCachedThreadPool(daemon("color-diff-batch"));
+        this.maxBatchSize = maxBatchSize;
+        server.setExecutor(handlers);
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * Starts a server.
+     *
+     * @param address the address to bind to; port 0 picks a free port
+     * @param threads the number of request handler threads
+     * @return the running server
+     * @throws IOException if the server cannot be bound
+     */
+    public static MatchingServer start(final InetSocketAddress address, final int threads) throws IOException {
+        return start(address, threads, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Starts a server.
+     *
+     * @param address      the address to bind to; port 0 picks a free port
+     * @param threads      the number of request handler threads
+     * @param maxBatchSize the maximum number of colors resolved in one batch
+     * @return the running server
+     * @throws IOException if the server cannot be bound
+     */
+    public static MatchingServer start(
+            final InetSocketAddress address,
+            final int threads,
+            final int maxBatchSize
+    ) throws IOException {
+        final MatchingServer matchingServer = new MatchingServer(HttpServer.create(address, 0), threads, maxBatchSize);
+        matchingServer.server.start();
+        return matchingServer;
+    }
+
+    public static void main(final String[] args) throws IOException {
+        enableNoDelay();
+        final int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        final int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors() * 4;
+        start(new InetSocketAddress(port), threads);
+        System.out.println("color-diff server listening on port " + port);
+    }
+
+    static void enableNoDelay() {
+        if (System.getProperty(NODELAY_PROPERTY) == null) {
+            System.setProperty(NODELAY_PROPERTY, "true");
+        }
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Registers (or replaces) a palette.
+     *
+     * @param name    the palette name
+     * @param palette each element should have fields R,G,B
+     * @param bc      background color used if the palette or the queried colors have an alpha component.
+     */
+    public void register(final String name, final List<RgbColor> palette, final RgbColor bc) {
+        final CoalescingMatcher replaced = palettes.put(name, new CoalescingMatcher(
+                new PreparedPalette(palette, bc),
+                batchers,
+                maxBatchSize,
+                0,
+                TimeUnit.MICROSECONDS
+        ));
+        if (replaced != null) {
+            retire(replaced);
+        }
+    }
+
+    /**
+     * Removes a palette.
+     *
+     * @param name the palette name
+     * @return whether the palette was registered
+     */
+    public boolean unregister(final String name) {
+        final CoalescingMatcher removed = palettes.remove(name);
+        if (removed == null) {
+            return false;
+        }
+        retire(removed);
+        return true;
+    }
+
+    private void retire(final CoalescingMatcher matcher) {
+        // Keeps the metrics of palettes that are no longer registered
+        final CoalescingMatcher.Metrics metrics = matcher.metrics();
+        batches.add(metrics.batches());
+        colors.add(metrics.resolved());
+    }
+
+    public long requests() {
+        return requests.sum();
+    }
+
+    /**
+     * @return the number of batches resolved so far, including those of unregistered and replaced palettes
+     */
+    public long batches() {
+        return batches.sum() + palettes.values().stream().mapToLong(e -> e.metrics().batches()).sum();
+    }
+
+    /**
+     * @return the number of colors resolved so far, including those of unregistered and replaced palettes
+     */
+    public long colors() {
+        return colors.sum() + palettes.values().stream().mapToLong(e -> e.metrics().resolved()).sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        handlers.shutdownNow();
+        batchers.shutdownNow();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            requests.increment();
+            final String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/+");
+            final String method = exchange.getRequestMethod();
+            if (path.length == 1 && path[0].equals("stats")) {
+                requireMethod(method, "GET");
+                respond(exchange, 200, "requests " + requests() + "\nbatches " + batches() + "\ncolors " + colors() + "\n");
+            } else if (path.length == 2 && path[0].equals("palettes")) {
+                handlePalette(exchange, method, path[1]);
+            } else if (path.length == 3 && path[0].equals("palettes")) {
+                handleQuery(exchange, method, path[1], path[2]);
+            } else {
+                throw new HttpError(404, "Not found");
+            }
+        } catch (final HttpError e) {
+            respond(exchange, e.status, e.getMessage() + "\n");
+        } catch (final IllegalArgumentException e) {
+            respond(exchange, 400, e.getMessage() + "\n");
+        } catch (final RuntimeException e) {
+            respond(exchange, 500, e + "\n");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handlePalette(final HttpExchange exchange, final String method, final String name) throws IOException {
+        if (method.equals("PUT")) {
+            final String bc = query(exchange.getRequestURI(), "bc");
+            final List<RgbColor> palette = HexColors.parseLines(body(exchange));
+            if (palette.isEmpty()) {
+                throw new IllegalArgumentException("Palette must not be empty");
+            }
+            register(name, palette, bc == null ? new RgbColor(255, 255, 255) : HexColors.parse(bc));
+            respond(exchange, 204, null);
+        } else if (method.equals("DELETE")) {
+            if (!unregister(name)) {
+                throw new HttpError(404, "Unknown palette: " + name);
+            }
+            respond(exchange, 204, null);
+        } else {
+            throw new HttpError(405, "Method not allowed: " + method);
+        }
+    }
+
+    private void handleQuery(
+            final HttpExchange exchange,
+            final String method,
+            final String name,
+            final String operation
+    ) throws IOException {
+        requireMethod(method, "POST");
+        final CoalescingMatcher matcher = palettes.get(name);
+        if (matcher == null) {
+            throw new HttpError(404, "Unknown palette: " + name);
+        }
+        final Function<LabColor, CompletableFuture<int[]>> query;
+        if (operation.equals("closest")) {
+            query = lab -> matcher.closest(lab).thenApply(i -> new int[]{i});
+        } else if (operation.equals("furthest")) {
+            query = lab -> matcher.furthest(lab).thenApply(i -> new int[]{i});
+        } else if (operation.equals("knn")) {
+            final String k = query(exchange.getRequestURI(), "k");
+            final int n = k == null ? 1 : parsePositive(k);
+            query = lab -> matcher.nearest(lab, n);
+        } else {
+            throw new HttpError(404, "Unknown operation: " + operation);
+        }
+        final PreparedPalette palette = matcher.palette();
+        final List<RgbColor> colors = HexColors.parseLines(body(exchange));
+        final List<CompletableFuture<int[]>> results = new ArrayList<>(colors.size());
+        for (final RgbColor color : colors) {
+            results.add(query.apply(palette.toLab(color)));
+        }
+        final StringBuilder response = new StringBuilder();
+        for (final CompletableFuture<int[]> result : results) {
+            final int[] indices = await(result);
+            for (int i = 0; i < indices.length; i++) {
+                response.append(i == 0 ? "" : " ").append(HexColors.format(palette.color(indices[i])));
+            }
+            response.append('\n');
+        }
+        respond(exchange, 200, response.toString());
+    }
+
+    private static int[] await(final CompletableFuture<int[]> result) {
+        try {
+            return result.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HttpError(503, "Interrupted");
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException("Batch failed", e.getCause());
+        }
+    }
+
+    private static void requireMethod(final String method, final String expected) {
+        if (!method.equals(expected)) {
+            throw new HttpError(405, "Method not allowed: " + method);
+        }
+    }
+
+    private static int parsePositive(final String value) {
+        try {
+            final int k = Integer.parseInt(value);
+            if (k > 0) {
+                return k;
+            }
+        } catch (final NumberFormatException e) {
+            // Handled below
+        }
+        throw new IllegalArgumentException("Not a positive number: " + value);
+    }
+
+    private static String query(final URI uri, final String name) {
+        final String query = uri.getQuery();
+        if (query == null) {
+            return null;
+        }
+        for (final String param : query.split("&")) {
+            final int eq = param.indexOf('=');
+            if (eq > 0 && param.substring(0, eq).equals(name)) {
+                return param.substring(eq + 1);
+            }
+        }
+        return null;
+    }
+
+    private static String body(final HttpExchange exchange) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        try (final InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, read);
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static ThreadFactory daemon(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return r -> {
+            final Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static class HttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        private HttpError(final int status, final String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
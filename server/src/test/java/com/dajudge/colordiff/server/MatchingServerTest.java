@@ -0,0 +1,211 @@
+package com.dajudge.colordiff.server;
+
+import com.dajudge.colordiff.ColorDiff;
+import com.dajudge.colordiff.Convert;
+import com.dajudge.colordiff.Diff;
+import com.dajudge.colordiff.HexColors;
+import com.dajudge.colordiff.LabColor;
+import com.dajudge.colordiff.RgbColor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link MatchingServer}.
+ */
+class MatchingServerTest {
+    private static final List<RgbColor> palette = asList(
+            new RgbColor(255, 0, 0),
+            new RgbColor(0, 255, 0),
+            new RgbColor(0, 0, 255),
+            new RgbColor(255, 255, 255),
+            new RgbColor(0, 0, 0)
+    );
+
+    private MatchingServer server;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = MatchingServer.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 8, 64);
+    }
+
+    @AfterEach
+    void stop() {
+        server.close();
+    }
+
+    @Test
+    public void should_answer_closest_and_furthest_queries() throws IOException {
+        assertEquals(204, request("PUT", "/palettes/rgb", lines(palette)).status);
+        final List<RgbColor> colors = asList(new RgbColor(250, 10, 20), new RgbColor(10, 10, 30), new RgbColor(200, 200, 210));
+        final StringBuilder closest = new StringBuilder();
+        final StringBuilder furthest = new StringBuilder();
+        for (final RgbColor color : colors) {
+            closest.append(HexColors.format(ColorDiff.closest(color, palette))).append('\n');
+            furthest.append(HexColors.format(ColorDiff.furthest(color, palette))).append('\n');
+        }
+        assertEquals(new Response(200, closest.toString()), request("POST", "/palettes/rgb/closest", lines(colors)));
+        assertEquals(new Response(200, furthest.toString()), request("POST", "/palettes/rgb/furthest", lines(colors)));
+    }
+
+    @Test
+    public void should_answer_knn_queries() throws IOException {
+        request("PUT", "/palettes/rgb", lines(palette));
+        final LabColor query = Convert.rgb_to_lab(new RgbColor(224, 0, 0));
+        final List<RgbColor> sorted = new ArrayList<>(palette);
+        sorted.sort(Comparator.comparingDouble(c -> Diff.ciede2000(query, Convert.rgb_to_lab(c))));
+        assertEquals(
+                new Response(200, lines(sorted.subList(0, 3)).replaceAll("\n(?=.)", " ")),
+                request("POST", "/palettes/rgb/knn?k=3", "#e00000\n")
+        );
+    }
+
+    @Test
+    public void should_use_background_for_alpha() throws IOException {
+        final RgbColor bc = new RgbColor(0, 0, 0);
+        request("PUT", "/palettes/rgb?bc=000000", lines(palette));
+        final RgbColor translucent = new RgbColor(255, 255, 255, 0.2);
+        assertEquals(
+                new Response(200, HexColors.format(ColorDiff.closest(translucent, palette, bc)) + "\n"),
+                request("POST", "/palettes/rgb/closest", HexColors.format(translucent))
+        );
+    }
+
+    @Test
+    public void should_report_errors() throws IOException {
+        assertEquals(404, request("POST", "/palettes/missing/closest", "#ffffff").status);
+        request("PUT", "/palettes/rgb", lines(palette));
+        assertEquals(400, request("POST", "/palettes/rgb/closest", "not a color").status);
+        assertEquals(400, request("POST", "/palettes/rgb/closest", "#-00001").status);
+        assertEquals(400, request("POST", "/palettes/rgb/closest", "+00001").status);
+        assertEquals(400, request("POST", "/palettes/rgb/knn?k=0", "#ffffff").status);
+        assertEquals(400, request("PUT", "/palettes/empty", "").status);
+        assertEquals(405, request("GET", "/palettes/rgb/closest", null).status);
+        assertEquals(404, request("POST", "/palettes/rgb/median", "#ffffff").status);
+        assertEquals(204, request("DELETE", "/palettes/rgb", null).status);
+        assertEquals(404, request("POST", "/palettes/rgb/closest", "#ffffff").status);
+    }
+
+    @Test
+    public void should_coalesce_concurrent_requests() throws Exception {
+        final Random random = new Random(5);
+        final List<RgbColor> big = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            big.add(new RgbColor(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+        }
+        request("PUT", "/palettes/big", lines(big));
+        final ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final RgbColor color = new RgbColor(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+                results.add(clients.submit(() -> request("POST", "/palettes/big/closest", HexColors.format(color)).body
+                        .equals(HexColors.format(ColorDiff.closest(color, big)) + "\n")));
+            }
+            for (final Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            clients.shutdown();
+        }
+        assertEquals(200, server.colors());
+        assertTrue(server.batches() <= 200);
+        assertTrue(request("GET", "/stats", null).body.contains("colors 200\n"));
+    }
+
+    @Test
+    public void should_keep_metrics_of_replaced_and_unregistered_palettes() throws IOException {
+        request("PUT", "/palettes/rgb", lines(palette));
+        request("POST", "/palettes/rgb/closest", "#ffffff\n#000000\n#102030\n");
+        request("PUT", "/palettes/rgb", lines(palette));
+        request("POST", "/palettes/rgb/closest", "#ffffff\n#000000\n");
+        assertEquals(5, server.colors());
+        final long batches = server.batches();
+        assertTrue(batches >= 2);
+        request("DELETE", "/palettes/rgb", null);
+        assertEquals(5, server.colors());
+        assertEquals(batches, server.batches());
+    }
+
+    private static String lines(final List<RgbColor> colors) {
+        final StringBuilder builder = new StringBuilder();
+        for (final RgbColor color : colors) {
+            builder.append(HexColors.format(color)).append('\n');
+        }
+        return builder.toString();
+    }
+
+    private Response request(final String method, final String path, final String body) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.port() + path).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (final OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        final int status = connection.getResponseCode();
+        final InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (in != null) {
+            try (final InputStream stream = in) {
+                final byte[] buffer = new byte[1024];
+                int read;
+                while ((read = stream.read(buffer)) >= 0) {
+                    bytes.write(buffer, 0, read);
+                }
+            }
+        }
+        return new Response(status, status < 400 ? new String(bytes.toByteArray(), StandardCharsets.UTF_8) : "");
+    }
+
+    private static class Response {
+        private final int status;
+        private final String body;
+
+        private Response(final int status, final String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Response)) {
+                return false;
+            }
+            final Response other = (Response) o;
+            return status == other.status && body.equals(other.body);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * status + body.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return status + ": " + body;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.dajudge.colordiff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static com.dajudge.colordiff.Diff.ciede2000;
+
+/**
+ * Compares {@link ApproximateMatcher} against the exact {@link Palette#match_palette_lab(LabColor, List, boolean)}.
+ * <p>
+ * For each slack setting the benchmark reports the recall (share of queries answered with the exact match), the mean
+ * and worst-case ΔE by which approximate answers exceed the exact ones, the number of cells built and the query
+ * throughput of both approaches.
+ * <p>
+ * Usage: <code>ApproximateMatcherBenchmark [paletteSize] [queries] [cellSize] [slack...]</code>
+ */
+public class ApproximateMatcherBenchmark {
+    public static void main(final String[] args) {
+        final int paletteSize = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        final int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        final double cellSize = args.length > 2 ? Double.parseDouble(args[2]) : ApproximateMatcher.DEFAULT_CELL_SIZE;
+        final double[] slacks = args.length > 3
+                ? Arrays.stream(args, 3, args.length).mapToDouble(Double::parseDouble).toArray()
+                : new double[]{0, 1, 2, 4, 8};
+
+        final Random random = new Random(0);
+        final List<RgbColor> colors = new ArrayList<>();
+        for (int i = 0; i < paletteSize; i++) {
+            colors.add(new RgbColor(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+        }
+        final PreparedPalette palette = new PreparedPalette(colors);
+        final List<LabColor> paletteLab = new ArrayList<>();
+        for (int i = 0; i < palette.size(); i++) {
+            paletteLab.add(palette.lab(i));
+        }
+        final LabColor[] lab = new LabColor[queries];
+        for (int i = 0; i < queries; i++) {
+            lab[i] = Convert.rgb_to_lab(new RgbColor(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+        }
+
+        long start = System.nanoTime();
+        final LabColor[] exact = new LabColor[queries];
+        for (int i = 0; i < queries; i++) {
+            exact[i] = Palette.match_palette_lab(lab[i], paletteLab, false);
+        }
+        final double exactSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format(
+                Locale.ROOT,
+                "palette %d, queries %d, cell size %.1f%nexact: %.0f queries/s",
+                paletteSize, queries, cellSize, queries / exactSeconds
+        ));
+
+        for (final double slack : slacks) {
+            final ApproximateMatcher matcher = new ApproximateMatcher(palette, slack, cellSize);
+            // First pass builds the cells, the second one measures the query cost
+            start = System.nanoTime();
+            for (final LabColor color : lab) {
+                matcher.closest(color);
+            }
+            final double buildSeconds = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            final int[] approximate = new int[queries];
+            for (int i = 0; i < queries; i++) {
+                approximate[i] = matcher.closest(lab[i]);
+            }
+            final double seconds = (System.nanoTime() - start) / 1e9;
+
+            int hits = 0;
+            double sumError = 0;
+            double maxError = 0;
+            for (int i = 0; i < queries; i++) {
+                final double error = ciede2000(lab[i], palette.lab(approximate[i])) - ciede2000(lab[i], exact[i]);
+                if (error <= 0) {
+                    hits++;
+                }
+                sumError += Math.max(0, error);
+                maxError = Math.max(maxError, error);
+            }
+            System.out.println(String.format(
+                    Locale.ROOT,
+                    "slack %4.1f: recall %.4f, mean error %.4f, max error %.4f, %d cells (%.2fs), %.0f queries/s",
+                    slack, (double) hits / queries, sumError / queries, maxError,
+                    matcher.builtCells(), buildSeconds, queries / seconds
+            ));
+        }
+    }
+}
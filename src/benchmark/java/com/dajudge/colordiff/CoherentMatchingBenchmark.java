@@ -0,0 +1,103 @@
+package com.dajudge.colordiff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares matching each pixel of an image independently with {@link PreparedPalette#closestArgb(int)} against
+ * starting each search with the matches of the left and upper neighbors, as {@link PaletteQuantizeOp} does.
+ * <p>
+ * Both are run on a smooth synthetic image standing in for a photograph (overlapping gradients with slight noise) and
+ * on an image of random pixels, where neighbors carry no information. The benchmark reports the pixel throughput of
+ * both approaches and fails if their results differ.
+ * <p>
+ * Usage: <code>CoherentMatchingBenchmark [width] [height] [paletteSize...]</code>
+ */
+public class CoherentMatchingBenchmark {
+    public static void main(final String[] args) {
+        final int w = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        final int h = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+        final int[] sizes = args.length > 2
+                ? Arrays.stream(args, 2, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[]{16, 64, 256};
+
+        final Random random = new Random(0);
+        final int[] natural = naturalImage(random, w, h);
+        final int[] noise = new int[w * h];
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] = 0xFF000000 | random.nextInt();
+        }
+
+        for (final int size : sizes) {
+            final PreparedPalette palette = new PreparedPalette(randomColors(random, size));
+            System.out.println(String.format(Locale.ROOT, "palette %d, image %dx%d", size, w, h));
+            run(palette, "natural", natural, w, h);
+            run(palette, "noise", noise, w, h);
+        }
+    }
+
+    private static void run(final PreparedPalette palette, final String name, final int[] pixels, final int w, final int h) {
+        final int[] independent = new int[pixels.length];
+        final int[] seeded = new int[pixels.length];
+        // Warm up, then measure
+        matchIndependently(palette, pixels, independent);
+        matchSeeded(palette, pixels, w, h, seeded);
+        long start = System.nanoTime();
+        matchIndependently(palette, pixels, independent);
+        final double independentSeconds = (System.nanoTime() - start) / 1e9;
+        start = System.nanoTime();
+        matchSeeded(palette, pixels, w, h, seeded);
+        final double seededSeconds = (System.nanoTime() - start) / 1e9;
+        if (!Arrays.equals(independent, seeded)) {
+            throw new IllegalStateException("Seeded matches differ from independent matches");
+        }
+        System.out.println(String.format(
+                Locale.ROOT,
+                "%-8s: independent %8.3f Mpixel/s, seeded %8.3f Mpixel/s, speedup %.2f",
+                name, pixels.length / independentSeconds / 1e6, pixels.length / seededSeconds / 1e6,
+                independentSeconds / seededSeconds
+        ));
+    }
+
+    private static void matchIndependently(final PreparedPalette palette, final int[] pixels, final int[] indices) {
+        for (int i = 0; i < pixels.length; i++) {
+            indices[i] = palette.closestArgb(pixels[i]);
+        }
+    }
+
+    private static void matchSeeded(final PreparedPalette palette, final int[] pixels, final int w, final int h, final int[] indices) {
+        for (int y = 0, i = 0; y < h; y++) {
+            for (int x = 0; x < w; x++, i++) {
+                indices[i] = palette.closestArgb(pixels[i], x > 0 ? indices[i - 1] : -1, y > 0 ? indices[i - w] : -1);
+            }
+        }
+    }
+
+    private static int[] naturalImage(final Random random, final int w, final int h) {
+        final int[] pixels = new int[w * h];
+        for (int y = 0, i = 0; y < h; y++) {
+            for (int x = 0; x < w; x++, i++) {
+                final double r = 128 + 100 * Math.sin(x * 0.011) * Math.cos(y * 0.007);
+                final double g = 128 + 100 * Math.sin((x + y) * 0.005);
+                final double b = 128 + 100 * Math.cos(x * 0.004 - y * 0.009);
+                pixels[i] = 0xFF000000 | channel(r, random) << 16 | channel(g, random) << 8 | channel(b, random);
+            }
+        }
+        return pixels;
+    }
+
+    private static int channel(final double value, final Random random) {
+        return (int) Math.max(0, Math.min(255, Math.round(value + random.nextGaussian() * 2)));
+    }
+
+    private static List<RgbColor> randomColors(final Random random, final int n) {
+        final List<RgbColor> colors = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            colors.add(new RgbColor(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+        }
+        return colors;
+    }
+}
@@ -0,0 +1,83 @@
+package com.dajudge.colordiff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static com.dajudge.colordiff.Diff.ciede2000;
+
+/**
+ * Compares the k-d tree search of {@link EuclideanMatcher} with the exhaustive CIEDE2000 search of
+ * {@link PreparedPalette}.
+ * <p>
+ * For each palette size and color space the benchmark reports the query throughput of both approaches, the agreement
+ * (share of queries answered with the CIEDE2000 match) and the mean and worst-case ΔE by which Euclidean answers
+ * exceed the CIEDE2000 ones.
+ * <p>
+ * Usage: <code>EuclideanBenchmark [queries] [paletteSize...]</code>
+ */
+public class EuclideanBenchmark {
+    public static void main(final String[] args) {
+        final int queries = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        final int[] sizes = args.length > 1
+                ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[]{16, 256, 1000, 4096};
+
+        final Random random = new Random(0);
+        final List<RgbColor> colors = randomColors(random, queries);
+        final LabColor[] lab = new LabColor[queries];
+        for (int i = 0; i < queries; i++) {
+            lab[i] = Convert.rgb_to_lab(colors.get(i));
+        }
+
+        for (final int size : sizes) {
+            final PreparedPalette palette = new PreparedPalette(randomColors(random, size));
+            // Warm up, then measure
+            palette.closest(lab);
+            long start = System.nanoTime();
+            final int[] exact = palette.closest(lab);
+            final double exactSeconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format(
+                    Locale.ROOT,
+                    "palette %d, queries %d%nciede2000:  %10.0f queries/s",
+                    size, queries, queries / exactSeconds
+            ));
+
+            for (final UniformColorSpace space : UniformColorSpace.values()) {
+                final EuclideanMatcher matcher = new EuclideanMatcher(palette.colors(), palette.background(), space);
+                matcher.closest(colors);
+                start = System.nanoTime();
+                final int[] euclidean = matcher.closest(colors);
+                final double seconds = (System.nanoTime() - start) / 1e9;
+
+                int hits = 0;
+                double sumError = 0;
+                double maxError = 0;
+                for (int i = 0; i < queries; i++) {
+                    final double error = ciede2000(lab[i], palette.lab(euclidean[i])) - ciede2000(lab[i], palette.lab(exact[i]));
+                    if (error <= 0) {
+                        hits++;
+                    }
+                    sumError += Math.max(0, error);
+                    maxError = Math.max(maxError, error);
+                }
+                System.out.println(String.format(
+                        Locale.ROOT,
+                        "%-10s: %10.0f queries/s, agreement %.4f, mean error %.4f, max error %.4f",
+                        space.name().toLowerCase(Locale.ROOT), queries / seconds, (double) hits / queries,
+                        sumError / queries, maxError
+                ));
+            }
+        }
+    }
+
+    private static List<RgbColor> randomColors(final Random random, final int n) {
+        final List<RgbColor> colors = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            colors.add(new RgbColor(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+        }
+        return colors;
+    }
+}
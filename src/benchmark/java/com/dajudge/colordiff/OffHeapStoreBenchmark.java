@@ -0,0 +1,84 @@
+package com.dajudge.colordiff;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the heap footprint and the query time of a {@link PreparedPalette} on the heap with a palette backed by an
+ * {@link OffHeapColorStore}.
+ * <p>
+ * Heap usage is measured after requesting garbage collections, so it is an estimate; run with a heap large enough for
+ * the heap palette, e.g. <code>-Xmx2g</code> for the default of two million colors.
+ * <p>
+ * Usage: <code>OffHeapStoreBenchmark [colors] [queries]</code>
+ */
+public class OffHeapStoreBenchmark {
+    public static void main(final String[] args) {
+        final int size = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        final int queryCount = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        final Random random = new Random(0);
+        final LabColor[] queries = new LabColor[queryCount];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = Convert.rgb_to_lab(new RgbColor(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+        }
+
+        final long baseline = usedHeap();
+        long start = System.nanoTime();
+        List<RgbColor> colors = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            colors.add(randomColor(random));
+        }
+        PreparedPalette heap = new PreparedPalette(colors);
+        colors = null;
+        report("heap", start, usedHeap() - baseline, 0, heap, queries);
+        heap = null;
+
+        final long storeBaseline = usedHeap();
+        start = System.nanoTime();
+        try (final OffHeapColorStore store = new OffHeapColorStore(size)) {
+            for (int i = 0; i < size; i++) {
+                store.add(randomColor(random));
+            }
+            report("off-heap", start, usedHeap() - storeBaseline, store.bytes(), store.palette(), queries);
+        }
+    }
+
+    private static void report(
+            final String name,
+            final long buildStart,
+            final long heapBytes,
+            final long offHeapBytes,
+            final PreparedPalette palette,
+            final LabColor[] queries
+    ) {
+        final double buildMillis = (System.nanoTime() - buildStart) / 1e6;
+        // Warm up, then measure
+        palette.closest(queries[0]);
+        final long start = System.nanoTime();
+        for (final LabColor query : queries) {
+            palette.closest(query);
+        }
+        final double queryMillis = (System.nanoTime() - start) / 1e6 / queries.length;
+        System.out.println(String.format(
+                Locale.ROOT,
+                "%-10s build %9.1f ms, query %8.2f ms, heap %8.1f MiB (%5.1f bytes/color), off-heap %8.1f MiB",
+                name, buildMillis, queryMillis, heapBytes / 1048576.0, heapBytes / (double) palette.size(),
+                offHeapBytes / 1048576.0
+        ));
+    }
+
+    private static RgbColor randomColor(final Random random) {
+        return new RgbColor(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
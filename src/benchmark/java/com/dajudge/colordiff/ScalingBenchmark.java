@@ -0,0 +1,219 @@
+package com.dajudge.colordiff;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Runs the same query workload on an increasing number of threads sharing one palette or matcher, to reveal
+ * contention, false sharing and allocation bottlenecks.
+ * <p>
+ * Each thread answers the same number of queries. For each thread count the benchmark reports the total and the
+ * per-thread throughput, the allocation rate and bytes allocated per query, and the number and the total duration of
+ * garbage collections. With linear scaling the per-thread throughput stays constant up to the number of cores.
+ * <p>
+ * Workloads:
+ * <ul>
+ * <li><code>colordiff</code>: {@link ColorDiff#closest(RgbColor, List)}, which prepares the palette for each
+ * query</li>
+ * <li><code>prepared</code>: {@link PreparedPalette#closestArgb(int)}</li>
+ * <li><code>approximate</code>: {@link ApproximateMatcher#closest(RgbColor)}</li>
+ * <li><code>euclidean</code>: {@link EuclideanMatcher#closestArgb(int)}</li>
+ * </ul>
+ * Virtual threads are used in addition to platform threads when the JVM supports them (Java 21 or later). Allocation
+ * rates are only reported for platform threads.
+ * <p>
+ * Usage: <code>ScalingBenchmark [maxThreads] [queriesPerThread] [paletteSize] [workload...]</code>
+ */
+public class ScalingBenchmark {
+    public static void main(final String[] args) throws Exception {
+        final int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        final int queries = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        final int paletteSize = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        final List<String> workloads = args.length > 3
+                ? Arrays.asList(args).subList(3, args.length)
+                : Arrays.asList("colordiff", "prepared", "approximate", "euclidean");
+
+        final Random random = new Random(0);
+        final List<RgbColor> colors = new ArrayList<>();
+        for (int i = 0; i < paletteSize; i++) {
+            colors.add(new RgbColor(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+        }
+        final int[] argb = new int[queries];
+        final RgbColor[] rgb = new RgbColor[queries];
+        for (int i = 0; i < queries; i++) {
+            argb[i] = random.nextInt() | 0xFF000000;
+            rgb[i] = new RgbColor(argb[i] >> 16 & 0xFF, argb[i] >> 8 & 0xFF, argb[i] & 0xFF);
+        }
+        final PreparedPalette palette = new PreparedPalette(colors);
+        final ApproximateMatcher approximate = new ApproximateMatcher(palette);
+        final EuclideanMatcher euclidean = new EuclideanMatcher(colors);
+
+        System.out.println(String.format(
+                Locale.ROOT,
+                "%d cores, palette %d, %d queries per thread",
+                Runtime.getRuntime().availableProcessors(), paletteSize, queries
+        ));
+        for (final String workload : workloads) {
+            final IntUnaryOperator query;
+            switch (workload) {
+                case "colordiff":
+                    query = i -> ColorDiff.closest(rgb[i], colors).hashCode();
+                    break;
+                case "prepared":
+                    query = i -> palette.closestArgb(argb[i]);
+                    break;
+                case "approximate":
+                    query = i -> approximate.closest(rgb[i]).hashCode();
+                    break;
+                case "euclidean":
+                    query = i -> euclidean.closestArgb(argb[i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown workload: " + workload);
+            }
+            // Warm up, then measure
+            run(Executors.newSingleThreadExecutor(), 1, queries, query);
+            for (final boolean virtual : new boolean[]{false, true}) {
+                if (virtual && !virtualThreadsSupported()) {
+                    continue;
+                }
+                for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                    final ExecutorService executor = virtual ? virtualThreadExecutor() : Executors.newFixedThreadPool(threads);
+                    report(workload + (virtual ? " (virtual)" : ""), threads, queries, run(executor, threads, queries, query));
+                }
+            }
+        }
+    }
+
+    private static Run run(
+            final ExecutorService executor,
+            final int threads,
+            final int queries,
+            final IntUnaryOperator query
+    ) throws Exception {
+        final com.sun.management.ThreadMXBean threadBean = threadBean();
+        final CountDownLatch ready = new CountDownLatch(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<long[]>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    final long id = Thread.currentThread().getId();
+                    ready.countDown();
+                    start.await();
+                    final long allocated = allocatedBytes(threadBean, id);
+                    int checksum = 0;
+                    for (int i = 0; i < queries; i++) {
+                        checksum += query.applyAsInt(i);
+                    }
+                    final long after = allocatedBytes(threadBean, id);
+                    return new long[]{allocated < 0 || after < 0 ? -1 : after - allocated, checksum};
+                }));
+            }
+            ready.await();
+            final long collections = collections();
+            final long collectionMillis = collectionMillis();
+            final long begin = System.nanoTime();
+            start.countDown();
+            long allocated = 0;
+            for (final Future<long[]> future : futures) {
+                final long bytes = future.get()[0];
+                allocated = allocated < 0 || bytes < 0 ? -1 : allocated + bytes;
+            }
+            return new Run(
+                    (System.nanoTime() - begin) / 1e9,
+                    allocated,
+                    collections() - collections,
+                    collectionMillis() - collectionMillis
+            );
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void report(final String workload, final int threads, final int queries, final Run run) {
+        final double total = (double) threads * queries;
+        final String allocation = run.allocatedBytes < 0
+                ? "allocation n/a"
+                : String.format(
+                Locale.ROOT,
+                "%8.1f MiB/s, %7.1f bytes/query",
+                run.allocatedBytes / 1048576.0 / run.seconds, run.allocatedBytes / total
+        );
+        System.out.println(String.format(
+                Locale.ROOT,
+                "%-22s %3d threads: %10.0f queries/s, %9.0f per thread, %s, %4d GCs, %5d ms GC",
+                workload, threads, total / run.seconds, total / run.seconds / threads, allocation,
+                run.collections, run.collectionMillis
+        ));
+    }
+
+    private static long allocatedBytes(final com.sun.management.ThreadMXBean threadBean, final long id) {
+        return threadBean == null ? -1 : threadBean.getThreadAllocatedBytes(id);
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            return (com.sun.management.ThreadMXBean) bean;
+        }
+        return null;
+    }
+
+    private static long collections() {
+        long count = 0;
+        for (final GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long collectionMillis() {
+        long millis = 0;
+        for (final GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, bean.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static boolean virtualThreadsSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (final NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static ExecutorService virtualThreadExecutor() throws Exception {
+        // Looked up reflectively, the library and its benchmarks target Java 8
+        final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        return (ExecutorService) method.invoke(null);
+    }
+
+    private static class Run {
+        final double seconds;
+        final long allocatedBytes;
+        final long collections;
+        final long collectionMillis;
+
+        Run(final double seconds, final long allocatedBytes, final long collections, final long collectionMillis) {
+            this.seconds = seconds;
+            this.allocatedBytes = allocatedBytes;
+            this.collections = collections;
+            this.collectionMillis = collectionMillis;
+        }
+    }
+}
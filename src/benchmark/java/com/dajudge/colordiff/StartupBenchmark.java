@@ -0,0 +1,90 @@
+package com.dajudge.colordiff;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares building palettes, matchers and lookup tables from scratch with loading them through {@link IndexFiles}.
+ * <p>
+ * The approximate matcher is warmed up with random queries before it is persisted, so loading restores the built
+ * cells. Building the lookup table takes several seconds per core and is only included when requested.
+ * <p>
+ * Usage: <code>StartupBenchmark [paletteSize] [warmupQueries] [lut]</code>
+ */
+public class StartupBenchmark {
+    public static void main(final String[] args) throws IOException {
+        final int paletteSize = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        final int warmupQueries = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        final boolean lut = args.length > 2 && args[2].equals("lut");
+
+        final Random random = new Random(0);
+        final List<RgbColor> colors = new ArrayList<>();
+        for (int i = 0; i < paletteSize; i++) {
+            colors.add(new RgbColor(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+        }
+        final LabColor[] queries = new LabColor[warmupQueries];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = Convert.rgb_to_lab(new RgbColor(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+        }
+
+        final Path dir = Files.createTempDirectory("color-diff-startup");
+        try {
+            long start = System.nanoTime();
+            final PreparedPalette palette = new PreparedPalette(colors);
+            report("prepared palette", start, palette, dir.resolve("palette.cdix"), IndexFiles::write, IndexFiles::readPreparedPalette);
+
+            start = System.nanoTime();
+            final ApproximateMatcher matcher = new ApproximateMatcher(palette);
+            matcher.closest(queries);
+            report("approximate matcher", start, matcher, dir.resolve("matcher.cdix"), IndexFiles::write, IndexFiles::readApproximateMatcher);
+
+            if (lut) {
+                start = System.nanoTime();
+                final PaletteLut table = new PaletteLut(palette);
+                report("lookup table", start, table, dir.resolve("lut.cdix"), IndexFiles::write, IndexFiles::readPaletteLut);
+            }
+        } finally {
+            for (final String name : new String[]{"palette.cdix", "matcher.cdix", "lut.cdix"}) {
+                Files.deleteIfExists(dir.resolve(name));
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private static <T> void report(
+            final String name,
+            final long buildStart,
+            final T built,
+            final Path file,
+            final Writer<T> writer,
+            final Reader<T> reader
+    ) throws IOException {
+        final double buildMillis = (System.nanoTime() - buildStart) / 1e6;
+        writer.write(built, file);
+        // Load a few times so the last one runs on warm code
+        double loadMillis = 0;
+        for (int i = 0; i < 5; i++) {
+            final long start = System.nanoTime();
+            reader.read(file);
+            loadMillis = (System.nanoTime() - start) / 1e6;
+        }
+        System.out.println(String.format(
+                Locale.ROOT,
+                "%-20s build %10.1f ms, load %8.1f ms, %10d bytes",
+                name, buildMillis, loadMillis, Files.size(file)
+        ));
+    }
+
+    private interface Writer<T> {
+        void write(T value, Path file) throws IOException;
+    }
+
+    private interface Reader<T> {
+        T read(Path file) throws IOException;
+    }
+}
@@ -0,0 +1,277 @@
+package com.dajudge.colordiff;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+
+import static com.dajudge.colordiff.Diff.ciede2000;
+import static com.dajudge.colordiff.Diff.ciede2000_bounded;
+
+/**
+ * Approximate closest-color matcher for cases where a color within a small ΔE of the exact match is good enough,
+ * e.g. previews and thumbnails.
+ * <p>
+ * L,a,b space is divided into a grid of cubic cells. The first query hitting a cell computes the distances from the
+ * cell center to all palette colors and keeps the colors within <code>slack</code> ΔE of the closest one as the
+ * cell's candidates. Queries then only compare against the candidates of their cell.
+ * <p>
+ * The two parameters trade speed for recall:
+ * <ul>
+ * <li><code>slack</code>: with a slack of 0 every query in a cell gets the color closest to the cell center; larger
+ * values keep more candidates for the exact refinement. A slack of about twice the ΔE spanned by half a cell
+ * diagonal makes misses rare.</li>
+ * <li><code>cellSize</code>: smaller cells are more precise but need more memory and more cells to be built.</li>
+ * </ul>
+ * Optionally, the number of candidates per cell can be capped, keeping those closest to the cell center. This bounds
+ * the memory of a cell for dense palettes, where many colors may lie within the slack.
+ * Colors outside the grid (L outside 0-100, a or b outside ±128) are clamped to the nearest cell. Equally distant
+ * candidates are resolved in favor of the lower palette index like {@link PreparedPalette#closest(LabColor)}.
+ * <p>
+ * Instances are thread-safe; cells are built lazily without locking, so two threads may occasionally build the same
+ * cell.
+ */
+public class ApproximateMatcher {
+    public static final double DEFAULT_SLACK = 2;
+    public static final double DEFAULT_CELL_SIZE = 4;
+    public static final int UNLIMITED_CANDIDATES = Integer.MAX_VALUE;
+    private static final double MIN_L = 0;
+    private static final double MAX_L = 100;
+    private static final double MIN_AB = -128;
+    private static final double MAX_AB = 128;
+    private static final int PARALLEL_THRESHOLD = 256;
+
+    private final PreparedPalette palette;
+    private final double slack;
+    private final double cellSize;
+    private final int maxCandidates;
+    private final int cellsL;
+    private final int cellsAb;
+    private final AtomicReferenceArray<int[]> cells;
+    private final AtomicInteger builtCells = new AtomicInteger();
+
+    /**
+     * Creates a matcher with {@link #DEFAULT_SLACK} and {@link #DEFAULT_CELL_SIZE}.
+     *
+     * @param palette the palette to match against
+     */
+    public ApproximateMatcher(final PreparedPalette palette) {
+        this(palette, DEFAULT_SLACK, DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Creates a matcher.
+     *
+     * @param palette  the palette to match against
+     * @param slack    the ΔE beyond the closest color to the cell center up to which palette colors are kept as
+     *                 candidates of a cell
+     * @param cellSize the edge length of the cells in L,a,b units
+     */
+    public ApproximateMatcher(final PreparedPalette palette, final double slack, final double cellSize) {
+        this(palette, slack, cellSize, UNLIMITED_CANDIDATES);
+    }
+
+    /**
+     * Creates a matcher keeping at most <code>maxCandidates</code> candidates per cell.
+     *
+     * @param palette       the palette to match against
+     * @param slack         the ΔE beyond the closest color to the cell center up to which palette colors are kept as
+     *                      candidates of a cell
+     * @param cellSize      the edge length of the cells in L,a,b units
+     * @param maxCandidates the maximum number of candidates of a cell, or {@link #UNLIMITED_CANDIDATES}
+     */
+    public ApproximateMatcher(
+            final PreparedPalette palette,
+            final double slack,
+            final double cellSize,
+            final int maxCandidates
+    ) {
+        if (!(slack >= 0)) {
+            throw new IllegalArgumentException("slack must not be negative: " + slack);
+        }
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("cellSize must be positive: " + cellSize);
+        }
+        if (maxCandidates < 1) {
+            throw new IllegalArgumentException("maxCandidates must be positive: " + maxCandidates);
+        }
+        this.palette = palette;
+        this.slack = slack;
+        this.cellSize = cellSize;
+        this.maxCandidates = maxCandidates;
+        this.cellsL = (int) Math.ceil((MAX_L - MIN_L) / cellSize);
+        this.cellsAb = (int) Math.ceil((MAX_AB - MIN_AB) / cellSize);
+        final long cellCount = (long) cellsL * cellsAb * cellsAb;
+        if (cellCount > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("cellSize too small: " + cellSize);
+        }
+        this.cells = new AtomicReferenceArray<>((int) cellCount);
+    }
+
+    public PreparedPalette palette() {
+        return palette;
+    }
+
+    public double slack() {
+        return slack;
+    }
+
+    public double cellSize() {
+        return cellSize;
+    }
+
+    public int maxCandidates() {
+        return maxCandidates;
+    }
+
+    /**
+     * @return the number of cells built so far
+     */
+    public int builtCells() {
+        return builtCells.get();
+    }
+
+    int cellCount() {
+        return cells.length();
+    }
+
+    /**
+     * @return the candidates of a cell or <code>null</code> if it has not been built yet
+     */
+    int[] builtCell(final int index) {
+        return cells.get(index);
+    }
+
+    /**
+     * Installs the candidates of a previously built cell, e.g. when loading a persisted matcher.
+     */
+    void restoreCell(final int index, final int[] candidates) {
+        if (cells.compareAndSet(index, null, candidates)) {
+            builtCells.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param color should have fields R,G,B
+     * @return an approximately closest palette color
+     */
+    public RgbColor closest(final RgbColor color) {
+        return palette.color(closest(palette.toLab(color)));
+    }
+
+    /**
+     * Returns the index of an approximately closest palette color.
+     *
+     * @param color should have fields L,a,b
+     * @return the index of the closest candidate of the color's cell
+     */
+    public int closest(final LabColor color) {
+        final int[] candidates = candidates(color);
+        int best = candidates[0];
+        if (candidates.length == 1) {
+            return best;
+        }
+        double best_diff = ciede2000(color, palette.lab(best));
+        for (int i = 1; i < candidates.length; i++) {
+            final double diff = ciede2000_bounded(color, palette.lab(candidates[i]), best_diff);
+            if (diff < best_diff) {
+                best = candidates[i];
+                best_diff = diff;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Batch variant of {@link #closest(LabColor)}. Large batches are processed in parallel.
+     *
+     * @param colors each element should have fields L,a,b
+     * @return the index of an approximately closest palette color for each element
+     */
+    public int[] closest(final LabColor[] colors) {
+        final int[] result = new int[colors.length];
+        final IntStream range = IntStream.range(0, colors.length);
+        (colors.length >= PARALLEL_THRESHOLD ? range.parallel() : range).forEach(i -> result[i] = closest(colors[i]));
+        return result;
+    }
+
+    /**
+     * @param color should have fields L,a,b
+     * @return the candidate palette indices of the color's cell in ascending order
+     */
+    int[] candidates(final LabColor color) {
+        final int l = cell(color.L, MIN_L, cellsL);
+        final int a = cell(color.a, MIN_AB, cellsAb);
+        final int b = cell(color.b, MIN_AB, cellsAb);
+        final int index = (l * cellsAb + a) * cellsAb + b;
+        int[] candidates = cells.get(index);
+        if (candidates == null) {
+            candidates = build(l, a, b);
+            if (cells.compareAndSet(index, null, candidates)) {
+                builtCells.incrementAndGet();
+            } else {
+                candidates = cells.get(index);
+            }
+        }
+        return candidates;
+    }
+
+    private int cell(final double value, final double min, final int count) {
+        final int cell = (int) Math.floor((value - min) / cellSize);
+        return cell < 0 ? 0 : cell >= count ? count - 1 : cell;
+    }
+
+    private int[] build(final int l, final int a, final int b) {
+        final LabColor center = new LabColor(
+                MIN_L + (l + .5) * cellSize,
+                MIN_AB + (a + .5) * cellSize,
+                MIN_AB + (b + .5) * cellSize
+        );
+        final double[] diffs = new double[palette.size()];
+        double best_diff = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < diffs.length; i++) {
+            diffs[i] = ciede2000(center, palette.lab(i));
+            best_diff = Math.min(best_diff, diffs[i]);
+        }
+        double limit = best_diff + slack;
+        int count = 0;
+        for (final double diff : diffs) {
+            if (diff <= limit) {
+                count++;
+            }
+        }
+        if (count > maxCandidates) {
+            // Lower the limit to the difference of the closest maxCandidates colors; ties go to lower indices
+            final double[] sorted = new double[count];
+            count = 0;
+            for (final double diff : diffs) {
+                if (diff <= limit) {
+                    sorted[count++] = diff;
+                }
+            }
+            Arrays.sort(sorted);
+            limit = sorted[maxCandidates - 1];
+            int below = 0;
+            while (sorted[below] < limit) {
+                below++;
+            }
+            int ties = maxCandidates - below;
+            final int[] candidates = new int[maxCandidates];
+            count = 0;
+            for (int i = 0; i < diffs.length; i++) {
+                if (diffs[i] < limit || diffs[i] == limit && ties-- > 0) {
+                    candidates[count++] = i;
+                }
+            }
+            return candidates;
+        }
+        final int[] candidates = new int[count];
+        count = 0;
+        for (int i = 0; i < diffs.length; i++) {
+            if (diffs[i] <= limit) {
+                candidates[count++] = i;
+            }
+        }
+        return candidates;
+    }
+}
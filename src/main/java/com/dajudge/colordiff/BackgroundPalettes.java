@@ -0,0 +1,185 @@
+package com.dajudge.colordiff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.IntStream;
+
+/**
+ * {@link PreparedPalette}s of one palette for several background colors, e.g. for checking colors against the light
+ * and the dark mode of a UI theme.
+ * <p>
+ * Opaque palette colors are converted to L,a,b once and shared by the prepared palettes of all backgrounds; only the
+ * translucent palette colors are blended and converted per background. Prepared palettes are cached by background
+ * color for the lifetime of the instance.
+ * <p>
+ * The batch queries evaluate a set of colors against several backgrounds in a single pass: opaque colors are
+ * converted once, and if the palette is opaque as well, matched once for all backgrounds. Results are identical to
+ * {@link PreparedPalette#closest(RgbColor)} and {@link PreparedPalette#closestArgb(int)} of the palette prepared for
+ * the respective background.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class BackgroundPalettes {
+    private static final int PARALLEL_THRESHOLD = 256;
+
+    private final List<RgbColor> colors;
+    private final ConversionProfile profile;
+    // L,a,b of the opaque palette colors, null for translucent ones
+    private final LabColor[] opaque;
+    private final boolean translucent;
+    private final ConcurrentMap<RgbColor, PreparedPalette> palettes = new ConcurrentHashMap<>();
+
+    /**
+     * Creates background palettes using the default conversion profile.
+     *
+     * @param palette each element should have fields R,G,B and optionally A
+     */
+    public BackgroundPalettes(final List<RgbColor> palette) {
+        this(palette, ConversionProfile.DEFAULT);
+    }
+
+    /**
+     * Creates background palettes using a conversion profile. Queried colors are converted with the same profile.
+     *
+     * @param palette each element should have fields R,G,B and optionally A
+     * @param profile the conversion profile
+     */
+    public BackgroundPalettes(final List<RgbColor> palette, final ConversionProfile profile) {
+        if (palette.isEmpty()) {
+            throw new IllegalArgumentException("Palette must not be empty");
+        }
+        this.colors = Collections.unmodifiableList(new ArrayList<>(palette));
+        this.profile = profile;
+        this.opaque = new LabColor[colors.size()];
+        boolean translucent = false;
+        for (int i = 0; i < opaque.length; i++) {
+            final RgbColor color = colors.get(i);
+            if (color.a == null) {
+                opaque[i] = Convert.rgb_to_lab(color, profile);
+            } else {
+                translucent = true;
+            }
+        }
+        this.translucent = translucent;
+    }
+
+    public List<RgbColor> colors() {
+        return colors;
+    }
+
+    public ConversionProfile profile() {
+        return profile;
+    }
+
+    /**
+     * @return the background colors palettes have been prepared for
+     */
+    public List<RgbColor> backgrounds() {
+        return new ArrayList<>(palettes.keySet());
+    }
+
+    /**
+     * Returns the palette prepared for a background color, preparing it on first use.
+     *
+     * @param bc should have fields R,G,B
+     * @return the prepared palette
+     */
+    public PreparedPalette forBackground(final RgbColor bc) {
+        return palettes.computeIfAbsent(bc, this::prepare);
+    }
+
+    private PreparedPalette prepare(final RgbColor bc) {
+        final LabColor[] lab = opaque.clone();
+        for (int i = 0; i < lab.length; i++) {
+            if (lab[i] == null) {
+                lab[i] = Convert.rgba_to_lab(colors.get(i), bc, profile);
+            }
+        }
+        return new PreparedPalette(colors, bc, profile, lab);
+    }
+
+    /**
+     * Returns the indices of the closest palette colors for several backgrounds.
+     *
+     * @param colors      each element should have fields R,G,B and optionally A
+     * @param backgrounds each element should have fields R,G,B
+     * @return for each background, the index of the closest palette color for each color
+     */
+    public int[][] closest(final List<RgbColor> colors, final List<RgbColor> backgrounds) {
+        final PreparedPalette[] prepared = prepare(backgrounds);
+        final int[][] result = new int[prepared.length][colors.size()];
+        range(colors.size()).forEach(i -> {
+            final RgbColor color = colors.get(i);
+            final double[] lab = Scratch.get().lab;
+            if (color.a == null) {
+                Convert.rgb_to_lab(color.r, color.g, color.b, profile, lab, 0);
+                closestOpaque(prepared, lab, result, i);
+            } else {
+                for (int k = 0; k < prepared.length; k++) {
+                    Convert.to_lab(color, prepared[k].background(), profile, lab, 0);
+                    result[k][i] = prepared[k].scan(lab[0], lab[1], lab[2], false, null);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns the indices of the closest palette colors for several backgrounds.
+     *
+     * @param argb        the colors as <code>0xAARRGGBB</code>
+     * @param backgrounds each element should have fields R,G,B
+     * @return for each background, the index of the closest palette color for each color
+     */
+    public int[][] closest(final int[] argb, final List<RgbColor> backgrounds) {
+        final PreparedPalette[] prepared = prepare(backgrounds);
+        final int[][] result = new int[prepared.length][argb.length];
+        range(argb.length).forEach(i -> {
+            final double[] lab = Scratch.get().lab;
+            final int c = argb[i];
+            if (c >>> 24 == 0xFF) {
+                Convert.rgb_to_lab(c >> 16 & 0xFF, c >> 8 & 0xFF, c & 0xFF, profile, lab, 0);
+                closestOpaque(prepared, lab, result, i);
+            } else {
+                for (int k = 0; k < prepared.length; k++) {
+                    Convert.argb_to_lab(c, prepared[k].background(), profile, lab, 0);
+                    result[k][i] = prepared[k].scan(lab[0], lab[1], lab[2], false, null);
+                }
+            }
+        });
+        return result;
+    }
+
+    private void closestOpaque(final PreparedPalette[] prepared, final double[] lab, final int[][] result, final int i) {
+        if (prepared.length == 0) {
+            return;
+        }
+        if (!translucent) {
+            // Neither the color nor the palette depend on the background
+            final int index = prepared[0].scan(lab[0], lab[1], lab[2], false, null);
+            for (final int[] indices : result) {
+                indices[i] = index;
+            }
+            return;
+        }
+        for (int k = 0; k < prepared.length; k++) {
+            result[k][i] = prepared[k].scan(lab[0], lab[1], lab[2], false, null);
+        }
+    }
+
+    private PreparedPalette[] prepare(final List<RgbColor> backgrounds) {
+        final PreparedPalette[] prepared = new PreparedPalette[backgrounds.size()];
+        for (int k = 0; k < prepared.length; k++) {
+            prepared[k] = forBackground(backgrounds.get(k));
+        }
+        return prepared;
+    }
+
+    private static IntStream range(final int n) {
+        final IntStream range = IntStream.range(0, n);
+        return n >= PARALLEL_THRESHOLD ? range.parallel() : range;
+    }
+}
@@ -0,0 +1,316 @@
+package com.dajudge.colordiff;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Closest-color matcher using the fastest acceleration structure that fits a memory budget and pays off for the
+ * expected number of queries.
+ * <p>
+ * {@link #builder(PreparedPalette)} picks one of these {@link Strategy strategies}:
+ * <ul>
+ * <li>{@link Strategy#LOOKUP_TABLE}: a {@link PaletteLut} if it fits the budget and enough queries are expected to
+ * make up for building it, which costs about as much as {@value #LUT_BREAK_EVEN_QUERIES} queries against the
+ * palette. Exact.</li>
+ * <li>{@link Strategy#APPROXIMATE}: an {@link ApproximateMatcher} with the smallest cells whose worst-case footprint
+ * fits the budget, if approximate results are allowed. The slack is scaled with the cell size, so the recall stays
+ * about the same. Cells keep at most {@value #MAX_CELL_CANDIDATES} candidates, which bounds the footprint for dense
+ * palettes too.</li>
+ * <li>{@link Strategy#SCAN}: the prepared palette itself, whose scans skip colors ruled out by
+ * {@link Diff#ciede2000_bounded(LabColor, LabColor, double)}. Exact, and the fallback for small budgets.</li>
+ * </ul>
+ * Footprints are estimates for a 64 bit JVM with compressed references. The palette is always needed; if it alone
+ * exceeds the budget, {@link Strategy#SCAN} is used. After building, a short sample of random queries is timed to
+ * report the expected cost per query on the current machine.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class BudgetedMatcher {
+    /**
+     * Estimated heap bytes per color of a {@link PreparedPalette}: the color, its L,a,b value and the references to
+     * them.
+     */
+    static final long BYTES_PER_PALETTE_COLOR = 88;
+    static final int MAX_CELL_CANDIDATES = 8;
+    /**
+     * Worst-case heap bytes per cell of an {@link ApproximateMatcher}: the reference and an array of
+     * {@value #MAX_CELL_CANDIDATES} candidates.
+     */
+    static final long BYTES_PER_CELL = 4 + arrayBytes(MAX_CELL_CANDIDATES);
+    static final long LUT_BREAK_EVEN_QUERIES = PaletteLut.SIZE / 2;
+    private static final double[] CELL_SIZES = {1, 2, 4, 8};
+    private static final int MAX_LUT_PALETTE = 65536;
+    private static final int CALIBRATION_QUERIES = 256;
+    private static final long CALIBRATION_NANOS = 50_000_000L;
+    private static final int PARALLEL_THRESHOLD = 256;
+
+    /**
+     * The acceleration structures a {@link BudgetedMatcher} chooses from.
+     */
+    public enum Strategy {
+        LOOKUP_TABLE, APPROXIMATE, SCAN
+    }
+
+    private final PreparedPalette palette;
+    private final Strategy strategy;
+    private final long budget;
+    private final PaletteLut lut;
+    private final ApproximateMatcher approximate;
+    private final double nanosPerQuery;
+
+    private BudgetedMatcher(
+            final PreparedPalette palette,
+            final Strategy strategy,
+            final long budget,
+            final PaletteLut lut,
+            final ApproximateMatcher approximate
+    ) {
+        this.palette = palette;
+        this.strategy = strategy;
+        this.budget = budget;
+        this.lut = lut;
+        this.approximate = approximate;
+        this.nanosPerQuery = calibrate();
+    }
+
+    /**
+     * @param palette the palette to match against
+     * @return a builder using a quarter of the maximum heap size as budget and expecting few queries
+     */
+    public static Builder builder(final PreparedPalette palette) {
+        return new Builder(palette);
+    }
+
+    public PreparedPalette palette() {
+        return palette;
+    }
+
+    public Strategy strategy() {
+        return strategy;
+    }
+
+    /**
+     * @return the memory budget the strategy was chosen for, in bytes
+     */
+    public long budget() {
+        return budget;
+    }
+
+    /**
+     * @return the lookup table, or null unless the strategy is {@link Strategy#LOOKUP_TABLE}
+     */
+    public PaletteLut lut() {
+        return lut;
+    }
+
+    /**
+     * @return the approximate matcher, or null unless the strategy is {@link Strategy#APPROXIMATE}
+     */
+    public ApproximateMatcher approximate() {
+        return approximate;
+    }
+
+    /**
+     * Returns the estimated heap footprint of the palette and the acceleration structure. The footprint of an
+     * approximate matcher grows as its cells are built.
+     *
+     * @return the footprint in bytes
+     */
+    public long footprint() {
+        final long paletteBytes = palette.size() * BYTES_PER_PALETTE_COLOR;
+        switch (strategy) {
+            case LOOKUP_TABLE:
+                return paletteBytes + lutBytes(palette.size());
+            case APPROXIMATE:
+                long bytes = paletteBytes + 16 + 4L * approximate.cellCount();
+                for (int i = 0; i < approximate.cellCount(); i++) {
+                    final int[] cell = approximate.builtCell(i);
+                    if (cell != null) {
+                        bytes += arrayBytes(cell.length);
+                    }
+                }
+                return bytes;
+            default:
+                return paletteBytes;
+        }
+    }
+
+    /**
+     * @return the average time of a query measured after building, in nanoseconds
+     */
+    public double nanosPerQuery() {
+        return nanosPerQuery;
+    }
+
+    /**
+     * @param color should have fields R,G,B and optionally A
+     * @return the closest palette color, approximately for {@link Strategy#APPROXIMATE}
+     */
+    public RgbColor closest(final RgbColor color) {
+        if (lut != null && color.a == null && isByte(color.r) && isByte(color.g) && isByte(color.b)) {
+            return lut.closest(color);
+        }
+        if (approximate != null) {
+            return approximate.closest(color);
+        }
+        return palette.closest(color);
+    }
+
+    /**
+     * @param argb the color as <code>0xAARRGGBB</code>; see {@link PreparedPalette#closestArgb(int)}
+     * @return the index of the closest palette color, approximately for {@link Strategy#APPROXIMATE}
+     */
+    public int closestArgb(final int argb) {
+        if (lut != null && argb >>> 24 == 0xFF) {
+            return lut.closest(argb);
+        }
+        if (approximate != null) {
+            final double[] lab = Scratch.get().lab;
+            Convert.argb_to_lab(argb, palette.background(), palette.profile(), lab, 0);
+            return approximate.closest(new LabColor(lab[0], lab[1], lab[2]));
+        }
+        return palette.closestArgb(argb);
+    }
+
+    /**
+     * Batch variant of {@link #closestArgb(int)}. Large batches are processed in parallel.
+     *
+     * @param argb    colors as <code>0xAARRGGBB</code>
+     * @param indices receives the index of the closest palette color for each element
+     */
+    public void closestArgb(final int[] argb, final int[] indices) {
+        if (indices.length < argb.length) {
+            throw new IllegalArgumentException("Output too small: " + indices.length + " < " + argb.length);
+        }
+        final IntStream range = IntStream.range(0, argb.length);
+        (argb.length >= PARALLEL_THRESHOLD ? range.parallel() : range).forEach(i -> indices[i] = closestArgb(argb[i]));
+    }
+
+    private double calibrate() {
+        final Random random = new Random(0);
+        final int[] queries = new int[CALIBRATION_QUERIES];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = random.nextInt() | 0xFF000000;
+        }
+        // The first pass warms up the code and builds the cells of approximate matchers
+        for (final int query : queries) {
+            closestArgb(query);
+        }
+        final long start = System.nanoTime();
+        int count = 0;
+        while (count < queries.length && (count == 0 || System.nanoTime() - start < CALIBRATION_NANOS)) {
+            closestArgb(queries[count++]);
+        }
+        return (System.nanoTime() - start) / (double) count;
+    }
+
+    private static boolean isByte(final double v) {
+        return v >= 0 && v <= 255 && v == Math.rint(v);
+    }
+
+    private static long arrayBytes(final int length) {
+        return (16 + 4L * length + 7) & ~7;
+    }
+
+    private static long lutBytes(final int size) {
+        return (long) PaletteLut.SIZE * (size <= 256 ? 1 : 2);
+    }
+
+    /**
+     * Builder of {@link BudgetedMatcher}s.
+     */
+    public static class Builder {
+        private final PreparedPalette palette;
+        private long budget = Runtime.getRuntime().maxMemory() / 4;
+        private long expectedQueries;
+        private boolean exact = true;
+
+        private Builder(final PreparedPalette palette) {
+            this.palette = palette;
+        }
+
+        /**
+         * @param bytes the heap the palette and its acceleration structure may take
+         * @return this builder
+         */
+        public Builder memoryBudget(final long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Budget must not be negative: " + bytes);
+            }
+            this.budget = bytes;
+            return this;
+        }
+
+        /**
+         * @param queries the number of queries expected over the lifetime of the matcher, e.g. the number of pixels
+         *                of the images to quantize
+         * @return this builder
+         */
+        public Builder expectedQueries(final long queries) {
+            if (queries < 0) {
+                throw new IllegalArgumentException("Expected queries must not be negative: " + queries);
+            }
+            this.expectedQueries = queries;
+            return this;
+        }
+
+        /**
+         * @param exact whether results must equal those of the palette; if false, an {@link ApproximateMatcher} may
+         *              be chosen
+         * @return this builder
+         */
+        public Builder exact(final boolean exact) {
+            this.exact = exact;
+            return this;
+        }
+
+        /**
+         * @return the strategy {@link #build()} will use
+         */
+        public Strategy strategy() {
+            final long paletteBytes = palette.size() * BYTES_PER_PALETTE_COLOR;
+            if (palette.size() <= MAX_LUT_PALETTE
+                    && expectedQueries >= LUT_BREAK_EVEN_QUERIES
+                    && paletteBytes + lutBytes(palette.size()) <= budget) {
+                return Strategy.LOOKUP_TABLE;
+            }
+            if (!exact && cellSize(paletteBytes) > 0) {
+                return Strategy.APPROXIMATE;
+            }
+            return Strategy.SCAN;
+        }
+
+        /**
+         * Builds the chosen acceleration structure and measures the cost of a query.
+         *
+         * @return the matcher
+         */
+        public BudgetedMatcher build() {
+            final Strategy strategy = strategy();
+            switch (strategy) {
+                case LOOKUP_TABLE:
+                    return new BudgetedMatcher(palette, strategy, budget, new PaletteLut(palette), null);
+                case APPROXIMATE:
+                    final double cellSize = cellSize(palette.size() * BYTES_PER_PALETTE_COLOR);
+                    final double slack = ApproximateMatcher.DEFAULT_SLACK * cellSize / ApproximateMatcher.DEFAULT_CELL_SIZE;
+                    return new BudgetedMatcher(palette, strategy, budget, null, new ApproximateMatcher(palette, slack, cellSize, MAX_CELL_CANDIDATES));
+                default:
+                    return new BudgetedMatcher(palette, strategy, budget, null, null);
+            }
+        }
+
+        /**
+         * @return the smallest cell size whose worst-case footprint fits the budget, or 0 if none does
+         */
+        private double cellSize(final long paletteBytes) {
+            for (final double cellSize : CELL_SIZES) {
+                final long cellsL = (long) Math.ceil(100 / cellSize);
+                final long cellsAb = (long) Math.ceil(256 / cellSize);
+                if (paletteBytes + 16 + cellsL * cellsAb * cellsAb * BYTES_PER_CELL <= budget) {
+                    return cellSize;
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.dajudge.colordiff;
+
+/**
+ * Conversion of XYZ to CAM16-UCS for a set of viewing conditions.
+ * <p>
+ * Implemented as in "Comprehensive color solutions: CAM16, CAT16, and CAM16-UCS" by Changjun Li, Zhiqiang Li,
+ * Zhifeng Wang, Yang Xu, Ming Ronnier Luo, Guihua Cui, Manuel Melgosa, Michael H. Brill and Michael Pointer.
+ */
+final class Cam16Ucs {
+    // Declared before SRGB, which uses it during class initialization
+    private static final double[][] M16 = {
+            {0.401288, 0.650173, -0.051461},
+            {-0.250268, 1.204414, 0.045854},
+            {-0.002079, 0.048952, 0.953127}
+    };
+
+    /**
+     * sRGB reference viewing conditions: D65 white, an adapting luminance of 64 lux on a 20% gray background
+     * (<code>L_A = 64 / π * 0.2</code> cd/m², <code>Y_b = 20</code>) and an average surround.
+     */
+    static final Cam16Ucs SRGB = new Cam16Ucs(new double[]{95.047, 100.0, 108.883}, 64 / Math.PI * 0.2, 20, 1, 0.69, 1);
+
+    private final double[] dRgb = new double[3];
+    private final double fl;
+    private final double n;
+    private final double z;
+    private final double nbb;
+    private final double c;
+    private final double nc;
+    private final double aw;
+
+    /**
+     * @param white XYZ of the reference white, Y = 100
+     * @param la    adapting luminance in cd/m²
+     * @param yb    relative luminance of the background
+     * @param f     surround factor F
+     * @param c     surround factor c
+     * @param nc    surround factor Nc
+     */
+    Cam16Ucs(final double[] white, final double la, final double yb, final double f, final double c, final double nc) {
+        final double[] rgbW = new double[3];
+        for (int i = 0; i < 3; i++) {
+            rgbW[i] = M16[i][0] * white[0] + M16[i][1] * white[1] + M16[i][2] * white[2];
+        }
+        final double d = Math.max(0, Math.min(1, f * (1 - (1 / 3.6) * Math.exp((-la - 42) / 92))));
+        for (int i = 0; i < 3; i++) {
+            dRgb[i] = d * white[1] / rgbW[i] + 1 - d;
+        }
+        final double k = 1 / (5 * la + 1);
+        final double k4 = k * k * k * k;
+        this.fl = 0.2 * k4 * (5 * la) + 0.1 * (1 - k4) * (1 - k4) * Math.cbrt(5 * la);
+        this.n = yb / white[1];
+        this.z = 1.48 + Math.sqrt(n);
+        this.nbb = 0.725 * Math.pow(n, -0.2);
+        this.c = c;
+        this.nc = nc;
+        final double rw = adapt(dRgb[0] * rgbW[0]);
+        final double gw = adapt(dRgb[1] * rgbW[1]);
+        final double bw = adapt(dRgb[2] * rgbW[2]);
+        this.aw = (2 * rw + gw + 0.05 * bw - 0.305) * nbb;
+    }
+
+    /**
+     * Converts XYZ (Y = 100 for white) to J',a',b'.
+     */
+    void xyz_to_jab(final double x, final double y, final double zz, final double[] out, final int offset) {
+        final double ra = adapt(dRgb[0] * (M16[0][0] * x + M16[0][1] * y + M16[0][2] * zz));
+        final double ga = adapt(dRgb[1] * (M16[1][0] * x + M16[1][1] * y + M16[1][2] * zz));
+        final double ba = adapt(dRgb[2] * (M16[2][0] * x + M16[2][1] * y + M16[2][2] * zz));
+        final double a = ra - 12 * ga / 11 + ba / 11;
+        final double b = (ra + ga - 2 * ba) / 9;
+        final double h = Math.atan2(b, a);
+        final double et = 0.25 * (Math.cos(h + 2) + 3.8);
+        final double achromatic = (2 * ra + ga + 0.05 * ba - 0.305) * nbb;
+        final double j = 100 * Math.pow(Math.max(0, achromatic / aw), c * z);
+        final double t = 50000.0 / 13 * nc * nbb * et * Math.sqrt(a * a + b * b) / (ra + ga + 21.0 / 20 * ba);
+        final double chroma = Math.pow(t, 0.9) * Math.sqrt(j / 100) * Math.pow(1.64 - Math.pow(0.29, n), 0.73);
+        final double m = chroma * Math.pow(fl, 0.25);
+        final double mp = Math.log(1 + 0.0228 * m) / 0.0228;
+        out[offset] = 1.7 * j / (1 + 0.007 * j);
+        out[offset + 1] = mp * Math.cos(h);
+        out[offset + 2] = mp * Math.sin(h);
+    }
+
+    /**
+     * @return J, C and h (in degrees), for comparison with published test data
+     */
+    double[] xyz_to_jch(final double x, final double y, final double zz) {
+        final double[] jab = new double[3];
+        xyz_to_jab(x, y, zz, jab, 0);
+        final double j = jab[0] / (1.7 - 0.007 * jab[0]);
+        final double m = (Math.exp(0.0228 * Math.hypot(jab[1], jab[2])) - 1) / 0.0228;
+        final double h = (Math.toDegrees(Math.atan2(jab[2], jab[1])) + 360) % 360;
+        return new double[]{j, m / Math.pow(fl, 0.25), h};
+    }
+
+    private double adapt(final double component) {
+        final double f = Math.pow(fl * Math.abs(component) / 100, 0.42);
+        return Math.signum(component) * 400 * f / (f + 27.13) + 0.1;
+    }
+}
@@ -0,0 +1,391 @@
+package com.dajudge.colordiff;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Asynchronous matcher that coalesces single-color requests into batches.
+ * <p>
+ * Requests are collected until either <code>maxBatchSize</code> requests are pending or <code>maxDelay</code> has
+ * passed since the first pending request, whichever comes first. The batch is then resolved against the prepared
+ * palette on the injected executor. A delay of zero dispatches the batch right away; requests arriving until the
+ * executor picks it up still join the batch, so batches grow with the load without adding latency when idle.
+ * <p>
+ * Submitting never blocks on the resolution of other requests, which makes the matcher suitable for many request
+ * threads, including virtual threads (the pending list is guarded by a {@link ReentrantLock}, which does not pin
+ * virtual threads).
+ */
+public class CoalescingMatcher {
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1024;
+    public static final long DEFAULT_MAX_DELAY_MICROS = 200;
+    private static final int CLOSEST = 0;
+    private static final int FURTHEST = -1;
+    private static final ScheduledThreadPoolExecutor TIMER = timer();
+
+    private final PreparedPalette palette;
+    private final Executor executor;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private List<Request> pending = new ArrayList<>();
+    private long window;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder resolved = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder fullBatches = new LongAdder();
+    private final LongAccumulator largestBatch = new LongAccumulator(Math::max, 0);
+    private final AtomicLongArray histogram = new AtomicLongArray(32);
+
+    /**
+     * Creates a matcher with {@link #DEFAULT_MAX_BATCH_SIZE} and {@link #DEFAULT_MAX_DELAY_MICROS}.
+     *
+     * @param palette  the palette to match against
+     * @param executor the executor resolving the batches
+     */
+    public CoalescingMatcher(final PreparedPalette palette, final Executor executor) {
+        this(palette, executor, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_DELAY_MICROS, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Creates a matcher.
+     *
+     * @param palette      the palette to match against
+     * @param executor     the executor resolving the batches
+     * @param maxBatchSize a batch is dispatched as soon as it has this many requests (throughput)
+     * @param maxDelay     a batch is dispatched at the latest this long after its first request (latency)
+     * @param unit         the unit of <code>maxDelay</code>
+     */
+    public CoalescingMatcher(
+            final PreparedPalette palette,
+            final Executor executor,
+            final int maxBatchSize,
+            final long maxDelay,
+            final TimeUnit unit
+    ) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        if (maxDelay < 0) {
+            throw new IllegalArgumentException("maxDelay must not be negative: " + maxDelay);
+        }
+        this.palette = palette;
+        this.executor = executor;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+    }
+
+    public PreparedPalette palette() {
+        return palette;
+    }
+
+    /**
+     * @param color should have fields R,G,B
+     * @return the closest palette color
+     */
+    public CompletableFuture<RgbColor> closest(final RgbColor color) {
+        return closest(palette.toLab(color)).thenApply(palette::color);
+    }
+
+    /**
+     * @param color should have fields R,G,B
+     * @return the furthest palette color
+     */
+    public CompletableFuture<RgbColor> furthest(final RgbColor color) {
+        return furthest(palette.toLab(color)).thenApply(palette::color);
+    }
+
+    /**
+     * @param color should have fields L,a,b
+     * @return the index of the closest palette color
+     */
+    public CompletableFuture<Integer> closest(final LabColor color) {
+        return submit(color, CLOSEST).thenApply(r -> r[0]);
+    }
+
+    /**
+     * @param color should have fields L,a,b
+     * @return the index of the furthest palette color
+     */
+    public CompletableFuture<Integer> furthest(final LabColor color) {
+        return submit(color, FURTHEST).thenApply(r -> r[0]);
+    }
+
+    /**
+     * @param color should have fields L,a,b
+     * @param k     the number of colors to return
+     * @return the indices of the k closest palette colors, see {@link PreparedPalette#nearest(LabColor, int)}
+     */
+    public CompletableFuture<int[]> nearest(final LabColor color, final int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        return submit(color, k);
+    }
+
+    /**
+     * Dispatches the pending requests without waiting for the batch to fill up or the delay to pass.
+     */
+    public void flush() {
+        final List<Request> batch;
+        lock.lock();
+        try {
+            batch = take();
+        } finally {
+            lock.unlock();
+        }
+        dispatch(batch, false);
+    }
+
+    public Metrics metrics() {
+        final long[] sizes = new long[histogram.length()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = histogram.get(i);
+        }
+        return new Metrics(requests.sum(), resolved.sum(), batches.sum(), fullBatches.sum(), largestBatch.get(), sizes);
+    }
+
+    private CompletableFuture<int[]> submit(final LabColor color, final int operation) {
+        final Request request = new Request(color, operation);
+        requests.increment();
+        List<Request> full = null;
+        long openedWindow = -1;
+        lock.lock();
+        try {
+            pending.add(request);
+            if (pending.size() >= maxBatchSize) {
+                full = take();
+            } else if (pending.size() == 1) {
+                openedWindow = window;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (full != null) {
+            dispatch(full, true);
+        } else if (openedWindow >= 0) {
+            final long expectedWindow = openedWindow;
+            final Runnable flush = () -> flushWindow(expectedWindow);
+            if (maxDelayNanos == 0) {
+                execute(flush, null);
+            } else {
+                TIMER.schedule(() -> execute(flush, null), maxDelayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        return request.result;
+    }
+
+    private void flushWindow(final long expectedWindow) {
+        final List<Request> batch;
+        lock.lock();
+        try {
+            // The window may already have been dispatched because it filled up
+            batch = window == expectedWindow ? take() : null;
+        } finally {
+            lock.unlock();
+        }
+        if (batch != null) {
+            resolve(batch);
+        }
+    }
+
+    private List<Request> take() {
+        final List<Request> batch = pending;
+        pending = new ArrayList<>();
+        window++;
+        return batch;
+    }
+
+    private void dispatch(final List<Request> batch, final boolean full) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (full) {
+            fullBatches.increment();
+        }
+        execute(() -> resolve(batch), batch);
+    }
+
+    private void execute(final Runnable task, final List<Request> batch) {
+        try {
+            executor.execute(task);
+        } catch (final RejectedExecutionException e) {
+            if (batch != null) {
+                for (final Request request : batch) {
+                    request.result.completeExceptionally(e);
+                }
+            } else {
+                // The window flush was rejected; fail whatever is pending
+                flushRejected(e);
+            }
+        }
+    }
+
+    private void flushRejected(final RejectedExecutionException e) {
+        final List<Request> batch;
+        lock.lock();
+        try {
+            batch = take();
+        } finally {
+            lock.unlock();
+        }
+        for (final Request request : batch) {
+            request.result.completeExceptionally(e);
+        }
+    }
+
+    private void resolve(final List<Request> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        record(batch.size());
+        final Map<Integer, List<Request>> operations = new LinkedHashMap<>();
+        for (final Request request : batch) {
+            operations.computeIfAbsent(request.operation, o -> new ArrayList<>()).add(request);
+        }
+        for (final Map.Entry<Integer, List<Request>> e : operations.entrySet()) {
+            final int operation = e.getKey();
+            final List<Request> requests = e.getValue();
+            try {
+                final LabColor[] colors = new LabColor[requests.size()];
+                for (int i = 0; i < colors.length; i++) {
+                    colors[i] = requests.get(i).color;
+                }
+                if (operation == CLOSEST || operation == FURTHEST) {
+                    final int[] result = operation == CLOSEST ? palette.closest(colors) : palette.furthest(colors);
+                    for (int i = 0; i < result.length; i++) {
+                        requests.get(i).result.complete(new int[]{result[i]});
+                    }
+                } else {
+                    final int[][] result = palette.nearest(colors, operation);
+                    for (int i = 0; i < result.length; i++) {
+                        requests.get(i).result.complete(result[i]);
+                    }
+                }
+            } catch (final RuntimeException ex) {
+                for (final Request request : requests) {
+                    request.result.completeExceptionally(ex);
+                }
+            }
+        }
+    }
+
+    private void record(final int size) {
+        batches.increment();
+        resolved.add(size);
+        largestBatch.accumulate(size);
+        histogram.incrementAndGet(31 - Integer.numberOfLeadingZeros(size));
+    }
+
+    private static ScheduledThreadPoolExecutor timer() {
+        final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, "color-diff-coalescing-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    private static class Request {
+        private final LabColor color;
+        private final int operation;
+        private final CompletableFuture<int[]> result = new CompletableFuture<>();
+
+        private Request(final LabColor color, final int operation) {
+            this.color = color;
+            this.operation = operation;
+        }
+    }
+
+    /**
+     * Snapshot of the batching metrics of a {@link CoalescingMatcher}.
+     */
+    public static class Metrics {
+        private final long requests;
+        private final long resolved;
+        private final long batches;
+        private final long fullBatches;
+        private final long largestBatch;
+        private final long[] histogram;
+
+        Metrics(
+                final long requests,
+                final long resolved,
+                final long batches,
+                final long fullBatches,
+                final long largestBatch,
+                final long[] histogram
+        ) {
+            this.requests = requests;
+            this.resolved = resolved;
+            this.batches = batches;
+            this.fullBatches = fullBatches;
+            this.largestBatch = largestBatch;
+            this.histogram = histogram;
+        }
+
+        /**
+         * @return the number of submitted requests
+         */
+        public long requests() {
+            return requests;
+        }
+
+        /**
+         * @return the number of resolved batches
+         */
+        public long batches() {
+            return batches;
+        }
+
+        /**
+         * @return the number of batches dispatched because they reached the maximum batch size
+         */
+        public long fullBatches() {
+            return fullBatches;
+        }
+
+        public long largestBatch() {
+            return largestBatch;
+        }
+
+        /**
+         * @return the number of requests resolved in batches
+         */
+        public long resolved() {
+            return resolved;
+        }
+
+        /**
+         * @return the average number of requests per resolved batch
+         */
+        public double averageBatchSize() {
+            return batches == 0 ? 0 : (double) resolved / batches;
+        }
+
+        /**
+         * @return the batch size histogram; element i counts the batches with a size in [2^i, 2^(i+1))
+         */
+        public long[] batchSizeHistogram() {
+            return histogram.clone();
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + requests + ", resolved=" + resolved + ", batches=" + batches + ", fullBatches=" + fullBatches
+                    + ", largestBatch=" + largestBatch;
+        }
+    }
+}
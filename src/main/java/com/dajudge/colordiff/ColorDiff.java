@@ -100,6 +100,14 @@ public class ColorDiff {
         return Convert.rgb_to_lab(c);
     }
 
+    public static LabColor rgb_to_lab(final RgbColor c, final ConversionProfile profile) {
+        return Convert.rgb_to_lab(c, profile);
+    }
+
+    public static LabColor rgba_to_lab(final RgbColor c, final RgbColor bc, final ConversionProfile profile) {
+        return Convert.rgba_to_lab(c, bc, profile);
+    }
+
     public static double diff(final LabColor c1, final LabColor c2) {
         return Diff.ciede2000(c1, c2);
     }
@@ -148,6 +156,70 @@ public class ColorDiff {
         return result.get(key);
     }
 
+    /**
+     * Allocation-free variant of {@link #closest(RgbColor, List, RgbColor)}. Palette colors are converted on every
+     * call; use {@link PreparedPalette} to query the same palette repeatedly.
+     *
+     * @param color   should have fields R,G,B
+     * @param palette each element should have fields R,G,B
+     * @param bc      background color used if the color or the palette colors have an alpha component
+     * @param result  receives the index of and the distance to the closest palette color
+     */
+    public static void closest(
+            final RgbColor color,
+            final List<RgbColor> palette,
+            final RgbColor bc,
+            final MatchResult result
+    ) {
+        match(color, palette, bc, false, result);
+    }
+
+    /**
+     * Allocation-free variant of {@link #furthest(RgbColor, List, RgbColor)}. Palette colors are converted on every
+     * call; use {@link PreparedPalette} to query the same palette repeatedly.
+     *
+     * @param color   should have fields R,G,B
+     * @param palette each element should have fields R,G,B
+     * @param bc      background color used if the color or the palette colors have an alpha component
+     * @param result  receives the index of and the distance to the furthest palette color
+     */
+    public static void furthest(
+            final RgbColor color,
+            final List<RgbColor> palette,
+            final RgbColor bc,
+            final MatchResult result
+    ) {
+        match(color, palette, bc, true, result);
+    }
+
+    private static void match(
+            final RgbColor color,
+            final List<RgbColor> palette,
+            final RgbColor bc,
+            final boolean furthest,
+            final MatchResult result
+    ) {
+        if (palette.isEmpty()) {
+            throw new IllegalArgumentException("Palette must not be empty");
+        }
+        final double[] lab = Scratch.get().lab;
+        Convert.to_lab(color, bc, ConversionProfile.DEFAULT, lab, 0);
+        int best = -1;
+        double best_diff = 0;
+        // Indexed access, since iterators would allocate
+        for (int i = 0; i < palette.size(); i++) {
+            Convert.to_lab(palette.get(i), bc, ConversionProfile.DEFAULT, lab, 3);
+            final double diff = furthest || best < 0
+                    ? Diff.ciede2000(lab[0], lab[1], lab[2], lab[3], lab[4], lab[5])
+                    : Diff.ciede2000_bounded(lab[0], lab[1], lab[2], lab[3], lab[4], lab[5], best_diff);
+            if (best < 0 || (furthest ? diff > best_diff : diff < best_diff)) {
+                best = i;
+                best_diff = diff;
+            }
+        }
+        result.set(best, best_diff);
+    }
+
     public static LabColor closest_lab(final LabColor color, final List<LabColor> palette) {
         return match_palette_lab(color, palette, false);
     }
@@ -0,0 +1,224 @@
+package com.dajudge.colordiff;
+
+/**
+ * Immutable set of constants for the conversion of RGB colors to L,a,b.
+ * <p>
+ * A profile consists of the matrix converting linear RGB of the working space to XYZ, the white point of the working
+ * space, the reference white of the L,a,b space and whether XYZ values are chromatically adapted from the working
+ * space white to the reference white using the Bradford transform. All of this is folded into a single 3x3 matrix at
+ * construction, so converting with a profile costs the same as the default conversion. The sRGB companding curve is
+ * used for all working spaces.
+ * <p>
+ * {@link #DEFAULT} is the D65/2° profile used by {@link Convert#rgb_to_lab(RgbColor)} and reproduces its results
+ * exactly.
+ */
+public final class ConversionProfile {
+    /**
+     * The sRGB to XYZ matrix (D65) used by {@link Convert#rgb_to_lab(RgbColor)}.
+     */
+    private static final double[][] SRGB = {
+            {0.4124, 0.3576, 0.1805},
+            {0.2126, 0.7152, 0.0722},
+            {0.0193, 0.1192, 0.9505}
+    };
+
+    private static final double[][] BRADFORD = {
+            {0.8951, 0.2664, -0.1614},
+            {-0.7502, 1.7135, 0.0367},
+            {0.0389, -0.0685, 1.0296}
+    };
+
+    /**
+     * sRGB, Observer = 2°, Illuminant = D65; the profile of {@link Convert#rgb_to_lab(RgbColor)}.
+     */
+    public static final ConversionProfile DEFAULT = new ConversionProfile(
+            SRGB,
+            Illuminant.D65.white(Observer.TWO_DEGREES),
+            Illuminant.D65.white(Observer.TWO_DEGREES),
+            false
+    );
+
+    /**
+     * sRGB adapted to Observer = 2°, Illuminant = D50 with the Bradford transform, as commonly used for print.
+     */
+    public static final ConversionProfile SRGB_D50 = of(Illuminant.D50, Observer.TWO_DEGREES);
+
+    final double m00, m01, m02, m10, m11, m12, m20, m21, m22;
+    private final double[] referenceWhite;
+
+    /**
+     * Creates a profile.
+     *
+     * @param rgbToXyz       matrix converting linear RGB (range 0-1) of the working space to XYZ (range 0-1)
+     * @param sourceWhite    XYZ white point of the working space, Y = 100
+     * @param referenceWhite XYZ reference white of the L,a,b space, Y = 100
+     * @param adapt          whether to adapt from <code>sourceWhite</code> to <code>referenceWhite</code> using
+     *                       the Bradford transform
+     */
+    public ConversionProfile(
+            final double[][] rgbToXyz,
+            final double[] sourceWhite,
+            final double[] referenceWhite,
+            final boolean adapt
+    ) {
+        if (rgbToXyz.length != 3 || sourceWhite.length != 3 || referenceWhite.length != 3) {
+            throw new IllegalArgumentException("Expected a 3x3 matrix and XYZ white points");
+        }
+        double[][] m = new double[3][];
+        for (int i = 0; i < 3; i++) {
+            if (rgbToXyz[i].length != 3) {
+                throw new IllegalArgumentException("Expected a 3x3 matrix and XYZ white points");
+            }
+            m[i] = rgbToXyz[i].clone();
+        }
+        if (adapt) {
+            m = multiply(bradford(sourceWhite, referenceWhite), m);
+        }
+        // Fold the scaling to 0-100 and the division by the reference white into the matrix
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                m[i][j] *= 100.0 / referenceWhite[i];
+            }
+        }
+        m00 = m[0][0];
+        m01 = m[0][1];
+        m02 = m[0][2];
+        m10 = m[1][0];
+        m11 = m[1][1];
+        m12 = m[1][2];
+        m20 = m[2][0];
+        m21 = m[2][1];
+        m22 = m[2][2];
+        this.referenceWhite = referenceWhite.clone();
+    }
+
+    /**
+     * Restores a profile from its folded matrix, see {@link #matrix()}.
+     */
+    ConversionProfile(final double[] matrix, final double[] referenceWhite) {
+        m00 = matrix[0];
+        m01 = matrix[1];
+        m02 = matrix[2];
+        m10 = matrix[3];
+        m11 = matrix[4];
+        m12 = matrix[5];
+        m20 = matrix[6];
+        m21 = matrix[7];
+        m22 = matrix[8];
+        this.referenceWhite = referenceWhite.clone();
+    }
+
+    /**
+     * Returns an sRGB profile for a reference white, adapting from D65 with the Bradford transform if necessary.
+     *
+     * @param illuminant the reference illuminant
+     * @param observer   the standard observer
+     * @return the profile
+     */
+    public static ConversionProfile of(final Illuminant illuminant, final Observer observer) {
+        if (illuminant == Illuminant.D65 && observer == Observer.TWO_DEGREES) {
+            return DEFAULT;
+        }
+        final double[] white = illuminant.white(observer);
+        return new ConversionProfile(SRGB, Illuminant.D65.white(Observer.TWO_DEGREES), white, true);
+    }
+
+    public double[] referenceWhite() {
+        return referenceWhite.clone();
+    }
+
+    /**
+     * @return the folded conversion matrix in row-major order
+     */
+    double[] matrix() {
+        return new double[]{m00, m01, m02, m10, m11, m12, m20, m21, m22};
+    }
+
+    private static double[][] bradford(final double[] source, final double[] destination) {
+        final double[] s = multiply(BRADFORD, source);
+        final double[] d = multiply(BRADFORD, destination);
+        final double[][] scale = {
+                {d[0] / s[0], 0, 0},
+                {0, d[1] / s[1], 0},
+                {0, 0, d[2] / s[2]}
+        };
+        return multiply(invert(BRADFORD), multiply(scale, BRADFORD));
+    }
+
+    private static double[] multiply(final double[][] m, final double[] v) {
+        final double[] result = new double[3];
+        for (int i = 0; i < 3; i++) {
+            result[i] = m[i][0] * v[0] + m[i][1] * v[1] + m[i][2] * v[2];
+        }
+        return result;
+    }
+
+    private static double[][] multiply(final double[][] a, final double[][] b) {
+        final double[][] result = new double[3][3];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                result[i][j] = a[i][0] * b[0][j] + a[i][1] * b[1][j] + a[i][2] * b[2][j];
+            }
+        }
+        return result;
+    }
+
+    private static double[][] invert(final double[][] m) {
+        final double det = m[0][0] * (m[1][1] * m[2][2] - m[1][2] * m[2][1])
+                - m[0][1] * (m[1][0] * m[2][2] - m[1][2] * m[2][0])
+                + m[0][2] * (m[1][0] * m[2][1] - m[1][1] * m[2][0]);
+        return new double[][]{
+                {
+                        (m[1][1] * m[2][2] - m[1][2] * m[2][1]) / det,
+                        (m[0][2] * m[2][1] - m[0][1] * m[2][2]) / det,
+                        (m[0][1] * m[1][2] - m[0][2] * m[1][1]) / det
+                },
+                {
+                        (m[1][2] * m[2][0] - m[1][0] * m[2][2]) / det,
+                        (m[0][0] * m[2][2] - m[0][2] * m[2][0]) / det,
+                        (m[0][2] * m[1][0] - m[0][0] * m[1][2]) / det
+                },
+                {
+                        (m[1][0] * m[2][1] - m[1][1] * m[2][0]) / det,
+                        (m[0][1] * m[2][0] - m[0][0] * m[2][1]) / det,
+                        (m[0][0] * m[1][1] - m[0][1] * m[1][0]) / det
+                }
+        };
+    }
+
+    /**
+     * Standard observers.
+     */
+    public enum Observer {
+        TWO_DEGREES, TEN_DEGREES
+    }
+
+    /**
+     * Standard illuminants with their XYZ white points (Y = 100) for both observers.
+     * Based on http://www.easyrgb.com/en/math.php
+     */
+    public enum Illuminant {
+        A(109.850, 100.0, 35.585, 111.144, 100.0, 35.200),
+        C(98.074, 100.0, 118.232, 97.285, 100.0, 116.145),
+        D50(96.422, 100.0, 82.521, 96.720, 100.0, 81.427),
+        D55(95.682, 100.0, 92.149, 95.799, 100.0, 90.926),
+        D65(95.047, 100.000, 108.883, 94.811, 100.0, 107.304),
+        D75(94.972, 100.0, 122.638, 94.416, 100.0, 120.641),
+        E(100.0, 100.0, 100.0, 100.0, 100.0, 100.0),
+        F2(99.187, 100.0, 67.395, 103.280, 100.0, 69.026),
+        F7(95.044, 100.0, 108.755, 95.792, 100.0, 107.687),
+        F11(100.966, 100.0, 64.370, 103.866, 100.0, 65.627);
+
+        private final double[] two;
+        private final double[] ten;
+
+        Illuminant(final double x2, final double y2, final double z2, final double x10, final double y10, final double z10) {
+            this.two = new double[]{x2, y2, z2};
+            this.ten = new double[]{x10, y10, z10};
+        }
+
+        public double[] white(final Observer observer) {
+            return (observer == Observer.TWO_DEGREES ? two : ten).clone();
+        }
+    }
+}
@@ -31,6 +31,9 @@
 package com.dajudge.colordiff;
 
 import java.awt.*;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
 
 import static java.lang.Math.pow;
 
@@ -40,6 +43,17 @@ import static java.lang.Math.pow;
  * @author Alex Stockinger
  */
 public class Convert {
+    static final int BULK_PARALLEL_THRESHOLD = 16384;
+    private static final int BULK_CHUNK_SIZE = 4096;
+    // Linearized values of the 8 bit channel values, identical to linearize(i)
+    private static final double[] LINEAR = new double[256];
+
+    static {
+        for (int i = 0; i < LINEAR.length; i++) {
+            LINEAR[i] = linearize(i);
+        }
+    }
+
     /**
      * Returns c converted to labcolor using white as background color.
      *
@@ -58,15 +72,10 @@ public class Convert {
      * @return <code>c</code> converted to labcolor
      */
     public static LabColor rgba_to_lab(final RgbColor c, final RgbColor bc) {
-        final RgbColor nc = new RgbColor(
-                alphaScale(c.r, bc.r, c.a),
-                alphaScale(c.g, bc.g, c.a),
-                alphaScale(c.b, bc.b, c.a)
-        );
-        return rgb_to_lab(nc);
+        return rgba_to_lab(c, bc, ConversionProfile.DEFAULT);
     }
 
-    private static double alphaScale(final double v1, final double v2, final double a) {
+    static double alphaScale(final double v1, final double v2, final double a) {
         return v2 + (v1 - v2) * a;
     }
 
@@ -87,78 +96,409 @@ public class Convert {
      * @return <code>c</code> converted to labcolor
      */
     public static LabColor rgb_to_lab(final RgbColor c) {
-        return xyz_to_lab(rgb_to_xyz(c));
+        return rgb_to_lab(c, ConversionProfile.DEFAULT);
     }
 
-    private static XyzColor rgb_to_xyz(final RgbColor c) {
-        // Based on http://www.easyrgb.com/index.php?X=MATH&H=02
-        double r = (c.r / 255.0);
-        double g = (c.g / 255.0);
-        double b = (c.b / 255.0);
+    /**
+     * Returns c converted to labcolor using a conversion profile.
+     *
+     * @param c       should have fields R,G,B
+     * @param profile the conversion profile
+     * @return <code>c</code> converted to labcolor
+     */
+    public static LabColor rgb_to_lab(final RgbColor c, final ConversionProfile profile) {
+        final double[] lab = new double[3];
+        rgb_to_lab(c.r, c.g, c.b, profile, lab, 0);
+        return new LabColor(lab[0], lab[1], lab[2]);
+    }
 
-        if (r > 0.04045) {
-            r = pow(((r + 0.055) / 1.055), 2.4);
-        } else {
-            r = r / 12.92;
+    /**
+     * Converts a color to L,a,b without allocating, writing L, a and b to <code>out[offset]</code>,
+     * <code>out[offset + 1]</code> and <code>out[offset + 2]</code>. The results are identical to
+     * {@link #rgb_to_lab(RgbColor, ConversionProfile)}.
+     *
+     * @param r       red (range 0-255)
+     * @param g       green (range 0-255)
+     * @param b       blue (range 0-255)
+     * @param profile the conversion profile
+     * @param out     receives the L,a,b components
+     * @param offset  index of L in <code>out</code>
+     */
+    public static void rgb_to_lab(
+            final double r,
+            final double g,
+            final double b,
+            final ConversionProfile profile,
+            final double[] out,
+            final int offset
+    ) {
+        linear_to_lab(linearize(r), linearize(g), linearize(b), profile, out, offset);
+    }
+
+    private static void linear_to_lab(
+            final double lr,
+            final double lg,
+            final double lb,
+            final ConversionProfile profile,
+            final double[] out,
+            final int offset
+    ) {
+        if (profile == ConversionProfile.DEFAULT) {
+            linear_to_lab_default(lr, lg, lb, out, offset);
+            return;
         }
-        if (g > 0.04045) {
-            g = pow(((g + 0.055) / 1.055), 2.4);
+        // The profile matrix already includes the scaling to 0-100 and the division by the reference white
+        final double x = lab_f(lr * profile.m00 + lg * profile.m01 + lb * profile.m02);
+        final double y = lab_f(lr * profile.m10 + lg * profile.m11 + lb * profile.m12);
+        final double z = lab_f(lr * profile.m20 + lg * profile.m21 + lb * profile.m22);
+        out[offset] = (116.0 * y) - 16.0;
+        out[offset + 1] = 500.0 * (x - y);
+        out[offset + 2] = 200.0 * (y - z);
+    }
+
+    /**
+     * Converts a color to L,a,b without allocating, following the rules of
+     * {@link Palette#map_palette(List, List, Palette.MapType, RgbColor)}: colors with an alpha component are blended
+     * onto the background color first.
+     *
+     * @param c       should have fields R,G,B and optionally A
+     * @param bc      should have fields R,G,B
+     * @param profile the conversion profile
+     * @param out     receives the L,a,b components
+     * @param offset  index of L in <code>out</code>
+     */
+    public static void to_lab(
+            final RgbColor c,
+            final RgbColor bc,
+            final ConversionProfile profile,
+            final double[] out,
+            final int offset
+    ) {
+        if (c.a == null) {
+            rgb_to_lab(c.r, c.g, c.b, profile, out, offset);
         } else {
-            g = g / 12.92;
+            final double a = c.a;
+            rgb_to_lab(alphaScale(c.r, bc.r, a), alphaScale(c.g, bc.g, a), alphaScale(c.b, bc.b, a), profile, out, offset);
         }
-        if (b > 0.04045) {
-            b = pow(((b + 0.055) / 1.055), 2.4);
+    }
+
+    /**
+     * Converts a pixel in packed ARGB format to L,a,b without allocating, like {@link #to_lab(RgbColor, RgbColor,
+     * ConversionProfile, double[], int)}: opaque pixels are converted as colors without alpha, translucent pixels as
+     * colors with an alpha of <code>A / 255</code>.
+     *
+     * @param argb    the pixel as <code>0xAARRGGBB</code>
+     * @param bc      should have fields R,G,B
+     * @param profile the conversion profile
+     * @param out     receives the L,a,b components
+     * @param offset  index of L in <code>out</code>
+     */
+    public static void argb_to_lab(
+            final int argb,
+            final RgbColor bc,
+            final ConversionProfile profile,
+            final double[] out,
+            final int offset
+    ) {
+        final int alpha = argb >>> 24;
+        if (alpha == 0xFF) {
+            linear_to_lab(LINEAR[argb >> 16 & 0xFF], LINEAR[argb >> 8 & 0xFF], LINEAR[argb & 0xFF], profile, out, offset);
         } else {
-            b = b / 12.92;
+            final double r = argb >> 16 & 0xFF;
+            final double g = argb >> 8 & 0xFF;
+            final double b = argb & 0xFF;
+            final double a = alpha / 255.0;
+            rgb_to_lab(alphaScale(r, bc.r, a), alphaScale(g, bc.g, a), alphaScale(b, bc.b, a), profile, out, offset);
+        }
+    }
+
+    /**
+     * Converts pixels in packed ARGB format to L,a,b components in separate arrays, like
+     * {@link #argb_to_lab(int, RgbColor, ConversionProfile, double[], int)}. Large arrays are converted in parallel.
+     *
+     * @param argb    the pixels as <code>0xAARRGGBB</code>
+     * @param bc      should have fields R,G,B
+     * @param profile the conversion profile
+     * @param L       receives the L component of each pixel
+     * @param a       receives the a component of each pixel
+     * @param b       receives the b component of each pixel
+     */
+    public static void argb_to_lab(
+            final int[] argb,
+            final RgbColor bc,
+            final ConversionProfile profile,
+            final double[] L,
+            final double[] a,
+            final double[] b
+    ) {
+        checkOutput(argb.length, L.length, a.length, b.length);
+        bulk_to_lab(argb.length, i -> argb[i], bc, profile, L, a, b, null, null, null);
+    }
+
+    /**
+     * Converts pixels in packed ARGB format to L,a,b components in separate arrays, like
+     * {@link #argb_to_lab(int[], RgbColor, ConversionProfile, double[], double[], double[])}, rounded to floats.
+     *
+     * @param argb    the pixels as <code>0xAARRGGBB</code>
+     * @param bc      should have fields R,G,B
+     * @param profile the conversion profile
+     * @param L       receives the L component of each pixel
+     * @param a       receives the a component of each pixel
+     * @param b       receives the b component of each pixel
+     */
+    public static void argb_to_lab(
+            final int[] argb,
+            final RgbColor bc,
+            final ConversionProfile profile,
+            final float[] L,
+            final float[] a,
+            final float[] b
+    ) {
+        checkOutput(argb.length, L.length, a.length, b.length);
+        bulk_to_lab(argb.length, i -> argb[i], bc, profile, null, null, null, L, a, b);
+    }
+
+    /**
+     * Converts interleaved 8 bit R,G,B samples to L,a,b components in separate arrays, like
+     * {@link #rgb_to_lab(double, double, double, ConversionProfile, double[], int)}. Large arrays are converted in
+     * parallel.
+     *
+     * @param rgb     the samples, three per pixel in the order R,G,B
+     * @param profile the conversion profile
+     * @param L       receives the L component of each pixel
+     * @param a       receives the a component of each pixel
+     * @param b       receives the b component of each pixel
+     */
+    public static void rgb_to_lab(
+            final byte[] rgb,
+            final ConversionProfile profile,
+            final double[] L,
+            final double[] a,
+            final double[] b
+    ) {
+        final int n = pixels(rgb);
+        checkOutput(n, L.length, a.length, b.length);
+        bulk_to_lab(n, i -> rgb_pixel(rgb, i), null, profile, L, a, b, null, null, null);
+    }
+
+    /**
+     * Converts interleaved 8 bit R,G,B samples to L,a,b components in separate arrays, like
+     * {@link #rgb_to_lab(byte[], ConversionProfile, double[], double[], double[])}, rounded to floats.
+     *
+     * @param rgb     the samples, three per pixel in the order R,G,B
+     * @param profile the conversion profile
+     * @param L       receives the L component of each pixel
+     * @param a       receives the a component of each pixel
+     * @param b       receives the b component of each pixel
+     */
+    public static void rgb_to_lab(
+            final byte[] rgb,
+            final ConversionProfile profile,
+            final float[] L,
+            final float[] a,
+            final float[] b
+    ) {
+        final int n = pixels(rgb);
+        checkOutput(n, L.length, a.length, b.length);
+        bulk_to_lab(n, i -> rgb_pixel(rgb, i), null, profile, null, null, null, L, a, b);
+    }
+
+    /**
+     * Converts <code>n</code> pixels into either the double or the float arrays. Runs of equal pixels are converted
+     * once.
+     */
+    private static void bulk_to_lab(
+            final int n,
+            final IntUnaryOperator pixels,
+            final RgbColor bc,
+            final ConversionProfile profile,
+            final double[] L,
+            final double[] a,
+            final double[] b,
+            final float[] fL,
+            final float[] fa,
+            final float[] fb
+    ) {
+        final int chunks = (n + BULK_CHUNK_SIZE - 1) / BULK_CHUNK_SIZE;
+        final IntStream range = IntStream.range(0, chunks);
+        (n >= BULK_PARALLEL_THRESHOLD ? range.parallel() : range).forEach(chunk -> {
+            final double[] lab = Scratch.get().lab;
+            int last = 0;
+            for (int i = chunk * BULK_CHUNK_SIZE, end = Math.min(n, i + BULK_CHUNK_SIZE); i < end; i++) {
+                final int argb = pixels.applyAsInt(i);
+                if (argb != last || i == chunk * BULK_CHUNK_SIZE) {
+                    argb_to_lab(argb, bc, profile, lab, 0);
+                    last = argb;
+                }
+                if (L != null) {
+                    L[i] = lab[0];
+                    a[i] = lab[1];
+                    b[i] = lab[2];
+                } else {
+                    fL[i] = (float) lab[0];
+                    fa[i] = (float) lab[1];
+                    fb[i] = (float) lab[2];
+                }
+            }
+        });
+    }
+
+    private static int rgb_pixel(final byte[] rgb, final int i) {
+        return 0xFF000000 | (rgb[3 * i] & 0xFF) << 16 | (rgb[3 * i + 1] & 0xFF) << 8 | rgb[3 * i + 2] & 0xFF;
+    }
+
+    private static int pixels(final byte[] rgb) {
+        if (rgb.length % 3 != 0) {
+            throw new IllegalArgumentException("Expected three samples per pixel: " + rgb.length);
         }
+        return rgb.length / 3;
+    }
+
+    private static void checkOutput(final int n, final int L, final int a, final int b) {
+        if (L < n || a < n || b < n) {
+            throw new IllegalArgumentException("Output too small: " + Math.min(L, Math.min(a, b)) + " < " + n);
+        }
+    }
+
+    /**
+     * Returns c converted to labcolor using a conversion profile.
+     *
+     * @param c       should have fields R,G,B,A
+     * @param bc      should have fields R,G,B
+     * @param profile the conversion profile
+     * @return <code>c</code> converted to labcolor
+     */
+    public static LabColor rgba_to_lab(final RgbColor c, final RgbColor bc, final ConversionProfile profile) {
+        final double[] lab = new double[3];
+        rgb_to_lab(alphaScale(c.r, bc.r, c.a), alphaScale(c.g, bc.g, c.a), alphaScale(c.b, bc.b, c.a), profile, lab, 0);
+        return new LabColor(lab[0], lab[1], lab[2]);
+    }
 
-        r *= 100.0;
-        g *= 100.0;
-        b *= 100.0;
+    /**
+     * Returns c converted to Oklab, a perceptually uniform space in which color differences are Euclidean distances.
+     * L ranges from 0 to 1, a and b from about -0.4 to 0.4.
+     *
+     * @param c should have fields R,G,B
+     * @return <code>c</code> converted to Oklab, as a color with fields L,a,b
+     */
+    public static LabColor rgb_to_oklab(final RgbColor c) {
+        final double[] lab = new double[3];
+        rgb_to_oklab(c.r, c.g, c.b, lab, 0);
+        return new LabColor(lab[0], lab[1], lab[2]);
+    }
+
+    /**
+     * Converts a color to Oklab without allocating, writing L, a and b to <code>out[offset]</code>,
+     * <code>out[offset + 1]</code> and <code>out[offset + 2]</code>.
+     *
+     * @param r      red (range 0-255)
+     * @param g      green (range 0-255)
+     * @param b      blue (range 0-255)
+     * @param out    receives the L,a,b components
+     * @param offset index of L in <code>out</code>
+     */
+    public static void rgb_to_oklab(final double r, final double g, final double b, final double[] out, final int offset) {
+        // Based on https://bottosson.github.io/posts/oklab/
+        final double lr = linearize(r);
+        final double lg = linearize(g);
+        final double lb = linearize(b);
+        final double l = Math.cbrt(0.4122214708 * lr + 0.5363325363 * lg + 0.0514459929 * lb);
+        final double m = Math.cbrt(0.2119034982 * lr + 0.6806995451 * lg + 0.1073969566 * lb);
+        final double s = Math.cbrt(0.0883024619 * lr + 0.2817188376 * lg + 0.6299787005 * lb);
+        out[offset] = 0.2104542553 * l + 0.7936177850 * m - 0.0040720468 * s;
+        out[offset + 1] = 1.9779984951 * l - 2.4285922050 * m + 0.4505937099 * s;
+        out[offset + 2] = 0.0259040371 * l + 0.7827717662 * m - 0.8086757660 * s;
+    }
+
+    /**
+     * Returns c converted to CAM16-UCS, a perceptually uniform space in which color differences are Euclidean
+     * distances. The viewing conditions are those of {@link Cam16Ucs#SRGB}. J' ranges from 0 to 100, a' and b' from
+     * about -50 to 50.
+     *
+     * @param c should have fields R,G,B
+     * @return <code>c</code> converted to CAM16-UCS, as a color with fields L,a,b holding J',a',b'
+     */
+    public static LabColor rgb_to_cam16_ucs(final RgbColor c) {
+        final double[] jab = new double[3];
+        rgb_to_cam16_ucs(c.r, c.g, c.b, jab, 0);
+        return new LabColor(jab[0], jab[1], jab[2]);
+    }
+
+    /**
+     * Converts a color to CAM16-UCS without allocating, writing J', a' and b' to <code>out[offset]</code>,
+     * <code>out[offset + 1]</code> and <code>out[offset + 2]</code>.
+     *
+     * @param r      red (range 0-255)
+     * @param g      green (range 0-255)
+     * @param b      blue (range 0-255)
+     * @param out    receives the J',a',b' components
+     * @param offset index of J' in <code>out</code>
+     */
+    public static void rgb_to_cam16_ucs(final double r, final double g, final double b, final double[] out, final int offset) {
+        final double lr = linearize(r) * 100.0;
+        final double lg = linearize(g) * 100.0;
+        final double lb = linearize(b) * 100.0;
+        Cam16Ucs.SRGB.xyz_to_jab(
+                lr * 0.4124 + lg * 0.3576 + lb * 0.1805,
+                lr * 0.2126 + lg * 0.7152 + lb * 0.0722,
+                lr * 0.0193 + lg * 0.1192 + lb * 0.9505,
+                out,
+                offset
+        );
+    }
+
+    private static void linear_to_lab_default(
+            final double red,
+            final double green,
+            final double blue,
+            final double[] out,
+            final int offset
+    ) {
+        // Based on http://www.easyrgb.com/index.php?X=MATH&H=02
+        final double r = red * 100.0;
+        final double g = green * 100.0;
+        final double b = blue * 100.0;
 
         // Observer. = 2°, Illuminant = D65
         final double x = r * 0.4124 + g * 0.3576 + b * 0.1805;
         final double y = r * 0.2126 + g * 0.7152 + b * 0.0722;
         final double z = r * 0.0193 + g * 0.1192 + b * 0.9505;
-        return new XyzColor(x, y, z);
+        xyz_to_lab(x, y, z, out, offset);
     }
 
-    private static LabColor xyz_to_lab(final XyzColor c) {
+    private static double linearize(final double channel) {
+        final double v = channel / 255.0;
+        if (v > 0.04045) {
+            return pow(((v + 0.055) / 1.055), 2.4);
+        } else {
+            return v / 12.92;
+        }
+    }
+
+    private static void xyz_to_lab(
+            final double cx,
+            final double cy,
+            final double cz,
+            final double[] out,
+            final int offset
+    ) {
         // Based on http://www.easyrgb.com/index.php?X=MATH&H=07
         final double ref_Y = 100.000;
         final double ref_Z = 108.883;
         final double ref_X = 95.047; // Observer= 2°, Illuminant= D65
-        double y = c.y / ref_Y;
-        double z = c.z / ref_Z;
-        double x = c.x / ref_X;
-        if (x > 0.008856) {
-            x = pow(x, 1.0 / 3.0);
-        } else {
-            x = (7.787 * x) + (16.0 / 116.0);
-        }
-        if (y > 0.008856) {
-            y = pow(y, 1.0 / 3.0);
-        } else {
-            y = (7.787 * y) + (16.0 / 116.0);
-        }
-        if (z > 0.008856) {
-            z = pow(z, 1.0 / 3.0);
-        } else {
-            z = (7.787 * z) + (16.0 / 116.0);
-        }
-        final double l = (116.0 * y) - 16.0;
-        final double a = 500.0 * (x - y);
-        final double b = 200.0 * (y - z);
-        return new LabColor(l, a, b);
+        final double y = lab_f(cy / ref_Y);
+        final double z = lab_f(cz / ref_Z);
+        final double x = lab_f(cx / ref_X);
+        out[offset] = (116.0 * y) - 16.0;
+        out[offset + 1] = 500.0 * (x - y);
+        out[offset + 2] = 200.0 * (y - z);
     }
 
-    private static class XyzColor {
-        private final double x, y, z;
-
-        private XyzColor(final double x, final double y, final double z) {
-            this.x = x;
-            this.y = y;
-            this.z = z;
+    private static double lab_f(final double v) {
+        if (v > 0.008856) {
+            return pow(v, 1.0 / 3.0);
+        } else {
+            return (7.787 * v) + (16.0 / 116.0);
         }
     }
 }
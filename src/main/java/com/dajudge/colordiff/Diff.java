@@ -45,6 +45,9 @@ import static java.lang.Math.sqrt;
  * @author Alex Stockinger
  */
 public class Diff {
+    private static final double POW_25_7 = pow(25.0, 7.0);
+    private static final double BOUND_MARGIN = 1 + 1e-9;
+
     /**
      * Returns diff between c1 and c2 using the CIEDE2000 algorithm
      *
@@ -53,22 +56,35 @@ public class Diff {
      * @return Difference between c1 and c2
      */
     public static double ciede2000(final LabColor c1, final LabColor c2) {
+        return ciede2000(c1.L, c1.a, c1.b, c2.L, c2.a, c2.b);
+    }
+
+    /**
+     * Returns diff between two colors given as L,a,b components using the CIEDE2000 algorithm. Unlike
+     * {@link #ciede2000(LabColor, LabColor)} this does not require any objects.
+     *
+     * @param L1 L of color 1
+     * @param a1 a of color 1
+     * @param b1 b of color 1
+     * @param L2 L of color 2
+     * @param a2 a of color 2
+     * @param b2 b of color 2
+     * @return Difference between the colors
+     */
+    public static double ciede2000(
+            final double L1,
+            final double a1,
+            final double b1,
+            final double L2,
+            final double a2,
+            final double b2
+    ) {
         /*
          * Implemented as in "The CIEDE2000 Color-Difference Formula:
          * Implementation Notes, Supplementary Test Data, and Mathematical Observations"
          * by Gaurav Sharma, Wencheng Wu and Edul N. Dalal.
          */
 
-        // Get L,a,b values for color 1
-        final double L1 = c1.L;
-        final double a1 = c1.a;
-        final double b1 = c1.b;
-
-        // Get L,a,b values for color 2
-        final double L2 = c2.L;
-        final double a2 = c2.a;
-        final double b2 = c2.b;
-
         // Weight factors
         final double kL = 1;
         final double kC = 1;
@@ -119,6 +135,112 @@ public class Diff {
         return sqrt(pow(dLp / (SL * kL), 2) + pow(dCp / (SC * kC), 2) + pow(dHp / (SH * kH), 2) + RT * (dCp / (SC * kC)) * (dHp / (SH * kH))); //(22)
     }
 
+    /**
+     * Returns the diff between c1 and c2 if it does not exceed a bound, for searches that only need to know whether a
+     * color beats the best one found so far.
+     *
+     * @param c1    Should have fields L,a,b
+     * @param c2    Should have fields L,a,b
+     * @param bound the largest difference of interest
+     * @return the same value as {@link #ciede2000(LabColor, LabColor)} if that does not exceed <code>bound</code>,
+     * otherwise a value greater than <code>bound</code>
+     */
+    public static double ciede2000_bounded(final LabColor c1, final LabColor c2, final double bound) {
+        return ciede2000_bounded(c1.L, c1.a, c1.b, c2.L, c2.a, c2.b, bound);
+    }
+
+    /**
+     * Returns the diff between two colors given as L,a,b components if it does not exceed a bound.
+     * <p>
+     * Two lower bounds are checked before the full formula. The lightness term alone costs a few multiplications. The
+     * lightness and chroma terms need the chroma values but no trigonometry: the hue term cannot make up for more
+     * than three quarters of the chroma term, since the rotation angle is at most 60° and thus
+     * <code>|RT| &lt;= sqrt(3) * RC</code>. Once either bound exceeds <code>bound</code>, it is returned without
+     * evaluating <code>atan2</code>, <code>cos</code> and <code>exp</code>. Otherwise the result is computed by
+     * {@link #ciede2000(double, double, double, double, double, double)}, so searches comparing it with
+     * <code>&lt;</code> find the same colors as with the full formula.
+     *
+     * @param L1    L of color 1
+     * @param a1    a of color 1
+     * @param b1    b of color 1
+     * @param L2    L of color 2
+     * @param a2    a of color 2
+     * @param b2    b of color 2
+     * @param bound the largest difference of interest
+     * @return the difference between the colors if it does not exceed <code>bound</code>, otherwise a value greater
+     * than <code>bound</code>
+     */
+    public static double ciede2000_bounded(
+            final double L1,
+            final double a1,
+            final double b1,
+            final double L2,
+            final double a2,
+            final double b2,
+            final double bound
+    ) {
+        // Margin for the bounds being rounded differently than the full formula
+        final double limit = bound * bound * BOUND_MARGIN;
+        final double lightness = lightness_term(L1, L2);
+        if (lightness > limit) {
+            return sqrt(lightness);
+        }
+        final double chroma = lightness + chroma_term(a1, b1, a2, b2);
+        if (chroma > limit) {
+            return sqrt(chroma);
+        }
+        return ciede2000(L1, a1, b1, L2, a2, b2);
+    }
+
+    /**
+     * Returns the squared lightness term of the diff, the first lower bound checked by
+     * {@link #ciede2000_bounded(double, double, double, double, double, double, double)}.
+     *
+     * @param L1 L of color 1
+     * @param L2 L of color 2
+     * @return the squared lightness term
+     */
+    static double lightness_term(final double L1, final double L2) {
+        final double a_L = (L1 + L2) / 2.0;
+        final double SL = 1 + ((0.015 * (a_L - 50) * (a_L - 50)) / sqrt(20 + (a_L - 50) * (a_L - 50)));
+        final double dL = (L2 - L1) / SL;
+        return dL * dL;
+    }
+
+    /**
+     * Returns the part of the squared chroma term of the diff the hue term cannot make up for, which is added to the
+     * lightness term for the second lower bound checked by
+     * {@link #ciede2000_bounded(double, double, double, double, double, double, double)}. Unlike the full formula,
+     * which jumps where the hues of the colors differ by 180°, both terms are continuous, so rounding the components
+     * changes them only by about as much as they were rounded.
+     *
+     * @param a1 a of color 1
+     * @param b1 b of color 1
+     * @param a2 a of color 2
+     * @param b2 b of color 2
+     * @return the lower bound of the squared chroma and hue terms
+     */
+    static double chroma_term(final double a1, final double b1, final double a2, final double b2) {
+        final double C1 = sqrt(a1 * a1 + b1 * b1);
+        final double C2 = sqrt(a2 * a2 + b2 * b2);
+        final double a_C1_C2_7 = pow7((C1 + C2) / 2.0);
+        final double G = 0.5 * (1 - sqrt(a_C1_C2_7 / (a_C1_C2_7 + POW_25_7)));
+        final double a1p = (1.0 + G) * a1;
+        final double a2p = (1.0 + G) * a2;
+        final double C1p = sqrt(a1p * a1p + b1 * b1);
+        final double C2p = sqrt(a2p * a2p + b2 * b2);
+        final double a_Cp = (C1p + C2p) / 2.0;
+        final double a_Cp_7 = pow7(a_Cp);
+        final double RC2 = a_Cp_7 / (a_Cp_7 + POW_25_7);
+        final double dC = (C2p - C1p) / (1 + 0.045 * a_Cp);
+        return (1 - 0.75 * RC2) * dC * dC;
+    }
+
+    private static double pow7(final double x) {
+        final double x2 = x * x;
+        return x2 * x2 * x2 * x;
+    }
+
     private static double degrees(final double n) {
         return n * (180 / PI);
     }
@@ -0,0 +1,187 @@
+package com.dajudge.colordiff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static com.dajudge.colordiff.Diff.ciede2000;
+import static com.dajudge.colordiff.Diff.ciede2000_bounded;
+
+/**
+ * Selection of mutually distinct colors from a set of candidates, e.g. for the series of a chart.
+ * <p>
+ * The selection maximizes the minimum pairwise CIEDE2000 difference greedily by farthest-point sampling: each pick
+ * is the candidate furthest from all colors picked so far and from the seed colors. Each candidate is picked at most
+ * once, so duplicate candidates are only picked after all others. Each candidate keeps its distance to the closest
+ * picked color, which is updated after each pick with
+ * {@link Diff#ciede2000_bounded(double, double, double, double, double, double, double)}, so most updates are ruled
+ * out without evaluating the full formula. Selecting N of n candidates thus takes at most n·N difference evaluations.
+ * Candidate sets of at least {@value #PARALLEL_THRESHOLD} colors are updated in parallel.
+ * <p>
+ * Without seed colors the selection starts with the candidate furthest from neutral gray (L=50, a=b=0). Of several
+ * equally distant candidates, the first one is picked.
+ */
+public final class DistinctColors {
+    static final int PARALLEL_THRESHOLD = 4096;
+    private static final int CHUNK_SIZE = 4096;
+
+    private DistinctColors() {
+    }
+
+    /**
+     * Selects distinct colors using white as background color and the default conversion profile.
+     *
+     * @param candidates each element should have fields R,G,B and optionally A
+     * @param n          the number of colors to select
+     * @param seeds      colors the selection should be distinct from, e.g. colors already in use; not part of the
+     *                   result
+     * @return the selected colors in the order they were picked
+     */
+    public static List<RgbColor> selectDistinct(final List<RgbColor> candidates, final int n, final List<RgbColor> seeds) {
+        final PreparedPalette palette = new PreparedPalette(candidates);
+        final List<RgbColor> result = new ArrayList<>(n);
+        for (final int index : selectDistinct(palette, n, seeds)) {
+            result.add(palette.color(index));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Selects distinct colors from a prepared palette. Seed colors are converted like the queries of the palette.
+     *
+     * @param candidates the candidate colors
+     * @param n          the number of colors to select
+     * @param seeds      colors the selection should be distinct from, e.g. colors already in use; not part of the
+     *                   result
+     * @return the indices of the selected candidates in the order they were picked
+     */
+    public static int[] selectDistinct(final PreparedPalette candidates, final int n, final List<RgbColor> seeds) {
+        final int size = candidates.size();
+        if (n < 0 || n > size) {
+            throw new IllegalArgumentException("n must be in the range 0-" + size + ": " + n);
+        }
+        final int[] picked = new int[n];
+        if (n == 0) {
+            return picked;
+        }
+        final double[] L = new double[size];
+        final double[] a = new double[size];
+        final double[] b = new double[size];
+        for (int i = 0; i < size; i++) {
+            final LabColor lab = candidates.lab(i);
+            L[i] = lab.L;
+            a[i] = lab.a;
+            b[i] = lab.b;
+        }
+        final Selection selection = new Selection(L, a, b);
+        int next = -1;
+        for (final RgbColor seed : seeds) {
+            final LabColor lab = candidates.toLab(seed);
+            next = selection.add(lab.L, lab.a, lab.b);
+        }
+        if (next < 0) {
+            next = selection.furthest(50, 0, 0);
+        }
+        for (int k = 0; k < n; k++) {
+            picked[k] = next;
+            if (k + 1 < n) {
+                next = selection.pick(next);
+            }
+        }
+        return picked;
+    }
+
+    private static class Selection {
+        private final double[] L;
+        private final double[] a;
+        private final double[] b;
+        // The difference of each candidate to the closest color added so far, or -1 once picked
+        private final double[] distances;
+        private final int chunks;
+        private final int[] chunkBest;
+
+        Selection(final double[] L, final double[] a, final double[] b) {
+            this.L = L;
+            this.a = a;
+            this.b = b;
+            this.distances = new double[L.length];
+            Arrays.fill(distances, Double.POSITIVE_INFINITY);
+            this.chunks = (L.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            this.chunkBest = new int[chunks];
+        }
+
+        /**
+         * Adds a picked candidate, excluding it from further picks even if duplicates of it remain.
+         *
+         * @return the candidate furthest from all colors added so far
+         */
+        int pick(final int index) {
+            distances[index] = -1;
+            return add(L[index], a[index], b[index]);
+        }
+
+        /**
+         * Adds a seed or picked color, lowering the distances of the candidates closer to it.
+         *
+         * @return the candidate furthest from all colors added so far
+         */
+        int add(final double L2, final double a2, final double b2) {
+            range().forEach(chunk -> {
+                int best = -1;
+                for (int i = chunk * CHUNK_SIZE, end = Math.min(L.length, i + CHUNK_SIZE); i < end; i++) {
+                    if (distances[i] < 0) {
+                        // Already picked
+                        continue;
+                    }
+                    // Differences above the current distance do not change it, so the bound rules them out early
+                    final double diff = ciede2000_bounded(L[i], a[i], b[i], L2, a2, b2, distances[i]);
+                    if (diff < distances[i]) {
+                        distances[i] = diff;
+                    }
+                    if (best < 0 || distances[i] > distances[best]) {
+                        best = i;
+                    }
+                }
+                chunkBest[chunk] = best;
+            });
+            return merge(distances);
+        }
+
+        /**
+         * @return the candidate furthest from a color, without adding it
+         */
+        int furthest(final double L2, final double a2, final double b2) {
+            final double[] diffs = new double[L.length];
+            range().forEach(chunk -> {
+                int best = -1;
+                for (int i = chunk * CHUNK_SIZE, end = Math.min(L.length, i + CHUNK_SIZE); i < end; i++) {
+                    diffs[i] = ciede2000(L[i], a[i], b[i], L2, a2, b2);
+                    if (best < 0 || diffs[i] > diffs[best]) {
+                        best = i;
+                    }
+                }
+                chunkBest[chunk] = best;
+            });
+            return merge(diffs);
+        }
+
+        private int merge(final double[] diffs) {
+            // Merging in chunk order with a strict comparison keeps the first of equally distant candidates. Chunks
+            // whose candidates were all picked have no best candidate.
+            int best = -1;
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                if (chunkBest[chunk] >= 0 && (best < 0 || diffs[chunkBest[chunk]] > diffs[best])) {
+                    best = chunkBest[chunk];
+                }
+            }
+            return best;
+        }
+
+        private IntStream range() {
+            final IntStream range = IntStream.range(0, chunks);
+            return L.length >= PARALLEL_THRESHOLD ? range.parallel() : range;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.dajudge.colordiff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Closest-color matcher using Euclidean distances in a {@link UniformColorSpace} instead of CIEDE2000.
+ * <p>
+ * Since the Euclidean distance is a metric, the palette is indexed with a k-d tree and queries only compare against
+ * the palette colors near the query: the search is exact, but takes about logarithmic instead of linear time in the
+ * palette size. Colors are converted following the rules of {@link PreparedPalette}: colors with an alpha component
+ * and translucent pixels are blended onto the background color first. The first of several equally distant palette
+ * colors wins.
+ * <p>
+ * The results generally differ from CIEDE2000 matching for some colors, since the spaces model color differences
+ * differently. Use it where a perceptually uniform Euclidean space is good enough, e.g. for screen colors.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public class EuclideanMatcher {
+    private static final int PARALLEL_THRESHOLD = 256;
+
+    private final List<RgbColor> colors;
+    private final RgbColor bc;
+    private final UniformColorSpace space;
+    private final KdTree tree;
+
+    /**
+     * Creates a matcher in {@link UniformColorSpace#OKLAB} using white as background color.
+     *
+     * @param palette each element should have fields R,G,B
+     */
+    public EuclideanMatcher(final List<RgbColor> palette) {
+        this(palette, new RgbColor(255, 255, 255), UniformColorSpace.OKLAB);
+    }
+
+    /**
+     * Creates a matcher.
+     *
+     * @param palette each element should have fields R,G,B
+     * @param bc      background color used if the palette or the queried colors have an alpha component
+     * @param space   the color space to measure distances in
+     */
+    public EuclideanMatcher(final List<RgbColor> palette, final RgbColor bc, final UniformColorSpace space) {
+        if (palette.isEmpty()) {
+            throw new IllegalArgumentException("Palette must not be empty");
+        }
+        this.colors = Collections.unmodifiableList(new ArrayList<>(palette));
+        this.bc = bc;
+        this.space = space;
+        final double[] points = new double[3 * colors.size()];
+        for (int i = 0; i < colors.size(); i++) {
+            space.convert(colors.get(i), bc, points, 3 * i);
+        }
+        this.tree = new KdTree(points);
+    }
+
+    public int size() {
+        return colors.size();
+    }
+
+    public List<RgbColor> colors() {
+        return colors;
+    }
+
+    public RgbColor color(final int index) {
+        return colors.get(index);
+    }
+
+    public RgbColor background() {
+        return bc;
+    }
+
+    public UniformColorSpace space() {
+        return space;
+    }
+
+    public RgbColor closest(final RgbColor color) {
+        return colors.get(closestIndex(color));
+    }
+
+    /**
+     * Allocation-free variant of {@link #closest(RgbColor)}.
+     *
+     * @param color  should have fields R,G,B and optionally A
+     * @param result receives the index of and the Euclidean distance to the closest palette color
+     */
+    public void closest(final RgbColor color, final MatchResult result) {
+        final double[] scratch = Scratch.get().lab;
+        space.convert(color, bc, scratch, 0);
+        tree.nearest(scratch[0], scratch[1], scratch[2], result);
+    }
+
+    /**
+     * Batch variant of {@link #closest(RgbColor)}. Large batches are processed in parallel.
+     *
+     * @param colors each element should have fields R,G,B and optionally A
+     * @return the index of the closest palette color for each element
+     */
+    public int[] closest(final List<RgbColor> colors) {
+        final int[] result = new int[colors.size()];
+        final IntStream range = IntStream.range(0, result.length);
+        (result.length >= PARALLEL_THRESHOLD ? range.parallel() : range).forEach(i -> result[i] = closestIndex(colors.get(i)));
+        return result;
+    }
+
+    /**
+     * Returns the index of the closest palette color to a pixel; translucent pixels are blended onto the background
+     * color.
+     *
+     * @param argb the pixel as <code>0xAARRGGBB</code>
+     * @return the index of the closest palette color
+     */
+    public int closestArgb(final int argb) {
+        final double[] scratch = Scratch.get().lab;
+        space.convertArgb(argb, bc, scratch, 0);
+        return tree.nearest(scratch[0], scratch[1], scratch[2], null);
+    }
+
+    /**
+     * Allocation-free batch variant of {@link #closestArgb(int)}, e.g. for the pixels of an image.
+     *
+     * @param argb    the pixels as <code>0xAARRGGBB</code>
+     * @param indices receives the index of the closest palette color for each element
+     */
+    public void closestArgb(final int[] argb, final int[] indices) {
+        if (indices.length < argb.length) {
+            throw new IllegalArgumentException("Output too small: " + indices.length + " < " + argb.length);
+        }
+        for (int i = 0; i < argb.length; i++) {
+            indices[i] = closestArgb(argb[i]);
+        }
+    }
+
+    private int closestIndex(final RgbColor color) {
+        final double[] scratch = Scratch.get().lab;
+        space.convert(color, bc, scratch, 0);
+        return tree.nearest(scratch[0], scratch[1], scratch[2], null);
+    }
+}
@@ -0,0 +1,148 @@
+package com.dajudge.colordiff;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static com.dajudge.colordiff.Diff.ciede2000_bounded;
+import static com.dajudge.colordiff.Diff.chroma_term;
+import static com.dajudge.colordiff.Diff.lightness_term;
+
+/**
+ * Closest-color matcher scanning the L,a,b values of a {@link PreparedPalette} stored as floats, with the same results
+ * as the palette itself.
+ * <p>
+ * The values are stored interleaved in a single <code>float[]</code>, i.e. 12 bytes per color instead of the 24 bytes
+ * of doubles (and the headers and references of the {@link LabColor} objects), so scans of large palettes move half
+ * the bytes or less. Queries keep full precision. For each palette color, the lower bounds of
+ * {@link Diff#ciede2000_bounded(double, double, double, double, double, double, double)} are computed from the float
+ * values; colors whose bounds exceed the closest difference found so far by more than {@value #MARGIN} cannot be
+ * closer and are skipped. All other colors are evaluated with the exact values. The full formula is never evaluated
+ * on rounded values: it jumps where hues differ by 180°, so rounding could change it by several ΔE, while the bounds
+ * change by a few millionths at most. Results are thus identical to {@link PreparedPalette#closest(LabColor)},
+ * including the first of several equally distant palette colors winning.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public class FloatPalette {
+    /**
+     * Margin for the bounds computed from float values, a hundred times their largest error for values in the usual
+     * L,a,b ranges.
+     */
+    static final double MARGIN = 1e-3;
+    private static final int PARALLEL_THRESHOLD = 256;
+
+    private final PreparedPalette palette;
+    private final float[] lab;
+
+    /**
+     * @param palette the palette to match against
+     */
+    public FloatPalette(final PreparedPalette palette) {
+        this.palette = palette;
+        this.lab = new float[3 * palette.size()];
+        for (int i = 0; i < palette.size(); i++) {
+            final LabColor c = palette.lab(i);
+            lab[3 * i] = (float) c.L;
+            lab[3 * i + 1] = (float) c.a;
+            lab[3 * i + 2] = (float) c.b;
+        }
+    }
+
+    public PreparedPalette palette() {
+        return palette;
+    }
+
+    public int size() {
+        return palette.size();
+    }
+
+    public List<RgbColor> colors() {
+        return palette.colors();
+    }
+
+    public RgbColor color(final int index) {
+        return palette.color(index);
+    }
+
+    public RgbColor closest(final RgbColor color) {
+        return palette.color(closest(palette.toLab(color)));
+    }
+
+    /**
+     * @param color should have fields L,a,b
+     * @return the index of the closest palette color
+     */
+    public int closest(final LabColor color) {
+        return scan(color.L, color.a, color.b, null);
+    }
+
+    /**
+     * Allocation-free variant of {@link #closest(LabColor)}.
+     *
+     * @param color  should have fields L,a,b
+     * @param result receives the index of and the exact distance to the closest palette color
+     */
+    public void closest(final LabColor color, final MatchResult result) {
+        scan(color.L, color.a, color.b, result);
+    }
+
+    /**
+     * @param argb the pixel as <code>0xAARRGGBB</code>; see {@link PreparedPalette#closestArgb(int)}
+     * @return the index of the closest palette color
+     */
+    public int closestArgb(final int argb) {
+        final double[] scratch = Scratch.get().lab;
+        Convert.argb_to_lab(argb, palette.background(), palette.profile(), scratch, 0);
+        return scan(scratch[0], scratch[1], scratch[2], null);
+    }
+
+    /**
+     * Batch variant of {@link #closestArgb(int)}. Large batches are processed in parallel.
+     *
+     * @param argb    the pixels as <code>0xAARRGGBB</code>
+     * @param indices receives the index of the closest palette color for each element
+     */
+    public void closestArgb(final int[] argb, final int[] indices) {
+        if (indices.length < argb.length) {
+            throw new IllegalArgumentException("Output too small: " + indices.length + " < " + argb.length);
+        }
+        final IntStream range = IntStream.range(0, argb.length);
+        (argb.length >= PARALLEL_THRESHOLD ? range.parallel() : range).forEach(i -> indices[i] = closestArgb(argb[i]));
+    }
+
+    /**
+     * Batch variant of {@link #closest(LabColor)}. Large batches are processed in parallel.
+     *
+     * @param colors each element should have fields L,a,b
+     * @return the index of the closest palette color for each element
+     */
+    public int[] closest(final LabColor[] colors) {
+        final int[] result = new int[colors.length];
+        final IntStream range = IntStream.range(0, colors.length);
+        (colors.length >= PARALLEL_THRESHOLD ? range.parallel() : range).forEach(i -> result[i] = closest(colors[i]));
+        return result;
+    }
+
+    private int scan(final double L, final double a, final double b, final MatchResult result) {
+        int index = -1;
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = 0, j = 0; j < lab.length; i++, j += 3) {
+            final double limit = (best + MARGIN) * (best + MARGIN);
+            final double lightness = lightness_term(L, lab[j]);
+            if (lightness > limit || lightness + chroma_term(a, b, lab[j + 1], lab[j + 2]) > limit) {
+                continue;
+            }
+            // Palette order and the strict comparison keep the first of equally distant colors
+            final LabColor c = palette.lab(i);
+            final double diff = ciede2000_bounded(L, a, b, c.L, c.a, c.b, best);
+            if (diff < best) {
+                index = i;
+                best = diff;
+            }
+        }
+        if (result != null) {
+            result.set(index, best);
+        }
+        return index;
+    }
+}
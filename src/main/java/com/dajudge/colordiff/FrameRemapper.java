@@ -0,0 +1,161 @@
+package com.dajudge.colordiff;
+
+import java.awt.image.BufferedImage;
+import java.util.stream.IntStream;
+
+/**
+ * Quantizes a sequence of frames of the same size, e.g. of an animation or a video, to a palette, reusing the work
+ * done for the previous frame.
+ * <p>
+ * The remapper keeps the pixels of the previous frame and the palette indices they were mapped to. Only pixels whose
+ * ARGB value changed are matched again; all other pixels keep their index. The results are identical to
+ * {@link PaletteQuantizeOp#filter(BufferedImage, BufferedImage)} of the operation the remapper was created with.
+ * Frames are processed in tiles, in parallel for larger frames. The first frame, and the first frame after a change
+ * of the frame size or {@link #reset()}, is matched completely.
+ * <p>
+ * {@link #reusedPixels()}, {@link #resolvedPixels()} and {@link #reuseRatio()} report how much work the last frame
+ * could reuse.
+ * <p>
+ * Instances keep the state of one sequence of frames and are not thread-safe; use one instance per sequence.
+ */
+public class FrameRemapper {
+    private static final int TILE_SIZE = 64;
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    private final PaletteQuantizeOp op;
+    private int width;
+    private int height;
+    // ARGB values of the previous frame and the palette indices they were mapped to, row by row
+    private int[] pixels;
+    private byte[] indices;
+    private long frames;
+    private int resolved;
+
+    /**
+     * Creates a remapper.
+     *
+     * @param op the operation defining the palette and how pixels are matched
+     */
+    public FrameRemapper(final PaletteQuantizeOp op) {
+        this.op = op;
+    }
+
+    public PaletteQuantizeOp op() {
+        return op;
+    }
+
+    /**
+     * Quantizes the next frame into a new image.
+     *
+     * @param frame the frame
+     * @return a {@link BufferedImage#TYPE_BYTE_INDEXED} image holding the palette indices
+     */
+    public BufferedImage remap(final BufferedImage frame) {
+        return remap(frame, null);
+    }
+
+    /**
+     * Quantizes the next frame.
+     *
+     * @param frame the frame
+     * @param dest  the image receiving the palette indices, or null to create one; see
+     *              {@link PaletteQuantizeOp#filter(BufferedImage, BufferedImage)}
+     * @return the destination image
+     */
+    public BufferedImage remap(final BufferedImage frame, final BufferedImage dest) {
+        final BufferedImage result = op.destination(frame, dest);
+        final int w = frame.getWidth();
+        final int h = frame.getHeight();
+        final boolean all = pixels == null || w != width || h != height;
+        if (all) {
+            width = w;
+            height = h;
+            pixels = new int[w * h];
+            indices = new byte[w * h];
+        }
+        final ImagePixels.Reader reader = ImagePixels.reader(frame);
+        final PaletteQuantizeOp.PixelWriter writer = new PaletteQuantizeOp.PixelWriter(result.getRaster());
+        final int tilesX = (w + TILE_SIZE - 1) / TILE_SIZE;
+        final int tilesY = (h + TILE_SIZE - 1) / TILE_SIZE;
+        final IntStream tiles = IntStream.range(0, tilesX * tilesY);
+        resolved = (w * (long) h >= PARALLEL_THRESHOLD ? tiles.parallel() : tiles)
+                .map(tile -> {
+                    final int x0 = tile % tilesX * TILE_SIZE;
+                    final int y0 = tile / tilesX * TILE_SIZE;
+                    return remapTile(reader, writer, x0, y0, Math.min(TILE_SIZE, w - x0), Math.min(TILE_SIZE, h - y0), all);
+                })
+                .sum();
+        frames++;
+        return result;
+    }
+
+    private int remapTile(
+            final ImagePixels.Reader reader,
+            final PaletteQuantizeOp.PixelWriter writer,
+            final int x0,
+            final int y0,
+            final int tw,
+            final int th,
+            final boolean all
+    ) {
+        final int[] row = new int[tw];
+        int resolved = 0;
+        int last = 0;
+        int lastIndex = -1;
+        for (int y = y0; y < y0 + th; y++) {
+            reader.read(x0, y, tw, row);
+            final int offset = y * width + x0;
+            for (int i = 0; i < tw; i++) {
+                final int argb = row[i];
+                if (all || argb != pixels[offset + i]) {
+                    if (argb != last || lastIndex < 0) {
+                        lastIndex = op.match(argb);
+                        last = argb;
+                    }
+                    pixels[offset + i] = argb;
+                    indices[offset + i] = (byte) lastIndex;
+                    resolved++;
+                }
+                writer.write(x0 + i, y, indices[offset + i] & 0xFF);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Forgets the previous frame, so the next frame is matched completely.
+     */
+    public void reset() {
+        pixels = null;
+        indices = null;
+        resolved = 0;
+    }
+
+    /**
+     * @return the number of frames remapped
+     */
+    public long frames() {
+        return frames;
+    }
+
+    /**
+     * @return the number of pixels of the last frame that were matched again
+     */
+    public int resolvedPixels() {
+        return resolved;
+    }
+
+    /**
+     * @return the number of pixels of the last frame that kept the palette index of the previous frame
+     */
+    public int reusedPixels() {
+        return pixels == null ? 0 : pixels.length - resolved;
+    }
+
+    /**
+     * @return the share of pixels of the last frame that kept the palette index of the previous frame (range 0-1)
+     */
+    public double reuseRatio() {
+        return pixels == null || pixels.length == 0 ? 0 : (double) reusedPixels() / pixels.length;
+    }
+}
@@ -0,0 +1,386 @@
+package com.dajudge.colordiff;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import static com.dajudge.colordiff.Diff.ciede2000;
+
+/**
+ * Exact furthest-color search over a tree of L,a,b bounding boxes.
+ * <p>
+ * For every box, CIEDE2000 is bounded from above using the ranges the terms of the formula can take for the query
+ * and any color within the box:
+ * <ul>
+ * <li>the lightness term uses the smallest SL possible for the mean lightness,</li>
+ * <li><code>ΔC'² + ΔH'² = Δa'² + Δb²</code> with <code>a' = (1 + G) a</code>, where G is largest for the smallest
+ * mean chroma,</li>
+ * <li>SC is larger than SH, and SH is smallest for the smallest mean chroma and the smallest T along the hue
+ * angles the mean hue can take,</li>
+ * <li>the rotation term adds at most <code>RC |sin(2 Δθ)| (ΔC'²/SC² + ΔH'²/SH²)</code>, with RC largest for the
+ * largest mean chroma and Δθ largest for the mean hue closest to 275°.</li>
+ * </ul>
+ * The extremes of T and Δθ are tabulated per degree of hue. Boxes whose bound is below the best distance found so
+ * far are skipped; the remaining palette colors are evaluated with
+ * {@link Diff#ciede2000(double, double, double, double, double, double)}. The result is the same as that of a full
+ * scan, including the first-wins rule for equally distant colors.
+ */
+final class FurthestSearch {
+    // Below this size, building the tree does not pay off against a full scan
+    static final int MIN_PALETTE_SIZE = 64;
+    private static final int LEAF_SIZE = 8;
+    // Safety margin of the bound against rounding errors of the full formula
+    private static final double BOUND_MARGIN = 1 + 1e-9;
+    private static final double MAX_G = 0.5;
+    private static final double POW7_25 = Math.pow(25, 7);
+    // Below this chroma, hue angles are not reliable and the extremes over all hues are used
+    private static final double MIN_CHROMA = 1e-100;
+    private static final HueTable MIN_T = new HueTable(false);
+    private static final HueTable MAX_ROTATION = new HueTable(true);
+
+    private final double[] L;
+    private final double[] a;
+    private final double[] b;
+    // Palette indices, grouped by node
+    private final int[] order;
+    // Per node: bounding box (minL, maxL, minA, maxA, minB, maxB)
+    private final double[] boxes;
+    // Per node: hue angles of a',b within the box as start and span in degrees, NaN if the box contains gray
+    private final double[] hueStart;
+    private final double[] hueSpan;
+    // Per node: index range into order; inner nodes have their children at 2 * node + 1 and 2 * node + 2
+    private final int[] from;
+    private final int[] to;
+    private final boolean[] leaf;
+
+    FurthestSearch(final LabColor[] lab) {
+        final int n = lab.length;
+        L = new double[n];
+        a = new double[n];
+        b = new double[n];
+        for (int i = 0; i < n; i++) {
+            L[i] = lab[i].L;
+            a[i] = lab[i].a;
+            b[i] = lab[i].b;
+        }
+        final Integer[] sorted = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = i;
+        }
+        int nodes = 1;
+        while (nodes * LEAF_SIZE < n) {
+            nodes *= 2;
+        }
+        nodes = 2 * nodes - 1;
+        boxes = new double[6 * nodes];
+        hueStart = new double[nodes];
+        hueSpan = new double[nodes];
+        from = new int[nodes];
+        to = new int[nodes];
+        leaf = new boolean[nodes];
+        build(sorted, 0, 0, n);
+        order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = sorted[i];
+        }
+    }
+
+    /**
+     * @return the index of the furthest palette color
+     */
+    int furthest(final double qL, final double qa, final double qb, final MatchResult result) {
+        final MatchResult best = Scratch.get().match;
+        best.set(-1, -1);
+        final double qC = Math.sqrt(qa * qa + qb * qb);
+        if (qC < MIN_CHROMA) {
+            search(0, qL, qa, qb, qC, Double.NaN, 0, best);
+        } else {
+            // The hue of the query's a',b lies between the hues for G = 0 and G = MAX_G
+            final double hue0 = hue(qa, qb);
+            final double hue1 = hue((1 + MAX_G) * qa, qb);
+            final double span = mod360(hue1 - hue0);
+            if (span <= 180) {
+                search(0, qL, qa, qb, qC, hue0, span, best);
+            } else {
+                search(0, qL, qa, qb, qC, hue1, 360 - span, best);
+            }
+        }
+        if (best.index() < 0) {
+            // Only possible for NaN distances, where a full scan keeps the first color
+            best.set(0, ciede2000(qL, qa, qb, L[0], a[0], b[0]));
+        }
+        if (result != null) {
+            result.set(best.index(), best.distance());
+        }
+        return best.index();
+    }
+
+    private void search(
+            final int node,
+            final double qL,
+            final double qa,
+            final double qb,
+            final double qC,
+            final double qHue,
+            final double qSpan,
+            final MatchResult best
+    ) {
+        if (leaf[node]) {
+            for (int k = from[node]; k < to[node]; k++) {
+                final int i = order[k];
+                final double diff = ciede2000(qL, qa, qb, L[i], a[i], b[i]);
+                if (diff > best.distance() || (diff == best.distance() && i < best.index())) {
+                    best.set(i, diff);
+                }
+            }
+            return;
+        }
+        final int left = 2 * node + 1;
+        final int right = left + 1;
+        final double leftBound = bound(left, qL, qa, qb, qC, qHue, qSpan);
+        final double rightBound = bound(right, qL, qa, qb, qC, qHue, qSpan);
+        final int first = leftBound >= rightBound ? left : right;
+        final int second = first == left ? right : left;
+        if (Math.max(leftBound, rightBound) >= best.distance()) {
+            search(first, qL, qa, qb, qC, qHue, qSpan, best);
+        }
+        // The bound is re-checked against the improved best distance
+        if (Math.min(leftBound, rightBound) >= best.distance()) {
+            search(second, qL, qa, qb, qC, qHue, qSpan, best);
+        }
+    }
+
+    /**
+     * @return an upper bound of the distance from the query to any color of the node
+     */
+    private double bound(
+            final int node,
+            final double qL,
+            final double qa,
+            final double qb,
+            final double qC,
+            final double qHue,
+            final double qSpan
+    ) {
+        if (from[node] == to[node]) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        final int o = 6 * node;
+        final double dL = Math.max(Math.abs(qL - boxes[o]), Math.abs(qL - boxes[o + 1]));
+        final double da = Math.max(Math.abs(qa - boxes[o + 2]), Math.abs(qa - boxes[o + 3]));
+        final double db = Math.max(Math.abs(qb - boxes[o + 4]), Math.abs(qb - boxes[o + 5]));
+        // SL grows with the distance of the mean lightness from 50
+        final double meanL = Math.min(Math.max(50, (qL + boxes[o]) / 2), (qL + boxes[o + 1]) / 2);
+        final double SL = 1 + 0.015 * (meanL - 50) * (meanL - 50) / Math.sqrt(20 + (meanL - 50) * (meanL - 50));
+        // The mean C lies between the means of the query's and the box's smallest and largest chroma
+        final double ca = Math.max(0, Math.max(boxes[o + 2], -boxes[o + 3]));
+        final double cb = Math.max(0, Math.max(boxes[o + 4], -boxes[o + 5]));
+        final double minC = (qC + Math.sqrt(ca * ca + cb * cb)) / 2;
+        final double maxA = Math.max(Math.abs(boxes[o + 2]), Math.abs(boxes[o + 3]));
+        final double maxB = Math.max(Math.abs(boxes[o + 4]), Math.abs(boxes[o + 5]));
+        final double maxC = (qC + Math.sqrt(maxA * maxA + maxB * maxB)) / 2;
+        final double G = 0.5 * (1 - Math.sqrt(pow7(minC) / (pow7(minC) + POW7_25)));
+        final double maxCp = (1 + G) * maxC;
+        final double RC = Math.sqrt(pow7(maxCp) / (pow7(maxCp) + POW7_25));
+
+        double minT = MIN_T.all();
+        double maxRotation = MAX_ROTATION.all();
+        final double boxHue = hueStart[node];
+        if (!Double.isNaN(boxHue)) {
+            if (Double.isNaN(qHue)) {
+                // For a gray query, the mean hue is the hue of the palette color
+                minT = MIN_T.extreme(boxHue, hueSpan[node]);
+                maxRotation = MAX_ROTATION.extreme(boxHue, hueSpan[node]);
+            } else {
+                minT = Double.POSITIVE_INFINITY;
+                maxRotation = 0;
+                // The counter-clockwise hue difference from the query to the palette color lies in [start, end]
+                final double start = mod360(boxHue - (qHue + qSpan));
+                final double end = start + hueSpan[node] + qSpan;
+                for (int segment = 0; segment < 2; segment++) {
+                    final double lo = segment == 0 ? start : 0;
+                    final double hi = segment == 0 ? Math.min(end, 360) : end - 360;
+                    if (hi < lo) {
+                        continue;
+                    }
+                    // The mean hue is halfway along the shorter arc, i.e. half the difference ahead of the query
+                    // for differences up to 180°, and opposite of that otherwise
+                    if (lo <= 180) {
+                        final double arcStart = qHue + lo / 2;
+                        final double arcSpan = qSpan + (Math.min(hi, 180) - lo) / 2;
+                        minT = Math.min(minT, MIN_T.extreme(arcStart, arcSpan));
+                        maxRotation = Math.max(maxRotation, MAX_ROTATION.extreme(arcStart, arcSpan));
+                    }
+                    if (hi >= 180) {
+                        final double arcStart = qHue + Math.max(lo, 180) / 2 + 180;
+                        final double arcSpan = qSpan + (hi - Math.max(lo, 180)) / 2;
+                        minT = Math.min(minT, MIN_T.extreme(arcStart, arcSpan));
+                        maxRotation = Math.max(maxRotation, MAX_ROTATION.extreme(arcStart, arcSpan));
+                    }
+                }
+            }
+        }
+        final double SH = 1 + 0.015 * minC * minT;
+        final double chroma = (1 + RC * maxRotation) * ((1 + G) * (1 + G) * da * da + db * db) / (SH * SH);
+        return Math.sqrt(dL * dL / (SL * SL) + chroma) * BOUND_MARGIN;
+    }
+
+    private void build(final Integer[] sorted, final int node, final int start, final int end) {
+        from[node] = start;
+        to[node] = end;
+        final int o = 6 * node;
+        boxes[o] = boxes[o + 2] = boxes[o + 4] = Double.POSITIVE_INFINITY;
+        boxes[o + 1] = boxes[o + 3] = boxes[o + 5] = Double.NEGATIVE_INFINITY;
+        for (int k = start; k < end; k++) {
+            final int i = sorted[k];
+            boxes[o] = Math.min(boxes[o], L[i]);
+            boxes[o + 1] = Math.max(boxes[o + 1], L[i]);
+            boxes[o + 2] = Math.min(boxes[o + 2], a[i]);
+            boxes[o + 3] = Math.max(boxes[o + 3], a[i]);
+            boxes[o + 4] = Math.min(boxes[o + 4], b[i]);
+            boxes[o + 5] = Math.max(boxes[o + 5], b[i]);
+        }
+        hueRange(node);
+        if (2 * node + 2 >= from.length) {
+            leaf[node] = true;
+            return;
+        }
+        // Split at the median of the widest dimension, weighted like the bound
+        final double spanL = boxes[o + 1] - boxes[o];
+        final double spanA = (boxes[o + 3] - boxes[o + 2]) * Math.sqrt(4.5);
+        final double spanB = (boxes[o + 5] - boxes[o + 4]) * Math.sqrt(2);
+        final double[] values = spanL >= spanA && spanL >= spanB ? L : spanA >= spanB ? a : b;
+        Arrays.sort(sorted, start, end, Comparator.comparingDouble(i -> values[i]));
+        final int mid = (start + end) >>> 1;
+        build(sorted, 2 * node + 1, start, mid);
+        build(sorted, 2 * node + 2, mid, end);
+    }
+
+    private void hueRange(final int node) {
+        hueStart[node] = Double.NaN;
+        if (from[node] == to[node]) {
+            return;
+        }
+        final int o = 6 * node;
+        // a' is a stretched by a factor between 1 and 1 + MAX_G
+        final double minA = Math.min(boxes[o + 2], (1 + MAX_G) * boxes[o + 2]);
+        final double maxA = Math.max(boxes[o + 3], (1 + MAX_G) * boxes[o + 3]);
+        final double ca = Math.max(0, Math.max(minA, -maxA));
+        final double cb = Math.max(0, Math.max(boxes[o + 4], -boxes[o + 5]));
+        if (Math.sqrt(ca * ca + cb * cb) < MIN_CHROMA) {
+            return;
+        }
+        // A box not containing gray spans less than 180°; the hue range starts at one of its corners
+        final double[] corners = {
+                hue(minA, boxes[o + 4]),
+                hue(minA, boxes[o + 5]),
+                hue(maxA, boxes[o + 4]),
+                hue(maxA, boxes[o + 5])
+        };
+        for (final double corner : corners) {
+            double span = 0;
+            for (final double other : corners) {
+                span = Math.max(span, mod360(other - corner));
+            }
+            if (span < 180) {
+                hueStart[node] = corner;
+                hueSpan[node] = span;
+                return;
+            }
+        }
+    }
+
+    private static double hue(final double a, final double b) {
+        return mod360(Math.toDegrees(Math.atan2(b, a)));
+    }
+
+    private static double mod360(final double degrees) {
+        final double result = degrees % 360;
+        return result < 0 ? result + 360 : result;
+    }
+
+    private static double pow7(final double x) {
+        final double x2 = x * x;
+        return x2 * x2 * x2 * x;
+    }
+
+    /**
+     * Per-degree extremes of a hue dependent term of CIEDE2000, with range queries over arcs of hue angles.
+     */
+    private static final class HueTable {
+        // Sampling steps per degree; both terms change by less than 0.05 per degree
+        private static final int STEPS = 100;
+        private static final double MARGIN = 1e-3;
+        // Widening of looked up arcs against rounding of the hue angles
+        private static final double ARC_MARGIN = 0.01;
+
+        private final boolean max;
+        // Sparse table over two turns: extremes[k][i] is the extreme of the degrees i to i + 2^k - 1
+        private final double[][] extremes;
+        private final double all;
+
+        HueTable(final boolean max) {
+            this.max = max;
+            final double[] degrees = new double[720];
+            for (int degree = 0; degree < 360; degree++) {
+                double extreme = max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+                for (int step = 0; step <= STEPS; step++) {
+                    final double value = value(degree + step / (double) STEPS);
+                    extreme = max ? Math.max(extreme, value) : Math.min(extreme, value);
+                }
+                degrees[degree] = degrees[degree + 360] = max ? Math.min(1, extreme + MARGIN) : extreme - MARGIN;
+            }
+            final int levels = 32 - Integer.numberOfLeadingZeros(degrees.length);
+            extremes = new double[levels][];
+            extremes[0] = degrees;
+            for (int k = 1; k < levels; k++) {
+                final int width = 1 << (k - 1);
+                extremes[k] = new double[degrees.length - 2 * width + 1];
+                for (int i = 0; i < extremes[k].length; i++) {
+                    extremes[k][i] = combine(extremes[k - 1][i], extremes[k - 1][i + width]);
+                }
+            }
+            double extreme = degrees[0];
+            for (int degree = 1; degree < 360; degree++) {
+                extreme = combine(extreme, degrees[degree]);
+            }
+            all = extreme;
+        }
+
+        /**
+         * @return T for a minimum table, <code>|sin(2 Δθ)|</code> of the rotation term for a maximum table
+         */
+        private double value(final double hue) {
+            if (max) {
+                final double dTheta = 30 * Math.exp(-Math.pow((hue - 275) / 25, 2));
+                return Math.abs(Math.sin(Math.toRadians(2 * dTheta)));
+            }
+            return 1 - 0.17 * Math.cos(Math.toRadians(hue - 30))
+                    + 0.24 * Math.cos(Math.toRadians(2 * hue))
+                    + 0.32 * Math.cos(Math.toRadians(3 * hue + 6))
+                    - 0.20 * Math.cos(Math.toRadians(4 * hue - 63));
+        }
+
+        private double combine(final double x, final double y) {
+            return max ? Math.max(x, y) : Math.min(x, y);
+        }
+
+        double all() {
+            return all;
+        }
+
+        /**
+         * @return the extreme along the arc of the given span in degrees counter-clockwise from the start
+         */
+        double extreme(final double start, final double span) {
+            final int lo = (int) Math.floor(start - ARC_MARGIN);
+            final int hi = (int) Math.floor(start + span + ARC_MARGIN);
+            if (hi - lo >= 359) {
+                return all;
+            }
+            final int first = Math.floorMod(lo, 360);
+            final int last = first + hi - lo;
+            final int k = 31 - Integer.numberOfLeadingZeros(last - first + 1);
+            return combine(extremes[k][first], extremes[k][last - (1 << k) + 1]);
+        }
+    }
+}
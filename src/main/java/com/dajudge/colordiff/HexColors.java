@@ -0,0 +1,67 @@
+package com.dajudge.colordiff;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Conversion between {@link RgbColor} and the hex notation <code>#RRGGBB</code> or <code>#RRGGBBAA</code>.
+ */
+public class HexColors {
+    /**
+     * Parses a color in hex notation. The leading <code>#</code> is optional. An alpha component is converted to
+     * the range 0-1.
+     *
+     * @param hex the color in hex notation
+     * @return the parsed color
+     */
+    public static RgbColor parse(final String hex) {
+        final String digits = hex.startsWith("#") ? hex.substring(1) : hex;
+        if (digits.length() != 6 && digits.length() != 8) {
+            throw new IllegalArgumentException("Not a hex color: " + hex);
+        }
+        // Long.parseLong() would also accept a sign
+        for (int i = 0; i < digits.length(); i++) {
+            if (Character.digit(digits.charAt(i), 16) < 0) {
+                throw new IllegalArgumentException("Not a hex color: " + hex);
+            }
+        }
+        final long value = Long.parseLong(digits, 16);
+        if (digits.length() == 6) {
+            return new RgbColor((value >> 16) & 0xFF, (value >> 8) & 0xFF, value & 0xFF);
+        }
+        return new RgbColor((value >> 24) & 0xFF, (value >> 16) & 0xFF, (value >> 8) & 0xFF, (value & 0xFF) / 255.0);
+    }
+
+    /**
+     * Parses one hex color per line, skipping blank lines and lines starting with <code>//</code>.
+     *
+     * @param text the colors in hex notation
+     * @return the parsed colors
+     */
+    public static List<RgbColor> parseLines(final String text) {
+        final List<RgbColor> colors = new ArrayList<>();
+        for (final String line : text.split("\\r?\\n")) {
+            final String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !trimmed.startsWith("//")) {
+                colors.add(parse(trimmed));
+            }
+        }
+        return colors;
+    }
+
+    /**
+     * Formats a color in hex notation. The components are rounded to the nearest integer.
+     *
+     * @param c should have fields R,G,B and optionally A
+     * @return the color in hex notation
+     */
+    public static String format(final RgbColor c) {
+        final String rgb = String.format(Locale.ROOT, "#%02x%02x%02x", channel(c.r), channel(c.g), channel(c.b));
+        return c.a == null ? rgb : rgb + String.format(Locale.ROOT, "%02x", channel(c.a * 255));
+    }
+
+    private static int channel(final double v) {
+        return (int) Math.max(0, Math.min(255, Math.round(v)));
+    }
+}
@@ -0,0 +1,316 @@
+package com.dajudge.colordiff;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.stream.IntStream;
+
+import static com.dajudge.colordiff.Diff.ciede2000;
+import static java.awt.image.BufferedImage.TYPE_BYTE_BINARY;
+
+/**
+ * Per-pixel CIEDE2000 differences between two images of the same size, e.g. for visual regression tests.
+ * <p>
+ * The images are compared in tiles, in parallel for larger images. Pixels are read as in {@link PaletteQuantizeOp}
+ * and converted with {@link Convert#argb_to_lab(int, RgbColor, ConversionProfile, double[], int)}: translucent
+ * pixels are blended onto the background color.
+ * Identical pixels have a difference of 0 and are not converted; runs of equal pixel pairs are compared once.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public class ImageDiff {
+    private static final int TILE_SIZE = 64;
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    private final RgbColor bc;
+    private final ConversionProfile profile;
+
+    /**
+     * Creates an image diff using white as background color and the default conversion profile.
+     */
+    public ImageDiff() {
+        this(new RgbColor(255, 255, 255), ConversionProfile.DEFAULT);
+    }
+
+    /**
+     * Creates an image diff.
+     *
+     * @param bc      background color translucent pixels are blended onto
+     * @param profile the conversion profile
+     */
+    public ImageDiff(final RgbColor bc, final ConversionProfile profile) {
+        this.bc = bc;
+        this.profile = profile;
+    }
+
+    public RgbColor background() {
+        return bc;
+    }
+
+    public ConversionProfile profile() {
+        return profile;
+    }
+
+    /**
+     * Compares two images without keeping the per-pixel differences.
+     *
+     * @param a         the first image
+     * @param b         the second image, of the same size as <code>a</code>
+     * @param threshold differences above this value are counted by {@link Statistics#countAbove()}
+     * @return summary statistics of the differences
+     */
+    public Statistics statistics(final BufferedImage a, final BufferedImage b, final double threshold) {
+        return compare(a, b, threshold, null, null);
+    }
+
+    /**
+     * Returns the per-pixel differences of two images.
+     *
+     * @param a the first image
+     * @param b the second image, of the same size as <code>a</code>
+     * @return the differences, row by row
+     */
+    public float[] map(final BufferedImage a, final BufferedImage b) {
+        final float[] map = new float[a.getWidth() * a.getHeight()];
+        map(a, b, map, Double.POSITIVE_INFINITY);
+        return map;
+    }
+
+    /**
+     * Compares two images, writing the per-pixel differences into a caller-supplied array.
+     *
+     * @param a         the first image
+     * @param b         the second image, of the same size as <code>a</code>
+     * @param map       receives the differences, row by row
+     * @param threshold differences above this value are counted by {@link Statistics#countAbove()}
+     * @return summary statistics of the differences
+     */
+    public Statistics map(final BufferedImage a, final BufferedImage b, final float[] map, final double threshold) {
+        if (map.length < a.getWidth() * (long) a.getHeight()) {
+            throw new IllegalArgumentException("Map too small: " + map.length + " < " + a.getWidth() * (long) a.getHeight());
+        }
+        return compare(a, b, threshold, map, null);
+    }
+
+    /**
+     * Returns a mask of the pixels differing by more than a threshold.
+     *
+     * @param a         the first image
+     * @param b         the second image, of the same size as <code>a</code>
+     * @param threshold pixels differing by more than this value are set in the mask
+     * @return a {@link BufferedImage#TYPE_BYTE_BINARY} image, white where the images differ, black elsewhere
+     */
+    public BufferedImage mask(final BufferedImage a, final BufferedImage b, final double threshold) {
+        final BufferedImage mask = new BufferedImage(a.getWidth(), a.getHeight(), TYPE_BYTE_BINARY);
+        compare(a, b, threshold, null, mask.getRaster());
+        return mask;
+    }
+
+    private Statistics compare(
+            final BufferedImage a,
+            final BufferedImage b,
+            final double threshold,
+            final float[] map,
+            final WritableRaster mask
+    ) {
+        if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight()) {
+            throw new IllegalArgumentException("Image sizes differ: "
+                    + a.getWidth() + "x" + a.getHeight() + " != " + b.getWidth() + "x" + b.getHeight());
+        }
+        final int w = a.getWidth();
+        final int h = a.getHeight();
+        final ImagePixels.Reader readerA = ImagePixels.reader(a);
+        final ImagePixels.Reader readerB = ImagePixels.reader(b);
+        final int tilesX = (w + TILE_SIZE - 1) / TILE_SIZE;
+        final int tilesY = (h + TILE_SIZE - 1) / TILE_SIZE;
+        final IntStream tiles = IntStream.range(0, tilesX * tilesY);
+        // Tiles are a multiple of 8 pixels wide, so no two tiles share a byte of the binary mask
+        return (w * (long) h >= PARALLEL_THRESHOLD ? tiles.parallel() : tiles)
+                .mapToObj(tile -> {
+                    final int x0 = tile % tilesX * TILE_SIZE;
+                    final int y0 = tile / tilesX * TILE_SIZE;
+                    return compareTile(readerA, readerB, x0, y0, Math.min(TILE_SIZE, w - x0), Math.min(TILE_SIZE, h - y0),
+                            w, threshold, map, mask);
+                })
+                .reduce(Statistics::merge)
+                .orElseGet(() -> new Statistics(threshold));
+    }
+
+    private Statistics compareTile(
+            final ImagePixels.Reader readerA,
+            final ImagePixels.Reader readerB,
+            final int x0,
+            final int y0,
+            final int tw,
+            final int th,
+            final int w,
+            final double threshold,
+            final float[] map,
+            final WritableRaster mask
+    ) {
+        final Statistics statistics = new Statistics(threshold);
+        final int[] rowA = new int[tw];
+        final int[] rowB = new int[tw];
+        final double[] lab = Scratch.get().lab;
+        int lastA = 0;
+        int lastB = 0;
+        double lastDiff = Double.NaN;
+        for (int y = y0; y < y0 + th; y++) {
+            readerA.read(x0, y, tw, rowA);
+            readerB.read(x0, y, tw, rowB);
+            for (int i = 0; i < tw; i++) {
+                final int pa = rowA[i];
+                final int pb = rowB[i];
+                final double diff;
+                if (pa == pb) {
+                    diff = 0;
+                    statistics.identical++;
+                } else {
+                    if (pa != lastA || pb != lastB || Double.isNaN(lastDiff)) {
+                        Convert.argb_to_lab(pa, bc, profile, lab, 0);
+                        Convert.argb_to_lab(pb, bc, profile, lab, 3);
+                        lastDiff = ciede2000(lab[0], lab[1], lab[2], lab[3], lab[4], lab[5]);
+                        lastA = pa;
+                        lastB = pb;
+                    }
+                    diff = lastDiff;
+                }
+                statistics.add(diff);
+                if (map != null) {
+                    map[y * w + x0 + i] = (float) diff;
+                }
+                if (mask != null && diff > threshold) {
+                    mask.setSample(x0 + i, y, 0, 1);
+                }
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Summary statistics of per-pixel differences, collected while comparing without keeping the differences.
+     * <p>
+     * Quantiles are estimated from a histogram with logarithmically sized buckets, so they have a relative error of
+     * at most {@value #RELATIVE_ERROR} for differences of at least {@value #MIN_VALUE}. Smaller non-zero differences
+     * are reported as {@value #MIN_VALUE}.
+     */
+    public static class Statistics {
+        static final double RELATIVE_ERROR = 0.01;
+        static final double MIN_VALUE = 1e-3;
+        private static final double MAX_VALUE = 1e3;
+        private static final double GAMMA = (1 + RELATIVE_ERROR) / (1 - RELATIVE_ERROR);
+        private static final double LOG_GAMMA = Math.log(GAMMA);
+        // Bucket i > 0 holds values in (MIN_VALUE * GAMMA^(i - 1), MIN_VALUE * GAMMA^i]; bucket 0 holds values up to
+        // MIN_VALUE, the last bucket values above MAX_VALUE
+        private static final int BUCKETS = (int) Math.ceil(Math.log(MAX_VALUE / MIN_VALUE) / LOG_GAMMA) + 2;
+
+        private final double threshold;
+        private long count;
+        private long zeros;
+        private long identical;
+        private long above;
+        private double sum;
+        private double max;
+        private final long[] buckets = new long[BUCKETS];
+
+        Statistics(final double threshold) {
+            this.threshold = threshold;
+        }
+
+        void add(final double diff) {
+            count++;
+            sum += diff;
+            max = Math.max(max, diff);
+            if (diff > threshold) {
+                above++;
+            }
+            if (diff == 0) {
+                zeros++;
+            } else if (diff <= MIN_VALUE) {
+                buckets[0]++;
+            } else {
+                buckets[Math.min(BUCKETS - 1, (int) Math.ceil(Math.log(diff / MIN_VALUE) / LOG_GAMMA))]++;
+            }
+        }
+
+        Statistics merge(final Statistics other) {
+            count += other.count;
+            zeros += other.zeros;
+            identical += other.identical;
+            above += other.above;
+            sum += other.sum;
+            max = Math.max(max, other.max);
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] += other.buckets[i];
+            }
+            return this;
+        }
+
+        /**
+         * @return the number of compared pixels
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * @return the number of identical pixels, which were not converted
+         */
+        public long identical() {
+            return identical;
+        }
+
+        public double threshold() {
+            return threshold;
+        }
+
+        /**
+         * @return the number of pixels differing by more than the threshold
+         */
+        public long countAbove() {
+            return above;
+        }
+
+        public double mean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        public double max() {
+            return max;
+        }
+
+        public double p95() {
+            return quantile(.95);
+        }
+
+        /**
+         * Returns an estimate of a quantile of the differences.
+         *
+         * @param q the quantile (range 0-1)
+         * @return the estimated difference below or at which the fraction <code>q</code> of the pixels lies
+         */
+        public double quantile(final double q) {
+            if (q < 0 || q > 1) {
+                throw new IllegalArgumentException("Quantile must be in the range 0-1: " + q);
+            }
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = (long) Math.floor(q * (count - 1));
+            long seen = zeros;
+            if (rank < seen) {
+                return 0;
+            }
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (rank < seen) {
+                    if (i == 0) {
+                        return Math.min(MIN_VALUE, max);
+                    }
+                    // The value with the same relative error to both bucket boundaries
+                    return Math.min(max, MIN_VALUE * Math.pow(GAMMA, i) * 2 / (1 + GAMMA));
+                }
+            }
+            return max;
+        }
+    }
+}
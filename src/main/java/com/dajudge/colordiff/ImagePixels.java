@@ -0,0 +1,122 @@
+package com.dajudge.colordiff;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Reads pixels of {@link BufferedImage}s in packed ARGB format.
+ * <p>
+ * Images stored in a {@link DataBufferInt} with a packed, non-premultiplied sRGB model of 8 bit masks, or in a
+ * {@link DataBufferByte} with an interleaved or indexed sRGB model of 8 bit samples are read from the data buffer
+ * directly. Other images are read with {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}.
+ */
+final class ImagePixels {
+    private ImagePixels() {
+    }
+
+    /**
+     * Reads a row segment of pixels in packed ARGB format. Readers can be used by several threads at once.
+     */
+    interface Reader {
+        void read(int x, int y, int w, int[] argb);
+    }
+
+    static Reader reader(final BufferedImage src) {
+        final ColorModel cm = src.getColorModel();
+        final Raster raster = src.getRaster();
+        final SampleModel sm = raster.getSampleModel();
+        final DataBuffer db = raster.getDataBuffer();
+        final int tx = raster.getSampleModelTranslateX();
+        final int ty = raster.getSampleModelTranslateY();
+        if (cm.getColorSpace().isCS_sRGB() && !cm.isAlphaPremultiplied() && db.getNumBanks() == 1) {
+            if (cm instanceof DirectColorModel && sm instanceof SinglePixelPackedSampleModel && db instanceof DataBufferInt) {
+                final DirectColorModel direct = (DirectColorModel) cm;
+                final int[] data = ((DataBufferInt) db).getData();
+                final int stride = ((SinglePixelPackedSampleModel) sm).getScanlineStride();
+                final int offset = db.getOffset() - ty * stride - tx;
+                if (direct.getRedMask() == 0xFF0000 && direct.getGreenMask() == 0xFF00 && direct.getBlueMask() == 0xFF) {
+                    final int opaque = direct.getAlphaMask() == 0 ? 0xFF000000 : 0;
+                    return (x, y, w, argb) -> {
+                        final int start = offset + y * stride + x;
+                        for (int i = 0; i < w; i++) {
+                            argb[i] = data[start + i] | opaque;
+                        }
+                    };
+                }
+                final int red = shift(direct.getRedMask());
+                final int green = shift(direct.getGreenMask());
+                final int blue = shift(direct.getBlueMask());
+                final int alpha = direct.getAlphaMask() == 0 ? -1 : shift(direct.getAlphaMask());
+                if (red >= 0 && green >= 0 && blue >= 0 && (alpha >= 0 || direct.getAlphaMask() == 0)) {
+                    return (x, y, w, argb) -> {
+                        final int start = offset + y * stride + x;
+                        for (int i = 0; i < w; i++) {
+                            final int p = data[start + i];
+                            final int a = alpha < 0 ? 0xFF : p >>> alpha & 0xFF;
+                            argb[i] = a << 24 | (p >>> red & 0xFF) << 16 | (p >>> green & 0xFF) << 8 | p >>> blue & 0xFF;
+                        }
+                    };
+                }
+            }
+            if (sm instanceof ComponentSampleModel && db instanceof DataBufferByte && allBytes(sm)) {
+                final ComponentSampleModel component = (ComponentSampleModel) sm;
+                final byte[] data = ((DataBufferByte) db).getData();
+                final int stride = component.getScanlineStride();
+                final int pixelStride = component.getPixelStride();
+                final int[] bands = component.getBandOffsets();
+                final int offset = db.getOffset() - ty * stride - tx * pixelStride;
+                if (cm instanceof IndexColorModel && bands.length == 1) {
+                    final int[] lut = new int[256];
+                    ((IndexColorModel) cm).getRGBs(lut);
+                    final int index = offset + bands[0];
+                    return (x, y, w, argb) -> {
+                        final int start = index + y * stride + x * pixelStride;
+                        for (int i = 0; i < w; i++) {
+                            argb[i] = lut[data[start + i * pixelStride] & 0xFF];
+                        }
+                    };
+                }
+                if (cm instanceof ComponentColorModel && (bands.length == 3 || bands.length == 4)) {
+                    final int r = offset + bands[0];
+                    final int g = offset + bands[1];
+                    final int b = offset + bands[2];
+                    final int a = bands.length == 4 ? offset + bands[3] : -1;
+                    return (x, y, w, argb) -> {
+                        for (int i = 0, p = y * stride + x * pixelStride; i < w; i++, p += pixelStride) {
+                            final int alpha = a < 0 ? 0xFF : data[a + p] & 0xFF;
+                            argb[i] = alpha << 24 | (data[r + p] & 0xFF) << 16 | (data[g + p] & 0xFF) << 8 | data[b + p] & 0xFF;
+                        }
+                    };
+                }
+            }
+        }
+        return (x, y, w, argb) -> src.getRGB(x, y, w, 1, argb, 0, w);
+    }
+
+    private static boolean allBytes(final SampleModel sm) {
+        for (final int size : sm.getSampleSize()) {
+            if (size != 8) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the shift of an 8 bit mask, or -1 for other masks
+     */
+    private static int shift(final int mask) {
+        final int shift = Integer.numberOfTrailingZeros(mask);
+        return mask >>> shift == 0xFF ? shift : -1;
+    }
+}
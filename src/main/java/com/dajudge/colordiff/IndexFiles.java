@@ -0,0 +1,374 @@
+package com.dajudge.colordiff;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Persists built palettes, matchers and lookup tables, so they can be loaded at startup instead of being rebuilt.
+ * <p>
+ * Files are read through {@link FileChannel#map(FileChannel.MapMode, long, long)} and loading never converts a color
+ * or evaluates a color difference. All values are stored big-endian:
+ * <pre>
+ * int    magic "CDIX"
+ * int    format version
+ * int    content type: 1 = PreparedPalette, 2 = ApproximateMatcher, 3 = PaletteLut
+ * long   payload length in bytes
+ * int    CRC32 of the payload
+ * byte[] payload
+ * </pre>
+ * Payloads are made up of these parts:
+ * <ul>
+ * <li>color: <code>double r, g, b, a</code> (a is NaN for colors without alpha)</li>
+ * <li>colors: <code>int n</code>, followed by n colors</li>
+ * <li>profile: <code>byte 0</code> for {@link ConversionProfile#DEFAULT}, or <code>byte 1</code>, followed by the
+ * folded 3x3 matrix and the reference white as <code>double</code>s</li>
+ * <li>PreparedPalette: colors, background color, profile, n times <code>double L, a, b</code></li>
+ * <li>ApproximateMatcher: PreparedPalette, <code>double slack, cellSize</code>, <code>int maxCandidates</code> (since
+ * version 2; version 1 matchers are unlimited), <code>int builtCells</code>, followed by <code>int cell, int n</code>
+ * and n candidate indices per built cell</li>
+ * <li>PaletteLut: colors, <code>byte width</code> (1 or 2), 2^24 unsigned indices of that width</li>
+ * </ul>
+ * Files written by older versions of this class remain readable; files of newer format versions are rejected.
+ */
+public final class IndexFiles {
+    static final int MAGIC = 0x43444958; // "CDIX"
+    static final int VERSION = 2;
+    static final int PREPARED_PALETTE = 1;
+    static final int APPROXIMATE_MATCHER = 2;
+    static final int PALETTE_LUT = 3;
+    private static final int HEADER_SIZE = 24;
+    private static final int COLOR_SIZE = 32;
+
+    private IndexFiles() {
+    }
+
+    public static void write(final PreparedPalette palette, final Path path) throws IOException {
+        write(PREPARED_PALETTE, encode(palette), path);
+    }
+
+    public static void write(final ApproximateMatcher matcher, final Path path) throws IOException {
+        write(APPROXIMATE_MATCHER, encode(matcher), path);
+    }
+
+    public static void write(final PaletteLut lut, final Path path) throws IOException {
+        write(PALETTE_LUT, encode(lut), path);
+    }
+
+    public static PreparedPalette readPreparedPalette(final Path path) throws IOException {
+        return decodePreparedPalette(read(PREPARED_PALETTE, path));
+    }
+
+    public static ApproximateMatcher readApproximateMatcher(final Path path) throws IOException {
+        final ByteBuffer buffer = read(APPROXIMATE_MATCHER, path);
+        return decodeApproximateMatcher(buffer, buffer.getInt(4));
+    }
+
+    public static PaletteLut readPaletteLut(final Path path) throws IOException {
+        return decodePaletteLut(read(PALETTE_LUT, path));
+    }
+
+    static void write(final PaletteLut lut, final OutputStream out) throws IOException {
+        final ByteBuffer payload = encode(lut);
+        out.write(header(PALETTE_LUT, payload).array());
+        out.write(payload.array(), 0, payload.limit());
+        out.flush();
+    }
+
+    static PaletteLut readPaletteLut(final InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        final byte[] header = new byte[HEADER_SIZE];
+        data.readFully(header);
+        final ByteBuffer buffer = ByteBuffer.wrap(header);
+        final long length = checkHeader(buffer, PALETTE_LUT);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Payload too large: " + length);
+        }
+        final byte[] payload = new byte[(int) length];
+        data.readFully(payload);
+        return decodePaletteLut(checkPayload(ByteBuffer.wrap(payload), buffer.getInt()));
+    }
+
+    private static void write(final int type, final ByteBuffer payload, final Path path) throws IOException {
+        try (final FileChannel channel = FileChannel.open(
+                path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE
+        )) {
+            final ByteBuffer header = header(type, payload);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            while (payload.hasRemaining()) {
+                channel.write(payload);
+            }
+        }
+    }
+
+    /**
+     * @return the whole file, positioned at the payload
+     */
+    private static ByteBuffer read(final int type, final Path path) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new EOFException("Truncated index file: " + path);
+            }
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            final long length = checkHeader(buffer, type);
+            final int crc = buffer.getInt();
+            if (length != size - HEADER_SIZE) {
+                throw new EOFException("Truncated index file: " + path);
+            }
+            return checkPayload(buffer, crc);
+        }
+    }
+
+    private static ByteBuffer header(final int type, final ByteBuffer payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(type).putLong(payload.remaining()).putInt((int) crc.getValue());
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Reads the header up to (excluding) the checksum.
+     *
+     * @return the payload length
+     */
+    private static long checkHeader(final ByteBuffer buffer, final int type) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a color-diff index file");
+        }
+        final int version = buffer.getInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported index format version: " + version);
+        }
+        final int actualType = buffer.getInt();
+        if (actualType != type) {
+            throw new IOException("Unexpected index content type: " + actualType + ", expected " + type);
+        }
+        return buffer.getLong();
+    }
+
+    private static ByteBuffer checkPayload(final ByteBuffer payload, final int expectedCrc) throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IOException("Index file checksum mismatch");
+        }
+        return payload;
+    }
+
+    private static ByteBuffer encode(final PreparedPalette palette) {
+        final ByteBuffer buffer = ByteBuffer.allocate(preparedPaletteSize(palette));
+        putPreparedPalette(buffer, palette);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer encode(final ApproximateMatcher matcher) {
+        // Other threads may build cells while encoding, so the built cells are collected once and encoded from that
+        final List<Integer> indices = new ArrayList<>();
+        final List<int[]> cells = new ArrayList<>();
+        int size = preparedPaletteSize(matcher.palette()) + 8 + 8 + 4 + 4;
+        for (int i = 0; i < matcher.cellCount(); i++) {
+            final int[] cell = matcher.builtCell(i);
+            if (cell != null) {
+                indices.add(i);
+                cells.add(cell);
+                size += 8 + 4 * cell.length;
+            }
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        putPreparedPalette(buffer, matcher.palette());
+        buffer.putDouble(matcher.slack()).putDouble(matcher.cellSize()).putInt(matcher.maxCandidates());
+        buffer.putInt(cells.size());
+        for (int k = 0; k < cells.size(); k++) {
+            final int[] cell = cells.get(k);
+            buffer.putInt(indices.get(k)).putInt(cell.length);
+            for (final int candidate : cell) {
+                buffer.putInt(candidate);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer encode(final PaletteLut lut) {
+        final int width = lut.bytes() != null ? 1 : 2;
+        final ByteBuffer buffer = ByteBuffer.allocate(colorsSize(lut.colors()) + 1 + width * PaletteLut.SIZE);
+        putColors(buffer, lut.colors());
+        buffer.put((byte) width);
+        if (width == 1) {
+            buffer.put(lut.bytes());
+        } else {
+            buffer.asShortBuffer().put(lut.shorts());
+            buffer.position(buffer.position() + 2 * PaletteLut.SIZE);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static PreparedPalette decodePreparedPalette(final ByteBuffer buffer) throws IOException {
+        try {
+            return getPreparedPalette(buffer);
+        } catch (final BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupt prepared palette", e);
+        }
+    }
+
+    private static ApproximateMatcher decodeApproximateMatcher(
+            final ByteBuffer buffer,
+            final int version
+    ) throws IOException {
+        try {
+            final PreparedPalette palette = getPreparedPalette(buffer);
+            final double slack = buffer.getDouble();
+            final double cellSize = buffer.getDouble();
+            final int maxCandidates = version >= 2 ? buffer.getInt() : ApproximateMatcher.UNLIMITED_CANDIDATES;
+            final ApproximateMatcher matcher = new ApproximateMatcher(palette, slack, cellSize, maxCandidates);
+            final int built = buffer.getInt();
+            for (int i = 0; i < built; i++) {
+                final int cell = buffer.getInt();
+                final int[] candidates = new int[buffer.getInt()];
+                for (int j = 0; j < candidates.length; j++) {
+                    candidates[j] = checkIndex(buffer.getInt(), palette.size());
+                }
+                if (candidates.length == 0 || candidates.length > maxCandidates
+                        || cell < 0 || cell >= matcher.cellCount()) {
+                    throw new IllegalArgumentException("Invalid cell: " + cell);
+                }
+                matcher.restoreCell(cell, candidates);
+            }
+            return matcher;
+        } catch (final BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            throw new IOException("Corrupt approximate matcher", e);
+        }
+    }
+
+    private static PaletteLut decodePaletteLut(final ByteBuffer buffer) throws IOException {
+        try {
+            final List<RgbColor> colors = getColors(buffer);
+            final int width = buffer.get();
+            if (width == 1 && colors.size() <= 256) {
+                final byte[] bytes = new byte[PaletteLut.SIZE];
+                buffer.get(bytes);
+                return new PaletteLut(colors, bytes, null);
+            } else if (width == 2 && colors.size() <= 65536) {
+                final short[] shorts = new short[PaletteLut.SIZE];
+                buffer.asShortBuffer().get(shorts);
+                return new PaletteLut(colors, null, shorts);
+            }
+            throw new IllegalArgumentException("Invalid index width " + width + " for " + colors.size() + " colors");
+        } catch (final BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            throw new IOException("Corrupt palette lookup table", e);
+        }
+    }
+
+    private static int preparedPaletteSize(final PreparedPalette palette) {
+        final int profileSize = palette.profile() == ConversionProfile.DEFAULT ? 1 : 1 + 12 * 8;
+        return colorsSize(palette.colors()) + COLOR_SIZE + profileSize + palette.size() * 24;
+    }
+
+    private static int colorsSize(final List<RgbColor> colors) {
+        return 4 + colors.size() * COLOR_SIZE;
+    }
+
+    private static void putPreparedPalette(final ByteBuffer buffer, final PreparedPalette palette) {
+        putColors(buffer, palette.colors());
+        putColor(buffer, palette.background());
+        if (palette.profile() == ConversionProfile.DEFAULT) {
+            buffer.put((byte) 0);
+        } else {
+            buffer.put((byte) 1);
+            for (final double value : palette.profile().matrix()) {
+                buffer.putDouble(value);
+            }
+            for (final double value : palette.profile().referenceWhite()) {
+                buffer.putDouble(value);
+            }
+        }
+        for (int i = 0; i < palette.size(); i++) {
+            final LabColor lab = palette.lab(i);
+            buffer.putDouble(lab.L).putDouble(lab.a).putDouble(lab.b);
+        }
+    }
+
+    private static PreparedPalette getPreparedPalette(final ByteBuffer buffer) {
+        final List<RgbColor> colors = getColors(buffer);
+        final RgbColor bc = getColor(buffer);
+        final ConversionProfile profile;
+        final byte profileType = buffer.get();
+        if (profileType == 0) {
+            profile = ConversionProfile.DEFAULT;
+        } else if (profileType == 1) {
+            final double[] matrix = new double[9];
+            for (int i = 0; i < matrix.length; i++) {
+                matrix[i] = buffer.getDouble();
+            }
+            final double[] referenceWhite = {buffer.getDouble(), buffer.getDouble(), buffer.getDouble()};
+            profile = new ConversionProfile(matrix, referenceWhite);
+        } else {
+            throw new IllegalArgumentException("Unknown profile type: " + profileType);
+        }
+        final LabColor[] lab = new LabColor[colors.size()];
+        for (int i = 0; i < lab.length; i++) {
+            lab[i] = new LabColor(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+        }
+        return new PreparedPalette(colors, bc, profile, lab);
+    }
+
+    private static void putColors(final ByteBuffer buffer, final List<RgbColor> colors) {
+        buffer.putInt(colors.size());
+        for (final RgbColor color : colors) {
+            putColor(buffer, color);
+        }
+    }
+
+    private static List<RgbColor> getColors(final ByteBuffer buffer) {
+        final int size = buffer.getInt();
+        if (size < 1 || size > buffer.remaining() / COLOR_SIZE) {
+            throw new IllegalArgumentException("Invalid palette size: " + size);
+        }
+        final List<RgbColor> colors = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            colors.add(getColor(buffer));
+        }
+        return Collections.unmodifiableList(colors);
+    }
+
+    private static void putColor(final ByteBuffer buffer, final RgbColor color) {
+        buffer.putDouble(color.r).putDouble(color.g).putDouble(color.b);
+        buffer.putDouble(color.a == null ? Double.NaN : color.a);
+    }
+
+    private static RgbColor getColor(final ByteBuffer buffer) {
+        final double r = buffer.getDouble();
+        final double g = buffer.getDouble();
+        final double b = buffer.getDouble();
+        final double a = buffer.getDouble();
+        return Double.isNaN(a) ? new RgbColor(r, g, b) : new RgbColor(r, g, b, a);
+    }
+
+    private static int checkIndex(final int index, final int size) {
+        if (index < 0 || index >= size) {
+            throw new IllegalArgumentException("Invalid palette index: " + index);
+        }
+        return index;
+    }
+}
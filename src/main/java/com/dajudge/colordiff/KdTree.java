@@ -0,0 +1,150 @@
+package com.dajudge.colordiff;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Exact nearest-neighbor search by Euclidean distance over a tree of bounding boxes.
+ * <p>
+ * Boxes farther from the query than the nearest point found so far are skipped, so the result is the same as that of
+ * a full scan, including the first-wins rule for equally distant points.
+ */
+final class KdTree {
+    private static final int LEAF_SIZE = 8;
+
+    // Coordinates in tree order, i.e. grouped by node
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+    // Point index per tree position
+    private final int[] order;
+    // Per node: bounding box (minX, maxX, minY, maxY, minZ, maxZ)
+    private final double[] boxes;
+    // Per node: index range into the tree order; inner nodes have their children at 2 * node + 1 and 2 * node + 2
+    private final int[] from;
+    private final int[] to;
+    private final boolean[] leaf;
+
+    /**
+     * @param points the coordinates of the points, three per point
+     */
+    KdTree(final double[] points) {
+        final int n = points.length / 3;
+        final Integer[] sorted = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = i;
+        }
+        int nodes = 1;
+        while (nodes * LEAF_SIZE < n) {
+            nodes *= 2;
+        }
+        nodes = 2 * nodes - 1;
+        boxes = new double[6 * nodes];
+        from = new int[nodes];
+        to = new int[nodes];
+        leaf = new boolean[nodes];
+        build(points, sorted, 0, 0, n);
+        x = new double[n];
+        y = new double[n];
+        z = new double[n];
+        order = new int[n];
+        for (int k = 0; k < n; k++) {
+            final int i = sorted[k];
+            order[k] = i;
+            x[k] = points[3 * i];
+            y[k] = points[3 * i + 1];
+            z[k] = points[3 * i + 2];
+        }
+    }
+
+    /**
+     * @return the index of the nearest point
+     */
+    int nearest(final double qx, final double qy, final double qz, final MatchResult result) {
+        // Holds the squared distance during the search
+        final MatchResult best = Scratch.get().match;
+        best.set(-1, Double.POSITIVE_INFINITY);
+        search(0, qx, qy, qz, best);
+        if (best.index() < 0) {
+            // Only possible for NaN distances, where a full scan keeps the first point
+            best.set(0, Double.NaN);
+        }
+        if (result != null) {
+            result.set(best.index(), Math.sqrt(best.distance()));
+        }
+        return best.index();
+    }
+
+    private void search(final int node, final double qx, final double qy, final double qz, final MatchResult best) {
+        if (leaf[node]) {
+            for (int k = from[node]; k < to[node]; k++) {
+                final double dx = qx - x[k];
+                final double dy = qy - y[k];
+                final double dz = qz - z[k];
+                final double d2 = dx * dx + dy * dy + dz * dz;
+                if (d2 < best.distance() || (d2 == best.distance() && order[k] < best.index())) {
+                    best.set(order[k], d2);
+                }
+            }
+            return;
+        }
+        final int left = 2 * node + 1;
+        final int right = left + 1;
+        final double leftDistance = distance(left, qx, qy, qz);
+        final double rightDistance = distance(right, qx, qy, qz);
+        final int first = leftDistance <= rightDistance ? left : right;
+        final int second = first == left ? right : left;
+        // Boxes at the same distance may hold an equally distant point with a lower index
+        if (Math.min(leftDistance, rightDistance) <= best.distance()) {
+            search(first, qx, qy, qz, best);
+        }
+        if (Math.max(leftDistance, rightDistance) <= best.distance()) {
+            search(second, qx, qy, qz, best);
+        }
+    }
+
+    /**
+     * @return the squared distance from the query to the box of the node
+     */
+    private double distance(final int node, final double qx, final double qy, final double qz) {
+        if (from[node] == to[node]) {
+            return Double.POSITIVE_INFINITY;
+        }
+        final int o = 6 * node;
+        final double dx = Math.max(0, Math.max(boxes[o] - qx, qx - boxes[o + 1]));
+        final double dy = Math.max(0, Math.max(boxes[o + 2] - qy, qy - boxes[o + 3]));
+        final double dz = Math.max(0, Math.max(boxes[o + 4] - qz, qz - boxes[o + 5]));
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private void build(final double[] points, final Integer[] sorted, final int node, final int start, final int end) {
+        from[node] = start;
+        to[node] = end;
+        final int o = 6 * node;
+        boxes[o] = boxes[o + 2] = boxes[o + 4] = Double.POSITIVE_INFINITY;
+        boxes[o + 1] = boxes[o + 3] = boxes[o + 5] = Double.NEGATIVE_INFINITY;
+        for (int k = start; k < end; k++) {
+            final int i = sorted[k];
+            for (int d = 0; d < 3; d++) {
+                boxes[o + 2 * d] = Math.min(boxes[o + 2 * d], points[3 * i + d]);
+                boxes[o + 2 * d + 1] = Math.max(boxes[o + 2 * d + 1], points[3 * i + d]);
+            }
+        }
+        if (2 * node + 2 >= from.length) {
+            leaf[node] = true;
+            return;
+        }
+        // Split at the median of the widest dimension
+        int widest = 0;
+        for (int d = 1; d < 3; d++) {
+            if (boxes[o + 2 * d + 1] - boxes[o + 2 * d] > boxes[o + 2 * widest + 1] - boxes[o + 2 * widest]) {
+                widest = d;
+            }
+        }
+        final int dimension = widest;
+        Arrays.sort(sorted, start, end, Comparator.comparingDouble(i -> points[3 * i + dimension]));
+        final int mid = (start + end) >>> 1;
+        build(points, sorted, 2 * node + 1, start, mid);
+        build(points, sorted, 2 * node + 2, mid, end);
+    }
+}
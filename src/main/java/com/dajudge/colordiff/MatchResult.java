@@ -0,0 +1,34 @@
+package com.dajudge.colordiff;
+
+/**
+ * Mutable holder for the result of a palette query, so that callers can reuse one instance across queries instead
+ * of allocating a result per query.
+ */
+public class MatchResult {
+    private int index = -1;
+    private double distance = Double.NaN;
+
+    /**
+     * @return the index of the matched palette color or -1 before the first query
+     */
+    public int index() {
+        return index;
+    }
+
+    /**
+     * @return the CIEDE2000 difference to the matched palette color
+     */
+    public double distance() {
+        return distance;
+    }
+
+    void set(final int index, final double distance) {
+        this.index = index;
+        this.distance = distance;
+    }
+
+    @Override
+    public String toString() {
+        return "MatchResult{index=" + index + ", distance=" + distance + "}";
+    }
+}
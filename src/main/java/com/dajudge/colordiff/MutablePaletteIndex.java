@@ -0,0 +1,283 @@
+package com.dajudge.colordiff;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A palette that can be changed at runtime while being queried.
+ * <p>
+ * Every change publishes a new immutable {@link Snapshot} (copy-on-write). Only the changed color is converted to
+ * L,a,b; the other colors are carried over from the previous snapshot. Changes are serialized, while queries read the
+ * current snapshot without any locking and therefore never block, even while a change is in progress. A query is
+ * always answered from exactly one palette version.
+ * <p>
+ * Colors are identified by the id returned when they were added. Ids are never reused. Snapshots keep the colors in
+ * the order they were added, so ties between equally distant colors are resolved in favor of the oldest color, like
+ * {@link ColorDiff#closest(RgbColor, List, RgbColor)} does for the palette as a list.
+ */
+public class MutablePaletteIndex {
+    private final RgbColor bc;
+    private final ConversionProfile profile;
+    private volatile Snapshot snapshot;
+    private int nextId;
+
+    /**
+     * Creates an empty index using white as background color.
+     */
+    public MutablePaletteIndex() {
+        this(new RgbColor(255, 255, 255));
+    }
+
+    /**
+     * Creates an empty index.
+     *
+     * @param bc background color used if the palette or the queried colors have an alpha component.
+     */
+    public MutablePaletteIndex(final RgbColor bc) {
+        this(bc, ConversionProfile.DEFAULT);
+    }
+
+    /**
+     * Creates an empty index using a conversion profile. Queried colors are converted with the same profile.
+     *
+     * @param bc      background color used if the palette or the queried colors have an alpha component.
+     * @param profile the conversion profile
+     */
+    public MutablePaletteIndex(final RgbColor bc, final ConversionProfile profile) {
+        this.bc = bc;
+        this.profile = profile;
+        this.snapshot = new Snapshot(0, new int[0], new RgbColor[0], new LabColor[0], null);
+    }
+
+    /**
+     * @return the current palette version; readers never block
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Adds a color.
+     *
+     * @param color should have fields R,G,B
+     * @return the id of the new color
+     */
+    public synchronized int add(final RgbColor color) {
+        return addAll(Collections.singletonList(color))[0];
+    }
+
+    /**
+     * Adds several colors as a single change.
+     *
+     * @param colors each element should have fields R,G,B
+     * @return the ids of the new colors
+     */
+    public synchronized int[] addAll(final List<RgbColor> colors) {
+        final Snapshot current = snapshot;
+        final int size = current.ids.length;
+        final int[] ids = Arrays.copyOf(current.ids, size + colors.size());
+        final RgbColor[] rgb = Arrays.copyOf(current.rgb, ids.length);
+        final LabColor[] lab = Arrays.copyOf(current.lab, ids.length);
+        final int[] added = new int[colors.size()];
+        for (int i = 0; i < added.length; i++) {
+            added[i] = nextId++;
+            ids[size + i] = added[i];
+            rgb[size + i] = colors.get(i);
+            lab[size + i] = toLab(colors.get(i));
+        }
+        publish(current, ids, rgb, lab);
+        return added;
+    }
+
+    /**
+     * Removes a color.
+     *
+     * @param id the id of the color
+     * @return whether the color was part of the palette
+     */
+    public synchronized boolean remove(final int id) {
+        final Snapshot current = snapshot;
+        final int pos = Arrays.binarySearch(current.ids, id);
+        if (pos < 0) {
+            return false;
+        }
+        publish(current, without(current.ids, pos), without(current.rgb, pos), without(current.lab, pos));
+        return true;
+    }
+
+    /**
+     * Replaces a color, keeping its id and position.
+     *
+     * @param id    the id of the color
+     * @param color should have fields R,G,B
+     * @return whether the color was part of the palette
+     */
+    public synchronized boolean update(final int id, final RgbColor color) {
+        final Snapshot current = snapshot;
+        final int pos = Arrays.binarySearch(current.ids, id);
+        if (pos < 0) {
+            return false;
+        }
+        final RgbColor[] rgb = current.rgb.clone();
+        final LabColor[] lab = current.lab.clone();
+        rgb[pos] = color;
+        lab[pos] = toLab(color);
+        publish(current, current.ids, rgb, lab);
+        return true;
+    }
+
+    private void publish(final Snapshot current, final int[] ids, final RgbColor[] rgb, final LabColor[] lab) {
+        final PreparedPalette palette = ids.length == 0
+                ? null
+                : new PreparedPalette(Arrays.asList(rgb), bc, profile, lab);
+        snapshot = new Snapshot(current.version + 1, ids, rgb, lab, palette);
+    }
+
+    private LabColor toLab(final RgbColor c) {
+        return c.a == null ? Convert.rgb_to_lab(c, profile) : Convert.rgba_to_lab(c, bc, profile);
+    }
+
+    private static int[] without(final int[] array, final int pos) {
+        final int[] result = new int[array.length - 1];
+        System.arraycopy(array, 0, result, 0, pos);
+        System.arraycopy(array, pos + 1, result, pos, result.length - pos);
+        return result;
+    }
+
+    private static <T> T[] without(final T[] array, final int pos) {
+        final T[] result = Arrays.copyOf(array, array.length - 1);
+        System.arraycopy(array, pos + 1, result, pos, result.length - pos);
+        return result;
+    }
+
+    /**
+     * An immutable version of the palette.
+     */
+    public static class Snapshot {
+        private final long version;
+        private final int[] ids;
+        private final RgbColor[] rgb;
+        private final LabColor[] lab;
+        private final PreparedPalette palette;
+
+        private Snapshot(
+                final long version,
+                final int[] ids,
+                final RgbColor[] rgb,
+                final LabColor[] lab,
+                final PreparedPalette palette
+        ) {
+            this.version = version;
+            this.ids = ids;
+            this.rgb = rgb;
+            this.lab = lab;
+            this.palette = palette;
+        }
+
+        /**
+         * @return the number of changes applied before this snapshot was taken
+         */
+        public long version() {
+            return version;
+        }
+
+        public int size() {
+            return ids.length;
+        }
+
+        public boolean isEmpty() {
+            return ids.length == 0;
+        }
+
+        /**
+         * @return the ids of the colors in palette order
+         */
+        public int[] ids() {
+            return ids.clone();
+        }
+
+        /**
+         * @param id the id of a color
+         * @return the color or <code>null</code> if it is not part of this version
+         */
+        public RgbColor color(final int id) {
+            final int pos = Arrays.binarySearch(ids, id);
+            return pos < 0 ? null : rgb[pos];
+        }
+
+        /**
+         * @return the colors in palette order
+         */
+        public List<RgbColor> colors() {
+            return Collections.unmodifiableList(Arrays.asList(rgb));
+        }
+
+        /**
+         * @return the colors converted to L,a,b in palette order, e.g. for
+         * {@link Palette#match_palette_lab(LabColor, List, boolean)}
+         */
+        public List<LabColor> labColors() {
+            return Collections.unmodifiableList(Arrays.asList(lab));
+        }
+
+        /**
+         * @return this version as a prepared palette; palette indices are positions in {@link #ids()}
+         * @throws IllegalStateException if the palette is empty
+         */
+        public PreparedPalette palette() {
+            if (palette == null) {
+                throw new IllegalStateException("Palette is empty");
+            }
+            return palette;
+        }
+
+        /**
+         * @param color should have fields R,G,B
+         * @return the id of the closest color or -1 if the palette is empty
+         */
+        public int closest(final RgbColor color) {
+            return palette == null ? -1 : ids[palette.closest(palette.toLab(color))];
+        }
+
+        /**
+         * @param color should have fields R,G,B
+         * @return the id of the furthest color or -1 if the palette is empty
+         */
+        public int furthest(final RgbColor color) {
+            return palette == null ? -1 : ids[palette.furthest(palette.toLab(color))];
+        }
+
+        /**
+         * @param color should have fields L,a,b
+         * @return the id of the closest color or -1 if the palette is empty
+         */
+        public int closest(final LabColor color) {
+            return palette == null ? -1 : ids[palette.closest(color)];
+        }
+
+        /**
+         * @param color should have fields L,a,b
+         * @return the id of the furthest color or -1 if the palette is empty
+         */
+        public int furthest(final LabColor color) {
+            return palette == null ? -1 : ids[palette.furthest(color)];
+        }
+
+        /**
+         * @param color should have fields L,a,b
+         * @param k     the number of colors to return; capped at the palette size
+         * @return the ids of the k closest colors, closest first
+         */
+        public int[] nearest(final LabColor color, final int k) {
+            if (palette == null) {
+                return new int[0];
+            }
+            final int[] indices = palette.nearest(color, k);
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = ids[indices[i]];
+            }
+            return indices;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.dajudge.colordiff;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.stream.IntStream;
+
+import static com.dajudge.colordiff.Diff.ciede2000;
+import static com.dajudge.colordiff.Diff.ciede2000_bounded;
+
+/**
+ * Colors and their L,a,b values stored outside the Java heap, for reference libraries of millions of colors.
+ * <p>
+ * Each color takes {@value #BYTES_PER_COLOR} bytes of a direct {@link ByteBuffer}: L,a,b as doubles, so matching gives
+ * the same results as a {@link PreparedPalette} of the same colors, alpha as double and R,G,B as floats, which
+ * represent 8 bit channels exactly. Colors are converted like {@link PreparedPalette#toLab(RgbColor)} when they are
+ * added. Neither the colors nor their L,a,b values are Java objects, so the garbage collector does not scan them.
+ * <p>
+ * {@link #palette()} returns a {@link PreparedPalette} reading the stored colors directly, so matching, the indexes
+ * built from prepared palettes ({@link ApproximateMatcher}, {@link PaletteLut}) and {@link IndexFiles} work without
+ * copying the colors to the heap. Queries against palettes of at least {@value #PARALLEL_THRESHOLD} colors scan the
+ * store in parallel.
+ * <p>
+ * The store must be closed when it is no longer needed. Afterwards the store and its palettes throw
+ * {@link IllegalStateException} and no longer reference the buffer. The memory itself is freed only when the garbage
+ * collector collects the buffer, which on a large heap with little allocation can take long; allocating a direct
+ * buffer beyond <code>-XX:MaxDirectMemorySize</code> triggers a collection first, unless explicit collections are
+ * disabled.
+ * <p>
+ * Colors can be added while other threads query palettes returned earlier; those palettes keep the size they had
+ * when they were returned.
+ */
+public final class OffHeapColorStore implements Closeable {
+    public static final int BYTES_PER_COLOR = 48;
+    static final int PARALLEL_THRESHOLD = 16384;
+    private static final int CHUNK_SIZE = 4096;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE / BYTES_PER_COLOR;
+    private static final int A = 8;
+    private static final int B = 16;
+    private static final int ALPHA = 24;
+    private static final int R = 32;
+    private static final int G = 36;
+    private static final int BLUE = 40;
+
+    private final int capacity;
+    private final RgbColor bc;
+    private final ConversionProfile profile;
+    private volatile ByteBuffer buffer;
+    private volatile int size;
+
+    /**
+     * Creates a store using white as background color and the default conversion profile.
+     *
+     * @param capacity the maximum number of colors
+     */
+    public OffHeapColorStore(final int capacity) {
+        this(capacity, new RgbColor(255, 255, 255), ConversionProfile.DEFAULT);
+    }
+
+    /**
+     * Creates a store.
+     *
+     * @param capacity the maximum number of colors, at most about 44 million (2 GiB)
+     * @param bc       background color used if the stored or the queried colors have an alpha component
+     * @param profile  the conversion profile
+     */
+    public OffHeapColorStore(final int capacity, final RgbColor bc, final ConversionProfile profile) {
+        if (capacity < 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Capacity must be in the range 0-" + MAX_CAPACITY + ": " + capacity);
+        }
+        this.capacity = capacity;
+        this.bc = bc;
+        this.profile = profile;
+        this.buffer = ByteBuffer.allocateDirect(capacity * BYTES_PER_COLOR).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Copies the colors of a prepared palette into a new store of the same size.
+     *
+     * @param palette the palette
+     * @return the store, using the background color and the conversion profile of the palette
+     */
+    public static OffHeapColorStore of(final PreparedPalette palette) {
+        final OffHeapColorStore store = new OffHeapColorStore(palette.size(), palette.background(), palette.profile());
+        for (int i = 0; i < palette.size(); i++) {
+            store.add(palette.color(i), palette.lab(i));
+        }
+        return store;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of bytes allocated outside the heap
+     */
+    public long bytes() {
+        return (long) capacity * BYTES_PER_COLOR;
+    }
+
+    public RgbColor background() {
+        return bc;
+    }
+
+    public ConversionProfile profile() {
+        return profile;
+    }
+
+    public boolean isClosed() {
+        return buffer == null;
+    }
+
+    /**
+     * Adds a color.
+     *
+     * @param color should have fields R,G,B and optionally A
+     * @return the index of the color
+     * @throws IllegalStateException if the store is full
+     */
+    public int add(final RgbColor color) {
+        return add(color, color.a == null ? Convert.rgb_to_lab(color, profile) : Convert.rgba_to_lab(color, bc, profile));
+    }
+
+    private synchronized int add(final RgbColor color, final LabColor lab) {
+        final ByteBuffer buffer = buffer();
+        if (size == capacity) {
+            throw new IllegalStateException("Store is full: " + capacity);
+        }
+        final int offset = size * BYTES_PER_COLOR;
+        buffer.putDouble(offset, lab.L);
+        buffer.putDouble(offset + A, lab.a);
+        buffer.putDouble(offset + B, lab.b);
+        buffer.putFloat(offset + R, (float) color.r);
+        buffer.putFloat(offset + G, (float) color.g);
+        buffer.putFloat(offset + BLUE, (float) color.b);
+        buffer.putDouble(offset + ALPHA, color.a == null ? Double.NaN : color.a);
+        // Publishes the color to palettes created afterwards
+        return size++;
+    }
+
+    public RgbColor color(final int index) {
+        final ByteBuffer buffer = buffer();
+        final int offset = offset(index);
+        final double a = buffer.getDouble(offset + ALPHA);
+        final double r = buffer.getFloat(offset + R);
+        final double g = buffer.getFloat(offset + G);
+        final double b = buffer.getFloat(offset + BLUE);
+        return Double.isNaN(a) ? new RgbColor(r, g, b) : new RgbColor(r, g, b, a);
+    }
+
+    public LabColor lab(final int index) {
+        final ByteBuffer buffer = buffer();
+        final int offset = offset(index);
+        return new LabColor(buffer.getDouble(offset), buffer.getDouble(offset + A), buffer.getDouble(offset + B));
+    }
+
+    /**
+     * Returns a palette of the colors added so far, reading them from the store.
+     *
+     * @return the palette
+     * @throws IllegalArgumentException if the store is empty
+     */
+    public PreparedPalette palette() {
+        return new PreparedPalette(this, size);
+    }
+
+    /**
+     * Closes the store, releasing its buffer to the garbage collector. Closing a closed store has no effect.
+     */
+    @Override
+    public synchronized void close() {
+        buffer = null;
+    }
+
+    /**
+     * @return a read-only view of the first <code>n</code> colors
+     */
+    List<RgbColor> colors(final int n) {
+        return new Colors(n);
+    }
+
+    /**
+     * Scans the first <code>n</code> colors like {@link PreparedPalette#scan(double, double, double, boolean,
+     * MatchResult)}: the first of several equally distant colors wins.
+     */
+    int scan(final int n, final double L, final double a, final double b, final boolean furthest, final MatchResult result) {
+        final ByteBuffer buffer = buffer();
+        int best = 0;
+        double best_diff = diff(buffer, 0, L, a, b, furthest, Double.POSITIVE_INFINITY);
+        if (n < PARALLEL_THRESHOLD) {
+            for (int i = 1; i < n; i++) {
+                final double diff = diff(buffer, i, L, a, b, furthest, best_diff);
+                if (furthest ? diff > best_diff : diff < best_diff) {
+                    best = i;
+                    best_diff = diff;
+                }
+            }
+        } else {
+            final int chunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            final int[] chunkBest = new int[chunks];
+            final double[] chunkDiff = new double[chunks];
+            IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                int localBest = -1;
+                double localDiff = furthest ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+                for (int i = chunk * CHUNK_SIZE, end = Math.min(n, i + CHUNK_SIZE); i < end; i++) {
+                    final double diff = diff(buffer, i, L, a, b, furthest, localDiff);
+                    if (furthest ? diff > localDiff : diff < localDiff) {
+                        localBest = i;
+                        localDiff = diff;
+                    }
+                }
+                chunkBest[chunk] = localBest;
+                chunkDiff[chunk] = localDiff;
+            });
+            // Merging in chunk order with strict comparisons keeps the first of equally distant colors
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                final double diff = chunkDiff[chunk];
+                if (chunkBest[chunk] >= 0 && (furthest ? diff > best_diff : diff < best_diff)) {
+                    best = chunkBest[chunk];
+                    best_diff = diff;
+                }
+            }
+        }
+        if (result != null) {
+            result.set(best, best_diff);
+        }
+        return best;
+    }
+
+    /**
+     * @param bound for closest-color scans, the distance a color has to beat
+     */
+    private static double diff(
+            final ByteBuffer buffer,
+            final int index,
+            final double L,
+            final double a,
+            final double b,
+            final boolean furthest,
+            final double bound
+    ) {
+        final int offset = index * BYTES_PER_COLOR;
+        final double L2 = buffer.getDouble(offset);
+        final double a2 = buffer.getDouble(offset + A);
+        final double b2 = buffer.getDouble(offset + B);
+        return furthest ? ciede2000(L, a, b, L2, a2, b2) : ciede2000_bounded(L, a, b, L2, a2, b2, bound);
+    }
+
+    private int offset(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return index * BYTES_PER_COLOR;
+    }
+
+    private ByteBuffer buffer() {
+        final ByteBuffer buffer = this.buffer;
+        if (buffer == null) {
+            throw new IllegalStateException("Store is closed");
+        }
+        return buffer;
+    }
+
+    private class Colors extends AbstractList<RgbColor> implements RandomAccess {
+        private final int n;
+
+        Colors(final int n) {
+            this.n = n;
+        }
+
+        @Override
+        public RgbColor get(final int index) {
+            if (index >= n) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + n);
+            }
+            return color(index);
+        }
+
+        @Override
+        public int size() {
+            return n;
+        }
+    }
+}
@@ -34,9 +34,9 @@ import java.awt.*;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
 
 import static com.dajudge.colordiff.Diff.ciede2000;
+import static com.dajudge.colordiff.Diff.ciede2000_bounded;
 import static com.dajudge.colordiff.Palette.MapType.CLOSEST;
 import static com.dajudge.colordiff.Palette.MapType.FURTHEST;
 
@@ -118,19 +118,35 @@ public class Palette {
             final RgbColor bc
     ) {
         final Map<String, RgbColor> c = new HashMap<>();
+        // The background is the same for all pairs, so every color is converted once
+        final LabColor[] lab = new LabColor[b.size()];
+        for (int i = 0; i < lab.length; i++) {
+            lab[i] = to_lab(b.get(i), bc);
+        }
+        if (type == FURTHEST && b.size() >= FurthestSearch.MIN_PALETTE_SIZE) {
+            final FurthestSearch search = new FurthestSearch(lab);
+            for (final RgbColor color1 : a) {
+                final LabColor lab1 = to_lab(color1, bc);
+                c.put(palette_map_key(color1), b.get(search.furthest(lab1.L, lab1.a, lab1.b, null)));
+            }
+            return c;
+        }
         for (final RgbColor color1 : a) {
+            final LabColor lab1 = to_lab(color1, bc);
             RgbColor best_color = null;
             Double best_color_diff = null;
-            for (final RgbColor color2 : b) {
-                final double current_color_diff = diff(color1, color2, bc);
+            for (int idx2 = 0; idx2 < lab.length; idx2++) {
+                final double current_color_diff = type == CLOSEST && best_color != null
+                        ? ciede2000_bounded(lab1, lab[idx2], best_color_diff)
+                        : ciede2000(lab1, lab[idx2]);
 
                 if ((best_color == null) || ((type == CLOSEST) && (current_color_diff < best_color_diff))) {
-                    best_color = color2;
+                    best_color = b.get(idx2);
                     best_color_diff = current_color_diff;
                     continue;
                 }
                 if ((type == FURTHEST) && (current_color_diff > best_color_diff)) {
-                    best_color = color2;
+                    best_color = b.get(idx2);
                     best_color_diff = current_color_diff;
                 }
             }
@@ -155,7 +171,9 @@ public class Palette {
         double best_color_diff = ciede2000(target_color, best_color);
         for (int idx2 = 1, l = palette.size(); idx2 < l; idx2 += 1) {
             color2 = palette.get(idx2);
-            current_color_diff = ciede2000(target_color, color2);
+            current_color_diff = find_furthest
+                    ? ciede2000(target_color, color2)
+                    : ciede2000_bounded(target_color, color2, best_color_diff);
 
             if ((!find_furthest && (current_color_diff < best_color_diff)) || (find_furthest && (current_color_diff > best_color_diff))) {
                 best_color = color2;
@@ -176,27 +194,21 @@ public class Palette {
     public static Map<String, LabColor> map_palette_lab(final List<LabColor> a, final List<LabColor> b, final MapType type) {
         final Map<String, LabColor> c = new HashMap<>();
         final boolean find_furthest = type == FURTHEST;
+        if (find_furthest && b.size() >= FurthestSearch.MIN_PALETTE_SIZE) {
+            final FurthestSearch search = new FurthestSearch(b.toArray(new LabColor[0]));
+            for (final LabColor color1 : a) {
+                c.put(lab_palette_map_key(color1), b.get(search.furthest(color1.L, color1.a, color1.b, null)));
+            }
+            return c;
+        }
         for (final LabColor color1 : a) {
             c.put(lab_palette_map_key(color1), match_palette_lab(color1, b, find_furthest));
         }
         return c;
     }
 
-    private static double diff(
-            final RgbColor c1,
-            final RgbColor c2,
-            final RgbColor bc
-    ) {
-        Function<RgbColor, LabColor> conv_c1 = Convert::rgb_to_lab;
-        Function<RgbColor, LabColor> conv_c2 = Convert::rgb_to_lab;
-        Function<RgbColor, LabColor> rgba_conv = c -> Convert.rgba_to_lab(c, bc);
-        if (c1.a != null) {
-            conv_c1 = rgba_conv;
-        }
-        if (c2.a != null) {
-            conv_c2 = rgba_conv;
-        }
-        return ciede2000(conv_c1.apply(c1), conv_c2.apply(c2));
+    private static LabColor to_lab(final RgbColor c, final RgbColor bc) {
+        return c.a != null ? Convert.rgba_to_lab(c, bc) : Convert.rgb_to_lab(c);
     }
 
     public enum MapType {
@@ -0,0 +1,374 @@
+package com.dajudge.colordiff;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static java.lang.Math.max;
+import static java.lang.Math.sqrt;
+
+/**
+ * Palette extraction from images.
+ * <p>
+ * The pixels are reduced to a histogram of unique colors first, so the cost of extraction depends on the number
+ * of distinct colors rather than on the size of the image. The histogram is seeded with median cut and then refined
+ * with weighted k-means in L,a,b space. K-means needs a true metric for its centroid update and for the
+ * triangle-inequality pruning (Hamerly), so it uses the euclidean distance in L,a,b (CIE76) instead of CIEDE2000.
+ * The returned colors are the image colors closest to the final centroids, which makes them suitable as input for
+ * {@link Palette#map_palette(List, List)}.
+ */
+public class PaletteExtractor {
+    static final int DEFAULT_MAX_ITERATIONS = 50;
+    private static final int PARALLEL_THRESHOLD = 4096;
+    private static final double CONVERGENCE_EPSILON = 1e-6;
+
+    /**
+     * Returns a palette of at most k colors extracted from an image. The alpha channel is ignored.
+     *
+     * @param image the image to extract the palette from
+     * @param k     the maximum number of palette colors
+     * @return the extracted palette, most frequent color first
+     */
+    public static List<RgbColor> extract(final BufferedImage image, final int k) {
+        final int w = image.getWidth();
+        final int h = image.getHeight();
+        return extract(image.getRGB(0, 0, w, h, null, 0, w), k);
+    }
+
+    /**
+     * Returns a palette of at most k colors extracted from a raster. The alpha channel is ignored.
+     *
+     * @param argb the pixels in packed ARGB format
+     * @param k    the maximum number of palette colors
+     * @return the extracted palette, most frequent color first
+     */
+    public static List<RgbColor> extract(final int[] argb, final int k) {
+        return extract(argb, k, DEFAULT_MAX_ITERATIONS);
+    }
+
+    /**
+     * Returns a palette of at most k colors extracted from a raster. The alpha channel is ignored.
+     *
+     * @param argb          the pixels in packed ARGB format
+     * @param k             the maximum number of palette colors
+     * @param maxIterations the maximum number of k-means iterations after median cut seeding
+     * @return the extracted palette, most frequent color first
+     */
+    public static List<RgbColor> extract(final int[] argb, final int k, final int maxIterations) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        final Histogram histogram = Histogram.of(argb);
+        if (histogram.size() == 0) {
+            return new ArrayList<>();
+        }
+        final KMeans kmeans = new KMeans(histogram, medianCut(histogram, k));
+        kmeans.run(maxIterations);
+        return kmeans.palette();
+    }
+
+    /**
+     * Unique colors of a raster with their pixel counts and L,a,b coordinates.
+     */
+    static class Histogram {
+        final int[] rgb;
+        final int[] count;
+        final double[][] lab;
+
+        private Histogram(final int[] rgb, final int[] count) {
+            this.rgb = rgb;
+            this.count = count;
+            this.lab = new double[rgb.length][];
+            range(rgb.length).forEach(i -> {
+                final LabColor c = Convert.rgb_to_lab(new RgbColor(
+                        (rgb[i] >> 16) & 0xFF,
+                        (rgb[i] >> 8) & 0xFF,
+                        rgb[i] & 0xFF
+                ));
+                lab[i] = new double[]{c.L, c.a, c.b};
+            });
+        }
+
+        static Histogram of(final int[] argb) {
+            final int[] sorted = new int[argb.length];
+            for (int i = 0; i < argb.length; i++) {
+                sorted[i] = argb[i] & 0xFFFFFF;
+            }
+            Arrays.sort(sorted);
+            int unique = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    unique++;
+                }
+            }
+            final int[] rgb = new int[unique];
+            final int[] count = new int[unique];
+            int u = -1;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    rgb[++u] = sorted[i];
+                }
+                count[u]++;
+            }
+            return new Histogram(rgb, count);
+        }
+
+        int size() {
+            return rgb.length;
+        }
+    }
+
+    /**
+     * Returns the weighted centroids of up to k median cut boxes over the histogram.
+     */
+    static double[][] medianCut(final Histogram histogram, final int k) {
+        final List<int[]> boxes = new ArrayList<>();
+        final int[] all = new int[histogram.size()];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        boxes.add(all);
+        while (boxes.size() < k) {
+            int widest = -1;
+            int widestAxis = 0;
+            double widestRange = 0;
+            for (int i = 0; i < boxes.size(); i++) {
+                final int[] box = boxes.get(i);
+                if (box.length < 2) {
+                    continue;
+                }
+                for (int axis = 0; axis < 3; axis++) {
+                    final double range = range(histogram, box, axis);
+                    if (range > widestRange) {
+                        widest = i;
+                        widestAxis = axis;
+                        widestRange = range;
+                    }
+                }
+            }
+            if (widest < 0) {
+                break;
+            }
+            final int axis = widestAxis;
+            final int[] box = boxes.remove(widest);
+            final Integer[] order = new Integer[box.length];
+            for (int i = 0; i < box.length; i++) {
+                order[i] = box[i];
+            }
+            Arrays.sort(order, (x, y) -> Double.compare(histogram.lab[x][axis], histogram.lab[y][axis]));
+            long total = 0;
+            for (final int i : box) {
+                total += histogram.count[i];
+            }
+            // Split at the weighted median, but leave at least one color on either side
+            int split = 1;
+            long seen = histogram.count[order[0]];
+            while (split < order.length - 1 && seen * 2 < total) {
+                seen += histogram.count[order[split++]];
+            }
+            final int[] lower = new int[split];
+            final int[] upper = new int[order.length - split];
+            for (int i = 0; i < order.length; i++) {
+                if (i < split) {
+                    lower[i] = order[i];
+                } else {
+                    upper[i - split] = order[i];
+                }
+            }
+            boxes.add(lower);
+            boxes.add(upper);
+        }
+        final double[][] centers = new double[boxes.size()][];
+        for (int i = 0; i < centers.length; i++) {
+            final double[] sum = new double[3];
+            long weight = 0;
+            for (final int c : boxes.get(i)) {
+                for (int axis = 0; axis < 3; axis++) {
+                    sum[axis] += histogram.lab[c][axis] * histogram.count[c];
+                }
+                weight += histogram.count[c];
+            }
+            centers[i] = new double[]{sum[0] / weight, sum[1] / weight, sum[2] / weight};
+        }
+        return centers;
+    }
+
+    private static double range(final Histogram histogram, final int[] box, final int axis) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (final int i : box) {
+            min = Math.min(min, histogram.lab[i][axis]);
+            max = Math.max(max, histogram.lab[i][axis]);
+        }
+        return max - min;
+    }
+
+    /**
+     * Weighted k-means with Hamerly's bounds: every color keeps an upper bound of the distance to its own center and
+     * a lower bound of the distance to every other center, so most colors skip the scan over all centers once the
+     * centers settle down.
+     */
+    static class KMeans {
+        private final Histogram histogram;
+        private final double[][] centers;
+        private final int[] assignment;
+        private final double[] upper;
+        private final double[] lower;
+        private final double[] halfSeparation;
+
+        KMeans(final Histogram histogram, final double[][] seeds) {
+            this.histogram = histogram;
+            this.centers = seeds;
+            this.assignment = new int[histogram.size()];
+            this.upper = new double[histogram.size()];
+            this.lower = new double[histogram.size()];
+            this.halfSeparation = new double[seeds.length];
+            range(histogram.size()).forEach(this::scan);
+        }
+
+        void run(final int maxIterations) {
+            for (int iteration = 0; iteration < maxIterations; iteration++) {
+                if (!moveCenters()) {
+                    return;
+                }
+                updateSeparation();
+                final int changed = range(histogram.size()).map(i -> assign(i) ? 1 : 0).sum();
+                if (changed == 0) {
+                    return;
+                }
+            }
+        }
+
+        int[] assignment() {
+            return assignment;
+        }
+
+        private boolean assign(final int i) {
+            final int current = assignment[i];
+            final double bound = max(halfSeparation[current], lower[i]);
+            if (upper[i] <= bound) {
+                return false;
+            }
+            upper[i] = distance(histogram.lab[i], centers[current]);
+            if (upper[i] <= bound) {
+                return false;
+            }
+            scan(i);
+            return assignment[i] != current;
+        }
+
+        private void scan(final int i) {
+            final double[] x = histogram.lab[i];
+            int best = 0;
+            double bestDistance = Double.POSITIVE_INFINITY;
+            double secondDistance = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < centers.length; j++) {
+                final double d = distance(x, centers[j]);
+                if (d < bestDistance) {
+                    secondDistance = bestDistance;
+                    bestDistance = d;
+                    best = j;
+                } else if (d < secondDistance) {
+                    secondDistance = d;
+                }
+            }
+            assignment[i] = best;
+            upper[i] = bestDistance;
+            lower[i] = secondDistance;
+        }
+
+        private boolean moveCenters() {
+            final double[][] sums = new double[centers.length][3];
+            final long[] weights = new long[centers.length];
+            for (int i = 0; i < histogram.size(); i++) {
+                final int c = assignment[i];
+                final int w = histogram.count[i];
+                sums[c][0] += histogram.lab[i][0] * w;
+                sums[c][1] += histogram.lab[i][1] * w;
+                sums[c][2] += histogram.lab[i][2] * w;
+                weights[c] += w;
+            }
+            final double[] moved = new double[centers.length];
+            double maxMoved = 0;
+            for (int j = 0; j < centers.length; j++) {
+                if (weights[j] == 0) {
+                    // Empty clusters keep their previous center
+                    continue;
+                }
+                final double[] next = {sums[j][0] / weights[j], sums[j][1] / weights[j], sums[j][2] / weights[j]};
+                moved[j] = distance(centers[j], next);
+                maxMoved = max(maxMoved, moved[j]);
+                centers[j] = next;
+            }
+            if (maxMoved <= CONVERGENCE_EPSILON) {
+                return false;
+            }
+            final double lowerShift = maxMoved;
+            range(histogram.size()).forEach(i -> {
+                upper[i] += moved[assignment[i]];
+                lower[i] -= lowerShift;
+            });
+            return true;
+        }
+
+        private void updateSeparation() {
+            for (int j = 0; j < centers.length; j++) {
+                double nearest = Double.POSITIVE_INFINITY;
+                for (int other = 0; other < centers.length; other++) {
+                    if (other != j) {
+                        nearest = Math.min(nearest, distance(centers[j], centers[other]));
+                    }
+                }
+                halfSeparation[j] = nearest / 2;
+            }
+        }
+
+        List<RgbColor> palette() {
+            final long[] weights = new long[centers.length];
+            final int[] representative = new int[centers.length];
+            final double[] representativeDistance = new double[centers.length];
+            Arrays.fill(representative, -1);
+            for (int i = 0; i < histogram.size(); i++) {
+                final int c = assignment[i];
+                weights[c] += histogram.count[i];
+                final double d = distance(histogram.lab[i], centers[c]);
+                if (representative[c] < 0 || d < representativeDistance[c]) {
+                    representative[c] = i;
+                    representativeDistance[c] = d;
+                }
+            }
+            final Integer[] order = new Integer[centers.length];
+            for (int j = 0; j < order.length; j++) {
+                order[j] = j;
+            }
+            Arrays.sort(order, (x, y) -> Long.compare(weights[y], weights[x]));
+            final Set<Integer> colors = new LinkedHashSet<>();
+            for (final int j : order) {
+                if (weights[j] > 0) {
+                    colors.add(histogram.rgb[representative[j]]);
+                }
+            }
+            final List<RgbColor> palette = new ArrayList<>(colors.size());
+            for (final int rgb : colors) {
+                palette.add(new RgbColor((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF));
+            }
+            return palette;
+        }
+    }
+
+    static double distance(final double[] x, final double[] y) {
+        final double dL = x[0] - y[0];
+        final double da = x[1] - y[1];
+        final double db = x[2] - y[2];
+        return sqrt(dL * dL + da * da + db * db);
+    }
+
+    private static IntStream range(final int n) {
+        final IntStream range = IntStream.range(0, n);
+        return n >= PARALLEL_THRESHOLD ? range.parallel() : range;
+    }
+}
@@ -0,0 +1,217 @@
+package com.dajudge.colordiff;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static com.dajudge.colordiff.Diff.ciede2000;
+import static com.dajudge.colordiff.Diff.ciede2000_bounded;
+
+/**
+ * Lookup table holding the closest palette color for every 24-bit RGB value.
+ * <p>
+ * Building the table evaluates all 16,777,216 RGB values once, in parallel over the red planes. Each value starts
+ * from the answer of its neighbor and skips palette colors that {@link Diff#ciede2000_bounded(LabColor, LabColor,
+ * double)} rules out against the best distance found so far, so the build costs only a few full CIEDE2000
+ * evaluations per value. The answers are exact: they equal {@link ColorDiff#closest(RgbColor, List, RgbColor)} for
+ * every opaque RGB color with integer channels, including the first-wins rule for equally distant palette colors.
+ * <p>
+ * Afterwards a lookup is a single array read. The table takes 16 MiB for palettes of up to 256 colors and 32 MiB for
+ * palettes of up to 65,536 colors. Tables can be persisted with {@link IndexFiles} or written to and read from a
+ * stream, so they only need to be built once per palette.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public class PaletteLut {
+    static final int SIZE = 1 << 24;
+    private static final int MAX_BYTE_PALETTE = 256;
+    private static final int MAX_SHORT_PALETTE = 65536;
+
+    private final List<RgbColor> colors;
+    private final byte[] bytes;
+    private final short[] shorts;
+
+    /**
+     * Builds the table for a palette using white as background color.
+     *
+     * @param palette each element should have fields R,G,B
+     */
+    public PaletteLut(final List<RgbColor> palette) {
+        this(new PreparedPalette(palette));
+    }
+
+    /**
+     * Builds the table for a prepared palette, using its background color and conversion profile.
+     *
+     * @param palette the palette
+     */
+    public PaletteLut(final PreparedPalette palette) {
+        this(palette, 0, 256);
+    }
+
+    /**
+     * Builds the table for the red planes <code>fromRed</code> (inclusive) to <code>toRed</code> (exclusive) only.
+     */
+    PaletteLut(final PreparedPalette palette, final int fromRed, final int toRed) {
+        if (palette.size() > MAX_SHORT_PALETTE) {
+            throw new IllegalArgumentException("Palette too large for a lookup table: " + palette.size());
+        }
+        this.colors = palette.colors();
+        final boolean small = palette.size() <= MAX_BYTE_PALETTE;
+        this.bytes = small ? new byte[SIZE] : null;
+        this.shorts = small ? null : new short[SIZE];
+        final LabColor[] lab = new LabColor[palette.size()];
+        for (int i = 0; i < lab.length; i++) {
+            lab[i] = palette.lab(i);
+        }
+        final ConversionProfile profile = palette.profile();
+        IntStream.range(fromRed, toRed).parallel().forEach(r -> fillPlane(r, lab, profile));
+    }
+
+    /**
+     * Restores a table, e.g. when loading a persisted one. Exactly one of <code>bytes</code> and <code>shorts</code>
+     * must be set.
+     */
+    PaletteLut(final List<RgbColor> colors, final byte[] bytes, final short[] shorts) {
+        this.colors = colors;
+        this.bytes = bytes;
+        this.shorts = shorts;
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    short[] shorts() {
+        return shorts;
+    }
+
+    public int size() {
+        return colors.size();
+    }
+
+    public List<RgbColor> colors() {
+        return colors;
+    }
+
+    public RgbColor color(final int index) {
+        return colors.get(index);
+    }
+
+    /**
+     * @param rgb the color as <code>0xRRGGBB</code>; higher bits (e.g. alpha) are ignored
+     * @return the index of the closest palette color
+     */
+    public int closest(final int rgb) {
+        final int i = rgb & 0xFFFFFF;
+        return bytes != null ? bytes[i] & 0xFF : shorts[i] & 0xFFFF;
+    }
+
+    /**
+     * @param color should have fields R,G,B with integer values and no alpha component
+     * @return the closest palette color
+     */
+    public RgbColor closest(final RgbColor color) {
+        if (color.a != null) {
+            throw new IllegalArgumentException("Lookup tables only support opaque colors");
+        }
+        return colors.get(closest(rgb(color)));
+    }
+
+    /**
+     * Looks up a batch of colors, e.g. the pixels of an image.
+     *
+     * @param rgb     colors as <code>0xRRGGBB</code>; higher bits (e.g. alpha) are ignored
+     * @param indices receives the index of the closest palette color for each element
+     */
+    public void closest(final int[] rgb, final int[] indices) {
+        if (indices.length < rgb.length) {
+            throw new IllegalArgumentException("Output too small: " + indices.length + " < " + rgb.length);
+        }
+        for (int i = 0; i < rgb.length; i++) {
+            indices[i] = closest(rgb[i]);
+        }
+    }
+
+    /**
+     * Writes the table to a stream in the format of {@link IndexFiles}.
+     *
+     * @param out the stream; not closed
+     * @throws IOException if writing fails
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        IndexFiles.write(this, out);
+    }
+
+    /**
+     * Reads a table written by {@link #writeTo(OutputStream)} or {@link IndexFiles#write(PaletteLut, Path)}.
+     *
+     * @param in the stream; not closed
+     * @return the table
+     * @throws IOException if reading fails or the stream does not contain a valid lookup table
+     */
+    public static PaletteLut readFrom(final InputStream in) throws IOException {
+        return IndexFiles.readPaletteLut(in);
+    }
+
+    private void fillPlane(final int r, final LabColor[] lab, final ConversionProfile profile) {
+        // Reused for all values of the plane, so the build allocates nothing per value
+        final double[] color = new double[3];
+        int rowSeed = 0;
+        for (int g = 0; g < 256; g++) {
+            int seed = rowSeed;
+            for (int b = 0; b < 256; b++) {
+                Convert.rgb_to_lab(r, g, b, profile, color, 0);
+                seed = closest(color[0], color[1], color[2], lab, seed);
+                final int i = r << 16 | g << 8 | b;
+                if (bytes != null) {
+                    bytes[i] = (byte) seed;
+                } else {
+                    shorts[i] = (short) seed;
+                }
+                if (b == 0) {
+                    rowSeed = seed;
+                }
+            }
+        }
+    }
+
+    /**
+     * Exact closest-color scan starting from a likely answer.
+     *
+     * @param L    L of the color to match
+     * @param a    a of the color to match
+     * @param b    b of the color to match
+     * @param lab  the palette
+     * @param seed index of a palette color to evaluate first
+     * @return the index of the closest palette color; the lowest index of several equally distant colors
+     */
+    static int closest(final double L, final double a, final double b, final LabColor[] lab, final int seed) {
+        int best = seed;
+        double best_diff = ciede2000(L, a, b, lab[seed].L, lab[seed].a, lab[seed].b);
+        for (int i = 0; i < lab.length; i++) {
+            if (i == seed) {
+                continue;
+            }
+            final double diff = ciede2000_bounded(L, a, b, lab[i].L, lab[i].a, lab[i].b, best_diff);
+            if (diff < best_diff || (diff == best_diff && i < best)) {
+                best = i;
+                best_diff = diff;
+            }
+        }
+        return best;
+    }
+
+    private static int rgb(final RgbColor color) {
+        final int r = (int) color.r;
+        final int g = (int) color.g;
+        final int b = (int) color.b;
+        if (r != color.r || g != color.g || b != color.b || (r | g | b) >>> 8 != 0) {
+            throw new IllegalArgumentException("Lookup tables only support integer channels from 0 to 255");
+        }
+        return r << 16 | g << 8 | b;
+    }
+}
@@ -0,0 +1,278 @@
+package com.dajudge.colordiff;
+
+import java.awt.RenderingHints;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_INDEXED;
+
+/**
+ * Quantizes images to a palette with CIEDE2000, producing {@link BufferedImage#TYPE_BYTE_INDEXED} images whose
+ * {@link IndexColorModel} holds the palette colors.
+ * <p>
+ * Every pixel is mapped to the same palette color as {@link PreparedPalette#closest(RgbColor)}: opaque pixels are
+ * matched as colors without alpha, translucent pixels as colors with an alpha of <code>A / 255</code>, i.e. blended
+ * onto the background color of the palette. Alternatively, pixels can be matched by Euclidean distance in a uniform
+ * color space with an {@link EuclideanMatcher}, the same way as {@link EuclideanMatcher#closestArgb(int)}.
+ * <p>
+ * Pixels of packed int and interleaved or indexed byte images with 8 bit sRGB samples (e.g.
+ * {@link BufferedImage#TYPE_INT_RGB}, {@link BufferedImage#TYPE_INT_ARGB}, {@link BufferedImage#TYPE_3BYTE_BGR},
+ * {@link BufferedImage#TYPE_4BYTE_ABGR}, {@link BufferedImage#TYPE_BYTE_INDEXED}) are read from the data buffer
+ * directly; other images are read row by row with {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}.
+ * Large images are processed in parallel strips of rows. Runs of equal pixels are matched once. Since neighboring
+ * pixels of natural images mostly match the same or similar palette colors, the CIEDE2000 search of each pixel starts
+ * with the matches of its left and upper neighbors (see {@link PreparedPalette#closestArgb(int, int)}), without
+ * changing the results.
+ */
+public class PaletteQuantizeOp implements BufferedImageOp {
+    private static final int PARALLEL_THRESHOLD = 4096;
+    private static final int STRIP_PIXELS = 16384;
+    private static final int MAX_COLORS = 256;
+
+    private final PreparedPalette palette;
+    private final List<RgbColor> colors;
+    private final Matcher matcher;
+    private final IndexColorModel colorModel;
+    private final RenderingHints hints;
+
+    /**
+     * Creates a quantizing operation.
+     *
+     * @param palette the palette of at most 256 colors
+     */
+    public PaletteQuantizeOp(final PreparedPalette palette) {
+        this(palette, null);
+    }
+
+    /**
+     * Creates a quantizing operation.
+     *
+     * @param palette the palette of at most 256 colors
+     * @param hints   the rendering hints reported by {@link #getRenderingHints()}, may be null
+     */
+    public PaletteQuantizeOp(final PreparedPalette palette, final RenderingHints hints) {
+        this(palette, palette.colors(), palette::closestArgb, hints);
+    }
+
+    /**
+     * Creates a quantizing operation matching by Euclidean distance.
+     *
+     * @param matcher the matcher of a palette of at most 256 colors
+     */
+    public PaletteQuantizeOp(final EuclideanMatcher matcher) {
+        this(matcher, null);
+    }
+
+    /**
+     * Creates a quantizing operation matching by Euclidean distance.
+     *
+     * @param matcher the matcher of a palette of at most 256 colors
+     * @param hints   the rendering hints reported by {@link #getRenderingHints()}, may be null
+     */
+    public PaletteQuantizeOp(final EuclideanMatcher matcher, final RenderingHints hints) {
+        this(null, matcher.colors(), (argb, hint1, hint2) -> matcher.closestArgb(argb), hints);
+    }
+
+    private PaletteQuantizeOp(
+            final PreparedPalette palette,
+            final List<RgbColor> colors,
+            final Matcher matcher,
+            final RenderingHints hints
+    ) {
+        if (colors.size() > MAX_COLORS) {
+            throw new IllegalArgumentException("At most " + MAX_COLORS + " palette colors supported: " + colors.size());
+        }
+        this.palette = palette;
+        this.colors = colors;
+        this.matcher = matcher;
+        this.colorModel = colorModel(colors);
+        this.hints = hints;
+    }
+
+    /**
+     * @return the palette, or null if the operation matches with an {@link EuclideanMatcher}
+     */
+    public PreparedPalette palette() {
+        return palette;
+    }
+
+    /**
+     * @return the color model of the destination images, mapping each palette index to its palette color
+     */
+    public IndexColorModel colorModel() {
+        return colorModel;
+    }
+
+    /**
+     * Quantizes an image.
+     *
+     * @param src  the image to quantize
+     * @param dest the image receiving the palette indices, or null to create one with
+     *             {@link #createCompatibleDestImage(BufferedImage, ColorModel)}; must be of type
+     *             {@link BufferedImage#TYPE_BYTE_INDEXED} and of the same size as <code>src</code>
+     * @return the destination image
+     */
+    @Override
+    public BufferedImage filter(final BufferedImage src, final BufferedImage dest) {
+        final BufferedImage result = destination(src, dest);
+        final int w = src.getWidth();
+        final int h = src.getHeight();
+        final ImagePixels.Reader reader = ImagePixels.reader(src);
+        final PixelWriter writer = new PixelWriter(result.getRaster());
+        final int rowsPerStrip = Math.max(1, STRIP_PIXELS / w);
+        final int strips = (h + rowsPerStrip - 1) / rowsPerStrip;
+        final IntStream range = IntStream.range(0, strips);
+        (w * (long) h >= PARALLEL_THRESHOLD ? range.parallel() : range).forEach(strip -> {
+            final int[] row = new int[w];
+            // The matches of the previous row, overwritten pixel by pixel with the matches of the current row
+            final int[] upper = new int[w];
+            int last = 0;
+            int lastIndex = -1;
+            for (int start = strip * rowsPerStrip, y = start, end = Math.min(h, y + rowsPerStrip); y < end; y++) {
+                reader.read(0, y, w, row);
+                for (int x = 0; x < w; x++) {
+                    final int argb = row[x];
+                    if (argb != last || lastIndex < 0) {
+                        lastIndex = matcher.match(argb, lastIndex, y > start ? upper[x] : -1);
+                        last = argb;
+                    }
+                    upper[x] = lastIndex;
+                    writer.write(x, y, lastIndex);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return the index of the palette color a pixel is mapped to
+     */
+    int match(final int argb) {
+        return matcher.match(argb, -1, -1);
+    }
+
+    /**
+     * Checks the destination image of {@link #filter(BufferedImage, BufferedImage)}, creating one if it is null.
+     */
+    BufferedImage destination(final BufferedImage src, final BufferedImage dest) {
+        final BufferedImage result = dest == null ? createCompatibleDestImage(src, null) : dest;
+        if (result == src) {
+            throw new IllegalArgumentException("Source and destination must differ");
+        }
+        if (result.getType() != TYPE_BYTE_INDEXED) {
+            throw new IllegalArgumentException("Destination must be of type TYPE_BYTE_INDEXED: " + result.getType());
+        }
+        if (result.getWidth() != src.getWidth() || result.getHeight() != src.getHeight()) {
+            throw new IllegalArgumentException("Destination size differs from source size: "
+                    + result.getWidth() + "x" + result.getHeight() + " != " + src.getWidth() + "x" + src.getHeight());
+        }
+        return result;
+    }
+
+    /**
+     * Creates a {@link BufferedImage#TYPE_BYTE_INDEXED} image of the size of the source.
+     *
+     * @param src     the source image
+     * @param destCM  an {@link IndexColorModel} with an entry for every palette color, or null to use
+     *                {@link #colorModel()}
+     * @return the destination image
+     */
+    @Override
+    public BufferedImage createCompatibleDestImage(final BufferedImage src, final ColorModel destCM) {
+        final ColorModel cm = destCM == null ? colorModel : destCM;
+        if (!(cm instanceof IndexColorModel)
+                || cm.getPixelSize() != 8
+                || ((IndexColorModel) cm).getMapSize() < colors.size()) {
+            throw new IllegalArgumentException("Destination color model must be an 8 bit IndexColorModel with at least "
+                    + colors.size() + " entries: " + cm);
+        }
+        return new BufferedImage(src.getWidth(), src.getHeight(), TYPE_BYTE_INDEXED, (IndexColorModel) cm);
+    }
+
+    @Override
+    public Rectangle2D getBounds2D(final BufferedImage src) {
+        return src.getRaster().getBounds();
+    }
+
+    @Override
+    public Point2D getPoint2D(final Point2D srcPt, final Point2D dstPt) {
+        final Point2D result = dstPt == null ? new Point2D.Double() : dstPt;
+        result.setLocation(srcPt);
+        return result;
+    }
+
+    @Override
+    public RenderingHints getRenderingHints() {
+        return hints;
+    }
+
+    private static IndexColorModel colorModel(final List<RgbColor> colors) {
+        final int n = colors.size();
+        final byte[] r = new byte[n];
+        final byte[] g = new byte[n];
+        final byte[] b = new byte[n];
+        final byte[] a = new byte[n];
+        boolean alpha = false;
+        for (int i = 0; i < n; i++) {
+            final RgbColor color = colors.get(i);
+            r[i] = (byte) channel(color.r);
+            g[i] = (byte) channel(color.g);
+            b[i] = (byte) channel(color.b);
+            a[i] = (byte) (color.a == null ? 0xFF : channel(color.a * 255));
+            alpha |= color.a != null;
+        }
+        return alpha ? new IndexColorModel(8, n, r, g, b, a) : new IndexColorModel(8, n, r, g, b);
+    }
+
+    private static int channel(final double value) {
+        return (int) Math.max(0, Math.min(255, Math.round(value)));
+    }
+
+    /**
+     * Matches a pixel, optionally starting with the matches of neighboring pixels.
+     */
+    private interface Matcher {
+        /**
+         * @param argb  the pixel as <code>0xAARRGGBB</code>
+         * @param hint1 the match of a neighboring pixel, or -1
+         * @param hint2 the match of another neighboring pixel, or -1
+         * @return the index of the closest palette color
+         */
+        int match(int argb, int hint1, int hint2);
+    }
+
+    /**
+     * Writes palette indices into the data buffer of a {@link BufferedImage#TYPE_BYTE_INDEXED} image.
+     */
+    static class PixelWriter {
+        private final byte[] data;
+        private final int offset;
+        private final int stride;
+        private final int pixelStride;
+
+        PixelWriter(final WritableRaster raster) {
+            final ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+            final DataBuffer db = raster.getDataBuffer();
+            data = ((DataBufferByte) db).getData();
+            stride = sm.getScanlineStride();
+            pixelStride = sm.getPixelStride();
+            offset = db.getOffset() + sm.getBandOffsets()[0]
+                    - raster.getSampleModelTranslateY() * stride
+                    - raster.getSampleModelTranslateX() * pixelStride;
+        }
+
+        void write(final int x, final int y, final int index) {
+            data[offset + y * stride + x * pixelStride] = (byte) index;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.dajudge.colordiff;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Prepared palettes loaded from the files of a directory, reloaded when the files change.
+ * <p>
+ * Each regular file of the directory is a palette named like the file. Files ending in {@value #INDEX_FILE_SUFFIX} are
+ * read with {@link IndexFiles#readPreparedPalette(Path)} and keep the background color and conversion profile they
+ * were written with; all other files hold one hex color per line as read by {@link HexColors#parseLines(String)}.
+ * Hidden files and backup files ending in <code>~</code> are ignored.
+ * <p>
+ * After {@link #watch()}, a background thread watches the directory with a {@link WatchService} and rebuilds the
+ * palettes of created or modified files. Since files may have changed since the registry was created, {@link #watch()}
+ * reloads all palettes once the directory is watched. Events arriving within {@value #SETTLE_MILLIS} ms of each other are handled
+ * together, so a file written in several steps is usually loaded once. A palette is fully built before it replaces
+ * the previous one, so queries never see a partly loaded palette; queries running during the swap complete against
+ * the palette they started with. Palettes whose file was deleted are removed. If a file cannot be read or parsed,
+ * the previous palette stays in place and the failure is counted in the {@link Metrics}.
+ * <p>
+ * Looking up palettes takes no locks. Reloads are serialized; reading the metrics does not wait for them.
+ */
+public class PaletteRegistry implements Closeable {
+    public static final String INDEX_FILE_SUFFIX = ".cdix";
+    static final long SETTLE_MILLIS = 50;
+
+    private final Path directory;
+    private final RgbColor bc;
+    private final ConversionProfile profile;
+    private final ConcurrentMap<String, PreparedPalette> palettes = new ConcurrentHashMap<>();
+    private WatchService watchService;
+
+    private final Object metricsLock = new Object();
+    // Guarded by metricsLock
+    private long reloads;
+    private long failures;
+    private long lastReloadNanos;
+    private long maxReloadNanos;
+    private long totalReloadNanos;
+    private String lastFailure;
+
+    /**
+     * Creates a registry using white as background color and the default conversion profile, loading all palettes
+     * of a directory.
+     *
+     * @param directory the directory holding the palette files
+     * @throws IOException if the directory cannot be read
+     */
+    public PaletteRegistry(final Path directory) throws IOException {
+        this(directory, new RgbColor(255, 255, 255), ConversionProfile.DEFAULT);
+    }
+
+    /**
+     * Creates a registry, loading all palettes of a directory.
+     *
+     * @param directory the directory holding the palette files
+     * @param bc        background color of the palettes read from hex color files
+     * @param profile   the conversion profile of the palettes read from hex color files
+     * @throws IOException if the directory cannot be read
+     */
+    public PaletteRegistry(final Path directory, final RgbColor bc, final ConversionProfile profile) throws IOException {
+        this.directory = directory;
+        this.bc = bc;
+        this.profile = profile;
+        reloadAll();
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    public RgbColor background() {
+        return bc;
+    }
+
+    public ConversionProfile profile() {
+        return profile;
+    }
+
+    /**
+     * @return the names of the loaded palettes, in alphabetical order
+     */
+    public Set<String> names() {
+        return Collections.unmodifiableSet(new TreeSet<>(palettes.keySet()));
+    }
+
+    /**
+     * Returns the current palette of a file.
+     *
+     * @param name the file name
+     * @return the palette
+     * @throws IllegalArgumentException if no palette of that name has been loaded
+     */
+    public PreparedPalette palette(final String name) {
+        final PreparedPalette palette = palettes.get(name);
+        if (palette == null) {
+            throw new IllegalArgumentException("Unknown palette: " + name);
+        }
+        return palette;
+    }
+
+    /**
+     * Starts watching the directory for changes and reloads all palettes, so changes made before watching are not
+     * missed. Calling this method again has no effect.
+     *
+     * @throws IOException if the directory cannot be watched or read
+     */
+    public synchronized void watch() throws IOException {
+        if (watchService != null) {
+            return;
+        }
+        final WatchService service = directory.getFileSystem().newWatchService();
+        directory.register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        watchService = service;
+        final Thread thread = new Thread(() -> watch(service), "color-diff-palette-registry");
+        thread.setDaemon(true);
+        thread.start();
+        // Changes from here on are reported by the watch service, earlier ones are picked up now
+        reloadAll();
+    }
+
+    private void watch(final WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                final Set<String> changed = new LinkedHashSet<>();
+                boolean overflow = false;
+                do {
+                    for (final WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) {
+                            overflow = true;
+                        } else {
+                            changed.add(event.context().toString());
+                        }
+                    }
+                    key.reset();
+                    key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                } while (key != null);
+                if (overflow) {
+                    reloadAllQuietly();
+                } else {
+                    for (final String name : changed) {
+                        reload(name);
+                    }
+                }
+            }
+        } catch (final InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    private void reloadAllQuietly() {
+        try {
+            reloadAll();
+        } catch (final IOException e) {
+            failed(directory.toString(), e);
+        }
+    }
+
+    /**
+     * Reloads all palettes of the directory and removes the palettes whose files were deleted.
+     *
+     * @throws IOException if the directory cannot be read
+     */
+    public synchronized void reloadAll() throws IOException {
+        final Set<String> names = new HashSet<>();
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (final Path file : files) {
+                names.add(file.getFileName().toString());
+            }
+        }
+        for (final String name : names) {
+            reload(name);
+        }
+        palettes.keySet().retainAll(names);
+    }
+
+    /**
+     * Reloads the palette of a file, or removes it if the file no longer exists.
+     *
+     * @param name the file name
+     * @return whether the palette was loaded; false if the file is ignored, missing or could not be loaded
+     */
+    public synchronized boolean reload(final String name) {
+        final Path file = directory.resolve(name);
+        if (!file.getParent().equals(directory)) {
+            throw new IllegalArgumentException("Not a file name: " + name);
+        }
+        if (name.startsWith(".") || name.endsWith("~")) {
+            return false;
+        }
+        if (!Files.isRegularFile(file)) {
+            palettes.remove(name);
+            return false;
+        }
+        final long start = System.nanoTime();
+        final PreparedPalette palette;
+        try {
+            palette = load(file);
+        } catch (final IOException | RuntimeException e) {
+            failed(name, e);
+            return false;
+        }
+        palettes.put(name, palette);
+        final long nanos = System.nanoTime() - start;
+        synchronized (metricsLock) {
+            reloads++;
+            lastReloadNanos = nanos;
+            maxReloadNanos = Math.max(maxReloadNanos, nanos);
+            totalReloadNanos += nanos;
+        }
+        return true;
+    }
+
+    private PreparedPalette load(final Path file) throws IOException {
+        if (file.getFileName().toString().endsWith(INDEX_FILE_SUFFIX)) {
+            return IndexFiles.readPreparedPalette(file);
+        }
+        final String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        return new PreparedPalette(HexColors.parseLines(text), bc, profile);
+    }
+
+    private void failed(final String name, final Exception e) {
+        synchronized (metricsLock) {
+            failures++;
+            lastFailure = name + ": " + e;
+        }
+    }
+
+    /**
+     * @return a snapshot of the reload metrics
+     */
+    public Metrics metrics() {
+        synchronized (metricsLock) {
+            return new Metrics(reloads, failures, lastReloadNanos, maxReloadNanos, totalReloadNanos, lastFailure);
+        }
+    }
+
+    /**
+     * Stops watching the directory. The loaded palettes remain available.
+     *
+     * @throws IOException if the watch service cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    /**
+     * Reload metrics of a {@link PaletteRegistry}.
+     */
+    public static class Metrics {
+        private final long reloads;
+        private final long failures;
+        private final long lastReloadNanos;
+        private final long maxReloadNanos;
+        private final long totalReloadNanos;
+        private final String lastFailure;
+
+        Metrics(
+                final long reloads,
+                final long failures,
+                final long lastReloadNanos,
+                final long maxReloadNanos,
+                final long totalReloadNanos,
+                final String lastFailure
+        ) {
+            this.reloads = reloads;
+            this.failures = failures;
+            this.lastReloadNanos = lastReloadNanos;
+            this.maxReloadNanos = maxReloadNanos;
+            this.totalReloadNanos = totalReloadNanos;
+            this.lastFailure = lastFailure;
+        }
+
+        /**
+         * @return the number of palettes loaded, including the initial loading
+         */
+        public long reloads() {
+            return reloads;
+        }
+
+        /**
+         * @return the number of palette files that could not be loaded
+         */
+        public long failures() {
+            return failures;
+        }
+
+        /**
+         * @return the time it took to load and prepare the last palette, in nanoseconds
+         */
+        public long lastReloadNanos() {
+            return lastReloadNanos;
+        }
+
+        public long maxReloadNanos() {
+            return maxReloadNanos;
+        }
+
+        public double averageReloadNanos() {
+            return reloads == 0 ? 0 : (double) totalReloadNanos / reloads;
+        }
+
+        /**
+         * @return the file name and the error of the last failure, or null if there was none
+         */
+        public String lastFailure() {
+            return lastFailure;
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package com.dajudge.colordiff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static com.dajudge.colordiff.Diff.ciede2000;
+import static com.dajudge.colordiff.Diff.ciede2000_bounded;
+
+/**
+ * A palette whose colors have been converted to L,a,b once, so queries only pay for the CIEDE2000 evaluations.
+ * <p>
+ * Colors are converted following the rules of {@link Palette#map_palette(List, List, Palette.MapType, RgbColor)}:
+ * colors with an alpha component are blended onto the background color first. Results are identical to
+ * {@link ColorDiff#closest(RgbColor, List, RgbColor)} and {@link ColorDiff#furthest(RgbColor, List, RgbColor)}, i.e.
+ * the first of several equally distant palette colors wins.
+ * <p>
+ * Palettes returned by {@link OffHeapColorStore#palette()} read their colors from the store instead of the heap.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public class PreparedPalette {
+    private static final int PARALLEL_THRESHOLD = 256;
+
+    private final List<RgbColor> colors;
+    private final RgbColor bc;
+    private final ConversionProfile profile;
+    // null for palettes backed by an off-heap store
+    private final LabColor[] lab;
+    private final OffHeapColorStore store;
+    private final int size;
+    private volatile FurthestSearch furthestSearch;
+
+    /**
+     * Prepares a palette using white as background color.
+     *
+     * @param palette each element should have fields R,G,B
+     */
+    public PreparedPalette(final List<RgbColor> palette) {
+        this(palette, new RgbColor(255, 255, 255));
+    }
+
+    /**
+     * Prepares a palette.
+     *
+     * @param palette each element should have fields R,G,B
+     * @param bc      background color used if the palette or the queried colors have an alpha component.
+     */
+    public PreparedPalette(final List<RgbColor> palette, final RgbColor bc) {
+        this(palette, bc, ConversionProfile.DEFAULT);
+    }
+
+    /**
+     * Prepares a palette using a conversion profile. Queried colors are converted with the same profile.
+     *
+     * @param palette each element should have fields R,G,B
+     * @param bc      background color used if the palette or the queried colors have an alpha component.
+     * @param profile the conversion profile
+     */
+    public PreparedPalette(final List<RgbColor> palette, final RgbColor bc, final ConversionProfile profile) {
+        if (palette.isEmpty()) {
+            throw new IllegalArgumentException("Palette must not be empty");
+        }
+        this.colors = Collections.unmodifiableList(new ArrayList<>(palette));
+        this.bc = bc;
+        this.profile = profile;
+        this.lab = new LabColor[palette.size()];
+        for (int i = 0; i < lab.length; i++) {
+            lab[i] = toLab(colors.get(i));
+        }
+        this.store = null;
+        this.size = lab.length;
+    }
+
+    /**
+     * Creates a palette from colors that have already been converted with the given background and profile.
+     */
+    PreparedPalette(
+            final List<RgbColor> palette,
+            final RgbColor bc,
+            final ConversionProfile profile,
+            final LabColor[] lab
+    ) {
+        if (palette.isEmpty()) {
+            throw new IllegalArgumentException("Palette must not be empty");
+        }
+        this.colors = Collections.unmodifiableList(palette);
+        this.bc = bc;
+        this.profile = profile;
+        this.lab = lab;
+        this.store = null;
+        this.size = lab.length;
+    }
+
+    /**
+     * Creates a palette of the first <code>size</code> colors of an off-heap store.
+     */
+    PreparedPalette(final OffHeapColorStore store, final int size) {
+        if (size == 0) {
+            throw new IllegalArgumentException("Palette must not be empty");
+        }
+        this.colors = store.colors(size);
+        this.bc = store.background();
+        this.profile = store.profile();
+        this.lab = null;
+        this.store = store;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public List<RgbColor> colors() {
+        return colors;
+    }
+
+    public RgbColor color(final int index) {
+        return colors.get(index);
+    }
+
+    public LabColor lab(final int index) {
+        if (store != null) {
+            if (index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+            }
+            return store.lab(index);
+        }
+        return lab[index];
+    }
+
+    public RgbColor background() {
+        return bc;
+    }
+
+    public ConversionProfile profile() {
+        return profile;
+    }
+
+    /**
+     * Converts a color the same way the palette colors were converted.
+     *
+     * @param c should have fields R,G,B
+     * @return <code>c</code> converted to labcolor
+     */
+    public LabColor toLab(final RgbColor c) {
+        return c.a == null ? Convert.rgb_to_lab(c, profile) : Convert.rgba_to_lab(c, bc, profile);
+    }
+
+    public RgbColor closest(final RgbColor color) {
+        return colors.get(closest(toLab(color)));
+    }
+
+    public RgbColor furthest(final RgbColor color) {
+        return colors.get(furthest(toLab(color)));
+    }
+
+    /**
+     * Returns the index of the closest palette color.
+     *
+     * @param color should have fields L,a,b
+     * @return the index of the closest palette color
+     */
+    public int closest(final LabColor color) {
+        return scan(color.L, color.a, color.b, false, null);
+    }
+
+    /**
+     * Returns the index of the furthest palette color.
+     *
+     * @param color should have fields L,a,b
+     * @return the index of the furthest palette color
+     */
+    public int furthest(final LabColor color) {
+        return scan(color.L, color.a, color.b, true, null);
+    }
+
+    /**
+     * Allocation-free variant of {@link #closest(LabColor)}.
+     *
+     * @param color  should have fields L,a,b
+     * @param result receives the index of and the distance to the closest palette color
+     */
+    public void closest(final LabColor color, final MatchResult result) {
+        scan(color.L, color.a, color.b, false, result);
+    }
+
+    /**
+     * Allocation-free variant of {@link #furthest(LabColor)}.
+     *
+     * @param color  should have fields L,a,b
+     * @param result receives the index of and the distance to the furthest palette color
+     */
+    public void furthest(final LabColor color, final MatchResult result) {
+        scan(color.L, color.a, color.b, true, result);
+    }
+
+    /**
+     * Allocation-free variant of {@link #closest(RgbColor)} for opaque colors.
+     *
+     * @param r      red (range 0-255)
+     * @param g      green (range 0-255)
+     * @param b      blue (range 0-255)
+     * @param result receives the index of and the distance to the closest palette color
+     */
+    public void closest(final double r, final double g, final double b, final MatchResult result) {
+        final double[] scratch = Scratch.get().lab;
+        Convert.rgb_to_lab(r, g, b, profile, scratch, 0);
+        scan(scratch[0], scratch[1], scratch[2], false, result);
+    }
+
+    /**
+     * Allocation-free batch variant of {@link #closest(RgbColor)} for opaque colors, e.g. the pixels of an image.
+     *
+     * @param rgb     colors as <code>0xRRGGBB</code>; higher bits (e.g. alpha) are ignored
+     * @param indices receives the index of the closest palette color for each element
+     */
+    public void closest(final int[] rgb, final int[] indices) {
+        if (indices.length < rgb.length) {
+            throw new IllegalArgumentException("Output too small: " + indices.length + " < " + rgb.length);
+        }
+        final double[] scratch = Scratch.get().lab;
+        for (int i = 0; i < rgb.length; i++) {
+            final int c = rgb[i];
+            Convert.rgb_to_lab(c >> 16 & 0xFF, c >> 8 & 0xFF, c & 0xFF, profile, scratch, 0);
+            indices[i] = scan(scratch[0], scratch[1], scratch[2], false, null);
+        }
+    }
+
+    /**
+     * Returns the index of the closest palette color to a pixel, converted with
+     * {@link Convert#argb_to_lab(int, RgbColor, ConversionProfile, double[], int)}: translucent pixels are blended onto
+     * the background color of the palette.
+     *
+     * @param argb the pixel as <code>0xAARRGGBB</code>
+     * @return the index of the closest palette color
+     */
+    public int closestArgb(final int argb) {
+        final double[] scratch = Scratch.get().lab;
+        Convert.argb_to_lab(argb, bc, profile, scratch, 0);
+        return scan(scratch[0], scratch[1], scratch[2], false, null);
+    }
+
+    /**
+     * Variant of {@link #closestArgb(int)} for pixels that are likely to match the same palette color as a
+     * neighboring pixel. The hinted palette color is compared first, and its difference bounds the scan of the
+     * palette from the start, so colors ruled out by
+     * {@link Diff#ciede2000_bounded(double, double, double, double, double, double, double)} cost little. The result is
+     * the same as without a hint.
+     *
+     * @param argb the pixel as <code>0xAARRGGBB</code>
+     * @param hint the index of a palette color to compare first, e.g. the match of a neighboring pixel, or -1
+     * @return the index of the closest palette color
+     */
+    public int closestArgb(final int argb, final int hint) {
+        return closestArgb(argb, hint, -1);
+    }
+
+    /**
+     * Variant of {@link #closestArgb(int, int)} with two hints, e.g. the matches of the left and the upper neighbor.
+     */
+    int closestArgb(final int argb, final int hint1, final int hint2) {
+        final double[] scratch = Scratch.get().lab;
+        Convert.argb_to_lab(argb, bc, profile, scratch, 0);
+        if (store != null || hint1 < 0 && hint2 < 0) {
+            return scan(scratch[0], scratch[1], scratch[2], false, null);
+        }
+        return seededScan(scratch[0], scratch[1], scratch[2], hint1, hint2);
+    }
+
+    /**
+     * Allocation-free batch variant of {@link #closestArgb(int)}, e.g. for the pixels of an image with alpha.
+     *
+     * @param argb    the pixels as <code>0xAARRGGBB</code>
+     * @param indices receives the index of the closest palette color for each element
+     */
+    public void closestArgb(final int[] argb, final int[] indices) {
+        if (indices.length < argb.length) {
+            throw new IllegalArgumentException("Output too small: " + indices.length + " < " + argb.length);
+        }
+        final double[] scratch = Scratch.get().lab;
+        for (int i = 0; i < argb.length; i++) {
+            Convert.argb_to_lab(argb[i], bc, profile, scratch, 0);
+            indices[i] = scan(scratch[0], scratch[1], scratch[2], false, null);
+        }
+    }
+
+    int scan(final double L, final double a, final double b, final boolean furthest, final MatchResult result) {
+        if (store != null) {
+            return store.scan(size, L, a, b, furthest, result);
+        }
+        if (furthest && lab.length >= FurthestSearch.MIN_PALETTE_SIZE) {
+            return furthestSearch().furthest(L, a, b, result);
+        }
+        int best = 0;
+        double best_diff = ciede2000(L, a, b, lab[0].L, lab[0].a, lab[0].b);
+        for (int i = 1; i < lab.length; i++) {
+            final double diff = furthest
+                    ? ciede2000(L, a, b, lab[i].L, lab[i].a, lab[i].b)
+                    : ciede2000_bounded(L, a, b, lab[i].L, lab[i].a, lab[i].b, best_diff);
+            if (furthest ? diff > best_diff : diff < best_diff) {
+                best = i;
+                best_diff = diff;
+            }
+        }
+        if (result != null) {
+            result.set(best, best_diff);
+        }
+        return best;
+    }
+
+    private int seededScan(final double L, final double a, final double b, final int hint1, final int hint2) {
+        int best = hint1 < 0 ? hint2 : hint1;
+        double best_diff = ciede2000(L, a, b, lab[best].L, lab[best].a, lab[best].b);
+        if (hint2 >= 0 && hint2 != best) {
+            final double diff = ciede2000(L, a, b, lab[hint2].L, lab[hint2].a, lab[hint2].b);
+            if (diff < best_diff || diff == best_diff && hint2 < best) {
+                best = hint2;
+                best_diff = diff;
+            }
+        }
+        for (int i = 0; i < lab.length; i++) {
+            if (i == hint1 || i == hint2) {
+                continue;
+            }
+            final double diff = ciede2000_bounded(L, a, b, lab[i].L, lab[i].a, lab[i].b, best_diff);
+            // The bounded difference is exact when it equals the bound, so ties go to the lowest index as in scan()
+            if (diff < best_diff || diff == best_diff && i < best) {
+                best = i;
+                best_diff = diff;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the indices of the k closest palette colors, closest first. Equally distant colors are ordered by
+     * their index.
+     *
+     * @param color should have fields L,a,b
+     * @param k     the number of colors to return; capped at the palette size
+     * @return the indices of the k closest palette colors
+     */
+    public int[] nearest(final LabColor color, final int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+        final int n = Math.min(k, size);
+        final int[] indices = new int[n];
+        if (n == 0) {
+            return indices;
+        }
+        final double[] diffs = new double[n];
+        int found = 0;
+        for (int i = 0; i < size; i++) {
+            // Once k colors are found, only colors closer than the k-th one matter
+            final double diff = found == n ? ciede2000_bounded(color, lab(i), diffs[n - 1]) : ciede2000(color, lab(i));
+            if (found == n && diff >= diffs[n - 1]) {
+                continue;
+            }
+            // Insertion into the sorted top-k; the equal case keeps lower indices first
+            int pos = found == n ? n - 1 : found++;
+            while (pos > 0 && diffs[pos - 1] > diff) {
+                indices[pos] = indices[pos - 1];
+                diffs[pos] = diffs[pos - 1];
+                pos--;
+            }
+            indices[pos] = i;
+            diffs[pos] = diff;
+        }
+        return indices;
+    }
+
+    /**
+     * Batch variant of {@link #closest(LabColor)}. Large batches are processed in parallel.
+     *
+     * @param colors each element should have fields L,a,b
+     * @return the index of the closest palette color for each element
+     */
+    public int[] closest(final LabColor[] colors) {
+        final int[] result = new int[colors.length];
+        range(colors.length).forEach(i -> result[i] = closest(colors[i]));
+        return result;
+    }
+
+    /**
+     * Batch variant of {@link #furthest(LabColor)}. Large batches are processed in parallel.
+     *
+     * @param colors each element should have fields L,a,b
+     * @return the index of the furthest palette color for each element
+     */
+    public int[] furthest(final LabColor[] colors) {
+        final int[] result = new int[colors.length];
+        range(colors.length).forEach(i -> result[i] = furthest(colors[i]));
+        return result;
+    }
+
+    /**
+     * Batch variant of {@link #nearest(LabColor, int)}. Large batches are processed in parallel.
+     *
+     * @param colors each element should have fields L,a,b
+     * @param k      the number of colors to return per element
+     * @return the indices of the k closest palette colors for each element
+     */
+    public int[][] nearest(final LabColor[] colors, final int k) {
+        final int[][] result = new int[colors.length][];
+        range(colors.length).forEach(i -> result[i] = nearest(colors[i], k));
+        return result;
+    }
+
+    private FurthestSearch furthestSearch() {
+        FurthestSearch search = furthestSearch;
+        if (search == null) {
+            // Racing threads build equivalent instances
+            search = new FurthestSearch(lab);
+            furthestSearch = search;
+        }
+        return search;
+    }
+
+    private static IntStream range(final int n) {
+        final IntStream range = IntStream.range(0, n);
+        return n >= PARALLEL_THRESHOLD ? range.parallel() : range;
+    }
+}
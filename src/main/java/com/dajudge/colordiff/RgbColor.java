@@ -95,8 +95,10 @@ public class RgbColor {
         result = 31 * result + (int) (temp ^ (temp >>> 32));
         temp = Double.doubleToLongBits(g);
         result = 31 * result + (int) (temp ^ (temp >>> 32));
-        temp = Double.doubleToLongBits(a);
-        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        if (a != null) {
+            temp = Double.doubleToLongBits(a);
+            result = 31 * result + (int) (temp ^ (temp >>> 32));
+        }
         return result;
     }
 }
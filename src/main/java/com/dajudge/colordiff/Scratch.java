@@ -0,0 +1,25 @@
+package com.dajudge.colordiff;
+
+/**
+ * Per-thread scratch space of the allocation-free query variants.
+ */
+final class Scratch {
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * Room for two L,a,b colors.
+     */
+    final double[] lab = new double[6];
+
+    /**
+     * The best match found so far by searches.
+     */
+    final MatchResult match = new MatchResult();
+
+    private Scratch() {
+    }
+
+    static Scratch get() {
+        return SCRATCH.get();
+    }
+}
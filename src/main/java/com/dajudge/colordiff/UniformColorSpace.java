@@ -0,0 +1,83 @@
+package com.dajudge.colordiff;
+
+/**
+ * Perceptually uniform color spaces in which color differences are Euclidean distances.
+ * <p>
+ * Unlike CIEDE2000, the Euclidean distance is a metric, so palettes can be searched with exact spatial indexes such
+ * as {@link EuclideanMatcher}. The distances are not comparable to CIEDE2000 values, nor between the spaces.
+ */
+public enum UniformColorSpace {
+    /**
+     * Oklab, see {@link Convert#rgb_to_oklab(double, double, double, double[], int)}.
+     */
+    OKLAB {
+        @Override
+        public void convert(final double r, final double g, final double b, final double[] out, final int offset) {
+            Convert.rgb_to_oklab(r, g, b, out, offset);
+        }
+    },
+    /**
+     * CAM16-UCS under sRGB viewing conditions, see
+     * {@link Convert#rgb_to_cam16_ucs(double, double, double, double[], int)}.
+     */
+    CAM16_UCS {
+        @Override
+        public void convert(final double r, final double g, final double b, final double[] out, final int offset) {
+            Convert.rgb_to_cam16_ucs(r, g, b, out, offset);
+        }
+    };
+
+    /**
+     * Converts a color without allocating, writing its three coordinates to <code>out[offset]</code>,
+     * <code>out[offset + 1]</code> and <code>out[offset + 2]</code>.
+     *
+     * @param r      red (range 0-255)
+     * @param g      green (range 0-255)
+     * @param b      blue (range 0-255)
+     * @param out    receives the coordinates
+     * @param offset index of the first coordinate in <code>out</code>
+     */
+    public abstract void convert(double r, double g, double b, double[] out, int offset);
+
+    /**
+     * Converts a color like {@link Convert#to_lab(RgbColor, RgbColor, ConversionProfile, double[], int)}: colors with
+     * an alpha component are blended onto the background color first.
+     *
+     * @param c      should have fields R,G,B and optionally A
+     * @param bc     should have fields R,G,B
+     * @param out    receives the coordinates
+     * @param offset index of the first coordinate in <code>out</code>
+     */
+    public void convert(final RgbColor c, final RgbColor bc, final double[] out, final int offset) {
+        if (c.a == null) {
+            convert(c.r, c.g, c.b, out, offset);
+        } else {
+            final double a = c.a;
+            convert(Convert.alphaScale(c.r, bc.r, a), Convert.alphaScale(c.g, bc.g, a), Convert.alphaScale(c.b, bc.b, a),
+                    out, offset);
+        }
+    }
+
+    /**
+     * Converts a pixel like {@link Convert#argb_to_lab(int, RgbColor, ConversionProfile, double[], int)}: translucent
+     * pixels are blended onto the background color first.
+     *
+     * @param argb   the pixel as <code>0xAARRGGBB</code>
+     * @param bc     should have fields R,G,B
+     * @param out    receives the coordinates
+     * @param offset index of the first coordinate in <code>out</code>
+     */
+    public void convertArgb(final int argb, final RgbColor bc, final double[] out, final int offset) {
+        final int alpha = argb >>> 24;
+        final double r = argb >> 16 & 0xFF;
+        final double g = argb >> 8 & 0xFF;
+        final double b = argb & 0xFF;
+        if (alpha == 0xFF) {
+            convert(r, g, b, out, offset);
+        } else {
+            final double a = alpha / 255.0;
+            convert(Convert.alphaScale(r, bc.r, a), Convert.alphaScale(g, bc.g, a), Convert.alphaScale(b, bc.b, a),
+                    out, offset);
+        }
+    }
+}
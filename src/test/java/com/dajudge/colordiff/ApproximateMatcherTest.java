@@ -0,0 +1,116 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static com.dajudge.colordiff.Diff.ciede2000;
+import static com.dajudge.colordiff.PreparedPaletteTest.randomColors;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link ApproximateMatcher}.
+ */
+class ApproximateMatcherTest {
+    private static final PreparedPalette palette = new PreparedPalette(randomColors(new Random(1), 64));
+    private static final List<RgbColor> queries = randomColors(new Random(2), 2000);
+
+    @Test
+    public void should_be_exact_with_unlimited_slack() {
+        final ApproximateMatcher matcher = new ApproximateMatcher(palette, 1000, 8);
+        for (final RgbColor color : queries) {
+            assertEquals(palette.closest(color), matcher.closest(color));
+        }
+    }
+
+    @Test
+    public void should_keep_the_closest_color_to_the_cell_center_with_zero_slack() {
+        final ApproximateMatcher matcher = new ApproximateMatcher(palette, 0, 4);
+        final LabColor color = new LabColor(50, 10, -10);
+        final int[] candidates = matcher.candidates(color);
+        assertEquals(1, candidates.length);
+        assertEquals(palette.closest(new LabColor(50, 10, -10)), candidates[0]);
+    }
+
+    @Test
+    public void should_keep_the_candidates_closest_to_the_cell_center_up_to_the_cap() {
+        final ApproximateMatcher unlimited = new ApproximateMatcher(palette, 1000, 4);
+        final ApproximateMatcher capped = new ApproximateMatcher(palette, 1000, 4, 5);
+        assertEquals(5, capped.maxCandidates());
+        // The center of the cell containing it
+        final LabColor center = new LabColor(50, 10, -10);
+        assertEquals(palette.size(), unlimited.candidates(center).length);
+        final int[] candidates = capped.candidates(center);
+        assertArrayEquals(palette.nearest(center, 5), Arrays.stream(candidates)
+                .boxed()
+                .sorted(Comparator.comparingDouble((Integer i) -> ciede2000(center, palette.lab(i))).thenComparing(i -> i))
+                .mapToInt(i -> i)
+                .toArray());
+        for (int i = 1; i < candidates.length; i++) {
+            assertTrue(candidates[i - 1] < candidates[i]);
+        }
+        final PreparedPalette duplicates = new PreparedPalette(Collections.nCopies(6, new RgbColor(10, 20, 30)));
+        assertArrayEquals(new int[]{0, 1}, new ApproximateMatcher(duplicates, 0, 4, 2).candidates(center));
+        assertThrows(IllegalArgumentException.class, () -> new ApproximateMatcher(palette, 1, 4, 0));
+    }
+
+    @Test
+    public void recall_should_grow_with_slack() {
+        int previousHits = -1;
+        double previousError = Double.POSITIVE_INFINITY;
+        for (final double slack : new double[]{0, 2, 8}) {
+            final ApproximateMatcher matcher = new ApproximateMatcher(palette, slack, 4);
+            int hits = 0;
+            double maxError = 0;
+            for (final RgbColor color : queries) {
+                final LabColor lab = palette.toLab(color);
+                final int exact = palette.closest(lab);
+                final int approximate = matcher.closest(lab);
+                hits += exact == approximate ? 1 : 0;
+                maxError = Math.max(maxError, ciede2000(lab, palette.lab(approximate)) - ciede2000(lab, palette.lab(exact)));
+            }
+            assertTrue(hits >= previousHits);
+            assertTrue(maxError <= previousError);
+            previousHits = hits;
+            previousError = maxError;
+        }
+        assertTrue(previousHits > queries.size() * 0.99);
+    }
+
+    @Test
+    public void should_build_cells_lazily() {
+        final ApproximateMatcher matcher = new ApproximateMatcher(palette);
+        assertEquals(0, matcher.builtCells());
+        matcher.closest(new LabColor(50, 0, 0));
+        matcher.closest(new LabColor(50.1, 0.1, 0.1));
+        assertEquals(1, matcher.builtCells());
+        matcher.closest(new LabColor(150, 300, -300));
+        assertEquals(2, matcher.builtCells());
+    }
+
+    @Test
+    public void batch_should_match_single_queries() {
+        final ApproximateMatcher matcher = new ApproximateMatcher(palette);
+        final LabColor[] lab = new LabColor[queries.size()];
+        final int[] expected = new int[lab.length];
+        for (int i = 0; i < lab.length; i++) {
+            lab[i] = palette.toLab(queries.get(i));
+            expected[i] = matcher.closest(lab[i]);
+        }
+        assertArrayEquals(expected, matcher.closest(lab));
+    }
+
+    @Test
+    public void should_reject_invalid_parameters() {
+        assertThrows(IllegalArgumentException.class, () -> new ApproximateMatcher(palette, -1, 4));
+        assertThrows(IllegalArgumentException.class, () -> new ApproximateMatcher(palette, 1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new ApproximateMatcher(palette, 1, 0.001));
+    }
+}
@@ -0,0 +1,96 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.dajudge.colordiff.PreparedPaletteTest.randomColors;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link BackgroundPalettes}.
+ */
+class BackgroundPalettesTest {
+    private static final List<RgbColor> BACKGROUNDS = asList(
+            new RgbColor(255, 255, 255),
+            new RgbColor(18, 18, 18),
+            new RgbColor(0, 90, 200)
+    );
+
+    @Test
+    public void should_prepare_each_background_once() {
+        final List<RgbColor> colors = translucentPalette(new Random(1));
+        final BackgroundPalettes palettes = new BackgroundPalettes(colors, ConversionProfile.SRGB_D50);
+        for (final RgbColor bc : BACKGROUNDS) {
+            final PreparedPalette prepared = palettes.forBackground(bc);
+            assertSame(prepared, palettes.forBackground(new RgbColor(bc.r, bc.g, bc.b)));
+            final PreparedPalette expected = new PreparedPalette(colors, bc, ConversionProfile.SRGB_D50);
+            assertEquals(bc, prepared.background());
+            assertEquals(colors, prepared.colors());
+            for (int i = 0; i < colors.size(); i++) {
+                assertEquals(expected.lab(i), prepared.lab(i));
+            }
+        }
+        assertEquals(BACKGROUNDS.size(), palettes.backgrounds().size());
+    }
+
+    @Test
+    public void should_match_each_background_for_translucent_palettes() {
+        assertClosestPerBackground(translucentPalette(new Random(2)), new Random(3));
+    }
+
+    @Test
+    public void should_match_each_background_for_opaque_palettes() {
+        assertClosestPerBackground(randomColors(new Random(4), 20), new Random(5));
+    }
+
+    @Test
+    public void should_handle_no_backgrounds() {
+        final BackgroundPalettes palettes = new BackgroundPalettes(randomColors(new Random(6), 5));
+        assertEquals(0, palettes.closest(randomColors(new Random(7), 10), emptyList()).length);
+        assertEquals(0, palettes.closest(new int[10], emptyList()).length);
+    }
+
+    @Test
+    public void should_reject_empty_palettes() {
+        assertThrows(IllegalArgumentException.class, () -> new BackgroundPalettes(emptyList()));
+    }
+
+    private static void assertClosestPerBackground(final List<RgbColor> colors, final Random random) {
+        final BackgroundPalettes palettes = new BackgroundPalettes(colors);
+        final List<RgbColor> queries = new ArrayList<>();
+        final int[] argb = new int[300];
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = i % 2 == 0 ? random.nextInt() : random.nextInt() | 0xFF000000;
+            final RgbColor color = randomColors(random, 1).get(0);
+            queries.add(i % 3 == 0 ? new RgbColor(color.r, color.g, color.b, random.nextDouble()) : color);
+        }
+        final int[][] closest = palettes.closest(queries, BACKGROUNDS);
+        final int[][] closestArgb = palettes.closest(argb, BACKGROUNDS);
+        for (int k = 0; k < BACKGROUNDS.size(); k++) {
+            final PreparedPalette expected = new PreparedPalette(colors, BACKGROUNDS.get(k));
+            for (int i = 0; i < queries.size(); i++) {
+                assertEquals(expected.closest(expected.toLab(queries.get(i))), closest[k][i]);
+            }
+            final int[] indices = new int[argb.length];
+            expected.closestArgb(argb, indices);
+            assertArrayEquals(indices, closestArgb[k]);
+        }
+    }
+
+    private static List<RgbColor> translucentPalette(final Random random) {
+        final List<RgbColor> colors = randomColors(random, 20);
+        for (int i = 0; i < colors.size(); i += 3) {
+            final RgbColor color = colors.get(i);
+            colors.set(i, new RgbColor(color.r, color.g, color.b, random.nextDouble()));
+        }
+        return colors;
+    }
+}
@@ -0,0 +1,118 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.dajudge.colordiff.BudgetedMatcher.BYTES_PER_PALETTE_COLOR;
+import static com.dajudge.colordiff.BudgetedMatcher.LUT_BREAK_EVEN_QUERIES;
+import static com.dajudge.colordiff.BudgetedMatcher.MAX_CELL_CANDIDATES;
+import static com.dajudge.colordiff.PreparedPaletteTest.randomColors;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link BudgetedMatcher}.
+ */
+class BudgetedMatcherTest {
+    private static final long MIB = 1 << 20;
+
+    private final PreparedPalette palette = new PreparedPalette(randomColors(new Random(1), 16));
+
+    @Test
+    public void should_choose_the_strategy_by_budget_and_workload() {
+        final BudgetedMatcher.Builder builder = BudgetedMatcher.builder(palette).expectedQueries(LUT_BREAK_EVEN_QUERIES);
+        assertEquals(BudgetedMatcher.Strategy.LOOKUP_TABLE, builder.memoryBudget(20 * MIB).strategy());
+        assertEquals(BudgetedMatcher.Strategy.SCAN, builder.memoryBudget(10 * MIB).strategy());
+        assertEquals(BudgetedMatcher.Strategy.APPROXIMATE, builder.exact(false).strategy());
+        assertEquals(BudgetedMatcher.Strategy.SCAN, builder.memoryBudget(0).strategy());
+        // Too few queries to make up for building the lookup table
+        assertEquals(BudgetedMatcher.Strategy.APPROXIMATE,
+                builder.memoryBudget(1024 * MIB).expectedQueries(LUT_BREAK_EVEN_QUERIES - 1).strategy());
+        assertEquals(BudgetedMatcher.Strategy.SCAN, builder.exact(true).strategy());
+    }
+
+    @Test
+    public void should_scan_the_palette_within_small_budgets() {
+        final BudgetedMatcher matcher = BudgetedMatcher.builder(palette).memoryBudget(256 * 1024).exact(false).build();
+        assertEquals(BudgetedMatcher.Strategy.SCAN, matcher.strategy());
+        assertNull(matcher.lut());
+        assertNull(matcher.approximate());
+        assertEquals(palette.size() * BYTES_PER_PALETTE_COLOR, matcher.footprint());
+        assertTrue(matcher.nanosPerQuery() > 0);
+        final Random random = new Random(2);
+        final int[] argb = new int[500];
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = random.nextInt();
+        }
+        final int[] indices = new int[argb.length];
+        matcher.closestArgb(argb, indices);
+        for (int i = 0; i < argb.length; i++) {
+            assertEquals(palette.closestArgb(argb[i]), indices[i]);
+        }
+        for (final RgbColor color : randomColors(random, 50)) {
+            assertEquals(palette.closest(color), matcher.closest(color));
+        }
+    }
+
+    @Test
+    public void should_size_approximate_matchers_to_the_budget() {
+        final BudgetedMatcher matcher = BudgetedMatcher.builder(palette).memoryBudget(10 * MIB).exact(false).build();
+        assertEquals(BudgetedMatcher.Strategy.APPROXIMATE, matcher.strategy());
+        final ApproximateMatcher approximate = matcher.approximate();
+        assertEquals(4, approximate.cellSize());
+        assertEquals(2, approximate.slack());
+        assertTrue(matcher.footprint() > palette.size() * BYTES_PER_PALETTE_COLOR);
+        assertTrue(matcher.footprint() <= matcher.budget());
+
+        final BudgetedMatcher finer = BudgetedMatcher.builder(palette).memoryBudget(48 * MIB).exact(false).build();
+        assertEquals(2, finer.approximate().cellSize());
+        assertEquals(1, finer.approximate().slack());
+
+        final Random random = new Random(3);
+        for (final RgbColor color : randomColors(random, 50)) {
+            assertEquals(approximate.closest(color), matcher.closest(color));
+            final int argb = 0xFF000000 | (int) color.r << 16 | (int) color.g << 8 | (int) color.b;
+            assertEquals(approximate.closest(palette.toLab(color)), matcher.closestArgb(argb));
+        }
+    }
+
+    @Test
+    public void should_stay_within_the_budget_for_dense_palettes() {
+        // Many colors within the slack of each other, so cells would keep far more candidates without the cap
+        final Random random = new Random(4);
+        final List<RgbColor> colors = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            colors.add(new RgbColor(100 + random.nextInt(40), 100 + random.nextInt(40), 100 + random.nextInt(40)));
+        }
+        final PreparedPalette dense = new PreparedPalette(colors);
+        final BudgetedMatcher matcher = BudgetedMatcher.builder(dense).memoryBudget(MIB).exact(false).build();
+        assertEquals(BudgetedMatcher.Strategy.APPROXIMATE, matcher.strategy());
+        final ApproximateMatcher approximate = matcher.approximate();
+        assertEquals(8, approximate.cellSize());
+        int largest = 0;
+        for (double L = 4; L < 104; L += 8) {
+            for (double a = -124; a < 128; a += 8) {
+                for (double b = -124; b < 128; b += 8) {
+                    largest = Math.max(largest, approximate.candidates(new LabColor(L, a, b)).length);
+                }
+            }
+        }
+        assertEquals(approximate.cellCount(), approximate.builtCells());
+        assertEquals(MAX_CELL_CANDIDATES, largest);
+        assertTrue(matcher.footprint() <= matcher.budget());
+    }
+
+    @Test
+    public void should_reject_invalid_arguments() {
+        final BudgetedMatcher.Builder builder = BudgetedMatcher.builder(palette);
+        assertThrows(IllegalArgumentException.class, () -> builder.memoryBudget(-1));
+        assertThrows(IllegalArgumentException.class, () -> builder.expectedQueries(-1));
+        final BudgetedMatcher matcher = builder.memoryBudget(0).build();
+        assertThrows(IllegalArgumentException.class, () -> matcher.closestArgb(new int[2], new int[1]));
+    }
+}
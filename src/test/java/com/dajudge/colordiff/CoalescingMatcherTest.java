@@ -0,0 +1,140 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.dajudge.colordiff.PreparedPaletteTest.randomColors;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link CoalescingMatcher}.
+ */
+class CoalescingMatcherTest {
+    private static final PreparedPalette palette = new PreparedPalette(randomColors(new Random(1), 32));
+
+    @Test
+    public void should_resolve_concurrent_requests_like_the_prepared_palette() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            final CoalescingMatcher matcher = new CoalescingMatcher(palette, executor, 16, 1, TimeUnit.MILLISECONDS);
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int c = 0; c < 8; c++) {
+                final Random random = new Random(c);
+                results.add(clients.submit(() -> {
+                    boolean ok = true;
+                    for (final RgbColor color : randomColors(random, 100)) {
+                        final LabColor lab = palette.toLab(color);
+                        ok &= matcher.closest(color).get().equals(palette.closest(color));
+                        ok &= matcher.furthest(lab).get() == palette.furthest(lab);
+                        ok &= Arrays.equals(matcher.nearest(lab, 3).get(), palette.nearest(lab, 3));
+                    }
+                    return ok;
+                }));
+            }
+            for (final Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+            final CoalescingMatcher.Metrics metrics = matcher.metrics();
+            assertEquals(2400, metrics.requests());
+            assertEquals(2400, metrics.resolved());
+            assertTrue(metrics.largestBatch() <= 16);
+            long batches = 0;
+            for (final long count : metrics.batchSizeHistogram()) {
+                batches += count;
+            }
+            assertEquals(metrics.batches(), batches);
+        } finally {
+            executor.shutdown();
+            clients.shutdown();
+        }
+    }
+
+    @Test
+    public void should_dispatch_full_batches_immediately() throws Exception {
+        final AtomicInteger executions = new AtomicInteger();
+        final CoalescingMatcher matcher = new CoalescingMatcher(palette, r -> {
+            executions.incrementAndGet();
+            r.run();
+        }, 4, 1, TimeUnit.HOURS);
+        final List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (final RgbColor color : randomColors(new Random(2), 4)) {
+            futures.add(matcher.closest(palette.toLab(color)));
+        }
+        for (final CompletableFuture<Integer> future : futures) {
+            assertTrue(future.isDone());
+        }
+        assertEquals(1, executions.get());
+        assertEquals(1, matcher.metrics().batches());
+        assertEquals(1, matcher.metrics().fullBatches());
+        assertEquals(1, matcher.metrics().batchSizeHistogram()[2]);
+    }
+
+    @Test
+    public void should_dispatch_after_the_delay() throws Exception {
+        // The executor holds the dispatched batch, so the test decides when it runs instead of the clock
+        final CountDownLatch dispatched = new CountDownLatch(1);
+        final AtomicReference<Runnable> batch = new AtomicReference<>();
+        final CoalescingMatcher matcher = new CoalescingMatcher(palette, command -> {
+            batch.set(command);
+            dispatched.countDown();
+        }, 1000, 20, TimeUnit.MILLISECONDS);
+        final long start = System.nanoTime();
+        final LabColor lab = palette.toLab(new RgbColor(10, 20, 30));
+        final CompletableFuture<Integer> first = matcher.closest(lab);
+        final CompletableFuture<Integer> second = matcher.closest(lab);
+        assertTrue(dispatched.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertFalse(first.isDone());
+        batch.get().run();
+        assertEquals(palette.closest(lab), (int) first.get());
+        assertEquals(palette.closest(lab), (int) second.get());
+        assertEquals(1, matcher.metrics().batches());
+        assertEquals(0, matcher.metrics().fullBatches());
+        assertEquals(2.0, matcher.metrics().averageBatchSize());
+    }
+
+    @Test
+    public void flush_should_dispatch_pending_requests() throws Exception {
+        final CoalescingMatcher matcher = new CoalescingMatcher(palette, Runnable::run, 1000, 1, TimeUnit.HOURS);
+        final LabColor lab = palette.toLab(new RgbColor(200, 20, 30));
+        final CompletableFuture<int[]> nearest = matcher.nearest(lab, 2);
+        assertFalse(nearest.isDone());
+        matcher.flush();
+        assertArrayEquals(palette.nearest(lab, 2), nearest.get());
+    }
+
+    @Test
+    public void should_fail_requests_when_the_executor_rejects() {
+        final CoalescingMatcher matcher = new CoalescingMatcher(palette, r -> {
+            throw new RejectedExecutionException();
+        }, 1, 0, TimeUnit.MILLISECONDS);
+        final CompletableFuture<Integer> result = matcher.closest(palette.toLab(new RgbColor(1, 2, 3)));
+        final ExecutionException e = assertThrows(ExecutionException.class, result::get);
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+
+    @Test
+    public void should_reject_invalid_settings() {
+        assertThrows(IllegalArgumentException.class, () -> new CoalescingMatcher(palette, Runnable::run, 0, 1, TimeUnit.MILLISECONDS));
+        assertThrows(IllegalArgumentException.class, () -> new CoalescingMatcher(palette, Runnable::run, 1, -1, TimeUnit.MILLISECONDS));
+    }
+}
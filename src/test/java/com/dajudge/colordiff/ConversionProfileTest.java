@@ -0,0 +1,99 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static com.dajudge.colordiff.ConversionProfile.Illuminant.D50;
+import static com.dajudge.colordiff.ConversionProfile.Illuminant.D65;
+import static com.dajudge.colordiff.ConversionProfile.Observer.TEN_DEGREES;
+import static com.dajudge.colordiff.ConversionProfile.Observer.TWO_DEGREES;
+import static com.dajudge.colordiff.Convert.rgb_to_lab;
+import static com.dajudge.colordiff.Convert.rgba_to_lab;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link ConversionProfile}.
+ */
+class ConversionProfileTest {
+    private static final double[][] SRGB = {
+            {0.4124, 0.3576, 0.1805},
+            {0.2126, 0.7152, 0.0722},
+            {0.0193, 0.1192, 0.9505}
+    };
+
+    @Test
+    public void default_profile_should_reproduce_default_conversion() {
+        final Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            final RgbColor c = new RgbColor(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+            assertEquals(rgb_to_lab(c), rgb_to_lab(c, ConversionProfile.DEFAULT));
+            final RgbColor bc = new RgbColor(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+            final RgbColor ca = new RgbColor(c.r, c.g, c.b, random.nextDouble());
+            assertEquals(rgba_to_lab(ca, bc), rgba_to_lab(ca, bc, ConversionProfile.DEFAULT));
+        }
+        assertSame(ConversionProfile.DEFAULT, ConversionProfile.of(D65, TWO_DEGREES));
+    }
+
+    @Test
+    public void premultiplied_matrix_should_match_default_conversion() {
+        final ConversionProfile profile = new ConversionProfile(SRGB, D65.white(TWO_DEGREES), D65.white(TWO_DEGREES), false);
+        final Random random = new Random(2);
+        for (int i = 0; i < 1000; i++) {
+            final RgbColor c = new RgbColor(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+            assertColorEquals(rgb_to_lab(c), rgb_to_lab(c, profile), 1e-9);
+        }
+    }
+
+    @Test
+    public void adaptation_to_own_white_should_be_identity() {
+        final ConversionProfile adapted = new ConversionProfile(SRGB, D65.white(TWO_DEGREES), D65.white(TWO_DEGREES), true);
+        final RgbColor c = new RgbColor(55, 100, 130);
+        assertColorEquals(rgb_to_lab(c), rgb_to_lab(c, adapted), 1e-9);
+    }
+
+    @Test
+    public void d50_should_map_white_to_neutral() {
+        final LabColor white = rgb_to_lab(new RgbColor(255, 255, 255), ConversionProfile.SRGB_D50);
+        assertColorEquals(new LabColor(100, 0, 0), white, 0.05);
+    }
+
+    @Test
+    public void d50_should_produce_bradford_adapted_values() {
+        // Reference values for sRGB adapted to D50 with Bradford
+        assertColorEquals(new LabColor(54.29, 80.80, 69.89), rgb_to_lab(new RgbColor(255, 0, 0), ConversionProfile.SRGB_D50), 0.1);
+        assertColorEquals(new LabColor(87.82, -79.29, 80.99), rgb_to_lab(new RgbColor(0, 255, 0), ConversionProfile.SRGB_D50), 0.1);
+        assertColorEquals(new LabColor(29.57, 68.30, -112.03), rgb_to_lab(new RgbColor(0, 0, 255), ConversionProfile.SRGB_D50), 0.1);
+    }
+
+    @Test
+    public void profiles_should_be_usable_for_prepared_palettes() {
+        final ConversionProfile profile = ConversionProfile.of(D50, TEN_DEGREES);
+        final PreparedPalette palette = new PreparedPalette(
+                asList(new RgbColor(255, 0, 0), new RgbColor(0, 0, 255)),
+                new RgbColor(255, 255, 255),
+                profile
+        );
+        assertEquals(rgb_to_lab(new RgbColor(255, 0, 0), profile), palette.lab(0));
+        assertEquals(new RgbColor(0, 0, 255), palette.closest(new RgbColor(10, 10, 200)));
+    }
+
+    @Test
+    public void should_reject_malformed_matrices() {
+        assertThrows(IllegalArgumentException.class, () -> new ConversionProfile(
+                new double[][]{{1, 0}, {0, 1}},
+                D65.white(TWO_DEGREES),
+                D50.white(TWO_DEGREES),
+                true
+        ));
+    }
+
+    private static void assertColorEquals(final LabColor expected, final LabColor actual, final double delta) {
+        assertEquals(expected.L, actual.L, delta);
+        assertEquals(expected.a, actual.a, delta);
+        assertEquals(expected.b, actual.b, delta);
+    }
+}
@@ -33,10 +33,15 @@ package com.dajudge.colordiff;
 import org.junit.jupiter.api.Test;
 
 import java.awt.*;
+import java.util.Random;
 
+import static com.dajudge.colordiff.Convert.rgb_to_cam16_ucs;
 import static com.dajudge.colordiff.Convert.rgb_to_lab;
+import static com.dajudge.colordiff.Convert.rgb_to_oklab;
 import static com.dajudge.colordiff.Convert.rgba_to_lab;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Tests for {@link Convert}.
@@ -100,6 +105,89 @@ class ConvertTest {
         );
     }
 
+    @Test
+    public void should_convert_to_expected_oklab_colors() {
+        assertColorEquals(new LabColor(0.628, 0.225, 0.126), round_all(rgb_to_oklab(new RgbColor(255, 0, 0))));
+        assertColorEquals(new LabColor(0.452, -0.032, -0.312), round_all(rgb_to_oklab(new RgbColor(0, 0, 255))));
+        assertColorEquals(new LabColor(1, 0, 0), round_all(rgb_to_oklab(new RgbColor(255, 255, 255))));
+        final double[] out = new double[4];
+        rgb_to_oklab(55, 100, 130, out, 1);
+        assertColorEquals(rgb_to_oklab(new RgbColor(55, 100, 130)), new LabColor(out[1], out[2], out[3]));
+    }
+
+    @Test
+    public void should_produce_cam16_numbers_of_the_reference_implementation() {
+        // XYZ_to_CAM16 example of the colour-science package
+        final Cam16Ucs conditions = new Cam16Ucs(new double[]{95.05, 100.00, 108.88}, 318.31, 20, 1, 0.69, 1);
+        final double[] jch = conditions.xyz_to_jch(19.01, 20.00, 21.78);
+        assertEquals(41.73120791, jch[0], 1e-6);
+        assertEquals(0.10335574, jch[1], 1e-6);
+        assertEquals(217.06795977, jch[2], 1e-6);
+    }
+
+    @Test
+    public void should_convert_to_cam16_ucs() {
+        final LabColor black = rgb_to_cam16_ucs(new RgbColor(0, 0, 0));
+        assertEquals(0, black.L, 1e-9);
+        assertEquals(100, rgb_to_cam16_ucs(new RgbColor(255, 255, 255)).L, 1e-3);
+        final LabColor red = rgb_to_cam16_ucs(new RgbColor(255, 0, 0));
+        assertTrue(red.a > 30 && red.b > 0);
+        final double[] out = new double[3];
+        rgb_to_cam16_ucs(55, 100, 130, out, 0);
+        assertColorEquals(rgb_to_cam16_ucs(new RgbColor(55, 100, 130)), new LabColor(out[0], out[1], out[2]));
+    }
+
+    @Test
+    public void bulk_conversions_should_match_the_object_api() {
+        for (final int n : new int[]{0, 1, 1000, Convert.BULK_PARALLEL_THRESHOLD + 1000}) {
+            final Random random = new Random(n);
+            final RgbColor bc = new RgbColor(20, 120, 220);
+            final int[] argb = new int[n];
+            final byte[] rgb = new byte[3 * n];
+            random.nextBytes(rgb);
+            for (int i = 0; i < n; i++) {
+                // Every fourth pixel is translucent; some pixels repeat their predecessor
+                argb[i] = i > 0 && i % 5 == 0 ? argb[i - 1] : i % 4 == 0 ? random.nextInt() : random.nextInt() | 0xFF000000;
+            }
+            for (final ConversionProfile profile : new ConversionProfile[]{ConversionProfile.DEFAULT, ConversionProfile.SRGB_D50}) {
+                final double[] L = new double[n];
+                final double[] a = new double[n];
+                final double[] b = new double[n];
+                final float[] fL = new float[n];
+                final float[] fa = new float[n];
+                final float[] fb = new float[n];
+                Convert.argb_to_lab(argb, bc, profile, L, a, b);
+                Convert.argb_to_lab(argb, bc, profile, fL, fa, fb);
+                for (int i = 0; i < n; i++) {
+                    final int c = argb[i];
+                    final int alpha = c >>> 24;
+                    final RgbColor color = new RgbColor(c >> 16 & 0xFF, c >> 8 & 0xFF, c & 0xFF);
+                    final LabColor expected = alpha == 0xFF
+                            ? rgb_to_lab(color, profile)
+                            : rgba_to_lab(new RgbColor(color.r, color.g, color.b, alpha / 255.0), bc, profile);
+                    assertColorEquals(expected, new LabColor(L[i], a[i], b[i]));
+                    assertColorEquals(new LabColor((float) expected.L, (float) expected.a, (float) expected.b),
+                            new LabColor(fL[i], fa[i], fb[i]));
+                }
+                Convert.rgb_to_lab(rgb, profile, L, a, b);
+                Convert.rgb_to_lab(rgb, profile, fL, fa, fb);
+                for (int i = 0; i < n; i++) {
+                    final LabColor expected = rgb_to_lab(new RgbColor(rgb[3 * i] & 0xFF, rgb[3 * i + 1] & 0xFF, rgb[3 * i + 2] & 0xFF), profile);
+                    assertColorEquals(expected, new LabColor(L[i], a[i], b[i]));
+                    assertEquals((float) expected.L, fL[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void bulk_conversions_should_reject_invalid_arrays() {
+        final double[] out = new double[1];
+        assertThrows(IllegalArgumentException.class, () -> Convert.argb_to_lab(new int[2], null, ConversionProfile.DEFAULT, out, out, out));
+        assertThrows(IllegalArgumentException.class, () -> Convert.rgb_to_lab(new byte[4], ConversionProfile.DEFAULT, out, out, out));
+        assertThrows(IllegalArgumentException.class, () -> Convert.rgb_to_lab(new byte[6], ConversionProfile.DEFAULT, out, out, out));
+    }
+
     private static void assertColorEquals(final LabColor a, final LabColor b) {
         assertEquals(a.L, b.L);
         assertEquals(a.a, b.a);
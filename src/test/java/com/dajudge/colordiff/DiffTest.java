@@ -32,10 +32,14 @@ package com.dajudge.colordiff;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.Random;
+
 import static com.dajudge.colordiff.Diff.ciede2000;
+import static com.dajudge.colordiff.Diff.ciede2000_bounded;
 import static java.lang.Double.NaN;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Tests for {@link Diff}.
@@ -241,6 +245,35 @@ class DiffTest {
         assert_ciede2000_diff(100.0, l(100, 0.005, -0.010), l(0.0, 0.0, 0.0));
     }
 
+    @Test
+    public void bounded_should_be_exact_up_to_the_bound() {
+        final Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            final LabColor c1 = randomLab(random);
+            final LabColor c2 = i % 10 == 0 ? l(c1.L + random.nextDouble() - .5, c1.a, c1.b) : randomLab(random);
+            final double diff = ciede2000(c1, c2);
+            assertEquals(diff, ciede2000_bounded(c1, c2, diff));
+            assertEquals(diff, ciede2000_bounded(c1, c2, diff * 1.5));
+            assertEquals(diff, ciede2000_bounded(c1, c2, Double.POSITIVE_INFINITY));
+            final double below = diff * (1 - 1e-6);
+            assertTrue(ciede2000_bounded(c1, c2, below) > below);
+            final double bound = diff * random.nextDouble();
+            assertTrue(ciede2000_bounded(c1, c2, bound) > bound || diff == 0);
+        }
+    }
+
+    @Test
+    public void bounded_should_handle_edge_cases() {
+        assertEquals(0.0, ciede2000_bounded(l(50, 10, 10), l(50, 10, 10), 0));
+        assertTrue(ciede2000_bounded(l(50, 10, 10), l(50, 10, 11), 0) > 0);
+        assertEquals(100.0, round(ciede2000_bounded(l(100, 0.005, -0.010), l(0.0, 0.0, 0.0), 100)));
+        assertThrows(IllegalArgumentException.class, () -> ciede2000_bounded(l(NaN, NaN, NaN), l(0, 0, 0), 1));
+    }
+
+    private static LabColor randomLab(final Random random) {
+        return new LabColor(random.nextDouble() * 100, random.nextDouble() * 256 - 128, random.nextDouble() * 256 - 128);
+    }
+
     @Test
     public void throws_error() {
         assertThrows(IllegalArgumentException.class, () -> {
@@ -0,0 +1,105 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.dajudge.colordiff.PreparedPaletteTest.randomColors;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link DistinctColors}.
+ */
+class DistinctColorsTest {
+    @Test
+    public void should_select_like_naive_farthest_point_sampling() {
+        final Random random = new Random(1);
+        final PreparedPalette small = new PreparedPalette(randomColors(random, 200));
+        assertArrayEquals(naive(small, 12, Collections.emptyList()),
+                DistinctColors.selectDistinct(small, 12, Collections.emptyList()));
+        final List<RgbColor> seeds = randomColors(random, 3);
+        assertArrayEquals(naive(small, 12, seeds), DistinctColors.selectDistinct(small, 12, seeds));
+
+        final PreparedPalette large = new PreparedPalette(randomColors(random, DistinctColors.PARALLEL_THRESHOLD + 1000));
+        assertArrayEquals(naive(large, 5, seeds), DistinctColors.selectDistinct(large, 5, seeds));
+    }
+
+    @Test
+    public void should_stay_distinct_from_seeds() {
+        final RgbColor black = new RgbColor(0, 0, 0);
+        final RgbColor white = new RgbColor(255, 255, 255);
+        final RgbColor red = new RgbColor(255, 0, 0);
+        final List<RgbColor> candidates = asList(black, new RgbColor(10, 10, 10), red, white);
+        assertEquals(asList(black, red), DistinctColors.selectDistinct(candidates, 2, asList(white)));
+        final List<RgbColor> picked = DistinctColors.selectDistinct(candidates, 3, asList(black));
+        assertFalse(picked.contains(black));
+    }
+
+    @Test
+    public void should_pick_the_first_of_equally_distant_candidates() {
+        final RgbColor red = new RgbColor(255, 0, 0);
+        final RgbColor blue = new RgbColor(0, 0, 255);
+        final PreparedPalette palette = new PreparedPalette(asList(blue, red, red, blue));
+        final int[] picked = DistinctColors.selectDistinct(palette, 4, Collections.emptyList());
+        assertEquals(picked[0] == 0 ? 1 : 0, picked[1]);
+        assertEquals(2, picked[2]);
+        assertEquals(3, picked[3]);
+    }
+
+    @Test
+    public void should_pick_every_candidate_once() {
+        // Spans two chunks, so one chunk runs out of candidates before the other
+        final PreparedPalette palette = new PreparedPalette(randomColors(new Random(3), DistinctColors.PARALLEL_THRESHOLD + 5));
+        final int[] picked = DistinctColors.selectDistinct(palette, palette.size(), Collections.emptyList());
+        Arrays.sort(picked);
+        for (int i = 0; i < picked.length; i++) {
+            assertEquals(i, picked[i]);
+        }
+    }
+
+    @Test
+    public void should_reject_invalid_counts() {
+        final PreparedPalette palette = new PreparedPalette(randomColors(new Random(2), 3));
+        assertEquals(0, DistinctColors.selectDistinct(palette, 0, Collections.emptyList()).length);
+        assertEquals(3, DistinctColors.selectDistinct(palette, 3, Collections.emptyList()).length);
+        assertThrows(IllegalArgumentException.class,
+                () -> DistinctColors.selectDistinct(palette, 4, Collections.emptyList()));
+        assertThrows(IllegalArgumentException.class,
+                () -> DistinctColors.selectDistinct(palette, -1, Collections.emptyList()));
+    }
+
+    private static int[] naive(final PreparedPalette palette, final int n, final List<RgbColor> seeds) {
+        final List<LabColor> picked = new ArrayList<>();
+        for (final RgbColor seed : seeds) {
+            picked.add(palette.toLab(seed));
+        }
+        final int[] result = new int[n];
+        for (int k = 0; k < n; k++) {
+            int best = -1;
+            double bestDistance = -1;
+            for (int i = 0; i < palette.size(); i++) {
+                double distance = picked.isEmpty()
+                        ? Diff.ciede2000(palette.lab(i), new LabColor(50, 0, 0))
+                        : Double.POSITIVE_INFINITY;
+                for (final LabColor lab : picked) {
+                    distance = Math.min(distance, Diff.ciede2000(palette.lab(i), lab));
+                }
+                if (distance > bestDistance) {
+                    bestDistance = distance;
+                    best = i;
+                }
+            }
+            result[k] = best;
+            picked.add(palette.lab(best));
+        }
+        return result;
+    }
+}
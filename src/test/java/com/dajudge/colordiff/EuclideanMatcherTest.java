@@ -0,0 +1,112 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.dajudge.colordiff.PreparedPaletteTest.randomColors;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link EuclideanMatcher}.
+ */
+class EuclideanMatcherTest {
+    @Test
+    public void should_match_a_full_scan() {
+        for (final UniformColorSpace space : UniformColorSpace.values()) {
+            for (final int size : new int[]{1, 7, 100, 1000}) {
+                final Random random = new Random(size);
+                final List<RgbColor> palette = randomColors(random, size);
+                final EuclideanMatcher matcher = new EuclideanMatcher(palette, new RgbColor(255, 255, 255), space);
+                final MatchResult result = new MatchResult();
+                for (final RgbColor color : randomColors(random, 300)) {
+                    matcher.closest(color, result);
+                    final int expected = scan(palette, color, space);
+                    assertEquals(expected, result.index());
+                    assertEquals(distance(palette.get(expected), color, space), result.distance(), 1e-12);
+                    assertEquals(palette.get(expected), matcher.closest(color));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void should_prefer_first_of_equal_colors() {
+        final Random random = new Random(1);
+        final List<RgbColor> palette = new ArrayList<>(randomColors(random, 200));
+        final List<RgbColor> duplicates = new ArrayList<>(palette);
+        Collections.shuffle(duplicates, random);
+        palette.addAll(duplicates);
+        final EuclideanMatcher matcher = new EuclideanMatcher(palette);
+        for (int i = 0; i < palette.size(); i++) {
+            assertEquals(palette.indexOf(palette.get(i)), matcher.closest(Collections.singletonList(palette.get(i)))[0]);
+        }
+    }
+
+    @Test
+    public void batches_should_match_single_queries() {
+        final Random random = new Random(2);
+        final RgbColor bc = new RgbColor(30, 60, 90);
+        final List<RgbColor> palette = randomColors(random, 50);
+        palette.set(3, new RgbColor(200, 100, 0, .4));
+        final EuclideanMatcher matcher = new EuclideanMatcher(palette, bc, UniformColorSpace.CAM16_UCS);
+        final int[] argb = new int[500];
+        final List<RgbColor> colors = new ArrayList<>();
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = i % 2 == 0 ? random.nextInt() : random.nextInt() | 0xFF000000;
+            final int alpha = argb[i] >>> 24;
+            colors.add(alpha == 0xFF
+                    ? new RgbColor(argb[i] >> 16 & 0xFF, argb[i] >> 8 & 0xFF, argb[i] & 0xFF)
+                    : new RgbColor(argb[i] >> 16 & 0xFF, argb[i] >> 8 & 0xFF, argb[i] & 0xFF, alpha / 255.0));
+        }
+        final int[] indices = new int[argb.length];
+        matcher.closestArgb(argb, indices);
+        final int[] expected = new int[colors.size()];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = scan(palette, colors.get(i), bc, UniformColorSpace.CAM16_UCS);
+            assertEquals(expected[i], matcher.closestArgb(argb[i]));
+        }
+        assertArrayEquals(expected, indices);
+        assertArrayEquals(expected, matcher.closest(colors));
+    }
+
+    @Test
+    public void should_reject_invalid_arguments() {
+        assertThrows(IllegalArgumentException.class, () -> new EuclideanMatcher(Collections.emptyList()));
+        final EuclideanMatcher matcher = new EuclideanMatcher(randomColors(new Random(3), 5));
+        assertThrows(IllegalArgumentException.class, () -> matcher.closestArgb(new int[2], new int[1]));
+    }
+
+    private static int scan(final List<RgbColor> palette, final RgbColor color, final UniformColorSpace space) {
+        return scan(palette, color, new RgbColor(255, 255, 255), space);
+    }
+
+    private static int scan(final List<RgbColor> palette, final RgbColor color, final RgbColor bc, final UniformColorSpace space) {
+        int best = 0;
+        double best_distance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < palette.size(); i++) {
+            final double distance = distance(palette.get(i), color, bc, space);
+            if (distance < best_distance) {
+                best = i;
+                best_distance = distance;
+            }
+        }
+        return best;
+    }
+
+    private static double distance(final RgbColor c1, final RgbColor c2, final UniformColorSpace space) {
+        return distance(c1, c2, new RgbColor(255, 255, 255), space);
+    }
+
+    private static double distance(final RgbColor c1, final RgbColor c2, final RgbColor bc, final UniformColorSpace space) {
+        final double[] p = new double[6];
+        space.convert(c1, bc, p, 0);
+        space.convert(c2, bc, p, 3);
+        return Math.sqrt((p[0] - p[3]) * (p[0] - p[3]) + (p[1] - p[4]) * (p[1] - p[4]) + (p[2] - p[5]) * (p[2] - p[5]));
+    }
+}
@@ -0,0 +1,121 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.dajudge.colordiff.PreparedPaletteTest.randomColors;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link FloatPalette}.
+ */
+class FloatPaletteTest {
+    @Test
+    public void should_match_like_the_prepared_palette() {
+        final Random random = new Random(1);
+        final PreparedPalette palette = new PreparedPalette(randomColors(random, 300));
+        final FloatPalette floats = new FloatPalette(palette);
+        final LabColor[] queries = new LabColor[2000];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = new LabColor(random.nextDouble() * 100, random.nextDouble() * 256 - 128, random.nextDouble() * 256 - 128);
+        }
+        assertArrayEquals(palette.closest(queries), floats.closest(queries));
+        final MatchResult expected = new MatchResult();
+        final MatchResult actual = new MatchResult();
+        for (final LabColor query : queries) {
+            palette.closest(query, expected);
+            floats.closest(query, actual);
+            assertEquals(expected.index(), actual.index());
+            assertEquals(expected.distance(), actual.distance());
+        }
+        final int[] argb = new int[1000];
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = random.nextInt();
+        }
+        final int[] indices = new int[argb.length];
+        floats.closestArgb(argb, indices);
+        for (int i = 0; i < argb.length; i++) {
+            assertEquals(palette.closestArgb(argb[i]), indices[i]);
+        }
+    }
+
+    @Test
+    public void should_resolve_colors_closer_than_float_precision_exactly() {
+        // Lab values differing in the last bits of a double round to the same float
+        final List<LabColor> labs = new ArrayList<>();
+        final List<RgbColor> colors = new ArrayList<>();
+        final Random random = new Random(2);
+        for (int i = 0; i < 50; i++) {
+            final double L = random.nextDouble() * 100;
+            final double a = random.nextDouble() * 100 - 50;
+            final double b = random.nextDouble() * 100 - 50;
+            for (int k = 3; k >= 0; k--) {
+                labs.add(new LabColor(L, a + k * 1e-9, b));
+                colors.add(new RgbColor(i, k, 0));
+            }
+        }
+        final PreparedPalette palette = new PreparedPalette(colors, new RgbColor(255, 255, 255),
+                ConversionProfile.DEFAULT, labs.toArray(new LabColor[0]));
+        final FloatPalette floats = new FloatPalette(palette);
+        for (int i = 0; i < 500; i++) {
+            final LabColor query = new LabColor(random.nextDouble() * 100, random.nextDouble() * 100 - 50, random.nextDouble() * 100 - 50);
+            assertEquals(palette.closest(query), floats.closest(query));
+        }
+        for (final LabColor lab : labs) {
+            assertEquals(palette.closest(lab), floats.closest(lab));
+        }
+    }
+
+    @Test
+    public void should_match_exactly_where_rounding_moves_the_hue_difference_across_180_degrees() {
+        // Rounded to float, c0 and the query are exactly opposite, which makes the full formula jump by about 3 ΔE
+        final double epsilon = Math.ulp(1f) / 4;
+        final LabColor[] labs = {new LabColor(50, -30, 1 - epsilon), new LabColor(50, -13.7, 60)};
+        final PreparedPalette palette = new PreparedPalette(
+                asList(new RgbColor(0, 0, 0), new RgbColor(1, 1, 1)),
+                new RgbColor(255, 255, 255),
+                ConversionProfile.DEFAULT,
+                labs
+        );
+        final LabColor query = new LabColor(50, 30, -(1 - epsilon / 2));
+        assertEquals(0, palette.closest(query));
+        assertEquals(0, new FloatPalette(palette).closest(query));
+        final MatchResult expected = new MatchResult();
+        final MatchResult actual = new MatchResult();
+        palette.closest(query, expected);
+        new FloatPalette(palette).closest(query, actual);
+        assertEquals(expected.distance(), actual.distance());
+    }
+
+    @Test
+    public void should_pick_the_first_of_equal_colors() {
+        final RgbColor red = new RgbColor(255, 0, 0);
+        final RgbColor blue = new RgbColor(0, 0, 255);
+        final FloatPalette floats = new FloatPalette(new PreparedPalette(asList(red, blue, red, blue)));
+        assertEquals(0, floats.closest(new LabColor(53, 80, 67)));
+        assertEquals(1, floats.closestArgb(0xFF0000F0));
+        assertEquals(red, floats.closest(new RgbColor(250, 10, 10)));
+        assertThrows(IllegalArgumentException.class, () -> floats.closestArgb(new int[2], new int[1]));
+    }
+
+    @Test
+    public void should_match_off_heap_palettes() {
+        final List<RgbColor> colors = randomColors(new Random(3), 100);
+        try (final OffHeapColorStore store = new OffHeapColorStore(colors.size())) {
+            for (final RgbColor color : colors) {
+                store.add(color);
+            }
+            final PreparedPalette palette = store.palette();
+            final FloatPalette floats = new FloatPalette(palette);
+            for (final RgbColor color : randomColors(new Random(4), 200)) {
+                assertEquals(palette.closest(color), floats.closest(color));
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Random;
+
+import static com.dajudge.colordiff.PaletteQuantizeOpTest.randomImage;
+import static com.dajudge.colordiff.PreparedPaletteTest.randomColors;
+import static java.awt.image.BufferedImage.TYPE_3BYTE_BGR;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link FrameRemapper}.
+ */
+class FrameRemapperTest {
+    private final PaletteQuantizeOp op = new PaletteQuantizeOp(new PreparedPalette(randomColors(new Random(1), 200)));
+
+    @Test
+    public void should_match_the_quantize_op_for_each_frame() {
+        final Random random = new Random(2);
+        final FrameRemapper remapper = new FrameRemapper(op);
+        final BufferedImage frame = randomImage(random, 150, 100, TYPE_INT_ARGB);
+        assertRemapped(frame, remapper.remap(frame));
+        assertEquals(150 * 100, remapper.resolvedPixels());
+        assertEquals(0, remapper.reusedPixels());
+        for (int i = 0; i < 5; i++) {
+            final int changed = changePixels(random, frame, 300);
+            assertRemapped(frame, remapper.remap(frame));
+            assertEquals(changed, remapper.resolvedPixels());
+            assertEquals(150 * 100 - changed, remapper.reusedPixels());
+            assertEquals(1 - changed / 15000.0, remapper.reuseRatio(), 1e-12);
+        }
+        assertEquals(6, remapper.frames());
+    }
+
+    @Test
+    public void should_reuse_all_pixels_of_an_unchanged_frame() {
+        final FrameRemapper remapper = new FrameRemapper(op);
+        final BufferedImage frame = randomImage(new Random(3), 40, 30, TYPE_3BYTE_BGR);
+        final BufferedImage first = remapper.remap(frame);
+        final BufferedImage second = remapper.remap(frame);
+        assertEquals(1.0, remapper.reuseRatio());
+        assertArrayEquals(data(first), data(second));
+    }
+
+    @Test
+    public void should_start_over_after_a_size_change_or_reset() {
+        final Random random = new Random(4);
+        final FrameRemapper remapper = new FrameRemapper(op);
+        remapper.remap(randomImage(random, 30, 30, TYPE_INT_RGB));
+        final BufferedImage larger = randomImage(random, 50, 20, TYPE_INT_RGB);
+        assertRemapped(larger, remapper.remap(larger));
+        assertEquals(1000, remapper.resolvedPixels());
+        remapper.reset();
+        assertEquals(0.0, remapper.reuseRatio());
+        assertRemapped(larger, remapper.remap(larger));
+        assertEquals(1000, remapper.resolvedPixels());
+    }
+
+    @Test
+    public void should_write_into_the_given_destination() {
+        final Random random = new Random(5);
+        final EuclideanMatcher matcher = new EuclideanMatcher(randomColors(random, 16));
+        final PaletteQuantizeOp euclidean = new PaletteQuantizeOp(matcher);
+        final FrameRemapper remapper = new FrameRemapper(euclidean);
+        final BufferedImage frame = randomImage(random, 70, 70, TYPE_INT_ARGB);
+        final BufferedImage dest = euclidean.createCompatibleDestImage(frame, null);
+        for (int i = 0; i < 3; i++) {
+            changePixels(random, frame, 100);
+            assertSame(dest, remapper.remap(frame, dest));
+            assertArrayEquals(data(euclidean.filter(frame, null)), data(dest));
+        }
+        assertThrows(IllegalArgumentException.class, () -> remapper.remap(frame, frame));
+    }
+
+    private void assertRemapped(final BufferedImage frame, final BufferedImage remapped) {
+        assertArrayEquals(data(op.filter(frame, null)), data(remapped));
+    }
+
+    private static int changePixels(final Random random, final BufferedImage frame, final int n) {
+        final int w = frame.getWidth();
+        final int h = frame.getHeight();
+        final int[] before = frame.getRGB(0, 0, w, h, null, 0, w);
+        for (int i = 0; i < n; i++) {
+            frame.setRGB(random.nextInt(w), random.nextInt(h), random.nextInt());
+        }
+        final int[] after = frame.getRGB(0, 0, w, h, null, 0, w);
+        int changed = 0;
+        for (int i = 0; i < after.length; i++) {
+            if (after[i] != before[i]) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    private static byte[] data(final BufferedImage image) {
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+}
@@ -0,0 +1,124 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for {@link FurthestSearch}.
+ */
+class FurthestSearchTest {
+    @Test
+    public void should_equal_brute_force_on_random_palettes() {
+        final Random random = new Random(1);
+        for (final int size : new int[]{1, 2, 7, 9, 64, 100, 513, 2000}) {
+            final LabColor[] palette = randomLab(random, size);
+            final FurthestSearch search = new FurthestSearch(palette);
+            for (final LabColor query : randomLab(random, 300)) {
+                assertFurthest(palette, search, query);
+            }
+        }
+    }
+
+    @Test
+    public void should_equal_brute_force_on_clustered_palettes() {
+        final Random random = new Random(2);
+        final LabColor[] palette = new LabColor[500];
+        for (int i = 0; i < palette.length; i++) {
+            final LabColor center = i % 2 == 0 ? new LabColor(20, 40, -30) : new LabColor(80, -20, 60);
+            palette[i] = new LabColor(
+                    center.L + random.nextGaussian(),
+                    center.a + random.nextGaussian(),
+                    center.b + random.nextGaussian()
+            );
+        }
+        final FurthestSearch search = new FurthestSearch(palette);
+        for (final LabColor query : randomLab(random, 500)) {
+            assertFurthest(palette, search, query);
+        }
+    }
+
+    @Test
+    public void should_prefer_the_first_of_equally_distant_colors() {
+        final Random random = new Random(3);
+        final LabColor[] palette = new LabColor[200];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = new LabColor(20 + random.nextDouble() * 5, random.nextDouble() * 5, random.nextDouble() * 5);
+        }
+        // Duplicates of the same color spread across the tree
+        final LabColor far = new LabColor(90, 60, 60);
+        for (final int i : new int[]{150, 17, 99, 180}) {
+            palette[i] = far;
+        }
+        final FurthestSearch search = new FurthestSearch(palette);
+        assertEquals(17, search.furthest(20, 0, 0, null));
+        for (final LabColor query : randomLab(random, 300)) {
+            assertFurthest(palette, search, query);
+        }
+    }
+
+    @Test
+    public void prepared_palette_should_use_it_transparently() {
+        final Random random = new Random(4);
+        final List<RgbColor> colors = PreparedPaletteTest.randomColors(random, 300);
+        final PreparedPalette palette = new PreparedPalette(colors);
+        final MatchResult result = new MatchResult();
+        for (final RgbColor color : PreparedPaletteTest.randomColors(random, 300)) {
+            assertEquals(ColorDiff.furthest(color, colors), palette.furthest(color));
+            palette.furthest(palette.toLab(color), result);
+            assertEquals(Diff.ciede2000(palette.toLab(color), palette.lab(result.index())), result.distance());
+        }
+    }
+
+    @Test
+    public void map_palette_should_use_it_transparently() {
+        final Random random = new Random(5);
+        final List<RgbColor> a = PreparedPaletteTest.randomColors(random, 100);
+        final List<RgbColor> b = PreparedPaletteTest.randomColors(random, 100);
+        b.set(10, new RgbColor(200, 30, 40, .5));
+        final RgbColor bc = new RgbColor(0, 0, 0);
+        final Map<String, RgbColor> mapped = Palette.map_palette(a, b, Palette.MapType.FURTHEST, bc);
+        final List<LabColor> labA = new ArrayList<>();
+        final List<LabColor> labB = new ArrayList<>();
+        for (final RgbColor color : b) {
+            labB.add(color.a != null ? Convert.rgba_to_lab(color, bc) : Convert.rgb_to_lab(color));
+        }
+        for (final RgbColor color : a) {
+            final LabColor lab = Convert.rgb_to_lab(color);
+            labA.add(lab);
+            assertEquals(b.get(labB.indexOf(Palette.match_palette_lab(lab, labB, true))), mapped.get(Palette.palette_map_key(color)));
+        }
+        final Map<String, LabColor> mappedLab = Palette.map_palette_lab(labA, labB, Palette.MapType.FURTHEST);
+        for (final LabColor lab : labA) {
+            assertEquals(Palette.match_palette_lab(lab, labB, true), mappedLab.get(Palette.lab_palette_map_key(lab)));
+        }
+    }
+
+    private static void assertFurthest(final LabColor[] palette, final FurthestSearch search, final LabColor query) {
+        int expected = 0;
+        double expectedDiff = Diff.ciede2000(query, palette[0]);
+        for (int i = 1; i < palette.length; i++) {
+            final double diff = Diff.ciede2000(query, palette[i]);
+            if (diff > expectedDiff) {
+                expected = i;
+                expectedDiff = diff;
+            }
+        }
+        final MatchResult result = new MatchResult();
+        assertEquals(expected, search.furthest(query.L, query.a, query.b, result));
+        assertEquals(expectedDiff, result.distance());
+    }
+
+    private static LabColor[] randomLab(final Random random, final int n) {
+        final List<LabColor> colors = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            colors.add(new LabColor(random.nextDouble() * 100, random.nextDouble() * 256 - 128, random.nextDouble() * 256 - 128));
+        }
+        return colors.toArray(new LabColor[0]);
+    }
+}
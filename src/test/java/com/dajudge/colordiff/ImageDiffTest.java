@@ -0,0 +1,157 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_3BYTE_BGR;
+import static java.awt.image.BufferedImage.TYPE_BYTE_BINARY;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link ImageDiff}.
+ */
+class ImageDiffTest {
+    private static final int W = 150;
+    private static final int H = 110;
+
+    private final ImageDiff diff = new ImageDiff();
+
+    @Test
+    public void map_should_match_per_pixel_differences() {
+        final BufferedImage a = randomImage(new Random(1), TYPE_INT_RGB);
+        final BufferedImage b = changed(a, new Random(2), TYPE_3BYTE_BGR);
+        final float[] map = diff.map(a, b);
+        final PreparedPalette reference = new PreparedPalette(Arrays.asList(new RgbColor(0, 0, 0)));
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                final double expected = Diff.ciede2000(lab(reference, a.getRGB(x, y)), lab(reference, b.getRGB(x, y)));
+                assertEquals((float) expected, map[y * W + x]);
+            }
+        }
+    }
+
+    @Test
+    public void should_blend_translucent_pixels_onto_the_background() {
+        final RgbColor bc = new RgbColor(20, 200, 40);
+        final ImageDiff onGreen = new ImageDiff(bc, ConversionProfile.SRGB_D50);
+        final BufferedImage a = randomImage(new Random(3), TYPE_INT_ARGB);
+        final BufferedImage b = changed(a, new Random(4), TYPE_INT_ARGB);
+        final Random random = new Random(5);
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                b.setRGB(x, y, b.getRGB(x, y) & 0xFFFFFF | random.nextInt(256) << 24);
+            }
+        }
+        final float[] map = onGreen.map(a, b);
+        final PreparedPalette reference = new PreparedPalette(Arrays.asList(bc), bc, ConversionProfile.SRGB_D50);
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                final double expected = Diff.ciede2000(lab(reference, a.getRGB(x, y)), lab(reference, b.getRGB(x, y)));
+                assertEquals((float) expected, map[y * W + x]);
+            }
+        }
+    }
+
+    @Test
+    public void statistics_should_summarize_the_map() {
+        final BufferedImage a = randomImage(new Random(6), TYPE_INT_RGB);
+        final BufferedImage b = changed(a, new Random(7), TYPE_INT_RGB);
+        final float[] map = new float[W * H];
+        final ImageDiff.Statistics mapped = diff.map(a, b, map, 5);
+        final ImageDiff.Statistics streamed = diff.statistics(a, b, 5);
+
+        final double[] sorted = new double[map.length];
+        double sum = 0;
+        long above = 0;
+        for (int i = 0; i < map.length; i++) {
+            sorted[i] = map[i];
+            sum += sorted[i];
+            above += sorted[i] > 5 ? 1 : 0;
+        }
+        Arrays.sort(sorted);
+        for (final ImageDiff.Statistics statistics : new ImageDiff.Statistics[]{mapped, streamed}) {
+            assertEquals(W * H, statistics.count());
+            assertEquals(5, statistics.threshold());
+            assertEquals(above, statistics.countAbove());
+            assertEquals(sum / map.length, statistics.mean(), 1e-4);
+            assertEquals(sorted[sorted.length - 1], statistics.max(), 1e-4);
+            assertTrue(statistics.identical() > 0 && statistics.identical() < W * H);
+            for (final double q : new double[]{0, .5, .9, .95, .99, 1}) {
+                final double expected = sorted[(int) Math.floor(q * (sorted.length - 1))];
+                assertEquals(expected, statistics.quantile(q), expected * ImageDiff.Statistics.RELATIVE_ERROR + 1e-4);
+            }
+            assertEquals(statistics.quantile(.95), statistics.p95());
+        }
+    }
+
+    @Test
+    public void identical_images_should_not_differ() {
+        final BufferedImage a = randomImage(new Random(8), TYPE_INT_RGB);
+        final ImageDiff.Statistics statistics = diff.statistics(a, a, 0);
+        assertEquals(W * H, statistics.identical());
+        assertEquals(0, statistics.countAbove());
+        assertEquals(0, statistics.max());
+        assertEquals(0, statistics.p95());
+    }
+
+    @Test
+    public void mask_should_mark_differences_above_the_threshold() {
+        final BufferedImage a = randomImage(new Random(9), TYPE_INT_RGB);
+        final BufferedImage b = changed(a, new Random(10), TYPE_INT_RGB);
+        final float[] map = diff.map(a, b);
+        final BufferedImage mask = diff.mask(a, b, 3);
+        assertEquals(TYPE_BYTE_BINARY, mask.getType());
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                assertEquals(map[y * W + x] > 3 ? 1 : 0, mask.getRaster().getSample(x, y, 0));
+            }
+        }
+    }
+
+    @Test
+    public void should_reject_invalid_arguments() {
+        final BufferedImage a = randomImage(new Random(11), TYPE_INT_RGB);
+        assertThrows(IllegalArgumentException.class, () -> diff.map(a, new BufferedImage(W, H + 1, TYPE_INT_RGB)));
+        assertThrows(IllegalArgumentException.class, () -> diff.map(a, a, new float[W], 1));
+        assertThrows(IllegalArgumentException.class, () -> diff.statistics(a, a, 1).quantile(1.5));
+    }
+
+    private static LabColor lab(final PreparedPalette reference, final int argb) {
+        final int alpha = argb >>> 24;
+        return reference.toLab(alpha == 0xFF
+                ? new RgbColor(argb >> 16 & 0xFF, argb >> 8 & 0xFF, argb & 0xFF)
+                : new RgbColor(argb >> 16 & 0xFF, argb >> 8 & 0xFF, argb & 0xFF, alpha / 255.0));
+    }
+
+    private static BufferedImage randomImage(final Random random, final int type) {
+        final BufferedImage image = new BufferedImage(W, H, type);
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                image.setRGB(x, y, x % 4 == 0 ? random.nextInt() | 0xFF000000 : image.getRGB(x - 1, y));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * @return a copy of the image with some pixels changed slightly and some changed completely
+     */
+    private static BufferedImage changed(final BufferedImage image, final Random random, final int type) {
+        final BufferedImage result = new BufferedImage(W, H, type);
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                final int argb = image.getRGB(x, y);
+                final int change = random.nextInt(10);
+                result.setRGB(x, y, change == 0 ? random.nextInt() | 0xFF000000 : change < 4 ? argb ^ random.nextInt(8) : argb);
+            }
+        }
+        return result;
+    }
+}
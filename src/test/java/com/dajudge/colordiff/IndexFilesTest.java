@@ -0,0 +1,205 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.dajudge.colordiff.PreparedPaletteTest.randomColors;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link IndexFiles}.
+ */
+class IndexFilesTest {
+    private static final List<RgbColor> FIXTURE_COLORS = asList(
+            new RgbColor(255, 0, 0),
+            new RgbColor(0, 128, 255, .5),
+            new RgbColor(20, 30, 40)
+    );
+
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("color-diff-index");
+    }
+
+    @AfterEach
+    void tearDown() {
+        final File[] files = dir.toFile().listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        dir.toFile().delete();
+    }
+
+    @Test
+    public void should_read_version_1_prepared_palettes() throws Exception {
+        final PreparedPalette palette = IndexFiles.readPreparedPalette(fixture("prepared-palette.cdix"));
+        final PreparedPalette expected = new PreparedPalette(
+                FIXTURE_COLORS,
+                new RgbColor(0, 0, 0),
+                ConversionProfile.SRGB_D50
+        );
+        assertEquals(expected.colors(), palette.colors());
+        assertEquals(expected.background(), palette.background());
+        assertArrayEquals(expected.profile().matrix(), palette.profile().matrix());
+        assertArrayEquals(expected.profile().referenceWhite(), palette.profile().referenceWhite());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.lab(i), palette.lab(i));
+        }
+        for (final RgbColor color : randomColors(new Random(1), 100)) {
+            assertEquals(expected.closest(color), palette.closest(color));
+        }
+    }
+
+    @Test
+    public void should_read_version_1_approximate_matchers() throws Exception {
+        final ApproximateMatcher matcher = IndexFiles.readApproximateMatcher(fixture("approximate-matcher.cdix"));
+        final ApproximateMatcher expected = new ApproximateMatcher(new PreparedPalette(FIXTURE_COLORS), 3, 10);
+        assertSame(ConversionProfile.DEFAULT, matcher.palette().profile());
+        assertEquals(3, matcher.slack());
+        assertEquals(10, matcher.cellSize());
+        assertEquals(ApproximateMatcher.UNLIMITED_CANDIDATES, matcher.maxCandidates());
+        assertEquals(3, matcher.builtCells());
+        for (final LabColor color : asList(new LabColor(50, 0, 0), new LabColor(90, 60, 60), new LabColor(10, -20, 30))) {
+            assertArrayEquals(expected.candidates(color), matcher.candidates(color));
+        }
+        assertEquals(3, matcher.builtCells());
+    }
+
+    @Test
+    public void should_round_trip_prepared_palettes() throws IOException {
+        final PreparedPalette palette = new PreparedPalette(randomColors(new Random(2), 50));
+        final Path file = dir.resolve("palette.cdix");
+        IndexFiles.write(palette, file);
+        final PreparedPalette read = IndexFiles.readPreparedPalette(file);
+        assertSame(ConversionProfile.DEFAULT, read.profile());
+        assertEquals(palette.colors(), read.colors());
+        for (int i = 0; i < palette.size(); i++) {
+            assertEquals(palette.lab(i), read.lab(i));
+        }
+    }
+
+    @Test
+    public void should_round_trip_approximate_matchers() throws IOException {
+        final ApproximateMatcher matcher = new ApproximateMatcher(new PreparedPalette(randomColors(new Random(3), 50)));
+        final List<RgbColor> queries = randomColors(new Random(4), 500);
+        for (final RgbColor color : queries) {
+            matcher.closest(color);
+        }
+        final Path file = dir.resolve("matcher.cdix");
+        IndexFiles.write(matcher, file);
+        final ApproximateMatcher read = IndexFiles.readApproximateMatcher(file);
+        assertEquals(matcher.builtCells(), read.builtCells());
+        for (final RgbColor color : queries) {
+            assertEquals(matcher.closest(color), read.closest(color));
+        }
+        assertEquals(matcher.builtCells(), read.builtCells());
+    }
+
+    @Test
+    public void should_round_trip_the_candidate_limit_of_approximate_matchers() throws IOException {
+        final Random random = new Random(8);
+        final List<RgbColor> colors = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            colors.add(new RgbColor(100 + random.nextInt(40), 100 + random.nextInt(40), 100 + random.nextInt(40)));
+        }
+        final PreparedPalette palette = new PreparedPalette(colors);
+        final LabColor query = palette.toLab(new RgbColor(120, 120, 120));
+        assertTrue(new ApproximateMatcher(palette, 3, 10).candidates(query).length > 4);
+        final ApproximateMatcher matcher = new ApproximateMatcher(palette, 3, 10, 4);
+        final Path file = dir.resolve("matcher.cdix");
+        IndexFiles.write(matcher, file);
+        final ApproximateMatcher read = IndexFiles.readApproximateMatcher(file);
+        assertEquals(4, read.maxCandidates());
+        assertEquals(0, read.builtCells());
+        assertEquals(4, read.candidates(query).length);
+        assertArrayEquals(matcher.candidates(query), read.candidates(query));
+    }
+
+    @Test
+    public void should_write_approximate_matchers_while_cells_are_built() throws Exception {
+        final ApproximateMatcher matcher = new ApproximateMatcher(new PreparedPalette(randomColors(new Random(6), 50)));
+        final AtomicBoolean done = new AtomicBoolean();
+        final Thread builder = new Thread(() -> {
+            final Random random = new Random(7);
+            while (!done.get()) {
+                matcher.closest(new RgbColor(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            }
+        });
+        builder.start();
+        try {
+            final Path file = dir.resolve("matcher.cdix");
+            for (int i = 0; i < 50; i++) {
+                IndexFiles.write(matcher, file);
+                final ApproximateMatcher read = IndexFiles.readApproximateMatcher(file);
+                assertTrue(read.builtCells() <= matcher.builtCells());
+            }
+        } finally {
+            done.set(true);
+            builder.join();
+        }
+    }
+
+    @Test
+    public void should_round_trip_lookup_tables() throws IOException {
+        final PaletteLut lut = new PaletteLut(new PreparedPalette(randomColors(new Random(5), 20)), 7, 8);
+        final Path file = dir.resolve("lut.cdix");
+        IndexFiles.write(lut, file);
+        final PaletteLut read = IndexFiles.readPaletteLut(file);
+        assertEquals(lut.colors(), read.colors());
+        for (int i = 7 << 16; i < 8 << 16; i++) {
+            assertEquals(lut.closest(i), read.closest(i));
+        }
+    }
+
+    @Test
+    public void should_reject_corrupt_files() throws IOException {
+        final Path file = dir.resolve("palette.cdix");
+        IndexFiles.write(new PreparedPalette(FIXTURE_COLORS), file);
+        final byte[] valid = Files.readAllBytes(file);
+
+        assertTrue(message(file, flip(valid, valid.length - 1)).contains("checksum"));
+        assertTrue(message(file, flip(valid, 0)).contains("Not a color-diff index file"));
+        assertTrue(message(file, flip(valid, 7)).contains("Unsupported index format version"));
+        final byte[] truncated = new byte[valid.length - 1];
+        System.arraycopy(valid, 0, truncated, 0, truncated.length);
+        assertTrue(message(file, truncated).contains("Truncated"));
+        Files.write(file, valid);
+        assertThrows(IOException.class, () -> IndexFiles.readApproximateMatcher(file));
+    }
+
+    private static String message(final Path file, final byte[] content) throws IOException {
+        Files.write(file, content);
+        return assertThrows(IOException.class, () -> IndexFiles.readPreparedPalette(file)).getMessage();
+    }
+
+    private static byte[] flip(final byte[] content, final int offset) {
+        final byte[] result = content.clone();
+        result[offset] ^= 0x10;
+        return result;
+    }
+
+    private static Path fixture(final String name) throws URISyntaxException {
+        return Paths.get(IndexFilesTest.class.getResource("index-v1/" + name).toURI());
+    }
+}
@@ -0,0 +1,122 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Random;
+
+import static com.dajudge.colordiff.PreparedPaletteTest.randomColors;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Tests for the allocation-free query variants filling a {@link MatchResult}.
+ */
+class MatchResultTest {
+    private static final int WARMUP = 20_000;
+    private static final int CALLS = 10_000;
+    private static final RgbColor WHITE = new RgbColor(255, 255, 255);
+
+    private final List<RgbColor> colors = randomColors(new Random(1), 16);
+    private final PreparedPalette palette = new PreparedPalette(colors);
+
+    @Test
+    public void should_match_the_allocating_variants() {
+        final MatchResult result = new MatchResult();
+        final List<RgbColor> withAlpha = randomColors(new Random(2), 8);
+        withAlpha.set(3, new RgbColor(10, 200, 30, .4));
+        for (final RgbColor color : randomColors(new Random(3), 200)) {
+            ColorDiff.closest(color, withAlpha, WHITE, result);
+            assertEquals(ColorDiff.closest(color, withAlpha), withAlpha.get(result.index()));
+            ColorDiff.furthest(color, withAlpha, WHITE, result);
+            assertEquals(ColorDiff.furthest(color, withAlpha), withAlpha.get(result.index()));
+
+            final LabColor lab = Convert.rgb_to_lab(color);
+            palette.closest(lab, result);
+            assertEquals(palette.closest(lab), result.index());
+            assertEquals(Diff.ciede2000(lab, palette.lab(result.index())), result.distance());
+            palette.furthest(lab, result);
+            assertEquals(palette.furthest(lab), result.index());
+            palette.closest(color.r, color.g, color.b, result);
+            assertEquals(palette.closest(lab), result.index());
+        }
+    }
+
+    @Test
+    public void primitive_conversion_should_be_identical() {
+        final double[] out = new double[4];
+        for (final RgbColor color : randomColors(new Random(4), 200)) {
+            for (final ConversionProfile profile : new ConversionProfile[]{ConversionProfile.DEFAULT, ConversionProfile.SRGB_D50}) {
+                Convert.rgb_to_lab(color.r, color.g, color.b, profile, out, 1);
+                assertEquals(Convert.rgb_to_lab(color, profile), new LabColor(out[1], out[2], out[3]));
+            }
+            final RgbColor transparent = new RgbColor(color.r, color.g, color.b, .3);
+            Convert.to_lab(transparent, WHITE, ConversionProfile.DEFAULT, out, 0);
+            assertEquals(Convert.rgba_to_lab(transparent, WHITE), new LabColor(out[0], out[1], out[2]));
+        }
+    }
+
+    @Test
+    public void batch_should_match_single_queries() {
+        final int[] rgb = new int[500];
+        final Random random = new Random(5);
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] = random.nextInt();
+        }
+        final int[] indices = new int[rgb.length];
+        palette.closest(rgb, indices);
+        for (int i = 0; i < rgb.length; i++) {
+            final RgbColor color = new RgbColor(rgb[i] >> 16 & 0xFF, rgb[i] >> 8 & 0xFF, rgb[i] & 0xFF);
+            assertEquals(palette.closest(palette.toLab(color)), indices[i]);
+        }
+    }
+
+    @Test
+    public void color_diff_should_not_allocate() {
+        final MatchResult result = new MatchResult();
+        final RgbColor color = new RgbColor(12, 34, 56);
+        assertNoAllocation(() -> ColorDiff.closest(color, colors, WHITE, result));
+    }
+
+    @Test
+    public void prepared_palette_should_not_allocate() {
+        final MatchResult result = new MatchResult();
+        final LabColor lab = Convert.rgb_to_lab(new RgbColor(12, 34, 56));
+        assertNoAllocation(() -> palette.closest(lab, result));
+        assertNoAllocation(() -> palette.furthest(lab, result));
+        assertNoAllocation(() -> palette.closest(12, 34, 56, result));
+        final int[] rgb = {0x102030, 0xFFEEDD, 0x00FF00};
+        final int[] indices = new int[rgb.length];
+        assertNoAllocation(() -> palette.closest(rgb, indices));
+    }
+
+    @Test
+    public void primitive_diff_and_conversion_should_not_allocate() {
+        final double[] out = new double[3];
+        final double[] sink = new double[1];
+        assertNoAllocation(() -> {
+            Convert.rgb_to_lab(12, 34, 56, ConversionProfile.SRGB_D50, out, 0);
+            sink[0] += Diff.ciede2000(out[0], out[1], out[2], 50, 10, -10);
+        });
+    }
+
+    private static void assertNoAllocation(final Runnable call) {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        final long thread = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP; i++) {
+            call.run();
+        }
+        final long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < CALLS; i++) {
+            call.run();
+        }
+        final long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        // Allows for a few bytes of measurement overhead, but not for a single object per call
+        assertTrue(allocated < CALLS, "Allocated " + allocated + " bytes in " + CALLS + " calls");
+    }
+}
@@ -0,0 +1,181 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.dajudge.colordiff.PreparedPaletteTest.randomColors;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link MutablePaletteIndex}.
+ */
+class MutablePaletteIndexTest {
+    private static final RgbColor RED = new RgbColor(255, 0, 0);
+    private static final RgbColor GREEN = new RgbColor(0, 255, 0);
+    private static final RgbColor BLUE = new RgbColor(0, 0, 255);
+
+    @Test
+    public void should_add_remove_and_update_colors() {
+        final MutablePaletteIndex index = new MutablePaletteIndex();
+        assertEquals(-1, index.snapshot().closest(RED));
+        final int red = index.add(RED);
+        final int[] greenBlue = index.addAll(asList(GREEN, BLUE));
+        assertEquals(2, index.snapshot().version());
+        assertEquals(red, index.snapshot().closest(new RgbColor(250, 10, 10)));
+        assertEquals(greenBlue[1], index.snapshot().closest(new RgbColor(10, 10, 250)));
+
+        assertTrue(index.update(greenBlue[1], new RgbColor(250, 0, 0)));
+        assertEquals(asList(RED, GREEN, new RgbColor(250, 0, 0)), index.snapshot().colors());
+        assertEquals(greenBlue[1], index.snapshot().closest(new RgbColor(251, 0, 0)));
+
+        final MutablePaletteIndex.Snapshot before = index.snapshot();
+        assertTrue(index.remove(red));
+        assertFalse(index.remove(red));
+        assertFalse(index.update(red, RED));
+        assertNull(index.snapshot().color(red));
+        assertArrayEquals(new int[]{greenBlue[0], greenBlue[1]}, index.snapshot().ids());
+        assertEquals(greenBlue[1], index.snapshot().closest(new RgbColor(255, 0, 0)));
+        assertEquals(red, before.closest(new RgbColor(255, 0, 0)));
+        assertEquals(4, index.snapshot().version());
+    }
+
+    @Test
+    public void should_never_reuse_ids() {
+        final MutablePaletteIndex index = new MutablePaletteIndex();
+        final int first = index.add(RED);
+        index.remove(first);
+        assertTrue(index.snapshot().isEmpty());
+        assertThrows(IllegalStateException.class, () -> index.snapshot().palette());
+        assertEquals(first + 1, index.add(RED));
+    }
+
+    @Test
+    public void should_match_like_color_diff() {
+        final List<RgbColor> colors = randomColors(new Random(1), 40);
+        final MutablePaletteIndex index = new MutablePaletteIndex();
+        index.addAll(colors);
+        final MutablePaletteIndex.Snapshot snapshot = index.snapshot();
+        assertSame(snapshot.labColors().get(3), snapshot.palette().lab(3));
+        for (final RgbColor color : randomColors(new Random(2), 200)) {
+            assertEquals(ColorDiff.closest(color, colors), snapshot.color(snapshot.closest(color)));
+            assertEquals(ColorDiff.furthest(color, colors), snapshot.color(snapshot.furthest(color)));
+            final LabColor lab = Convert.rgb_to_lab(color);
+            assertEquals(
+                    Palette.match_palette_lab(lab, snapshot.labColors(), false),
+                    snapshot.palette().lab(snapshot.palette().closest(lab))
+            );
+        }
+    }
+
+    @Test
+    public void concurrent_queries_should_see_consistent_versions() throws Exception {
+        final MutablePaletteIndex index = new MutablePaletteIndex();
+        index.addAll(randomColors(new Random(3), 16));
+        final Map<Long, List<RgbColor>> versions = new ConcurrentHashMap<>();
+        versions.put(index.snapshot().version(), index.snapshot().colors());
+        final List<RgbColor> queries = randomColors(new Random(4), 64);
+        final AtomicBoolean done = new AtomicBoolean();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final Future<?> writer = executor.submit(() -> {
+                final Random random = new Random(5);
+                for (int i = 0; i < 500; i++) {
+                    final int[] ids = index.snapshot().ids();
+                    final int op = random.nextInt(3);
+                    if (op == 0 || ids.length < 4) {
+                        index.add(randomColors(random, 1).get(0));
+                    } else if (op == 1) {
+                        index.remove(ids[random.nextInt(ids.length)]);
+                    } else {
+                        index.update(ids[random.nextInt(ids.length)], randomColors(random, 1).get(0));
+                    }
+                    // Single writer: the current snapshot is the one just published
+                    versions.put(index.snapshot().version(), index.snapshot().colors());
+                }
+                done.set(true);
+            });
+            final List<Future<List<Observation>>> readers = new ArrayList<>();
+            for (int r = 0; r < 3; r++) {
+                readers.add(executor.submit(() -> {
+                    final List<Observation> observations = new ArrayList<>();
+                    long lastVersion = -1;
+                    int q = 0;
+                    while (!done.get() || observations.size() < 100) {
+                        final MutablePaletteIndex.Snapshot snapshot = index.snapshot();
+                        assertTrue(snapshot.version() >= lastVersion);
+                        lastVersion = snapshot.version();
+                        final RgbColor query = queries.get(q++ % queries.size());
+                        observations.add(new Observation(snapshot.version(), query, snapshot.color(snapshot.closest(query))));
+                        Thread.yield();
+                    }
+                    return observations;
+                }));
+            }
+            writer.get();
+            for (final Future<List<Observation>> reader : readers) {
+                for (final Observation observation : reader.get()) {
+                    final List<RgbColor> palette = versions.get(observation.version);
+                    assertEquals(ColorDiff.closest(observation.query, palette), observation.result);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(501, index.snapshot().version());
+    }
+
+    @Test
+    public void concurrent_writers_should_not_lose_changes() throws Exception {
+        final MutablePaletteIndex index = new MutablePaletteIndex();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> writers = new ArrayList<>();
+            for (int w = 0; w < 4; w++) {
+                final Random random = new Random(w);
+                writers.add(executor.submit(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        final int id = index.add(randomColors(random, 1).get(0));
+                        if (i % 2 == 0) {
+                            assertTrue(index.remove(id));
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> writer : writers) {
+                writer.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(200, index.snapshot().size());
+        assertEquals(600, index.snapshot().version());
+    }
+
+    private static class Observation {
+        private final long version;
+        private final RgbColor query;
+        private final RgbColor result;
+
+        private Observation(final long version, final RgbColor query, final RgbColor result) {
+            this.version = version;
+            this.query = query;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static com.dajudge.colordiff.PreparedPaletteTest.randomColors;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link OffHeapColorStore}.
+ */
+class OffHeapColorStoreTest {
+    @Test
+    public void should_store_colors_and_lab_values() {
+        final List<RgbColor> colors = colors(new Random(1), 300);
+        final PreparedPalette expected = new PreparedPalette(colors, new RgbColor(0, 30, 60), ConversionProfile.SRGB_D50);
+        try (final OffHeapColorStore store = new OffHeapColorStore(400, new RgbColor(0, 30, 60), ConversionProfile.SRGB_D50)) {
+            for (int i = 0; i < colors.size(); i++) {
+                assertEquals(i, store.add(colors.get(i)));
+            }
+            assertEquals(colors.size(), store.size());
+            assertEquals(400L * OffHeapColorStore.BYTES_PER_COLOR, store.bytes());
+            final PreparedPalette palette = store.palette();
+            assertEquals(colors, palette.colors());
+            for (int i = 0; i < colors.size(); i++) {
+                assertEquals(expected.lab(i), palette.lab(i));
+            }
+        }
+    }
+
+    @Test
+    public void should_match_like_a_heap_palette() {
+        final Random random = new Random(2);
+        final PreparedPalette expected = new PreparedPalette(colors(random, OffHeapColorStore.PARALLEL_THRESHOLD + 1000));
+        try (final OffHeapColorStore store = OffHeapColorStore.of(expected)) {
+            final PreparedPalette palette = store.palette();
+            final MatchResult expectedResult = new MatchResult();
+            final MatchResult result = new MatchResult();
+            for (final RgbColor color : randomColors(random, 20)) {
+                final LabColor lab = expected.toLab(color);
+                expected.closest(lab, expectedResult);
+                palette.closest(lab, result);
+                assertEquals(expectedResult.index(), result.index());
+                assertEquals(expectedResult.distance(), result.distance());
+                assertEquals(expected.furthest(lab), palette.furthest(lab));
+                assertArrayEquals(expected.nearest(lab, 5), palette.nearest(lab, 5));
+            }
+        }
+    }
+
+    @Test
+    public void should_build_indexes_over_the_store() throws IOException {
+        final PreparedPalette expected = new PreparedPalette(colors(new Random(3), 100));
+        final Path file = Files.createTempFile("color-diff-store", ".cdix");
+        try (final OffHeapColorStore store = OffHeapColorStore.of(expected)) {
+            final PreparedPalette palette = store.palette();
+            final LabColor[] queries = new LabColor[500];
+            final Random random = new Random(4);
+            for (int i = 0; i < queries.length; i++) {
+                queries[i] = new LabColor(random.nextDouble() * 100, random.nextDouble() * 200 - 100, random.nextDouble() * 200 - 100);
+            }
+            assertArrayEquals(new ApproximateMatcher(expected).closest(queries), new ApproximateMatcher(palette).closest(queries));
+
+            IndexFiles.write(palette, file);
+            final PreparedPalette read = IndexFiles.readPreparedPalette(file);
+            assertEquals(expected.colors(), read.colors());
+            assertArrayEquals(expected.closest(queries), read.closest(queries));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void palettes_should_keep_their_size() {
+        try (final OffHeapColorStore store = new OffHeapColorStore(10)) {
+            store.add(new RgbColor(255, 0, 0));
+            final PreparedPalette palette = store.palette();
+            store.add(new RgbColor(250, 0, 0));
+            assertEquals(1, palette.size());
+            assertEquals(0, palette.closest(Convert.rgb_to_lab(new RgbColor(250, 0, 0))));
+            assertThrows(IndexOutOfBoundsException.class, () -> palette.lab(1));
+            assertEquals(1, store.palette().closest(Convert.rgb_to_lab(new RgbColor(250, 0, 0))));
+        }
+    }
+
+    @Test
+    public void should_reject_use_after_close() {
+        final OffHeapColorStore store = new OffHeapColorStore(10);
+        store.add(new RgbColor(255, 0, 0));
+        final PreparedPalette palette = store.palette();
+        assertFalse(store.isClosed());
+        store.close();
+        store.close();
+        assertTrue(store.isClosed());
+        assertThrows(IllegalStateException.class, () -> store.add(new RgbColor(0, 0, 0)));
+        assertThrows(IllegalStateException.class, () -> palette.closest(new RgbColor(0, 0, 0)));
+        assertThrows(IllegalStateException.class, () -> palette.colors().get(0));
+    }
+
+    @Test
+    public void should_reject_invalid_arguments() {
+        assertThrows(IllegalArgumentException.class, () -> new OffHeapColorStore(-1));
+        assertThrows(IllegalArgumentException.class, () -> new OffHeapColorStore(Integer.MAX_VALUE));
+        try (final OffHeapColorStore store = new OffHeapColorStore(1)) {
+            assertThrows(IllegalArgumentException.class, store::palette);
+            store.add(new RgbColor(0, 0, 0));
+            assertThrows(IllegalStateException.class, () -> store.add(new RgbColor(0, 0, 0)));
+        }
+    }
+
+    private static List<RgbColor> colors(final Random random, final int n) {
+        final List<RgbColor> colors = randomColors(random, n);
+        for (int i = 0; i < n; i += 7) {
+            final RgbColor color = colors.get(i);
+            colors.set(i, new RgbColor(color.r, color.g, color.b, random.nextInt(256) / 255.0));
+        }
+        return colors;
+    }
+}
@@ -0,0 +1,153 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link PaletteExtractor}.
+ */
+class PaletteExtractorTest {
+    private static int[] raster(final int... colorsAndCounts) {
+        int size = 0;
+        for (int i = 1; i < colorsAndCounts.length; i += 2) {
+            size += colorsAndCounts[i];
+        }
+        final int[] raster = new int[size];
+        int pos = 0;
+        for (int i = 0; i < colorsAndCounts.length; i += 2) {
+            for (int j = 0; j < colorsAndCounts[i + 1]; j++) {
+                raster[pos++] = colorsAndCounts[i];
+            }
+        }
+        return raster;
+    }
+
+    @Test
+    public void should_extract_the_distinct_colors_most_frequent_first() {
+        final int[] raster = raster(0xFF0000FF, 10, 0xFFFF0000, 30, 0xFF00FF00, 20);
+        assertEquals(
+                asList(new RgbColor(255, 0, 0), new RgbColor(0, 255, 0), new RgbColor(0, 0, 255)),
+                PaletteExtractor.extract(raster, 3)
+        );
+    }
+
+    @Test
+    public void should_return_all_colors_when_k_exceeds_unique_colors() {
+        final int[] raster = raster(0xFF000000, 5, 0xFFFFFFFF, 3);
+        assertEquals(
+                asList(new RgbColor(0, 0, 0), new RgbColor(255, 255, 255)),
+                PaletteExtractor.extract(raster, 16)
+        );
+    }
+
+    @Test
+    public void should_ignore_alpha() {
+        final int[] raster = raster(0x00FF0000, 5, 0x80FF0000, 3, 0xFF0000FF, 1);
+        assertEquals(
+                asList(new RgbColor(255, 0, 0), new RgbColor(0, 0, 255)),
+                PaletteExtractor.extract(raster, 2)
+        );
+    }
+
+    @Test
+    public void should_separate_clusters() {
+        final Random random = new Random(42);
+        final int[] raster = new int[3000];
+        final int[] bases = {0x202020, 0xE0E0E0, 0x2040C0};
+        for (int i = 0; i < raster.length; i++) {
+            final int base = bases[i % bases.length];
+            final int noise = random.nextInt(8) * 0x010101;
+            raster[i] = 0xFF000000 | (base + noise);
+        }
+        final List<RgbColor> palette = PaletteExtractor.extract(raster, 3);
+        assertEquals(3, palette.size());
+        for (final int base : bases) {
+            final RgbColor expected = new RgbColor((base >> 16) & 0xFF, (base >> 8) & 0xFF, base & 0xFF);
+            final RgbColor closest = ColorDiff.closest(expected, palette);
+            assertTrue(Diff.ciede2000(Convert.rgb_to_lab(expected), Convert.rgb_to_lab(closest)) < 5);
+        }
+    }
+
+    @Test
+    public void should_match_unpruned_lloyd_iterations() {
+        final Random random = new Random(7);
+        final int[] raster = new int[10000];
+        for (int i = 0; i < raster.length; i++) {
+            raster[i] = random.nextInt(0x1000000);
+        }
+        final PaletteExtractor.Histogram histogram = PaletteExtractor.Histogram.of(raster);
+        final double[][] seeds = PaletteExtractor.medianCut(histogram, 8);
+        final PaletteExtractor.KMeans kmeans = new PaletteExtractor.KMeans(histogram, copy(seeds));
+        kmeans.run(10);
+        assertArrayEquals(lloyd(histogram, copy(seeds), 10), kmeans.assignment());
+    }
+
+    @Test
+    public void should_extract_from_buffered_image() {
+        final BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                image.setRGB(x, y, y < 3 ? 0xFFFFFF : 0x000000);
+            }
+        }
+        assertEquals(
+                asList(new RgbColor(255, 255, 255), new RgbColor(0, 0, 0)),
+                PaletteExtractor.extract(image, 2)
+        );
+    }
+
+    @Test
+    public void should_reject_non_positive_k() {
+        assertThrows(IllegalArgumentException.class, () -> PaletteExtractor.extract(new int[1], 0));
+    }
+
+    private static double[][] copy(final double[][] seeds) {
+        final double[][] copy = new double[seeds.length][];
+        for (int i = 0; i < seeds.length; i++) {
+            copy[i] = seeds[i].clone();
+        }
+        return copy;
+    }
+
+    private static int[] lloyd(final PaletteExtractor.Histogram histogram, final double[][] centers, final int iterations) {
+        final int[] assignment = new int[histogram.size()];
+        for (int iteration = 0; iteration <= iterations; iteration++) {
+            for (int i = 0; i < histogram.size(); i++) {
+                int best = 0;
+                for (int j = 1; j < centers.length; j++) {
+                    if (PaletteExtractor.distance(histogram.lab[i], centers[j])
+                            < PaletteExtractor.distance(histogram.lab[i], centers[best])) {
+                        best = j;
+                    }
+                }
+                assignment[i] = best;
+            }
+            if (iteration == iterations) {
+                break;
+            }
+            final double[][] sums = new double[centers.length][3];
+            final long[] weights = new long[centers.length];
+            for (int i = 0; i < histogram.size(); i++) {
+                for (int axis = 0; axis < 3; axis++) {
+                    sums[assignment[i]][axis] += histogram.lab[i][axis] * histogram.count[i];
+                }
+                weights[assignment[i]] += histogram.count[i];
+            }
+            for (int j = 0; j < centers.length; j++) {
+                if (weights[j] > 0) {
+                    centers[j] = new double[]{sums[j][0] / weights[j], sums[j][1] / weights[j], sums[j][2] / weights[j]};
+                }
+            }
+        }
+        return assignment;
+    }
+}
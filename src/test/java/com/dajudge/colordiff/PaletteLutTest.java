@@ -0,0 +1,109 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static com.dajudge.colordiff.PreparedPaletteTest.randomColors;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link PaletteLut}.
+ * <p>
+ * Building the full table takes several seconds per core, so most tests only build a few red planes.
+ */
+class PaletteLutTest {
+    private static final List<RgbColor> colors = randomColors(new Random(1), 16);
+
+    @Test
+    public void should_match_color_diff() {
+        final PaletteLut lut = new PaletteLut(new PreparedPalette(colors), 100, 102);
+        final Random random = new Random(2);
+        for (int i = 0; i < 5000; i++) {
+            final RgbColor color = new RgbColor(100 + random.nextInt(2), random.nextInt(256), random.nextInt(256));
+            assertEquals(ColorDiff.closest(color, colors), lut.closest(color));
+        }
+    }
+
+    @Test
+    public void should_match_prepared_palette_for_every_value_of_a_plane() {
+        final PreparedPalette palette = new PreparedPalette(colors, new RgbColor(0, 0, 0), ConversionProfile.SRGB_D50);
+        final PaletteLut lut = new PaletteLut(palette, 255, 256);
+        for (int g = 0; g < 256; g++) {
+            for (int b = 0; b < 256; b++) {
+                final int expected = palette.closest(palette.toLab(new RgbColor(255, g, b)));
+                assertEquals(expected, lut.closest(0xFF0000 | g << 8 | b));
+            }
+        }
+    }
+
+    @Test
+    public void should_prefer_the_first_of_equal_colors() {
+        final PaletteLut lut = new PaletteLut(
+                new PreparedPalette(asList(new RgbColor(0, 0, 0), new RgbColor(9, 9, 9), new RgbColor(0, 0, 0))),
+                0,
+                1
+        );
+        assertEquals(0, lut.closest(0x000101));
+        assertEquals(1, lut.closest(0x000909));
+    }
+
+    @Test
+    public void should_look_up_batches_and_ignore_alpha() {
+        final PaletteLut lut = new PaletteLut(new PreparedPalette(colors), 0, 1);
+        final int[] rgb = {0x000000, 0xFF000000, 0x00FF00, 0x7F0000FF};
+        final int[] indices = new int[rgb.length];
+        lut.closest(rgb, indices);
+        assertEquals(lut.closest(0x000000), indices[1]);
+        assertEquals(lut.closest(0x0000FF), indices[3]);
+        assertEquals(lut.closest(0x00FF00), indices[2]);
+        assertThrows(IllegalArgumentException.class, () -> lut.closest(new RgbColor(1.5, 0, 0)));
+        assertThrows(IllegalArgumentException.class, () -> lut.closest(new RgbColor(1, 0, 0, .5)));
+    }
+
+    @Test
+    public void should_survive_a_round_trip() throws IOException {
+        final PaletteLut lut = new PaletteLut(new PreparedPalette(colors), 40, 41);
+        final PaletteLut read = roundTrip(lut);
+        assertEquals(lut.colors(), read.colors());
+        for (int i = 40 << 16; i < 41 << 16; i++) {
+            assertEquals(lut.closest(i), read.closest(i));
+        }
+    }
+
+    @Test
+    public void should_use_short_indices_for_large_palettes() throws IOException {
+        final List<RgbColor> large = randomColors(new Random(3), 300);
+        large.set(299, new RgbColor(0, 0, 0, .5));
+        large.set(256, new RgbColor(0, 128, 128));
+        final PreparedPalette palette = new PreparedPalette(large);
+        final PaletteLut lut = new PaletteLut(palette, 0, 1);
+        final PaletteLut read = roundTrip(lut);
+        assertEquals(large, read.colors());
+        assertEquals(256, lut.closest(0x008080));
+        for (int g = 0; g < 256; g++) {
+            for (int b = 0; b < 256; b++) {
+                final int expected = palette.closest(palette.toLab(new RgbColor(0, g, b)));
+                assertEquals(expected, lut.closest(g << 8 | b));
+                assertEquals(expected, read.closest(g << 8 | b));
+            }
+        }
+    }
+
+    @Test
+    public void should_reject_foreign_streams() {
+        assertThrows(IOException.class, () -> PaletteLut.readFrom(new ByteArrayInputStream(new byte[]{1, 2, 3, 4})));
+    }
+
+    private static PaletteLut roundTrip(final PaletteLut lut) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        lut.writeTo(out);
+        return PaletteLut.readFrom(new ByteArrayInputStream(out.toByteArray()));
+    }
+}
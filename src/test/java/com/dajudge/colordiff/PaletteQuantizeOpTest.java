@@ -0,0 +1,148 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.List;
+import java.util.Random;
+
+import static com.dajudge.colordiff.PreparedPaletteTest.randomColors;
+import static java.awt.image.BufferedImage.TYPE_3BYTE_BGR;
+import static java.awt.image.BufferedImage.TYPE_4BYTE_ABGR;
+import static java.awt.image.BufferedImage.TYPE_BYTE_INDEXED;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static java.awt.image.BufferedImage.TYPE_INT_BGR;
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import static java.awt.image.BufferedImage.TYPE_USHORT_565_RGB;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link PaletteQuantizeOp}.
+ */
+class PaletteQuantizeOpTest {
+    private final PreparedPalette palette = new PreparedPalette(randomColors(new Random(1), 16), new RgbColor(0, 0, 0));
+    private final PaletteQuantizeOp op = new PaletteQuantizeOp(palette);
+
+    @Test
+    public void should_match_the_palette_for_all_image_types() {
+        final int[] types = {
+                TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_INT_ARGB_PRE, TYPE_INT_BGR,
+                TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR, TYPE_BYTE_INDEXED, TYPE_USHORT_565_RGB
+        };
+        for (final int type : types) {
+            final BufferedImage image = randomImage(new Random(type), 150, 120, type);
+            assertQuantized(image, op.filter(image, null));
+        }
+    }
+
+    @Test
+    public void should_match_the_palette_for_smooth_images() {
+        // Neighboring pixels of gradients mostly match the same palette colors, so most searches start with the match
+        final BufferedImage image = new BufferedImage(300, 200, TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, (x * 255 / 299) << 16 | (y * 255 / 199) << 8 | ((x + y) * 255 / 498));
+            }
+        }
+        assertQuantized(image, op.filter(image, null));
+    }
+
+    @Test
+    public void should_match_by_euclidean_distance() {
+        final EuclideanMatcher matcher = new EuclideanMatcher(palette.colors());
+        final PaletteQuantizeOp euclidean = new PaletteQuantizeOp(matcher);
+        final BufferedImage image = randomImage(new Random(9), 80, 60, TYPE_INT_ARGB);
+        final BufferedImage quantized = euclidean.filter(image, null);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                assertEquals(matcher.closestArgb(image.getRGB(x, y)), quantized.getRaster().getSample(x, y, 0));
+            }
+        }
+        assertEquals(null, euclidean.palette());
+    }
+
+    @Test
+    public void should_match_translucent_pixels_on_the_palette_background() {
+        final BufferedImage image = randomImage(new Random(2), 64, 64, TYPE_INT_ARGB);
+        final Random random = new Random(3);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, image.getRGB(x, y) & 0xFFFFFF | random.nextInt(256) << 24);
+            }
+        }
+        assertQuantized(image, op.filter(image, null));
+    }
+
+    @Test
+    public void should_read_subimages() {
+        for (final int type : new int[]{TYPE_INT_RGB, TYPE_3BYTE_BGR}) {
+            final BufferedImage image = randomImage(new Random(4), 100, 80, type).getSubimage(13, 7, 60, 50);
+            assertQuantized(image, op.filter(image, null));
+        }
+    }
+
+    @Test
+    public void should_write_into_the_given_destination() {
+        final BufferedImage image = randomImage(new Random(5), 30, 20, TYPE_INT_RGB);
+        final BufferedImage dest = op.createCompatibleDestImage(image, null);
+        assertSame(dest, op.filter(image, dest));
+        assertQuantized(image, dest);
+        assertSame(op.colorModel(), dest.getColorModel());
+    }
+
+    @Test
+    public void should_use_palette_colors_for_the_color_model() {
+        final List<RgbColor> colors = randomColors(new Random(6), 5);
+        colors.set(2, new RgbColor(10, 20, 30, .5));
+        final IndexColorModel cm = new PaletteQuantizeOp(new PreparedPalette(colors)).colorModel();
+        assertEquals(5, cm.getMapSize());
+        for (int i = 0; i < colors.size(); i++) {
+            final RgbColor color = colors.get(i);
+            assertEquals((int) color.r, cm.getRed(i));
+            assertEquals((int) color.g, cm.getGreen(i));
+            assertEquals((int) color.b, cm.getBlue(i));
+            assertEquals(i == 2 ? 128 : 255, cm.getAlpha(i));
+        }
+    }
+
+    @Test
+    public void should_reject_invalid_arguments() {
+        assertThrows(IllegalArgumentException.class, () -> new PaletteQuantizeOp(new PreparedPalette(randomColors(new Random(7), 257))));
+        final BufferedImage image = randomImage(new Random(8), 10, 10, TYPE_INT_RGB);
+        assertThrows(IllegalArgumentException.class, () -> op.filter(image, new BufferedImage(10, 10, TYPE_INT_RGB)));
+        assertThrows(IllegalArgumentException.class, () -> op.filter(image, new BufferedImage(10, 11, TYPE_BYTE_INDEXED, op.colorModel())));
+        final BufferedImage indexed = op.filter(image, null);
+        assertThrows(IllegalArgumentException.class, () -> op.filter(indexed, indexed));
+    }
+
+    private void assertQuantized(final BufferedImage image, final BufferedImage quantized) {
+        assertEquals(TYPE_BYTE_INDEXED, quantized.getType());
+        assertEquals(image.getWidth(), quantized.getWidth());
+        assertEquals(image.getHeight(), quantized.getHeight());
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                final int argb = image.getRGB(x, y);
+                final int alpha = argb >>> 24;
+                final RgbColor color = alpha == 0xFF
+                        ? new RgbColor(argb >> 16 & 0xFF, argb >> 8 & 0xFF, argb & 0xFF)
+                        : new RgbColor(argb >> 16 & 0xFF, argb >> 8 & 0xFF, argb & 0xFF, alpha / 255.0);
+                assertEquals(palette.closest(palette.toLab(color)), quantized.getRaster().getSample(x, y, 0));
+            }
+        }
+    }
+
+    static BufferedImage randomImage(final Random random, final int w, final int h, final int type) {
+        final BufferedImage image = new BufferedImage(w, h, type);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                // Runs of equal pixels, as in real images
+                image.setRGB(x, y, x % 3 == 0 || x == 0 ? random.nextInt() | 0xFF000000 : image.getRGB(x - 1, y));
+            }
+        }
+        return image;
+    }
+}
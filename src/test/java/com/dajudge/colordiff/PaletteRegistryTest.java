@@ -0,0 +1,161 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+import static com.dajudge.colordiff.PreparedPaletteTest.randomColors;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link PaletteRegistry}.
+ */
+class PaletteRegistryTest {
+    private Path directory;
+
+    @BeforeEach
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("color-diff-registry");
+    }
+
+    @AfterEach
+    public void deleteDirectory() throws IOException {
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (final Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void should_load_hex_and_index_files() throws IOException {
+        final List<RgbColor> colors = randomColors(new Random(1), 20);
+        write("brand.txt", colors);
+        IndexFiles.write(new PreparedPalette(colors, new RgbColor(0, 0, 0)), directory.resolve("brand.cdix"));
+        write(".hidden", colors);
+        write("brand.txt~", colors);
+        try (final PaletteRegistry registry = new PaletteRegistry(directory)) {
+            assertEquals(new HashSet<>(asList("brand.cdix", "brand.txt")), registry.names());
+            assertEquals(colors, registry.palette("brand.txt").colors());
+            assertEquals(new RgbColor(255, 255, 255), registry.palette("brand.txt").background());
+            assertEquals(new RgbColor(0, 0, 0), registry.palette("brand.cdix").background());
+            assertEquals(2, registry.metrics().reloads());
+            assertThrows(IllegalArgumentException.class, () -> registry.palette("other.txt"));
+        }
+    }
+
+    @Test
+    public void should_keep_the_previous_palette_if_a_file_is_invalid() throws IOException {
+        final List<RgbColor> colors = randomColors(new Random(2), 5);
+        write("palette.txt", colors);
+        try (final PaletteRegistry registry = new PaletteRegistry(directory)) {
+            final PreparedPalette palette = registry.palette("palette.txt");
+            Files.write(directory.resolve("palette.txt"), "#12345\n".getBytes(StandardCharsets.UTF_8));
+            assertFalse(registry.reload("palette.txt"));
+            assertSame(palette, registry.palette("palette.txt"));
+            final PaletteRegistry.Metrics metrics = registry.metrics();
+            assertEquals(1, metrics.failures());
+            assertTrue(metrics.lastFailure().startsWith("palette.txt: "));
+
+            final List<RgbColor> updated = randomColors(new Random(3), 7);
+            write("palette.txt", updated);
+            assertTrue(registry.reload("palette.txt"));
+            assertEquals(updated, registry.palette("palette.txt").colors());
+            assertEquals(2, registry.metrics().reloads());
+            assertTrue(registry.metrics().maxReloadNanos() >= registry.metrics().lastReloadNanos());
+
+            Files.delete(directory.resolve("palette.txt"));
+            assertFalse(registry.reload("palette.txt"));
+            assertTrue(registry.names().isEmpty());
+            assertThrows(IllegalArgumentException.class, () -> registry.reload("../palette.txt"));
+        }
+    }
+
+    @Test
+    public void should_reload_changed_files_in_the_background() throws Exception {
+        write("a.txt", randomColors(new Random(4), 3));
+        try (final PaletteRegistry registry = new PaletteRegistry(directory)) {
+            assertNull(registry.metrics().lastFailure());
+            registry.watch();
+            registry.watch();
+            final List<RgbColor> updated = randomColors(new Random(5), 4);
+            write("a.txt", updated);
+            final List<RgbColor> created = randomColors(new Random(6), 5);
+            write("b.txt", created);
+            awaitTrue(() -> registry.names().contains("b.txt")
+                    && registry.palette("a.txt").colors().equals(updated));
+            assertEquals(created, registry.palette("b.txt").colors());
+
+            Files.delete(directory.resolve("b.txt"));
+            awaitTrue(() -> !registry.names().contains("b.txt"));
+            assertNotNull(registry.palette("a.txt"));
+        }
+    }
+
+    @Test
+    public void watch_should_pick_up_changes_made_before_watching() throws IOException {
+        write("a.txt", randomColors(new Random(7), 3));
+        try (final PaletteRegistry registry = new PaletteRegistry(directory)) {
+            final List<RgbColor> updated = randomColors(new Random(8), 4);
+            write("a.txt", updated);
+            write("b.txt", updated);
+            registry.watch();
+            assertEquals(updated, registry.palette("a.txt").colors());
+            assertEquals(updated, registry.palette("b.txt").colors());
+        }
+    }
+
+    @Test
+    public void metrics_should_not_wait_for_reloads() throws Exception {
+        write("a.txt", randomColors(new Random(9), 3));
+        try (final PaletteRegistry registry = new PaletteRegistry(directory)) {
+            final Thread reader = new Thread(registry::metrics);
+            // Reloads hold the monitor of the registry
+            synchronized (registry) {
+                reader.start();
+                reader.join(30_000);
+                assertFalse(reader.isAlive());
+            }
+        }
+    }
+
+    private void write(final String name, final List<RgbColor> colors) throws IOException {
+        final StringBuilder text = new StringBuilder("// palette\n");
+        for (final RgbColor color : colors) {
+            text.append(HexColors.format(color)).append('\n');
+        }
+        // Written to a temporary file and moved, so the watcher never sees a partly written file
+        final Path tmp = directory.resolve("." + name + ".tmp");
+        Files.write(tmp, text.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, directory.resolve(name), REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    private static void awaitTrue(final BooleanSupplier condition) throws InterruptedException {
+        // Some platforms poll for changes every few seconds
+        final long deadline = System.nanoTime() + 30_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out");
+            Thread.sleep(20);
+        }
+    }
+}
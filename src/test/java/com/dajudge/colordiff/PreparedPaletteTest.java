@@ -0,0 +1,140 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link PreparedPalette}.
+ */
+class PreparedPaletteTest {
+    private static final RgbColor white = new RgbColor(255, 255, 255);
+    private static final RgbColor black = new RgbColor(0, 0, 0);
+    private static final RgbColor red = new RgbColor(255, 0, 0);
+    private static final RgbColor blue = new RgbColor(0, 0, 255);
+
+    static List<RgbColor> randomColors(final Random random, final int n) {
+        final List<RgbColor> colors = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            colors.add(new RgbColor(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+        }
+        return colors;
+    }
+
+    @Test
+    public void should_match_color_diff_for_random_colors() {
+        final Random random = new Random(1);
+        final List<RgbColor> palette = randomColors(random, 40);
+        final PreparedPalette prepared = new PreparedPalette(palette);
+        for (final RgbColor color : randomColors(random, 200)) {
+            assertEquals(ColorDiff.closest(color, palette), prepared.closest(color));
+            assertEquals(ColorDiff.furthest(color, palette), prepared.furthest(color));
+        }
+    }
+
+    @Test
+    public void should_match_color_diff_with_alpha() {
+        final RgbColor bc = new RgbColor(20, 40, 60);
+        final List<RgbColor> palette = asList(new RgbColor(255, 0, 0, .5), blue, new RgbColor(0, 255, 0, .2));
+        final PreparedPalette prepared = new PreparedPalette(palette, bc);
+        for (final RgbColor color : randomColors(new Random(2), 100)) {
+            final RgbColor translucent = new RgbColor(color.r, color.g, color.b, .7);
+            assertEquals(ColorDiff.closest(translucent, palette, bc), prepared.closest(translucent));
+            assertEquals(ColorDiff.furthest(translucent, palette, bc), prepared.furthest(translucent));
+        }
+    }
+
+    @Test
+    public void argb_queries_should_blend_translucent_pixels() {
+        final RgbColor bc = new RgbColor(20, 40, 60);
+        final PreparedPalette prepared = new PreparedPalette(randomColors(new Random(5), 20), bc);
+        final Random random = new Random(6);
+        final int[] argb = new int[200];
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = i % 2 == 0 ? random.nextInt() : random.nextInt() | 0xFF000000;
+        }
+        final int[] indices = new int[argb.length];
+        prepared.closestArgb(argb, indices);
+        for (int i = 0; i < argb.length; i++) {
+            final int c = argb[i];
+            final RgbColor color = c >>> 24 == 0xFF
+                    ? new RgbColor(c >> 16 & 0xFF, c >> 8 & 0xFF, c & 0xFF)
+                    : new RgbColor(c >> 16 & 0xFF, c >> 8 & 0xFF, c & 0xFF, (c >>> 24) / 255.0);
+            assertEquals(prepared.closest(prepared.toLab(color)), indices[i]);
+            assertEquals(indices[i], prepared.closestArgb(c));
+        }
+    }
+
+    @Test
+    public void should_prefer_first_of_equal_colors() {
+        final PreparedPalette prepared = new PreparedPalette(asList(black, red, red, white, white));
+        assertEquals(1, prepared.closest(Convert.rgb_to_lab(red)));
+        assertEquals(3, prepared.furthest(Convert.rgb_to_lab(black)));
+        assertArrayEquals(new int[]{1, 2}, prepared.nearest(Convert.rgb_to_lab(red), 2));
+    }
+
+    @Test
+    public void hinted_argb_queries_should_match_unhinted_ones() {
+        final Random random = new Random(5);
+        final PreparedPalette prepared = new PreparedPalette(asList(black, red, red, white, white, blue, blue));
+        for (int i = 0; i < 200; i++) {
+            final int argb = random.nextInt();
+            for (int hint = -1; hint < prepared.size(); hint++) {
+                assertEquals(prepared.closestArgb(argb), prepared.closestArgb(argb, hint));
+                assertEquals(prepared.closestArgb(argb), prepared.closestArgb(argb, hint, (hint + 3) % prepared.size()));
+            }
+        }
+        assertEquals(1, prepared.closestArgb(0xFFFF0000, 2));
+        assertEquals(3, prepared.closestArgb(0xFFFFFFFF, -1, 4));
+    }
+
+    @Test
+    public void should_return_k_nearest_sorted_by_distance() {
+        final Random random = new Random(3);
+        final List<RgbColor> palette = randomColors(random, 30);
+        final PreparedPalette prepared = new PreparedPalette(palette);
+        for (final RgbColor color : randomColors(random, 50)) {
+            final LabColor lab = Convert.rgb_to_lab(color);
+            final Integer[] expected = new Integer[palette.size()];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = i;
+            }
+            Arrays.sort(expected, Comparator.comparingDouble(i -> Diff.ciede2000(lab, prepared.lab(i))));
+            final int[] nearest = prepared.nearest(lab, 5);
+            for (int i = 0; i < nearest.length; i++) {
+                assertEquals((int) expected[i], nearest[i]);
+            }
+        }
+        assertEquals(30, prepared.nearest(Convert.rgb_to_lab(white), 100).length);
+        assertEquals(0, prepared.nearest(Convert.rgb_to_lab(white), 0).length);
+    }
+
+    @Test
+    public void batch_should_match_single_queries() {
+        final Random random = new Random(4);
+        final PreparedPalette prepared = new PreparedPalette(randomColors(random, 16));
+        final LabColor[] batch = randomColors(random, 1000).stream().map(Convert::rgb_to_lab).toArray(LabColor[]::new);
+        final int[] closest = prepared.closest(batch);
+        final int[] furthest = prepared.furthest(batch);
+        final int[][] nearest = prepared.nearest(batch, 3);
+        for (int i = 0; i < batch.length; i++) {
+            assertEquals(prepared.closest(batch[i]), closest[i]);
+            assertEquals(prepared.furthest(batch[i]), furthest[i]);
+            assertArrayEquals(prepared.nearest(batch[i], 3), nearest[i]);
+        }
+    }
+
+    @Test
+    public void should_reject_empty_palette() {
+        assertThrows(IllegalArgumentException.class, () -> new PreparedPalette(new ArrayList<>()));
+    }
+}
@@ -0,0 +1,125 @@
+package com.dajudge.colordiff;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntUnaryOperator;
+
+import static com.dajudge.colordiff.PreparedPaletteTest.randomColors;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Tests sharing palettes and matchers between threads without external synchronization, including their lazily
+ * initialized state.
+ */
+class ThreadSafetyTest {
+    private static final int THREADS = 16;
+    private static final int QUERIES = 2000;
+
+    private final List<RgbColor> colors = randomColors(new Random(1), 64);
+    private final int[] argb = new int[QUERIES];
+    private final RgbColor[] rgb = new RgbColor[QUERIES];
+
+    ThreadSafetyTest() {
+        final Random random = new Random(2);
+        for (int i = 0; i < QUERIES; i++) {
+            argb[i] = i % 3 == 0 ? random.nextInt() : random.nextInt() | 0xFF000000;
+            rgb[i] = new RgbColor(argb[i] >> 16 & 0xFF, argb[i] >> 8 & 0xFF, argb[i] & 0xFF);
+        }
+    }
+
+    @Test
+    public void prepared_palettes_should_be_shareable() throws Exception {
+        final PreparedPalette expected = new PreparedPalette(colors);
+        final PreparedPalette palette = new PreparedPalette(colors);
+        assertShareable(i -> expected.closestArgb(argb[i]), i -> palette.closestArgb(argb[i]));
+        // The furthest-color search structure is built by the first query
+        final PreparedPalette lazy = new PreparedPalette(colors);
+        assertShareable(i -> expected.furthest(expected.toLab(rgb[i])), i -> lazy.furthest(lazy.toLab(rgb[i])));
+    }
+
+    @Test
+    public void approximate_matchers_should_be_shareable() throws Exception {
+        final PreparedPalette palette = new PreparedPalette(colors);
+        final ApproximateMatcher expected = new ApproximateMatcher(palette);
+        // Cells are built by the threads racing for them
+        final ApproximateMatcher matcher = new ApproximateMatcher(palette);
+        assertShareable(
+                i -> expected.closest(palette.toLab(rgb[i])),
+                i -> matcher.closest(palette.toLab(rgb[i]))
+        );
+    }
+
+    @Test
+    public void euclidean_matchers_should_be_shareable() throws Exception {
+        final EuclideanMatcher expected = new EuclideanMatcher(colors);
+        final EuclideanMatcher matcher = new EuclideanMatcher(colors);
+        assertShareable(i -> expected.closestArgb(argb[i]), i -> matcher.closestArgb(argb[i]));
+    }
+
+    @Test
+    public void background_palettes_should_be_shareable() throws Exception {
+        final List<RgbColor> backgrounds = Arrays.asList(
+                new RgbColor(255, 255, 255), new RgbColor(0, 0, 0), new RgbColor(40, 40, 60)
+        );
+        final BackgroundPalettes expected = new BackgroundPalettes(colors);
+        // Palettes for the backgrounds are prepared by the threads racing for them
+        final BackgroundPalettes palettes = new BackgroundPalettes(colors);
+        assertShareable(
+                i -> expected.forBackground(backgrounds.get(i % 3)).closestArgb(argb[i]),
+                i -> palettes.forBackground(backgrounds.get(i % 3)).closestArgb(argb[i])
+        );
+    }
+
+    @Test
+    public void off_heap_palettes_should_be_shareable() throws Exception {
+        final PreparedPalette expected = new PreparedPalette(colors);
+        try (final OffHeapColorStore store = OffHeapColorStore.of(expected)) {
+            final PreparedPalette palette = store.palette();
+            assertShareable(i -> expected.closestArgb(argb[i]), i -> palette.closestArgb(argb[i]));
+        }
+    }
+
+    /**
+     * Runs the query for all indices on {@value #THREADS} threads at once and checks each thread's results against the
+     * expected ones computed beforehand on the test thread.
+     */
+    private static void assertShareable(final IntUnaryOperator expected, final IntUnaryOperator query) throws Exception {
+        final int[] results = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            results[i] = expected.applyAsInt(i);
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<int[]>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final int offset = t * 97;
+                futures.add(executor.submit((Callable<int[]>) () -> {
+                    start.await();
+                    final int[] actual = new int[QUERIES];
+                    // Threads start at different queries, so they build different parts of lazy state first
+                    for (int k = 0; k < QUERIES; k++) {
+                        final int i = (offset + k) % QUERIES;
+                        actual[i] = query.applyAsInt(i);
+                    }
+                    return actual;
+                }));
+            }
+            start.countDown();
+            for (final Future<int[]> future : futures) {
+                assertArrayEquals(results, future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}